@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main class of the benchmarks jar. Takes the JMH command line options and writes the
+ * results as JSON to target/jmh-result.json unless a result format or file is given,
+ * so runs before and after a change can be compared offline (i.e. with jmh.morethan.io).
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar [benchmark regex] [jmh options]
+ */
+public class BenchmarkRunner {
+
+    private static final String DEFAULT_RESULT_FILE = "target" + File.separator + "jmh-result.json";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+
+        if ( cmdOptions.shouldHelp() ) {
+            try {
+                cmdOptions.showHelp();
+            } catch (IOException e) {
+                throw new RunnerException(e);
+            }
+            return;
+        }
+
+        ChainedOptionsBuilder opts = new OptionsBuilder().parent(cmdOptions);
+        if ( !cmdOptions.getResultFormat().hasValue() ) {
+            opts.resultFormat(ResultFormatType.JSON);
+        }
+        if ( !cmdOptions.getResult().hasValue() ) {
+            File resultFile = new File(DEFAULT_RESULT_FILE);
+            if ( resultFile.getParentFile() != null ) {
+                resultFile.getParentFile().mkdirs();
+            }
+            opts.result(resultFile.getPath());
+        }
+
+        Runner runner = new Runner(opts.build());
+        if ( cmdOptions.shouldList() ) {
+            runner.list();
+            return;
+        }
+        runner.run();
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.joda.time.DateTime;
+
+import com.baddata.api.dto.TypedObject;
+import com.baddata.api.dto.job.Progress;
+import com.baddata.api.dto.system.AuditLogApiInfo;
+import com.baddata.api.dto.user.User;
+import com.baddata.db.DbIndex.DbIndexType;
+import com.baddata.db.lucene.IndexerService;
+import com.baddata.db.lucene.IndexerService.CommitMode;
+import com.baddata.exception.IndexPersistException;
+import com.baddata.manager.db.PersistenceManager;
+import com.baddata.manager.job.JobManager.JobType;
+import com.baddata.util.AppConstants;
+import com.baddata.util.FileUtil;
+import com.google.common.collect.Lists;
+
+/**
+ * Benchmark fixture: a luceneStore in a temp directory seeded with synthetic Users,
+ * Progress and AuditLogApiInfo documents. The documents come from a fixed random seed
+ * so every run indexes the same data.
+ *
+ * The store has to be created before the first PersistenceManager call of the fork,
+ * the lucene paths are resolved from the "tomcat.home" system property it sets.
+ */
+public class BenchmarkStore {
+
+    public static final String[] SEEDED_TYPES = new String[] { "USER_TYPE", "PROGRESS_TYPE", "AUDIT_LOG_API_INFO_TYPE" };
+
+    private static final long SEED = 31L;
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String[] API_METHODS = new String[] { "GET", "GET", "GET", "POST", "PUT", "DELETE" };
+    private static final String[] API_URLS = new String[] { "/api/users", "/api/jobs", "/api/progress", "/api/opportunities", "/api/events" };
+
+    private File storeDir;
+    private Random random = new Random(SEED);
+    private PersistenceManager persistence;
+
+    public BenchmarkStore() throws IOException {
+        storeDir = Files.createTempDirectory("baddata-bench").toFile();
+        System.setProperty(AppConstants.TOMCAT_HOME_VAR, storeDir.getAbsolutePath());
+        System.setProperty(AppConstants.BADDATA_LOGS_HOME_ENV_VAR, storeDir.getAbsolutePath() + File.separator + "logs");
+        System.setProperty(AppConstants.UNIT_TESTING, "true");
+
+        // only the warnings, the info logging of the indexer would be measured with it
+        BasicConfigurator.configure();
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.WARN);
+
+        persistence = PersistenceManager.getInstance();
+    }
+
+    public PersistenceManager getPersistence() {
+        return persistence;
+    }
+
+    public File getStoreDir() {
+        return storeDir;
+    }
+
+    /**
+     * Index the number of documents of the type, in batches committed durably
+     *
+     * @param indexType
+     * @param count
+     * @return the ids of the seeded documents
+     * @throws IndexPersistException
+     */
+    public List<Long> seed(DbIndexType indexType, int count) throws IndexPersistException {
+        List<Long> ids = Lists.newArrayListWithCapacity(count);
+        List<TypedObject> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+        for ( int i = 0; i < count; i++ ) {
+            batch.add(this.newObject(indexType));
+            if ( batch.size() == BATCH_SIZE || i == count - 1 ) {
+                persistence.createEntities(batch, indexType, CommitMode.DURABLE);
+                for ( TypedObject obj : batch ) {
+                    ids.add(obj.getId());
+                }
+                batch.clear();
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns a new synthetic object of the type, without an id
+     *
+     * @param indexType
+     * @return TypedObject
+     */
+    public TypedObject newObject(DbIndexType indexType) {
+        int n = random.nextInt(1000000);
+        TypedObject obj = null;
+        switch (indexType) {
+            case USER_TYPE:
+                User user = new User();
+                user.setUsername("bench.user" + n);
+                user.setEmail("bench.user" + n + "@baddata.com");
+                user.setFullname("Bench User " + n);
+                user.setPhone("555-" + (1000 + random.nextInt(9000)));
+                user.setDescription("synthetic user " + n);
+                user.setBirthdate(new DateTime(getRangeValue(indexType, random.nextDouble())));
+                obj = user;
+                break;
+            case PROGRESS_TYPE:
+                Progress progress = new Progress();
+                progress.setType(JobType.SALESFORCE_DATA);
+                progress.setTitle(JobType.SALESFORCE_DATA.getTitle());
+                progress.setDescription("Analyzing Salesforce Opportunities");
+                progress.setPercent(random.nextInt(101));
+                progress.setJobTaskCount((long) random.nextInt(5000));
+                progress.setTotalElapsed(getRangeValue(indexType, random.nextDouble()));
+                progress.setReferenceTenant("tenant-" + random.nextInt(50));
+                obj = progress;
+                break;
+            case AUDIT_LOG_API_INFO_TYPE:
+                AuditLogApiInfo info = new AuditLogApiInfo();
+                info.setUserName("bench.user" + random.nextInt(200));
+                info.setSessionId("session-" + n);
+                info.setMethod(API_METHODS[random.nextInt(API_METHODS.length)]);
+                info.setUrl(API_URLS[random.nextInt(API_URLS.length)] + "/" + random.nextInt(1000));
+                info.setStatus(random.nextInt(20) == 0 ? 500 : 200);
+                info.setSize(random.nextInt(64 * 1024));
+                info.setElapsed(getRangeValue(indexType, random.nextDouble()));
+                obj = info;
+                break;
+            default:
+                throw new IllegalArgumentException("No synthetic documents for index type " + indexType);
+        }
+        obj.setUserRef((long) (1 + random.nextInt(200)));
+        return obj;
+    }
+
+    /**
+     * Returns the long field the range and sort benchmarks query for the type
+     *
+     * @param indexType
+     * @return the lower case field name
+     */
+    public static String getRangeField(DbIndexType indexType) {
+        switch (indexType) {
+            case USER_TYPE:
+                return "birthdate";
+            case PROGRESS_TYPE:
+                return "totalelapsed";
+            default:
+                return "elapsed";
+        }
+    }
+
+    /**
+     * Returns the value of the range field at the fraction of the seeded range
+     *
+     * @param indexType
+     * @param fraction from 0 to 1
+     * @return long
+     */
+    public static long getRangeValue(DbIndexType indexType, double fraction) {
+        switch (indexType) {
+            case USER_TYPE:
+                // birth dates from 1950 to 2000
+                long from = new DateTime(1950, 1, 1, 0, 0).getMillis();
+                long to = new DateTime(2000, 1, 1, 0, 0).getMillis();
+                return from + (long) ((to - from) * fraction);
+            case PROGRESS_TYPE:
+                // up to an hour
+                return (long) (3600000L * fraction);
+            default:
+                // up to 5 seconds
+                return (long) (5000L * fraction);
+        }
+    }
+
+    /**
+     * Close the index writers and delete the store
+     */
+    public void close() {
+        IndexerService.getInstance().closeWritersAndRemoveLocks();
+        FileUtil.deleteDir(storeDir);
+    }
+}
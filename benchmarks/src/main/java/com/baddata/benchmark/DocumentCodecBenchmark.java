@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.benchmark;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+
+import com.baddata.annotation.ApiDataInfo;
+import com.baddata.api.dto.TypedObject;
+import com.baddata.api.dto.job.Progress;
+import com.baddata.api.dto.system.AuditLogApiInfo;
+import com.baddata.api.dto.user.User;
+import com.baddata.db.lucene.DocumentCodec;
+import com.baddata.manager.job.JobManager.JobType;
+import com.baddata.util.AppConstants;
+import com.baddata.util.ReflectionUtil;
+import com.google.common.collect.Maps;
+
+/**
+ * Compares the reflective bean to document mapping the IndexWorker and SearchService used
+ * before the DocumentCodec against the compiled codec, encoding and decoding the scalar
+ * fields of a User, Progress and AuditLogApiInfo.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar DocumentCodecBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentCodecBenchmark {
+
+    @Param({"User", "Progress", "AuditLogApiInfo"})
+    public String beanType;
+
+    private TypedObject bean;
+    private Document doc;
+
+    @Setup
+    public void setup() {
+        bean = buildBean(beanType);
+        doc = encodeWithCodec(bean);
+        doc.add(new StringField(AppConstants.FOR_NAME_FIELD, bean.getClass().getCanonicalName(), Field.Store.YES));
+        // warm the codec and the reflection caches outside of the measurements
+        decodeWithCodec(doc);
+        decodeWithReflection(doc);
+    }
+
+    @Benchmark
+    public Document encodeReflection() {
+        return encodeWithReflection(bean);
+    }
+
+    @Benchmark
+    public Document encodeCodec() {
+        return encodeWithCodec(bean);
+    }
+
+    @Benchmark
+    public Object decodeReflection() {
+        return decodeWithReflection(doc);
+    }
+
+    @Benchmark
+    public Object decodeCodec() {
+        return decodeWithCodec(doc);
+    }
+
+    private static TypedObject buildBean(String beanType) {
+        TypedObject obj = null;
+        if ( beanType.equals("User") ) {
+            User user = new User();
+            user.setUsername("benchmark.user");
+            user.setEmail("benchmark.user@baddata.com");
+            user.setFullname("Benchmark User");
+            user.setPhone("555-555-5555");
+            user.setDescription("user used to measure the document mapping");
+            user.setBirthdate(new DateTime());
+            obj = user;
+        } else if ( beanType.equals("Progress") ) {
+            Progress progress = new Progress();
+            progress.setType(JobType.SALESFORCE_DATA);
+            progress.setTitle(JobType.SALESFORCE_DATA.getTitle());
+            progress.setDescription("Analyzing Salesforce Opportunities");
+            progress.setPercent(42.5f);
+            progress.setJobTaskCount(1000L);
+            progress.setTotalElapsed(12000L);
+            progress.setReferenceTenant("tenant-1");
+            obj = progress;
+        } else {
+            AuditLogApiInfo info = new AuditLogApiInfo();
+            info.setUserName("benchmark.user");
+            info.setSessionId("b1f0c9b2-session");
+            info.setMethod("GET");
+            info.setUrl("/api/users/1");
+            info.setStatus(200);
+            info.setSize(2048);
+            info.setElapsed(12L);
+            obj = info;
+        }
+        obj.setId(1000L);
+        obj.setUserRef(1L);
+        return obj;
+    }
+
+    private static Document encodeWithCodec(TypedObject obj) {
+        Document d = new Document();
+        List<String> tokens = new ArrayList<String>();
+        for ( DocumentCodec.FieldWriter fieldWriter : DocumentCodec.forClass(obj.getClass()).getWriters() ) {
+            fieldWriter.write(d, fieldWriter.get(obj), tokens);
+        }
+        return d;
+    }
+
+    private static Object decodeWithCodec(Document d) {
+        try {
+            DocumentCodec codec = DocumentCodec.forName(d.get(AppConstants.FOR_NAME_FIELD));
+            TypedObject obj = codec.newInstance();
+            Map<String, String> docValueMap = DocumentCodec.getStoredValues(d);
+            for ( DocumentCodec.FieldReader fieldReader : codec.getReaders() ) {
+                String value = docValueMap.get(fieldReader.getFieldName());
+                if ( value != null ) {
+                    fieldReader.setValue(obj, value);
+                }
+            }
+            return obj;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //
+    // the reflective mapping, scalar fields only
+    //
+
+    private static Document encodeWithReflection(TypedObject obj) {
+        Document d = new Document();
+        List<String> tokens = new ArrayList<String>();
+        for ( Method getter : ReflectionUtil.getGetterMethods(obj.getClass()) ) {
+            boolean persistGetterVal = true;
+            for ( Annotation annotation : getter.getDeclaredAnnotations() ) {
+                if ( annotation instanceof ApiDataInfo ) {
+                    persistGetterVal = ((ApiDataInfo) annotation).isPersisted();
+                    break;
+                }
+            }
+            if ( !persistGetterVal || Modifier.isFinal(getter.getModifiers()) ) {
+                continue;
+            }
+
+            String fieldName = ReflectionUtil.getGetterFieldName(getter.getName());
+            String fieldStrType = getter.getReturnType().getSimpleName().toLowerCase();
+            if ( fieldStrType.equals("class") ) {
+                continue;
+            }
+
+            Object fieldValue = ReflectionUtil.getGetterMethodValue(getter, obj);
+            if ( fieldValue == null ) {
+                d.add(new StringField(fieldName, "", Field.Store.YES));
+            } else if ( fieldName.equalsIgnoreCase(AppConstants.ID_KEY) ||
+                    fieldName.equalsIgnoreCase(AppConstants.PARENT_ID_KEY) ||
+                    fieldName.equalsIgnoreCase(AppConstants.USER_REFERENCE_KEY) ) {
+                d.add(new StringField(fieldName, String.valueOf(fieldValue), Field.Store.YES));
+            } else if ( fieldStrType.indexOf("int") == 0 ) {
+                int intValue = ((Integer) fieldValue).intValue();
+                d.add(new NumericDocValuesField(fieldName, intValue));
+                d.add(new StoredField(fieldName, intValue));
+            } else if ( fieldStrType.equals("long") ) {
+                long longValue = ((Long) fieldValue).longValue();
+                d.add(new NumericDocValuesField(fieldName, longValue));
+                d.add(new StoredField(fieldName, longValue));
+            } else if ( fieldStrType.equals("float") ) {
+                d.add(new StoredField(fieldName, ((Float) fieldValue).floatValue()));
+            } else if ( fieldStrType.equals("boolean") ) {
+                d.add(new StringField(fieldName, Boolean.toString((Boolean) fieldValue), Field.Store.YES));
+            } else if ( getter.getReturnType().isEnum() ) {
+                d.add(new StringField(fieldName, ((Enum<?>) fieldValue).name(), Field.Store.YES));
+            } else if ( fieldStrType.equals("datetime") ) {
+                long dateValue = ((DateTime) fieldValue).getMillis();
+                d.add(new NumericDocValuesField(fieldName, dateValue));
+                d.add(new StoredField(fieldName, dateValue));
+            } else if ( fieldStrType.equals("string") ) {
+                String str = (String) fieldValue;
+                if ( StringUtils.isNotBlank(str) ) {
+                    tokens.add(str);
+                    str = str.trim();
+                } else {
+                    str = "";
+                }
+                d.add(new SortedDocValuesField(fieldName, new BytesRef(str)));
+                d.add(new StringField(fieldName, str, Field.Store.YES));
+            }
+        }
+        return d;
+    }
+
+    private static Object decodeWithReflection(Document d) {
+        try {
+            Object classObj = Class.forName(d.get(AppConstants.FOR_NAME_FIELD)).newInstance();
+
+            Map<String, String> docFieldMap = Maps.newHashMap();
+            for ( IndexableField iField : d.getFields() ) {
+                docFieldMap.put(iField.name().toLowerCase(), iField.name());
+            }
+
+            for ( Method setter : ReflectionUtil.getSetterMethods(classObj.getClass()) ) {
+                String fieldName = ReflectionUtil.getFieldNameFromSetter(setter);
+                String docFieldName = docFieldMap.get(fieldName.toLowerCase());
+                if ( docFieldName != null ) {
+                    ReflectionUtil.setSetterMethodValue(setter, classObj, d.get(docFieldName), setter.getParameterTypes()[0]);
+                }
+            }
+            return classObj;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        BenchmarkRunner.main(new String[] { DocumentCodecBenchmark.class.getSimpleName() });
+    }
+}
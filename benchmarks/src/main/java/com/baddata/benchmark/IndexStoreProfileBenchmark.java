@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.benchmark;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+
+import com.baddata.api.dto.TypedObject;
+import com.baddata.api.dto.page.Page;
+import com.baddata.api.query.SearchSpec;
+import com.baddata.db.DbIndex.DbIndexType;
+import com.baddata.manager.db.PersistenceManager;
+import com.baddata.util.AppConstants;
+import com.google.common.collect.Lists;
+
+/**
+ * Compares the throughput of the index store profiles (default, append, lookup) on the
+ * same index: batches of creates, getById and uncached pages of a fetch all. The profile
+ * is set through the "index.store.<index type>.profile" property before the store is
+ * opened, the same way the server.properties set it.
+ *
+ * The size of the index on disk is printed at the end of each trial, the append profile
+ * trades some read speed for smaller stored fields.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar IndexStoreProfileBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexStoreProfileBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"default", "append", "lookup"})
+    public String profile;
+
+    @Param({"AUDIT_LOG_API_INFO_TYPE", "USER_TYPE"})
+    public String indexTypeName;
+
+    @Param({"10000"})
+    public int docCount;
+
+    private BenchmarkStore store;
+    private PersistenceManager persistence;
+    private DbIndexType indexType;
+    private List<Long> ids;
+    private int pages;
+
+    @Setup
+    public void setup() throws Exception {
+        indexType = DbIndexType.valueOf(indexTypeName);
+        // read when the first index of the fork is opened
+        System.setProperty(AppConstants.INDEX_STORE_PREFIX + indexType.name().toLowerCase() + ".profile", profile);
+
+        store = new BenchmarkStore();
+        persistence = store.getPersistence();
+        ids = store.seed(indexType, docCount);
+        pages = (docCount + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println("\n" + profile + " " + indexTypeName + " store size: "
+                + FileUtils.byteCountToDisplaySize(FileUtils.sizeOfDirectory(store.getStoreDir())));
+        store.close();
+    }
+
+    @Benchmark
+    public void createBatch() throws Exception {
+        List<TypedObject> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+        for ( int i = 0; i < BATCH_SIZE; i++ ) {
+            batch.add(store.newObject(indexType));
+        }
+        persistence.createEntities(batch, indexType);
+    }
+
+    @Benchmark
+    public TypedObject getById() {
+        return persistence.getById(indexType, ids.get(ThreadLocalRandom.current().nextInt(ids.size())));
+    }
+
+    @Benchmark
+    public Page fetchAllPage() {
+        SearchSpec searchSpec = new SearchSpec();
+        searchSpec.setLimit(PAGE_SIZE);
+        searchSpec.setPage(1 + ThreadLocalRandom.current().nextInt(pages));
+        // read the stored fields every time, not the cached page
+        searchSpec.setUseResultCache(false);
+        return persistence.get(indexType, searchSpec);
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        BenchmarkRunner.main(new String[] { IndexStoreProfileBenchmark.class.getSimpleName() });
+    }
+}
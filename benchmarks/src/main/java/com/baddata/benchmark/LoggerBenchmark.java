@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.benchmark;
+
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.WriterAppender;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+
+import com.baddata.log.AsyncLogDispatcher;
+import com.baddata.log.Logger;
+import com.google.common.collect.Maps;
+
+/**
+ * Measures the time a request thread spends logging with 64 threads logging at once:
+ * the Logger's async dispatch against the synchronized append it replaced, a disabled
+ * debug call, and a repeated error left out by the dedupe cache.
+ *
+ * The appender renders the pattern layout into a writer that discards it, so the
+ * synchronized baseline pays for the layout but not for the disk.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar LoggerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(64)
+@Fork(1)
+public class LoggerBenchmark {
+
+    private static final String LOGGER_NAME = LoggerBenchmark.class.getName();
+
+    private Logger logger;
+    private org.apache.log4j.Logger logger4j;
+
+    // the synchronized append and message map of the previous Logger
+    private final Object forcedLogLock = new Object();
+    private Map<String, Long> logMessageMap = Maps.newHashMap();
+
+    @Setup
+    public void setup() {
+        logger4j = org.apache.log4j.Logger.getLogger(LOGGER_NAME);
+        logger4j.removeAllAppenders();
+        logger4j.setAdditivity(false);
+        logger4j.setLevel(Level.INFO);
+        logger4j.addAppender(new WriterAppender(
+                new PatternLayout("%d{yyyy-MM-dd HH:mm:ss.SSS}, [%t], %c{1}, %p - %m%n"), new DiscardingWriter()));
+
+        logger = Logger.getLogger(LOGGER_NAME);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println("Log dispatch metrics: " + AsyncLogDispatcher.getInstance().getMetrics());
+    }
+
+    @Benchmark
+    public void infoSynchronized() {
+        String message = "GET /api/users/" + Thread.currentThread().getId() + " took " + 12 + " ms";
+        synchronized (forcedLogLock) {
+            logMessageMap.put(Level.INFO.toString() + "_" + message, System.currentTimeMillis());
+            logger4j.callAppenders(new LoggingEvent(LOGGER_NAME, logger4j, Level.INFO, message, null));
+        }
+    }
+
+    @Benchmark
+    public void infoAsync() {
+        logger.info("GET /api/users/{} took {} ms", Thread.currentThread().getId(), 12);
+    }
+
+    @Benchmark
+    public void debugDisabled() {
+        logger.debug("GET /api/users/{} took {} ms", Thread.currentThread().getId(), 12);
+    }
+
+    @Benchmark
+    public void errorRepeated() {
+        logger.error("Failed to load the user.", null);
+    }
+
+    private static class DiscardingWriter extends Writer {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            // discard
+        }
+
+        @Override
+        public void flush() {
+            //
+        }
+
+        @Override
+        public void close() {
+            //
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        BenchmarkRunner.main(new String[] { LoggerBenchmark.class.getSimpleName() });
+    }
+}
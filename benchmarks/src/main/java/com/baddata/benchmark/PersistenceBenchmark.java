@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.benchmark;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+
+import com.baddata.api.dto.TypedObject;
+import com.baddata.api.dto.page.Page;
+import com.baddata.api.query.SearchSpec;
+import com.baddata.db.DbIndex.DbIndexType;
+import com.baddata.db.RangeQuery;
+import com.baddata.db.SortQuery;
+import com.baddata.manager.db.PersistenceManager;
+
+/**
+ * Measures the PersistenceManager calls on the hot paths against a store seeded with
+ * docCount documents of the index type: create, save (update of a seeded document),
+ * getById, a page of a fetch all and a range query sorted on a long field.
+ *
+ * Nothing is written while the reads are measured, so the fetch all pages are served by
+ * the query result cache once read, like the page api serves them while the index is unchanged.
+ *
+ * Each benchmark and param combination runs in its own fork with its own temp store.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar PersistenceBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"USER_TYPE", "PROGRESS_TYPE", "AUDIT_LOG_API_INFO_TYPE"})
+    public String indexTypeName;
+
+    @Param({"1000", "10000"})
+    public int docCount;
+
+    private BenchmarkStore store;
+    private PersistenceManager persistence;
+    private DbIndexType indexType;
+    private List<Long> ids;
+    private int pages;
+
+    @Setup
+    public void setup() throws Exception {
+        store = new BenchmarkStore();
+        persistence = store.getPersistence();
+        indexType = DbIndexType.valueOf(indexTypeName);
+        ids = store.seed(indexType, docCount);
+        pages = (docCount + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.close();
+    }
+
+    @Benchmark
+    public Long create() throws Exception {
+        return persistence.create(store.newObject(indexType));
+    }
+
+    @Benchmark
+    public Long save() throws Exception {
+        TypedObject obj = store.newObject(indexType);
+        obj.setId(this.randomId());
+        return persistence.save(obj);
+    }
+
+    @Benchmark
+    public TypedObject getById() {
+        return persistence.getById(indexType, this.randomId());
+    }
+
+    @Benchmark
+    public Page fetchAllPage() {
+        return persistence.get(indexType, PAGE_SIZE, 1 + ThreadLocalRandom.current().nextInt(pages));
+    }
+
+    @Benchmark
+    public Page sortedRangeQuery() {
+        // a quarter of the seeded range, the highest values first
+        double from = ThreadLocalRandom.current().nextDouble(0.75);
+        String field = BenchmarkStore.getRangeField(indexType);
+
+        SearchSpec searchSpec = new SearchSpec();
+        searchSpec.addRangeQuery(new RangeQuery(field,
+                BenchmarkStore.getRangeValue(indexType, from) /*min*/,
+                BenchmarkStore.getRangeValue(indexType, from + 0.25) /*max*/));
+        SortQuery sortQuery = new SortQuery();
+        sortQuery.setField(field);
+        sortQuery.setIsAscending(false);
+        searchSpec.setSortQuery(sortQuery);
+        searchSpec.setLimit(PAGE_SIZE);
+        // measure the search, the random ranges would rarely hit the result cache anyway
+        searchSpec.setUseResultCache(false);
+        return persistence.get(indexType, searchSpec);
+    }
+
+    private Long randomId() {
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        BenchmarkRunner.main(new String[] { PersistenceBenchmark.class.getSimpleName() });
+    }
+}
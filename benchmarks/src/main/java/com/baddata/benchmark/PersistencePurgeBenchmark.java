@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+
+import com.baddata.db.DbIndex.DbIndexType;
+
+/**
+ * Measures PersistenceManager.deleteObjectsByIndexType of a whole index of docCount
+ * documents. The delete empties the index, so it's reseeded before each iteration
+ * and every iteration is a single delete.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar PersistencePurgeBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PersistencePurgeBenchmark {
+
+    @Param({"AUDIT_LOG_API_INFO_TYPE", "PROGRESS_TYPE"})
+    public String indexTypeName;
+
+    @Param({"1000", "10000"})
+    public int docCount;
+
+    private BenchmarkStore store;
+    private DbIndexType indexType;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        store = new BenchmarkStore();
+        indexType = DbIndexType.valueOf(indexTypeName);
+    }
+
+    @Setup(Level.Iteration)
+    public void seed() throws Exception {
+        store.seed(indexType, docCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+    }
+
+    @Benchmark
+    public void deleteObjectsByIndexType() throws Exception {
+        store.getPersistence().deleteObjectsByIndexType(indexType, null /*tenantId*/);
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        BenchmarkRunner.main(new String[] { PersistencePurgeBenchmark.class.getSimpleName() });
+    }
+}
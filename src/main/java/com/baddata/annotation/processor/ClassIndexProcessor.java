@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.annotation.processor;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Writes the class index (META-INF/baddata/class-index) read by the ClassIndex at runtime
+ * instead of scanning the classpath:
+ *
+ * typedObject  the TypedObject subclasses of the dto package
+ * resource     the ResourceBase subclasses of the api package
+ * jersey       the @Path and @Provider classes of the api package, registered with jersey
+ * route        the @Path and @ApiInfo of the public methods of the resources
+ *
+ * It's compiled ahead of the rest of the sources (see the compiler plugin executions in
+ * the pom) and has to stay free of app classes, the types are matched by name.
+ *
+ * An incremental build (i.e. the IDE) only hands over the changed sources, the classes
+ * of the previous index that weren't compiled are indexed again from their class files
+ * and the ones that no longer exist are dropped.
+ */
+@SupportedAnnotationTypes("*")
+public class ClassIndexProcessor extends AbstractProcessor {
+
+    public static final String INDEX_RESOURCE = "META-INF/baddata/class-index";
+
+    private static final String API_PKG = "com.baddata.api";
+    private static final String DTO_PKG = "com.baddata.api.dto";
+    private static final String TYPED_OBJECT_CLASS = "com.baddata.api.dto.TypedObject";
+    private static final String RESOURCE_BASE_CLASS = "com.baddata.api.factory.ResourceBase";
+    private static final String API_INFO_ANNOTATION = "com.baddata.annotation.ApiInfo";
+    private static final String PATH_ANNOTATION = "javax.ws.rs.Path";
+    private static final String PROVIDER_ANNOTATION = "javax.ws.rs.ext.Provider";
+
+    // sorted so the index only changes when the classes do
+    private Set<String> entries = new TreeSet<String>();
+    // binary names of the classes indexed by this build
+    private Set<String> indexedClasses = new HashSet<String>();
+    // classes of the index written by the previous build
+    private Set<String> previousClasses = null;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if ( previousClasses == null ) {
+            // read before anything is written
+            previousClasses = this.readPreviousIndex();
+        }
+
+        if ( roundEnv.processingOver() ) {
+            this.indexPreviousClasses();
+            this.writeIndex();
+            return false;
+        }
+
+        for ( Element element : roundEnv.getRootElements() ) {
+            if ( element instanceof TypeElement ) {
+                this.indexType((TypeElement) element);
+            }
+        }
+        // let the other processors see the annotations too
+        return false;
+    }
+
+    private void indexType(TypeElement type) {
+        // nested classes first, Reflections found those too
+        for ( Element enclosed : type.getEnclosedElements() ) {
+            if ( enclosed instanceof TypeElement ) {
+                this.indexType((TypeElement) enclosed);
+            }
+        }
+
+        if ( type.getKind() != ElementKind.CLASS ) {
+            return;
+        }
+
+        String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+        if ( !indexedClasses.add(className) ) {
+            return;
+        }
+        if ( className.startsWith(DTO_PKG + ".") && isSubclassOf(type, TYPED_OBJECT_CLASS) ) {
+            entries.add("typedObject\t" + className);
+        }
+
+        if ( !className.startsWith(API_PKG + ".") ) {
+            return;
+        }
+
+        boolean isAbstract = type.getModifiers().contains(Modifier.ABSTRACT);
+        if ( !isAbstract && ( getAnnotation(type, PATH_ANNOTATION) != null || getAnnotation(type, PROVIDER_ANNOTATION) != null ) ) {
+            entries.add("jersey\t" + className);
+        }
+
+        if ( isSubclassOf(type, RESOURCE_BASE_CLASS) ) {
+            entries.add("resource\t" + className);
+            this.indexRoutes(type, className);
+        }
+    }
+
+    /**
+     * One route per public method with an ApiInfo annotation:
+     * route, class, http method, class path, method path, isPublicApi, requiresUberUserSesssion, method name
+     */
+    private void indexRoutes(TypeElement type, String className) {
+        AnnotationMirror classPath = getAnnotation(type, PATH_ANNOTATION);
+        String classPathVal = ( classPath != null ) ? getStringValue(classPath, "value") : "";
+
+        for ( Element member : processingEnv.getElementUtils().getAllMembers(type) ) {
+            if ( member.getKind() != ElementKind.METHOD || !member.getModifiers().contains(Modifier.PUBLIC) ) {
+                continue;
+            }
+            AnnotationMirror apiInfo = getAnnotation(member, API_INFO_ANNOTATION);
+            if ( apiInfo == null ) {
+                continue;
+            }
+
+            AnnotationMirror methodPath = getAnnotation(member, PATH_ANNOTATION);
+            String methodPathVal = ( methodPath != null ) ? getStringValue(methodPath, "value") : "";
+
+            String httpMethod = "GET";
+            for ( AnnotationMirror mirror : member.getAnnotationMirrors() ) {
+                String name = mirror.getAnnotationType().asElement().getSimpleName().toString();
+                if ( name.equals("PUT") || name.equals("DELETE") || name.equals("POST") ) {
+                    httpMethod = name;
+                }
+            }
+
+            entries.add("route\t" + className + "\t" + httpMethod + "\t" + classPathVal + "\t" + methodPathVal + "\t"
+                    + getStringValue(apiInfo, "isPublicApi") + "\t" + getStringValue(apiInfo, "requiresUberUserSesssion")
+                    + "\t" + member.getSimpleName());
+        }
+    }
+
+    /**
+     * Returns the classes of the index in the class output, empty if there's none
+     */
+    private Set<String> readPreviousIndex() {
+        Set<String> classes = new HashSet<String>();
+        try {
+            FileObject indexFile = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(indexFile.openInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ( (line = reader.readLine()) != null ) {
+                    String[] entry = line.split("\t", -1);
+                    if ( !line.startsWith("#") && entry.length > 1 ) {
+                        classes.add(entry[1]);
+                    }
+                }
+            }
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            // first build
+        } catch (IOException | RuntimeException e) {
+            // the index would only have the classes compiled by this build
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to read the previous class index, "
+                    + "a partial index can't be written. Rebuild the project: " + e);
+        }
+        return classes;
+    }
+
+    /**
+     * Index the classes of the previous index that weren't compiled by this build
+     */
+    private void indexPreviousClasses() {
+        for ( String className : previousClasses ) {
+            if ( indexedClasses.contains(className) ) {
+                continue;
+            }
+            // nested classes are indexed with their top level class
+            String topLevelName = ( className.indexOf('$') != -1 ) ? className.substring(0, className.indexOf('$')) : className;
+            TypeElement type = processingEnv.getElementUtils().getTypeElement(topLevelName);
+            if ( type != null ) {
+                this.indexType(type);
+            }
+        }
+    }
+
+    private void writeIndex() {
+        try {
+            FileObject indexFile = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE);
+            try (Writer writer = new OutputStreamWriter(indexFile.openOutputStream(), StandardCharsets.UTF_8)) {
+                writer.write("# generated by " + ClassIndexProcessor.class.getName() + "\n");
+                for ( String entry : entries ) {
+                    writer.write(entry);
+                    writer.write("\n");
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to write the class index: " + e.getMessage());
+        }
+    }
+
+    private static boolean isSubclassOf(TypeElement type, String superClassName) {
+        TypeMirror superType = type.getSuperclass();
+        while ( superType.getKind() == TypeKind.DECLARED ) {
+            TypeElement superElement = (TypeElement) ((DeclaredType) superType).asElement();
+            if ( superElement.getQualifiedName().contentEquals(superClassName) ) {
+                return true;
+            }
+            superType = superElement.getSuperclass();
+        }
+        return false;
+    }
+
+    private static AnnotationMirror getAnnotation(Element element, String annotationClassName) {
+        for ( AnnotationMirror mirror : element.getAnnotationMirrors() ) {
+            TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+            if ( annotationType.getQualifiedName().contentEquals(annotationClassName) ) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private String getStringValue(AnnotationMirror mirror, String name) {
+        Map<? extends ExecutableElement, ? extends AnnotationValue> values =
+                processingEnv.getElementUtils().getElementValuesWithDefaults(mirror);
+        for ( Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : values.entrySet() ) {
+            if ( entry.getKey().getSimpleName().contentEquals(name) ) {
+                return String.valueOf(entry.getValue().getValue());
+            }
+        }
+        return "";
+    }
+}
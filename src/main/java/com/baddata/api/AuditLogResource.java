@@ -4,6 +4,9 @@
  */
 package com.baddata.api;
 
+import java.util.List;
+import java.util.Map;
+
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
@@ -46,6 +49,9 @@ public class AuditLogResource extends ResourceBase {
         }
     }
     
+    /**
+     * Returns the api stats of the "since" and "until" range, the last 24 hours by default
+     */
     @GET
     @ApiInfo(requiresUberUserSesssion=true)
     @Path("/stats")
@@ -57,5 +63,30 @@ public class AuditLogResource extends ResourceBase {
             throw createWebApplicationException( e, ApiErrorCode.BAD_API_QUERY_PARAM_FORMAT_ERROR.getCode() );
         }
     }
+    
+    /**
+     * Returns the api stats of each hour of the "since" and "until" range
+     */
+    @GET
+    @ApiInfo(requiresUberUserSesssion=true)
+    @Path("/stats/hourly")
+    public List<AuditLogStat> getHourlyAuditLogStats() {
+        try {
+            this.buildRequestSearchSpec();
+            return getLogBroker().getHourlyStats( searchSpec );
+        } catch (ApiServiceException e) {
+            throw createWebApplicationException( e, ApiErrorCode.BAD_API_QUERY_PARAM_FORMAT_ERROR.getCode() );
+        }
+    }
+    
+    /**
+     * Returns the audit pipeline counters: published, dropped, persisted, failed, batches and pending
+     */
+    @GET
+    @ApiInfo(requiresUberUserSesssion=true)
+    @Path("/pipeline")
+    public Map<String, Long> getAuditPipelineMetrics() {
+        return getLogBroker().getPipelineMetrics();
+    }
 
 }
@@ -5,6 +5,7 @@
 package com.baddata.api;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
@@ -47,6 +48,30 @@ public class DatabaseResource extends ResourceBase {
 		return getDatabaseBroker().getDatabaseIndexIds();
 	}
 	
+	/**
+	 * Query result cache hits, misses, invalidations and hit ratio per index path
+	 * 
+	 * @return Map<String, Map<String, Long>>
+	 */
+	@GET
+	@Path("/querycache")
+	@ApiInfo(requiresUberUserSesssion=true)
+	public Map<String, Map<String, Long>> getQueryCacheMetrics() {
+		return getDatabaseBroker().getQueryCacheMetrics();
+	}
+	
+	/**
+	 * Search latency per index path in microseconds: count, p50, p95, p99 and max
+	 * 
+	 * @return Map<String, Map<String, Long>>
+	 */
+	@GET
+	@Path("/searchmetrics")
+	@ApiInfo(requiresUberUserSesssion=true)
+	public Map<String, Map<String, Long>> getSearchMetrics() {
+		return getDatabaseBroker().getSearchMetrics();
+	}
+	
 	@PUT
 	@Path("/update")
 	@ApiInfo(requiresUberUserSesssion=true)
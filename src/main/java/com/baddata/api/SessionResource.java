@@ -4,6 +4,8 @@
  */
 package com.baddata.api;
 
+import java.util.Map;
+
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -15,6 +17,7 @@ import org.apache.http.HttpStatus;
 
 import com.baddata.annotation.ApiInfo;
 import com.baddata.api.dto.user.User;
+import com.baddata.api.factory.ApiSessionContext;
 import com.baddata.api.factory.ResourceBase;
 import com.baddata.exception.ApiServiceException;
 import com.baddata.log.EventLogger.ApiErrorCode;
@@ -69,5 +72,17 @@ public class SessionResource extends ResourceBase {
         return getSessionBroker().generateCsrfToken();
     }
     
+    /**
+     * Logged in user cache counters: hits, misses, evictions and size
+     * 
+     * @return Map<String, Long>
+     */
+    @GET
+    @Path("/cachestats")
+    @ApiInfo(requiresUberUserSesssion=true)
+    public Map<String, Long> getUserCacheStats() {
+        return ApiSessionContext.getUserCacheStats();
+    }
+    
     
 }
@@ -8,6 +8,7 @@ import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.OutputStream;
+import java.nio.file.Files;
 
 import javax.imageio.ImageIO;
 import javax.ws.rs.Consumes;
@@ -32,6 +33,7 @@ import com.baddata.api.factory.ResourceBase;
 import com.baddata.exception.ApiServiceException;
 import com.baddata.exception.ApiServiceException.ApiExceptionType;
 import com.baddata.log.EventLogger.ApiErrorCode;
+import com.baddata.manager.user.UserImageThumbnailer;
 import com.baddata.util.AppConstants;
 import com.baddata.util.AppUtil;
 import com.baddata.util.FileUtil;
@@ -211,6 +213,23 @@ public class UserResource extends ResourceBase {
 				imageFile = new File(fullPath);
 			}
 
+			File thumbnailFile = UserImageThumbnailer.getInstance().getThumbnail(imageFile, assetWidth, assetHeight);
+			if (thumbnailFile != null) {
+				// scaled in the background when it was uploaded, stream it as is
+				String mimeType = "image/" + AppUtil.getFileExtension(thumbnailFile.getName(), false /*includeDot*/);
+
+				response.setContentType( mimeType );
+				response.setHeader("Content-Type", mimeType);
+				response.setHeader("Content-Disposition", "inline; filename=\"" + imageFile.getName() + "\"");
+
+				OutputStream out = response.getOutputStream();
+				Files.copy(thumbnailFile.toPath(), out);
+				out.flush();
+				out.close();
+
+				return Response.ok().build();
+			}
+
 			BufferedImage image = ImageIO.read(imageFile);
 
 			image = ImageUtil.getScaledInstance(
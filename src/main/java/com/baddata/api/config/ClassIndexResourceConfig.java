@@ -0,0 +1,21 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.api.config;
+
+import com.baddata.util.ClassIndex;
+import com.sun.jersey.api.core.DefaultResourceConfig;
+
+/**
+ * Registers the root resources and providers of the api package from the class index,
+ * in place of the jersey package scan.
+ *
+ * Set as the "com.sun.jersey.config.property.resourceConfigClass" of the jersey servlet.
+ */
+public class ClassIndexResourceConfig extends DefaultResourceConfig {
+
+    public ClassIndexResourceConfig() {
+        super(ClassIndex.getInstance().getJerseyClasses());
+    }
+}
@@ -3,14 +3,11 @@ package com.baddata.api.config;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.time.ZonedDateTime;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 import org.joda.time.DateTime;
 
 import com.baddata.api.dto.TypedObject;
-import com.baddata.util.AppUtil;
+import com.baddata.util.ClassIndex;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializationContext;
@@ -22,7 +19,6 @@ import com.google.gson.JsonParseException;
 public class JsonTypedBeanDeserializer<T> implements JsonDeserializer<TypedObject> {
     
     private static Gson gson;
-    private static Map<String, Class<?>> typedObjMap = new HashMap<String, Class<?>>();
 
     @Override
     public TypedObject deserialize(JsonElement element, Type type,
@@ -66,24 +62,8 @@ public class JsonTypedBeanDeserializer<T> implements JsonDeserializer<TypedObjec
         
         String classId = jsonObj.get("typeid").getAsString();
         
-        Class<?> classType = typedObjMap.get( classId );
-        if ( classType == null ) {
-            
-            List<Class<? extends TypedObject>> typedObjClasses = AppUtil.getDTOClasses();
-            
-            if ( typedObjClasses != null ) {
-                for ( Class<? extends TypedObject> clazz : typedObjClasses ) {
-                    String simpleName = clazz.getSimpleName();
-                    if ( simpleName.equalsIgnoreCase( classId ) ) {
-                        classType = clazz;
-                        typedObjMap.put(classId, classType);
-                        break;
-                    }
-                }
-            }
-        }
-        
-        return classType;
+        // the typeid is the class simple name, looked up in the class index
+        return ClassIndex.getInstance().getTypedObjectClass( classId );
     }
 
 }
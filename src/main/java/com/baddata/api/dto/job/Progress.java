@@ -13,11 +13,11 @@ import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 
 import org.joda.time.DateTime;
 
+import com.baddata.annotation.ApiDataInfo;
 import com.baddata.api.dto.TypedObject;
-import com.baddata.exception.IndexPersistException;
 import com.baddata.log.Logger;
-import com.baddata.manager.db.PersistenceManager;
 import com.baddata.manager.job.JobManager.JobType;
+import com.baddata.manager.job.ProgressRegistry;
 
 @XmlRootElement
 public class Progress extends TypedObject {
@@ -48,8 +48,8 @@ public class Progress extends TypedObject {
 	private String referenceTenant = "";
 	private JobType type;
 	private DateTime completeTime = null;
-	
-	private PersistenceManager persistenceManager;
+	// bumped on each update, long poll clients send back the version they have
+	private long version = 0l;
 	
 	public Progress() {
 		// this is required to allow the search service to rebuild this object from it's index
@@ -62,7 +62,6 @@ public class Progress extends TypedObject {
 		this.referenceTenant = referenceTenant;
 		this.percent = 0f;
 		this.setUserRef(userRef);
-		persistenceManager = PersistenceManager.getInstance();
 	}
 	
 	public float getPercent() {
@@ -150,6 +149,14 @@ public class Progress extends TypedObject {
 		this.completeTime = completeTime;
 	}
 	
+	@ApiDataInfo(isPersisted=false)
+	public long getVersion() {
+		return version;
+	}
+	public void setVersion(long version) {
+		this.version = version;
+	}
+	
 	public void setDone(boolean isdone) {
 		this.done = isdone;
 	}
@@ -189,11 +196,13 @@ public class Progress extends TypedObject {
 	 * i.e. running a job that iterates 10 times. each iteration would have it's own
 	 *      currentProgressStartTime
 	 * 
+	 * Only updates the fields, the ProgressRegistry saves it to the index periodically.
+	 * 
 	 * @param currentProgressStartTime
 	 * @param initialBuffer
 	 */
 	
-	public void updateProgress(long currentProgressStartTime) {
+	public synchronized void updateProgress(long currentProgressStartTime) {
 
 	    //
 	    // Get how long this current progress took.
@@ -245,24 +254,20 @@ public class Progress extends TypedObject {
 		// set the timeRemaining to the percent of the timeEstimate
 		timeRemaining = timeEstimate - ((long) Math.ceil( (timeEstimate * percent) ));
 		
-		try {
-		    persistenceManager.save(this);
-		} catch (IndexPersistException e) {
-			logger.error("Failed to update the progress.", e);
-		}
+		version++;
+		
+		// saved by the registry's next flush
+		ProgressRegistry.getInstance().markDirty(this);
 	}
 	
-	public void setToCompletedProgress() {
+	public synchronized void setToCompletedProgress() {
 		this.percent = 1.0f;
 		this.completeTime = DateTime.now();
 		this.timeRemaining = 0;
 		this.totalElapsed = this.timeEstimate;
 		this.done = true;
-		try {
-		    persistenceManager.save(this);
-		} catch (IndexPersistException e) {
-			logger.error("Failed to update the progress to complete.", e);
-		}
+		version++;
+		ProgressRegistry.getInstance().complete(this);
 	}
 
     @Override
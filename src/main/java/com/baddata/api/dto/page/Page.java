@@ -24,6 +24,8 @@ public class Page {
 	private long ellapsed;
 	private long totalHits;
 	private List<ApiDto> items;
+	// opaque position of the last item, pass it back as the searchAfter query param to get the next page
+	private String searchAfter;
 	
 	public Page() {
 	    items = new ArrayList<ApiDto>();
@@ -69,6 +71,14 @@ public class Page {
 		this.ellapsed = ellapsed;
 	}
 
+    public String getSearchAfter() {
+        return searchAfter;
+    }
+
+    public void setSearchAfter(String searchAfter) {
+        this.searchAfter = searchAfter;
+    }
+
     public int getItemCount() {
         return (items != null) ? items.size() : 0;
     }
@@ -17,6 +17,8 @@ public class AuditLogApiInfo extends TypedObject {
     private long elapsed = 0l;
     private String error = "";
     private String referer = "";
+    // index lookups made by the request after the session was resolved
+    private int indexLookups = 0;
 
     public String getUserName() {
         return userName;
@@ -72,5 +74,11 @@ public class AuditLogApiInfo extends TypedObject {
     public void setReferer(String referer) {
         this.referer = referer;
     }
+    public int getIndexLookups() {
+        return indexLookups;
+    }
+    public void setIndexLookups(int indexLookups) {
+        this.indexLookups = indexLookups;
+    }
 
 }
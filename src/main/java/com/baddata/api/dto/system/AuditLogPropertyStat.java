@@ -11,6 +11,8 @@ public class AuditLogPropertyStat extends TypedObject {
     private String name;
     private String description;
     private long count;
+    private long errorCount;
+    private long durationTotal;
 
     public String getName() {
         return name;
@@ -30,5 +32,17 @@ public class AuditLogPropertyStat extends TypedObject {
     public void setCount(long count) {
         this.count = count;
     }
+    public long getErrorCount() {
+        return errorCount;
+    }
+    public void setErrorCount(long errorCount) {
+        this.errorCount = errorCount;
+    }
+    public long getDurationTotal() {
+        return durationTotal;
+    }
+    public void setDurationTotal(long durationTotal) {
+        this.durationTotal = durationTotal;
+    }
 
 }
@@ -20,6 +20,9 @@ import com.google.common.collect.Maps;
 
 public class AuditLogStat extends TypedObject {
     
+    private long requestCount;
+    private long errorCount;
+    private long durationTotal;
     private long uniqueSessions;
     private long uniqueUsers;
     private float avgDuration;
@@ -27,6 +30,28 @@ public class AuditLogStat extends TypedObject {
     private DateTime start;
     private DateTime end;
     private Map<String, AuditLogPropertyStat> apiStatsMap = Maps.newHashMap();
+    // HyperLogLog sketches, merged to count the unique sessions and users of a time range
+    private String sessionSketch;
+    private String userSketch;
+
+    public long getRequestCount() {
+        return requestCount;
+    }
+    public void setRequestCount(long requestCount) {
+        this.requestCount = requestCount;
+    }
+    public long getErrorCount() {
+        return errorCount;
+    }
+    public void setErrorCount(long errorCount) {
+        this.errorCount = errorCount;
+    }
+    public long getDurationTotal() {
+        return durationTotal;
+    }
+    public void setDurationTotal(long durationTotal) {
+        this.durationTotal = durationTotal;
+    }
 
     public long getUniqueSessions() {
         return uniqueSessions;
@@ -73,7 +98,6 @@ public class AuditLogStat extends TypedObject {
         return apiStatsMap;
     }
     @XmlElement
-    @ApiDataInfo(isPersisted=false)
     public List<AuditLogPropertyStat> getApiStats() {
         List<AuditLogPropertyStat> apiStats = Lists.newArrayList();
         if ( apiStatsMap != null && !apiStatsMap.isEmpty() ) {
@@ -81,5 +105,28 @@ public class AuditLogStat extends TypedObject {
         }
         return apiStats;
     }
+    public void setApiStats(List<AuditLogPropertyStat> apiStats) {
+        apiStatsMap = Maps.newHashMap();
+        if ( apiStats != null ) {
+            for ( AuditLogPropertyStat apiStat : apiStats ) {
+                apiStatsMap.put(apiStat.getName(), apiStat);
+            }
+        }
+    }
+    
+    @XmlTransient
+    public String getSessionSketch() {
+        return sessionSketch;
+    }
+    public void setSessionSketch(String sessionSketch) {
+        this.sessionSketch = sessionSketch;
+    }
+    @XmlTransient
+    public String getUserSketch() {
+        return userSketch;
+    }
+    public void setUserSketch(String userSketch) {
+        this.userSketch = userSketch;
+    }
 
 }
@@ -196,6 +196,9 @@ public class User extends TypedObject {
         user.setEmail(this.getEmail());
         user.setFullname(this.getFullname());
         user.setId(this.getId());
+        user.setSortId(this.getSortId());
+        user.setKey(this.getKey());
+        user.setAuthToken(this.getAuthToken());
         user.setImageUrl(this.getImageUrl());
         user.setParent(this.getParent());
         user.setPassword(this.getPassword());
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.api.factory;
+
+import javax.servlet.ServletRequest;
+
+import com.baddata.api.dto.user.User;
+import com.baddata.api.dto.user.User.RoleType;
+
+/**
+ * The session user of an api request. The RestApiFilter resolves the auth token once
+ * and attaches the principal to the request, the resources and servlets read it from
+ * there instead of resolving the token again.
+ *
+ * Immutable, it's a snapshot of the user and csrf token when the request came in.
+ */
+public final class ApiPrincipal {
+
+    public static final String REQUEST_ATTRIBUTE = ApiPrincipal.class.getName();
+
+    private final Long userId;
+    private final String username;
+    private final RoleType role;
+    private final String csrfToken;
+
+    public ApiPrincipal(User user, String csrfToken) {
+        this.userId = user.getId();
+        this.username = user.getUsername();
+        this.role = RoleType.getRoleTypeFromValue(user.getRole());
+        this.csrfToken = csrfToken;
+    }
+
+    /**
+     * Returns the principal the RestApiFilter attached to the request
+     *
+     * @param request
+     * @return ApiPrincipal or null if the request has no valid session
+     */
+    public static ApiPrincipal fromRequest(ServletRequest request) {
+        if ( request == null ) {
+            return null;
+        }
+        Object principal = request.getAttribute(REQUEST_ATTRIBUTE);
+        return ( principal instanceof ApiPrincipal ) ? (ApiPrincipal) principal : null;
+    }
+
+    public void attachTo(ServletRequest request) {
+        request.setAttribute(REQUEST_ATTRIBUTE, this);
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public RoleType getRole() {
+        return role;
+    }
+
+    public String getCsrfToken() {
+        return csrfToken;
+    }
+
+    public boolean isAdmin() {
+        return role == RoleType.ADMIN;
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.api.factory;
+
+import java.util.Arrays;
+
+/**
+ * The public and uber user api paths compiled into a path trie, one node per path segment.
+ * A {param} segment is a wildcard, the uber user paths are kept per http method.
+ *
+ * Built once from the resource annotations and not changed after that. Matching a request
+ * uri walks the trie over the uri (case insensitive) without splitting or copying it.
+ */
+public class ApiRouteTrie {
+
+    private static final int GET = 1;
+    private static final int POST = 1 << 1;
+    private static final int PUT = 1 << 2;
+    private static final int DELETE = 1 << 3;
+    private static final int PUBLIC = 1 << 4;
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final Node root = new Node(null);
+
+    ApiRouteTrie() {
+        //
+    }
+
+    /**
+     * Returns true if the uri matches a public api path
+     *
+     * @param uri the request uri, i.e. "/api/session/login"
+     * @return boolean
+     */
+    public boolean isPublic(String uri) {
+        return this.matches(uri, PUBLIC);
+    }
+
+    /**
+     * Returns true if the uri and method match an api path that requires an uber user
+     *
+     * @param method the http method, i.e. "GET"
+     * @param uri the request uri, i.e. "/api/audit/pipeline"
+     * @return boolean
+     */
+    public boolean requiresUberUser(String method, String uri) {
+        int methodFlag = getMethodFlag(method);
+        return methodFlag != 0 && this.matches(uri, methodFlag);
+    }
+
+    void addPublicPath(String path) {
+        this.add(path, PUBLIC);
+    }
+
+    void addUberUserPath(String method, String path) {
+        int methodFlag = getMethodFlag(method);
+        if ( methodFlag != 0 ) {
+            this.add(path, methodFlag);
+        }
+    }
+
+    private void add(String path, int flag) {
+        Node node = root;
+        for ( String segment : path.toLowerCase().split("/") ) {
+            if ( segment.isEmpty() ) {
+                continue;
+            }
+            node = node.getOrAddChild(segment);
+        }
+        node.flags |= flag;
+    }
+
+    private boolean matches(String uri, int mask) {
+        if ( uri == null ) {
+            return false;
+        }
+        // trailing slashes don't count
+        int len = uri.length();
+        while ( len > 0 && uri.charAt(len - 1) == '/' ) {
+            len--;
+        }
+        int pos = ( len > 0 && uri.charAt(0) == '/' ) ? 1 : 0;
+        return find(root, uri, pos, len, mask);
+    }
+
+    private static boolean find(Node node, String uri, int pos, int len, int mask) {
+        if ( pos >= len ) {
+            // all of the segments matched
+            return (node.flags & mask) != 0;
+        }
+
+        int end = uri.indexOf('/', pos);
+        if ( end == -1 || end > len ) {
+            end = len;
+        }
+        int segmentLength = end - pos;
+
+        for ( Node child : node.children ) {
+            if ( child.segment.length() == segmentLength && uri.regionMatches(true, pos, child.segment, 0, segmentLength) ) {
+                if ( find(child, uri, end + 1, len, mask) ) {
+                    return true;
+                }
+                break;
+            }
+        }
+
+        // an exact segment takes precedence, fall back to the {param} one
+        return node.wildcard != null && find(node.wildcard, uri, end + 1, len, mask);
+    }
+
+    private static int getMethodFlag(String method) {
+        if ( method == null ) {
+            return 0;
+        }
+        switch ( method.toUpperCase() ) {
+            case "GET":
+                return GET;
+            case "POST":
+                return POST;
+            case "PUT":
+                return PUT;
+            case "DELETE":
+                return DELETE;
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isParam(String segment) {
+        return segment.length() > 1 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}';
+    }
+
+    private static class Node {
+        // lowercase segment, null for the root and the {param} wildcard
+        private final String segment;
+        private Node[] children = NO_CHILDREN;
+        private Node wildcard = null;
+        // PUBLIC and the methods requiring an uber user
+        private int flags = 0;
+
+        Node(String segment) {
+            this.segment = segment;
+        }
+
+        Node getOrAddChild(String segment) {
+            if ( isParam(segment) ) {
+                if ( wildcard == null ) {
+                    wildcard = new Node(null);
+                }
+                return wildcard;
+            }
+            for ( Node child : children ) {
+                if ( child.segment.equals(segment) ) {
+                    return child;
+                }
+            }
+            Node child = new Node(segment);
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+            return child;
+        }
+    }
+}
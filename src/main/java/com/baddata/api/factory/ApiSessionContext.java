@@ -6,29 +6,55 @@ package com.baddata.api.factory;
 
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.baddata.api.dto.user.User;
 import com.baddata.db.DbIndex.DbIndexType;
 import com.baddata.exception.IndexPersistException;
 import com.baddata.log.Logger;
 import com.baddata.manager.db.PersistenceManager;
+import com.baddata.util.AppConstants;
+import com.baddata.util.AppUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
  * 
  * A thread local copy of the user session info
  *
+ * The logged in users are cached by id so resolving the auth token on each request
+ * doesn't search the user index. Cached users expire after the configured TTL and
+ * are invalidated by the PersistenceManager whenever a user is saved or deleted. Lookups
+ * hand out copies, the cached users are never changed.
+ *
  */
 public class ApiSessionContext {
     
     private static final Logger logger = Logger.getLogger(ApiSessionContext.class.getName());
 
-    private static Map<String, Long> loggedInUserMap = new HashMap<String, Long>();
-    private static Map<Long, Date> loggedInUserStartDateMap = new HashMap<Long, Date>();
-    private static Map<Long, String> loggedInUserIdToCsrfTokenMap = new HashMap<Long, String>();
+    private static Map<String, Long> loggedInUserMap = Maps.newConcurrentMap();
+    private static Map<Long, Date> loggedInUserStartDateMap = Maps.newConcurrentMap();
+    private static Map<Long, String> loggedInUserIdToCsrfTokenMap = Maps.newConcurrentMap();
+
+    // user id -> user
+    private static Cache<Long, User> userCache = CacheBuilder.newBuilder()
+            .maximumSize(AppUtil.getAsLong(AppConstants.USER_CACHE_MAX_SIZE, 10000L))
+            .expireAfterWrite(AppUtil.getAsLong(AppConstants.USER_CACHE_TTL_MS, 300000L), TimeUnit.MILLISECONDS)
+            .recordStats()
+            .build();
+    
+    // bumped on each invalidation so a load racing with it isn't cached: user id -> generation
+    private static Map<Long, AtomicLong> userGenerationMap = Maps.newConcurrentMap();
+    private static AtomicLong allUsersGeneration = new AtomicLong();
     
     private static PersistenceManager persistence = PersistenceManager.getInstance();
     
@@ -39,12 +65,17 @@ public class ApiSessionContext {
     public static void updateUserContext(User user) {
         loggedInUserMap.put(user.getAuthToken(), user.getId());
         loggedInUserStartDateMap.put(user.getId(), new Date());
+
+        // the login instance is handed back to the client (password cleared),
+        // cache the persisted copy instead
+        invalidateUser(user.getId());
+        getCachedUser(user.getId());
     }
     
     public static List<User> getLoggedInUsers() {
         List<User> loggedInUsers = new ArrayList<User>();
         for ( Long userId : loggedInUserMap.values() ) {
-            User user = (User) persistence.getById(DbIndexType.USER_TYPE, userId);
+            User user = getCachedUser(userId);
             if (user != null) {
                 loggedInUsers.add(user);
             }
@@ -73,10 +104,11 @@ public class ApiSessionContext {
             if ( currentUserId.longValue() == userId.longValue() ) {
                 boolean shouldExpire = (now - loggedInDate.getTime() > expireDuration);
                 if (shouldExpire) {
-                    // it should expire, remove it from both maps
+                    // it should expire, remove it from the maps and the cache
                     iter.remove();
                     loggedInUserStartDateMap.remove( userId );
                     loggedInUserIdToCsrfTokenMap.remove( userId );
+                    invalidateUser( userId );
                 }
                 break;
             }
@@ -84,9 +116,12 @@ public class ApiSessionContext {
     }
     
     public static User getUser(String token) {
+        if (token == null) {
+            return null;
+        }
         Long userId = loggedInUserMap.get(token);
         if (userId != null) {
-            return (User) persistence.getById(DbIndexType.USER_TYPE, userId);
+            return getCachedUser(userId);
         }
         return null;
     }
@@ -107,6 +142,7 @@ public class ApiSessionContext {
             }
             loggedInUserStartDateMap.remove( userId );
             loggedInUserIdToCsrfTokenMap.remove( userId );
+            invalidateUser( userId );
         }
     }
     
@@ -117,4 +153,118 @@ public class ApiSessionContext {
     public static String getCsrfToken( Long userId ) {
         return loggedInUserIdToCsrfTokenMap.get( userId );
     }
+
+    /**
+     * Returns the user by id from the user cache, reading it from the index if it's not cached
+     *
+     * @param userId
+     * @return User or null if it doesn't exist
+     */
+    public static User getUserById( Long userId ) {
+        if ( userId == null ) {
+            return null;
+        }
+        return getCachedUser( userId );
+    }
+
+    /**
+     * Drop the cached copy of the user, the next lookup reads it from the index.
+     * Called by the PersistenceManager when a user is saved or deleted.
+     *
+     * @param userId
+     */
+    public static void invalidateUser( Long userId ) {
+        if ( userId != null ) {
+            bumpGeneration( userId );
+            userCache.invalidate( userId );
+        }
+    }
+
+    /**
+     * Drop all of the cached users
+     */
+    public static void invalidateAllUsers() {
+        allUsersGeneration.incrementAndGet();
+        userCache.invalidateAll();
+    }
+
+    /**
+     * Returns the user cache counters: hits, misses, evictions and size
+     *
+     * @return Map<String, Long>
+     */
+    public static Map<String, Long> getUserCacheStats() {
+        CacheStats stats = userCache.stats();
+        Map<String, Long> cacheStats = Maps.newLinkedHashMap();
+        cacheStats.put("hits", stats.hitCount());
+        cacheStats.put("misses", stats.missCount());
+        cacheStats.put("evictions", stats.evictionCount());
+        cacheStats.put("size", userCache.size());
+        return cacheStats;
+    }
+
+    /**
+     * Returns a copy of the cached user, callers are free to change it.
+     * Concurrent lookups of the same user share a single load.
+     */
+    private static User getCachedUser( final Long userId ) {
+        User user = null;
+        try {
+            user = userCache.get( userId, new Callable<User>() {
+                @Override
+                public User call() throws Exception {
+                    return loadUser( userId );
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if ( e.getCause() instanceof StaleUserLoadException ) {
+                // invalidated while it was loading, this read starts after the change
+                user = (User) persistence.getById(DbIndexType.USER_TYPE, userId);
+            } else if ( !(e.getCause() instanceof UserNotFoundException) ) {
+                logger.error("Failed to load the user '" + userId + "'.", e.getCause());
+            }
+        }
+        return ( user != null ) ? user.clone() : null;
+    }
+
+    /**
+     * Read the user for the cache. Nothing is cached if the user is invalidated while
+     * it's read, the read may have missed the change.
+     */
+    private static User loadUser( Long userId ) throws Exception {
+        long generation = getGeneration( userId );
+        User user = (User) persistence.getById(DbIndexType.USER_TYPE, userId);
+        if ( user == null ) {
+            // a missing user isn't cached so it's picked up as soon as it's created
+            throw new UserNotFoundException();
+        }
+        if ( getGeneration( userId ) != generation ) {
+            throw new StaleUserLoadException();
+        }
+        return user;
+    }
+
+    private static long getGeneration( Long userId ) {
+        AtomicLong generation = userGenerationMap.get( userId );
+        // an invalidate all changes the generation of every user
+        return allUsersGeneration.get() + (( generation != null ) ? generation.get() : 0);
+    }
+
+    private static void bumpGeneration( Long userId ) {
+        AtomicLong generation = userGenerationMap.get( userId );
+        if ( generation == null ) {
+            userGenerationMap.putIfAbsent( userId, new AtomicLong() );
+            generation = userGenerationMap.get( userId );
+        }
+        generation.incrementAndGet();
+    }
+
+    // thrown by the loader so nothing is cached
+    private static class UserNotFoundException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class StaleUserLoadException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
 }
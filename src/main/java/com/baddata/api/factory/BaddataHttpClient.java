@@ -4,9 +4,15 @@ package com.baddata.api.factory;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
@@ -15,21 +21,34 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 
+import com.baddata.util.AppConstants;
+import com.baddata.util.AppUtil;
+
 /**
- * 
+ *
  * Apache closeable http client with helper request executors and entity readers
- * 
+ *
+ * All of the instances share one http client and connection pool (HttpConnectionManager). The timeouts of
+ * the BaddataHttpParams are applied to the request, idempotent requests are retried with a backoff and
+ * each attempt is recorded per host in the HttpClientMetrics.
+ *
+ * The async executors run the request on the http client async pool and complete the future with what
+ * the response handler made of the response, the handler reads the entity as it streams in.
+ *
  */
 public class BaddataHttpClient {
 
@@ -44,7 +63,9 @@ public class BaddataHttpClient {
     // ************************************************************************
 
     private String url;
+    private String host;
     private CloseableHttpClient httpclient = null;
+    private HttpClientMetrics metrics = HttpClientMetrics.getInstance();
 
     protected PoolingHttpClientConnectionManager getConnectionManager() {
         return HttpConnectionManager.getClientConnectionManager();
@@ -57,9 +78,9 @@ public class BaddataHttpClient {
     public BaddataHttpClient(String fullHostName, boolean secure) {
         this(fullHostName, 0 /*port*/, secure);
     }
-    
+
     /**
-     * 
+     *
      * @param fullHostName
      * @param port
      * @param secure
@@ -76,27 +97,23 @@ public class BaddataHttpClient {
         } else {
             url = "http://" + fullHostName;
         }
-        
+
         if ( port > 0 ) {
             url += ":" + port;
         }
 
-        httpclient = createClient();
-    }
+        host = URI.create(url).getHost();
+        if ( host == null ) {
+            host = fullHostName;
+        }
 
-    private CloseableHttpClient createClient() {
-        httpclient = HttpClients.custom()
-                .setConnectionManager(getConnectionManager())
-                .disableCookieManagement()
-                .build();
-        
-        return httpclient;
+        httpclient = HttpConnectionManager.getSingletonInstance().getSharedClient();
     }
-    
+
     public HttpResponse execPostRequest(String uri) throws IOException {
         return getResponse(HttpRequestType.POST, uri, null /*params*/, null /*contentEntity*/);
     }
-    
+
     public HttpResponse execPostRequest(String uri, BaddataHttpParams params) throws IOException {
         return getResponse(HttpRequestType.POST, uri, params, null /*contentEntity*/);
     }
@@ -108,50 +125,22 @@ public class BaddataHttpClient {
     public HttpResponse execPutRequest(String uri, BaddataHttpParams params, String contentEntity) throws IOException {
         return getResponse(HttpRequestType.PUT, uri, params, contentEntity);
     }
-    
+
     public HttpResponse execGetRequest(String uri) throws IOException {
         return execGetRequest(uri, null /*params*/);
     }
 
     public HttpResponse execGetRequest(String uri, BaddataHttpParams params) throws IOException {
-
-        String getRequestUrl = buildReqUrl(uri);
-        HttpRequest request = new HttpRequest(HttpGet.METHOD_NAME, getRequestUrl);
-        if ( params != null ) {
-            request.setRequestParams(params);
-        }
-        request.addHeader("accept", "application/json");
-
-        logger.debug("HTTP GET: " + getRequestUrl);
-        try {
-            return httpclient.execute(request);
-        } catch (IOException ioe) {
-            request.abort();
-            throw ioe;
-        }
+        return this.executeWithRetries(this.buildRequest(HttpRequestType.GET, uri, params, null /*entity*/), params);
     }
 
     public HttpResponse execDeleteRequest(String uri, BaddataHttpParams params) throws IOException {
-
-        String deleteRequestUrl = buildReqUrl(uri);
-        HttpRequest request = new HttpRequest(HttpDelete.METHOD_NAME, deleteRequestUrl);
-        if ( params != null ) {
-            request.setRequestParams(params);
-        }
-        request.addHeader("accept", "application/json");
-
-        logger.debug("HTTP DELETE: " + deleteRequestUrl);
-        try {
-            return httpclient.execute(request);
-        } catch (IOException ioe) {
-            request.abort();
-            throw ioe;
-        }
+        return this.executeWithRetries(this.buildRequest(HttpRequestType.DELETE, uri, params, null /*entity*/), params);
     }
 
     /**
      * This method execute the PUT or POST method.
-     * 
+     *
      * @param requestType
      * @param uri
      * @param params
@@ -160,16 +149,102 @@ public class BaddataHttpClient {
      * @throws IOException
      */
     protected HttpResponse getResponse(HttpRequestType requestType, String uri, BaddataHttpParams params, String entity) throws IOException {
+        if ( requestType != HttpRequestType.POST && requestType != HttpRequestType.PUT ) {
+            throw new IllegalArgumentException("Request type can be only POST or PUT");
+        }
+        return this.executeWithRetries(this.buildRequest(requestType, uri, params, entity), params);
+    }
 
-        HttpRequest request = null;
+    /**
+     * Execute the request and hand the response to the handler, the handler reads the entity
+     * as it's streamed in. The connection is released once the handler returns.
+     *
+     * @param requestType
+     * @param uri
+     * @param params
+     * @param entity the request body, or null
+     * @param handler
+     * @return what the handler made of the response
+     * @throws IOException
+     */
+    public <T> T execute(HttpRequestType requestType, String uri, BaddataHttpParams params, String entity,
+            ResponseHandler<? extends T> handler) throws IOException {
+        CloseableHttpResponse response = this.executeWithRetries(this.buildRequest(requestType, uri, params, entity), params);
+        try {
+            return handler.handleResponse(response);
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
+            response.close();
+        }
+    }
+
+    /**
+     * Execute the request on the http client async pool
+     *
+     * @param requestType
+     * @param uri
+     * @param params
+     * @param entity the request body, or null
+     * @param handler
+     * @return the future completed with what the handler made of the response, or exceptionally
+     *         with the IOException of the request or the RejectedExecutionException of a full async pool
+     */
+    public <T> CompletableFuture<T> executeAsync(final HttpRequestType requestType, final String uri, final BaddataHttpParams params,
+            final String entity, final ResponseHandler<? extends T> handler) {
+        try {
+            return CompletableFuture.supplyAsync(new Supplier<T>() {
+                @Override
+                public T get() {
+                    try {
+                        return execute(requestType, uri, params, entity, handler);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }
+            }, HttpConnectionManager.getSingletonInstance().getAsyncExecutor());
+        } catch (RejectedExecutionException e) {
+            // the async queue is full, fail now rather than wait behind it
+            logger.warn("HTTP " + requestType.name() + " " + uri + " rejected, the async request queue is full.");
+            CompletableFuture<T> rejected = new CompletableFuture<T>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    public <T> CompletableFuture<T> execGetRequestAsync(String uri, BaddataHttpParams params, ResponseHandler<? extends T> handler) {
+        return this.executeAsync(HttpRequestType.GET, uri, params, null /*entity*/, handler);
+    }
+
+    public <T> CompletableFuture<T> execPostRequestAsync(String uri, BaddataHttpParams params, String contentEntity, ResponseHandler<? extends T> handler) {
+        return this.executeAsync(HttpRequestType.POST, uri, params, contentEntity, handler);
+    }
+
+    public <T> CompletableFuture<T> execPutRequestAsync(String uri, BaddataHttpParams params, String contentEntity, ResponseHandler<? extends T> handler) {
+        return this.executeAsync(HttpRequestType.PUT, uri, params, contentEntity, handler);
+    }
+
+    public <T> CompletableFuture<T> execDeleteRequestAsync(String uri, BaddataHttpParams params, ResponseHandler<? extends T> handler) {
+        return this.executeAsync(HttpRequestType.DELETE, uri, params, null /*entity*/, handler);
+    }
+
+    protected HttpRequest buildRequest(HttpRequestType requestType, String uri, BaddataHttpParams params, String entity) throws IOException {
         String reqUrl = buildReqUrl(uri);
         logger.debug("HTTP " + requestType.name() + ": " + reqUrl);
-        if (requestType.equals(HttpRequestType.POST)) {
-            request = new HttpRequest(HttpPost.METHOD_NAME, reqUrl);
-        } else if (requestType.equals(HttpRequestType.PUT)) {
-            request = new HttpRequest(HttpPut.METHOD_NAME, reqUrl);
-        } else {
-            throw new IllegalArgumentException("Request type can be only POST or PUT");
+
+        HttpRequest request = null;
+        switch (requestType) {
+            case POST:
+                request = new HttpRequest(HttpPost.METHOD_NAME, reqUrl);
+                break;
+            case PUT:
+                request = new HttpRequest(HttpPut.METHOD_NAME, reqUrl);
+                break;
+            case DELETE:
+                request = new HttpRequest(HttpDelete.METHOD_NAME, reqUrl);
+                break;
+            default:
+                request = new HttpRequest(HttpGet.METHOD_NAME, reqUrl);
+                break;
         }
 
         // set the request parameters to control the execution behavior such as
@@ -183,15 +258,73 @@ public class BaddataHttpClient {
         if ( entity != null ) {
             request.setEntity(new StringEntity(entity));
         }
+        return request;
+    }
 
-        try {
-            return httpclient.execute(request);
-        } catch (IOException ioe) {
-            request.abort();
-            throw ioe;
+    /**
+     * Execute the request, retrying an idempotent one that fails with an IO error or a
+     * 502, 503 or 504 status. The retries wait the backoff, doubled for each retry, plus
+     * a random jitter of up to half of it.
+     */
+    private CloseableHttpResponse executeWithRetries(HttpRequest request, BaddataHttpParams params) throws IOException {
+        int maxRetries = this.getMaxRetries(request, params);
+        long backoffMs = ( params != null && params.getRetryBackoffMs() >= 0 )
+                ? params.getRetryBackoffMs() : AppUtil.getAsLong(AppConstants.HTTP_CLIENT_RETRY_BACKOFF_MS, 200L);
+
+        for ( int attempt = 0; ; attempt++ ) {
+            long start = System.nanoTime();
+            try {
+                CloseableHttpResponse response = httpclient.execute(request);
+                int status = response.getStatusLine().getStatusCode();
+                metrics.recordRequest(host, System.nanoTime() - start, status >= 500);
+
+                if ( attempt >= maxRetries || !isRetryableStatus(status) ) {
+                    return response;
+                }
+                // release the connection before trying again
+                EntityUtils.consumeQuietly(response.getEntity());
+                response.close();
+                logger.debug("HTTP " + request.getMethod() + " " + request.getURI() + " returned " + status + ", retrying.");
+            } catch (IOException ioe) {
+                metrics.recordRequest(host, System.nanoTime() - start, true);
+
+                // the pool is exhausted, trying again only adds to the wait
+                if ( attempt >= maxRetries || ioe instanceof ConnectionPoolTimeoutException ) {
+                    request.abort();
+                    throw ioe;
+                }
+                logger.debug("HTTP " + request.getMethod() + " " + request.getURI() + " failed, retrying. " + ioe.getMessage());
+            }
+
+            metrics.recordRetry(host);
+            long waitMs = backoffMs << attempt;
+            waitMs += ( waitMs > 1 ) ? ThreadLocalRandom.current().nextLong(waitMs / 2) : 0;
+            try {
+                Thread.sleep(waitMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                request.abort();
+                throw new InterruptedIOException("Interrupted waiting to retry " + request.getURI());
+            }
+            request.reset();
         }
     }
 
+    private int getMaxRetries(HttpRequest request, BaddataHttpParams params) {
+        if ( HttpPost.METHOD_NAME.equals(request.getMethod()) ) {
+            // not idempotent
+            return 0;
+        }
+        if ( params != null && params.getMaxRetries() >= 0 ) {
+            return params.getMaxRetries();
+        }
+        return Math.max(0, AppUtil.getAsInt(AppConstants.HTTP_CLIENT_MAX_RETRIES, 2));
+    }
+
+    private static boolean isRetryableStatus(int status) {
+        return status == 502 || status == 503 || status == 504;
+    }
+
     class HttpRequest extends HttpEntityEnclosingRequestBase {
 
         String methodName;
@@ -222,7 +355,7 @@ public class BaddataHttpClient {
 
         /**
          * This method set the request headers
-         * 
+         *
          * @param request
          * @param headers
          */
@@ -234,7 +367,7 @@ public class BaddataHttpClient {
                 }
             }
         }
-        
+
         protected void addOrUpdateHeader(String key, String value) {
             Header[] headers = this.getAllHeaders();
             if ( headers != null && headers.length > 0 ) {
@@ -246,7 +379,7 @@ public class BaddataHttpClient {
                     }
                 }
             }
-            
+
             // add the header
             this.setHeader(key, value);
         }
@@ -254,7 +387,7 @@ public class BaddataHttpClient {
         /**
          * This method set the parameters to define the method and control the
          * execution runtime behavior such as network connection timeout
-         * 
+         *
          * @param request
          * @param params
          */
@@ -262,53 +395,48 @@ public class BaddataHttpClient {
             if ( params != null ) {
                 this.addHeaders(params.getHeaders());
                 this.setSessionId(params.getSessionId());
+                this.setConfig(params.buildRequestConfig());
             }
         }
     }
 
+    /**
+     * Read the entity into a string. The lines are joined without their line
+     * terminators and decoded with the platform charset, the callers parse
+     * single line json with it.
+     *
+     * @param res
+     * @return String
+     * @throws IOException
+     */
     public static String getStringRepresentation(HttpEntity res) throws IOException {
         if (res == null) {
             return null;
         }
 
-        // Timing information--- verified that the data is still streaming
-        // when we are called (this interval is about 2s for a large response.)
-        // So in theory we should be able to do somewhat better by interleaving
-        // parsing and reading, but experiments didn't show any improvement.
-        //
-
-        StringBuffer sb = new StringBuffer();
-        InputStreamReader reader;
-        reader = new InputStreamReader(res.getContent());
-
-        BufferedReader br = new BufferedReader(reader);
-        boolean done = false;
-        while (!done) {
-            String aLine = br.readLine();
-            if (aLine != null) {
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(res.getContent()))) {
+            String aLine;
+            while ((aLine = br.readLine()) != null) {
                 sb.append(aLine);
-            } else {
-                done = true;
             }
         }
-        br.close();
-
         return sb.toString();
     }
-    
+
     protected String buildReqUrl(String uri) {
         // remove the beginning slash if the uri has one
         if ( uri.indexOf("/") == 0 ) {
             uri = uri.substring(1);
         }
-        
+
         // check if the base url has an ending slash already,
         // and if so append the uri
         if ( url.charAt(url.length() - 1) == '/') {
             // just append it
             return url + uri;
         }
-        
+
         // url doesn't have an ending slash, append
         // the uri with a slash in-between
         return url + "/" + uri;
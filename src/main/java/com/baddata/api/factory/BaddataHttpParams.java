@@ -3,6 +3,8 @@ package com.baddata.api.factory;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.http.client.config.RequestConfig;
+
 public class BaddataHttpParams {
 
     protected int connectionPoolTimeout = -1; // Defines the timeout in milliseconds used when retrieving a connection from the connection pool manager
@@ -19,6 +21,14 @@ public class BaddataHttpParams {
      * between this host and the peer. The purpose of this option is to detect if the peer host crashes. 
      */
     protected boolean socketKeepAlive = false; 
+    
+    /*
+     * Max number of retries of an idempotent request (GET, PUT, DELETE) failing with an IO error or a 502, 503 or 504
+     * status, and the wait in milliseconds before the first retry (doubled for each retry after that).
+     * -1 uses the http.client.max.retries and http.client.retry.backoff.ms settings. POST requests aren't retried.
+     */
+    protected int maxRetries = -1;
+    protected long retryBackoffMs = -1;
 
     String sessionId; // session id set in the set-cookie header
     
@@ -76,4 +86,40 @@ public class BaddataHttpParams {
     public void setSocketKeepAlive( boolean socketKeepAlive ) {
         this.socketKeepAlive = socketKeepAlive;
     }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries( int maxRetries ) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryBackoffMs() {
+        return retryBackoffMs;
+    }
+
+    public void setRetryBackoffMs( long retryBackoffMs ) {
+        this.retryBackoffMs = retryBackoffMs;
+    }
+
+    /**
+     * Returns the request config with the timeouts that are set, the ones left at -1 use the client defaults.
+     * The socket keep alive is a setting of the pooled connections, it's not applied per request.
+     * 
+     * @return RequestConfig
+     */
+    public RequestConfig buildRequestConfig() {
+        RequestConfig.Builder builder = RequestConfig.custom();
+        if ( connectionPoolTimeout >= 0 ) {
+            builder.setConnectionRequestTimeout( connectionPoolTimeout );
+        }
+        if ( connectionTimeout >= 0 ) {
+            builder.setConnectTimeout( connectionTimeout );
+        }
+        if ( socketTimeout >= 0 ) {
+            builder.setSocketTimeout( socketTimeout );
+        }
+        return builder.build();
+    }
 }
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.api.factory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.baddata.util.LatencyHistogram;
+import com.google.common.collect.Maps;
+
+/**
+ * Outbound http request metrics per target host: the request latency, the time spent
+ * waiting for a pooled connection (microseconds), and the request, error and retry counts.
+ */
+public class HttpClientMetrics {
+
+    private static HttpClientMetrics ref;
+
+    // host -> metrics
+    private ConcurrentMap<String, HostMetrics> hostMetricsMap = Maps.newConcurrentMap();
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static HttpClientMetrics getInstance() {
+        if (ref == null) {
+            synchronized(HttpClientMetrics.class) {
+                if (ref == null) {
+                    ref = new HttpClientMetrics();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private HttpClientMetrics() {
+        //
+    }
+
+    /**
+     * Record a request attempt, error is true if it failed with an exception or a 5xx status
+     *
+     * @param host
+     * @param elapsedNanos
+     * @param error
+     */
+    public void recordRequest(String host, long elapsedNanos, boolean error) {
+        HostMetrics metrics = this.getHostMetrics(host);
+        metrics.requests.incrementAndGet();
+        if ( error ) {
+            metrics.errors.incrementAndGet();
+        }
+        metrics.latency.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    public void recordRetry(String host) {
+        this.getHostMetrics(host).retries.incrementAndGet();
+    }
+
+    /**
+     * Record the time the request waited for a connection from the pool
+     *
+     * @param host
+     * @param elapsedNanos
+     * @param timedOut
+     */
+    public void recordPoolWait(String host, long elapsedNanos, boolean timedOut) {
+        HostMetrics metrics = this.getHostMetrics(host);
+        if ( timedOut ) {
+            metrics.poolTimeouts.incrementAndGet();
+        }
+        metrics.poolWait.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    /**
+     * Returns the metrics per host: requests, errors, retries, poolTimeouts, the latency
+     * percentiles (latencyP50, ...) and the pool wait percentiles (poolWaitP50, ...)
+     *
+     * @return Map<String, Map<String, Long>>
+     */
+    public Map<String, Map<String, Long>> getMetrics() {
+        Map<String, Map<String, Long>> metrics = Maps.newTreeMap();
+        for ( Map.Entry<String, HostMetrics> entry : hostMetricsMap.entrySet() ) {
+            HostMetrics hostMetrics = entry.getValue();
+            Map<String, Long> m = Maps.newLinkedHashMap();
+            m.put("requests", hostMetrics.requests.get());
+            m.put("errors", hostMetrics.errors.get());
+            m.put("retries", hostMetrics.retries.get());
+            m.put("poolTimeouts", hostMetrics.poolTimeouts.get());
+            putPrefixed(m, "latency", hostMetrics.latency.getMetrics());
+            putPrefixed(m, "poolWait", hostMetrics.poolWait.getMetrics());
+            metrics.put(entry.getKey(), m);
+        }
+        return metrics;
+    }
+
+    public void reset() {
+        hostMetricsMap.clear();
+    }
+
+    private HostMetrics getHostMetrics(String host) {
+        HostMetrics metrics = hostMetricsMap.get(host);
+        if ( metrics == null ) {
+            hostMetricsMap.putIfAbsent(host, new HostMetrics());
+            metrics = hostMetricsMap.get(host);
+        }
+        return metrics;
+    }
+
+    private static void putPrefixed(Map<String, Long> m, String prefix, Map<String, Long> histogramMetrics) {
+        for ( Map.Entry<String, Long> entry : histogramMetrics.entrySet() ) {
+            String key = entry.getKey();
+            m.put(prefix + Character.toUpperCase(key.charAt(0)) + key.substring(1), entry.getValue());
+        }
+    }
+
+    private static class HostMetrics {
+        private AtomicLong requests = new AtomicLong(0);
+        private AtomicLong errors = new AtomicLong(0);
+        private AtomicLong retries = new AtomicLong(0);
+        private AtomicLong poolTimeouts = new AtomicLong(0);
+        private LatencyHistogram latency = new LatencyHistogram();
+        private LatencyHistogram poolWait = new LatencyHistogram();
+    }
+}
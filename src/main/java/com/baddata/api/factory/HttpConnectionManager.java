@@ -1,44 +1,70 @@
 // Copyright 2016, Baddata, Inc. All rights reserved.
 package com.baddata.api.factory;
 
+import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
+import org.apache.http.HttpClientConnection;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
+import com.baddata.log.Logger;
+import com.baddata.util.AppConstants;
 import com.baddata.util.AppUtil;
+import com.baddata.util.NamedThreadFactory;
 
-
+/**
+ * The outbound connection pool and the one http client shared by all of the BaddataHttpClient
+ * instances. Expired and idle pooled connections are evicted in the background and the time
+ * spent waiting for a pooled connection is recorded per host in the HttpClientMetrics.
+ */
 public class HttpConnectionManager {
 
+    private static Logger logger = Logger.getLogger(HttpConnectionManager.class.getName());
+
     private static final String CLIENT_HTTPS_PROTOCOL = AppUtil.get( "baddata.client.https.protocol", "TLSv1.2" );
 
     private static PoolingHttpClientConnectionManager connManager;
-    
+
     public static HttpConnectionManager singletonInstance;
 
+    private CloseableHttpClient sharedClient;
+    private ThreadPoolExecutor asyncExecutor;
+
     synchronized public static HttpConnectionManager getSingletonInstance(){
         if (singletonInstance == null){
             try {
                 singletonInstance = new HttpConnectionManager();
             } catch ( Exception e ) {
+                logger.error("Failed to create the http connection manager.", e);
                 return null;
             }
         }
         return singletonInstance;
     }
-    
+
     private static TrustManager[] trustAllCerts = new TrustManager[] { new HttpClientTrustManager() };
 
     private HttpConnectionManager() throws NoSuchAlgorithmException, KeyManagementException {
@@ -51,10 +77,37 @@ public class HttpConnectionManager {
                 .register("https", new SSLConnectionSocketFactory(sslcontext))
                 .register("http", PlainConnectionSocketFactory.getSocketFactory())
                 .build();
-        
-        connManager = new PoolingHttpClientConnectionManager(connRegistry);
+
+        connManager = new MeteredConnectionManager(connRegistry);
         connManager.setMaxTotal(100);
         connManager.setDefaultMaxPerRoute(20);
+
+        long idleTimeoutMs = AppUtil.getAsLong(AppConstants.HTTP_CLIENT_IDLE_TIMEOUT_MS, 30000L);
+        sharedClient = HttpClients.custom()
+                .setConnectionManager(connManager)
+                .disableCookieManagement()
+                // retried with a backoff by the BaddataHttpClient, idempotent requests only
+                .disableAutomaticRetries()
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+
+        // a slow host holds the threads through its retries, the requests queued past
+        // the queue size are rejected (AbortPolicy) instead of piling up
+        int asyncThreads = Math.max(1, AppUtil.getAsInt(AppConstants.HTTP_CLIENT_ASYNC_THREADS, 8));
+        int asyncQueueSize = Math.max(1, AppUtil.getAsInt(AppConstants.HTTP_CLIENT_ASYNC_QUEUE_SIZE, 1000));
+        asyncExecutor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(asyncQueueSize),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = NamedThreadFactory.createWithPrefix(r, "http-client-async");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        asyncExecutor.allowCoreThreadTimeOut(true);
     }
 
     private static class HttpClientTrustManager implements X509TrustManager {
@@ -75,12 +128,76 @@ public class HttpConnectionManager {
             return null;
         }
     }
-    
+
+    /**
+     * Records the time spent waiting for a pooled connection per target host
+     */
+    private static class MeteredConnectionManager extends PoolingHttpClientConnectionManager {
+
+        MeteredConnectionManager(Registry<ConnectionSocketFactory> connRegistry) {
+            super(connRegistry);
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+            final ConnectionRequest connRequest = super.requestConnection(route, state);
+            final String host = route.getTargetHost().getHostName();
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit tunit)
+                        throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    long start = System.nanoTime();
+                    boolean timedOut = false;
+                    try {
+                        return connRequest.get(timeout, tunit);
+                    } catch (ConnectionPoolTimeoutException e) {
+                        timedOut = true;
+                        throw e;
+                    } finally {
+                        HttpClientMetrics.getInstance().recordPoolWait(host, System.nanoTime() - start, timedOut);
+                    }
+                }
+
+                @Override
+                public boolean cancel() {
+                    return connRequest.cancel();
+                }
+            };
+        }
+    }
+
     public static PoolingHttpClientConnectionManager getClientConnectionManager() {
+        // the pool is created with the singleton
+        getSingletonInstance();
         return connManager;
     }
 
+    public CloseableHttpClient getSharedClient() {
+        return sharedClient;
+    }
+
+    public ExecutorService getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
     public void shutdown() {
+        asyncExecutor.shutdownNow();
+        try {
+            // stops the evictor threads and the pool
+            sharedClient.close();
+        } catch (IOException e) {
+            logger.error("Failed to close the shared http client.", e);
+        }
         connManager.shutdown();
     }
+
+    /**
+     * Shutdown the pool if it was created
+     */
+    synchronized public static void shutdownInstance() {
+        if ( singletonInstance != null ) {
+            singletonInstance.shutdown();
+            singletonInstance = null;
+        }
+    }
 }
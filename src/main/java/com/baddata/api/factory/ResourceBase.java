@@ -6,17 +6,12 @@ package com.baddata.api.factory;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Method;
 import java.time.ZonedDateTime;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.ws.rs.Path;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
@@ -29,13 +24,10 @@ import javax.ws.rs.core.UriInfo;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
-import org.reflections.Reflections;
 
-import com.baddata.annotation.ApiInfo;
 import com.baddata.api.dto.BaddataError;
 import com.baddata.api.dto.TypedObject;
 import com.baddata.api.dto.UploadResponse;
-import com.baddata.api.dto.user.User;
 import com.baddata.api.query.SearchSpec;
 import com.baddata.broker.AuditLogBrokerImpl;
 import com.baddata.broker.CurrencyBrokerImpl;
@@ -50,8 +42,9 @@ import com.baddata.log.EventLogger.ApiErrorCode;
 import com.baddata.log.Logger;
 import com.baddata.util.AppConstants;
 import com.baddata.util.AppUtil;
+import com.baddata.util.ClassIndex;
+import com.baddata.util.ClassIndex.ApiRoute;
 import com.google.common.base.Strings;
-import com.google.common.collect.Maps;
 import com.google.gson.Gson;
 
 public abstract class ResourceBase {
@@ -60,8 +53,7 @@ public abstract class ResourceBase {
 	
 	private static Set<Class<? extends ResourceBase>> resourceClassSet = null;
 	private static Set<Class<? extends TypedObject>> typedObjClassSet = null;
-	private static Set<String> publicRestApiPaths = null;
-	private static Map<String, String> requiredUberUserMethodsToPaths = null;
+	private static ApiRouteTrie apiRouteTrie = null;
 	
 	private EventBrokerImpl eventBroker = null;
 	private AuditLogBrokerImpl logBroker = null;
@@ -99,15 +91,12 @@ public abstract class ResourceBase {
             return;
         }
         
-        String authorizationHeader = request.getHeader(HttpHeaders.AUTHORIZATION);
-        if ( StringUtils.isBlank( authorizationHeader ) ) {
-            authorizationHeader = request.getParameter(AppConstants.AUTH_TOKEN);
-        }
-        User user = ApiSessionContext.getUser(authorizationHeader);
+        // the session was resolved by the RestApiFilter
+        ApiPrincipal principal = ApiPrincipal.fromRequest(request);
 
-        if ( user != null ) {
-	        this.userReferenceId = user.getId();
-	        this.userName = user.getUsername();
+        if ( principal != null ) {
+	        this.userReferenceId = principal.getUserId();
+	        this.userName = principal.getUsername();
         }
         response.setCharacterEncoding("UTF-8");
     }
@@ -226,14 +215,13 @@ public abstract class ResourceBase {
     }
     
     /**
-     * Return the API resource classes.  These will be set once and reused after that.
+     * Return the API resource classes, read from the class index.
      * @return Set<Class<? extends ResourceBase>>
      */
     public synchronized static Set<Class<? extends ResourceBase>> scanAllResources() {
 
 		if ( resourceClassSet == null ) {
-			Reflections ref = new Reflections( AppConstants.RESOURCE_PKG );
-			resourceClassSet = ref.getSubTypesOf(ResourceBase.class);
+			resourceClassSet = ClassIndex.getInstance().getResourceClasses();
 		}
 	     
 		return resourceClassSet;
@@ -253,81 +241,35 @@ public abstract class ResourceBase {
 	}
     
     /**
-     * Return the API resource paths.  These will be set once and reused after that.
-     * i.e. ["/session/login", "/user", ...]
+     * Return the public and required Uber user API resource paths compiled into a route trie.
+     * This will be built once from the class index routes and reused after that.
+     * i.e. ["/api/session/login", "/api/user", ...]
      * 
-     * @return Set<String>
+     * @return ApiRouteTrie
      */
-    public synchronized static Set<String> getPublicApiPaths() {
+    public synchronized static ApiRouteTrie getApiRouteTrie() {
     	
-    	if ( publicRestApiPaths == null ) {
-    		publicRestApiPaths = new HashSet<String>();
-    		
-    		Set<Class<? extends ResourceBase>> resourceClasses = scanAllResources();
+    	if ( apiRouteTrie == null ) {
+    		ApiRouteTrie trie = new ApiRouteTrie();
     		
-    		if ( resourceClasses != null ) {
-    			for ( Class<? extends ResourceBase> clazz : resourceClasses ) {
-    				buildAnnotatedPathsForClass( clazz );
-    			}
+    		for ( ApiRoute route : ClassIndex.getInstance().getApiRoutes() ) {
+    			addApiRoute( route, trie );
     		}
+    		apiRouteTrie = trie;
     	}
     	
-    	return publicRestApiPaths;
-    }
-    
-    /**
-     * Return the required Uber user API resource paths.  These will be set once and reused after that.
-     * 
-     * @return
-     */
-    public synchronized static Map<String, String> getRequiredUberUserPaths() {
-        if ( requiredUberUserMethodsToPaths == null ) {
-            requiredUberUserMethodsToPaths = Maps.newHashMap();
-            
-            Set<Class<? extends ResourceBase>> resourceClasses = scanAllResources();
-            
-            if ( resourceClasses != null ) {
-                for ( Class<? extends ResourceBase> clazz : resourceClasses ) {
-                    buildAnnotatedPathsForClass( clazz );
-                }
-            }
-        }
-        
-        return requiredUberUserMethodsToPaths;
+    	return apiRouteTrie;
     }
     
     /**
-     * Check if the java class is a RESTful bean or not
+     * Add the path of a resource method to the trie if it's public or requires an uber user session
      *
-     * @param cls
-     * @return boolean is true if it's a RESTful bean, and false otherwise
+     * @param route
+     * @param trie
      */
-    private synchronized static void buildAnnotatedPathsForClass(Class<?> cls) {
-        
-        if ( publicRestApiPaths == null ) {
-            publicRestApiPaths = new HashSet<String>();
-        }
-        
-        if ( requiredUberUserMethodsToPaths == null ) {
-            requiredUberUserMethodsToPaths = Maps.newHashMap();
-        }
-        
-        String classRootPath = "";
+    private static void addApiRoute(ApiRoute route, ApiRouteTrie trie) {
         
-        // get the resource path
-        Annotation[] classAnnotations = cls.getAnnotations();
-        if ( classAnnotations != null ) {
-        	//
-        	// get the Path annotation
-        	//
-        	for ( Annotation annotation : classAnnotations ) {
-        		if ( annotation instanceof Path ) {
-        			// it's the path annotation, use this part in the final apiPath
-        			classRootPath = ((Path)annotation).value();
-        			break;
-        		}
-        	}
-        }
+        String classRootPath = route.getClassPath();
         
         if ( !Strings.isNullOrEmpty(classRootPath) ) {
         	// ensure we don't have an ending slash
@@ -336,63 +278,19 @@ public abstract class ResourceBase {
         	classRootPath = (classRootPath.indexOf('/') != 0) ? "/" + classRootPath : classRootPath;
         }
         
-        Method[] methods = cls.getMethods();
-        if ( methods != null ) {
-        	for ( Method method : methods ) {
-        		Annotation[] annotations = method.getDeclaredAnnotations();
-        		if ( annotations != null ) {
-        			boolean isPublicPath = false;
-        			boolean requiredUberUserPath = false;
-        			String pathVal = null;
-        			
-        			//
-        			// look for the ApiInfo annotation
-        			//
-        			String methodType = "GET";
-        			for ( Annotation annotation : annotations ) {
-        				if ( annotation instanceof ApiInfo ) {
-        					
-        					//
-        					// found the ApiInfo annotation, is it public?
-        					//
-        					isPublicPath = ( (ApiInfo)annotation ).isPublicApi();
-        					requiredUberUserPath = ( (ApiInfo)annotation ).requiresUberUserSesssion();
-        				} else if ( annotation instanceof Path ) {
-        					
-        					//
-        					// get the Path annotation
-        					//
-        					pathVal = AppUtil.removeBeginAndEndForwardSlash( ((Path)annotation).value() );
-                    }
-
-        				if (annotation.annotationType().getSimpleName().indexOf("PUT") != -1) {
-        				    methodType = "PUT";
-        				} else if (annotation.annotationType().getSimpleName().indexOf("DELETE") != -1) {
-                        methodType = "DELETE";
-                    } else if (annotation.annotationType().getSimpleName().indexOf("POST") != -1) {
-                        methodType = "POST";
-                    }
-        			}
-        			
-        			// default to setting the apiPath to the root path in case pathVal is null
-                    String apiPath = classRootPath;
-        			
-        			if ( isPublicPath ) {
-        			    if ( pathVal != null ) {
-        			        apiPath += "/" + pathVal;
-        			    }
-        			    publicRestApiPaths.add( apiPath );
-        			}
-        			if ( requiredUberUserPath ) {
-        			    if ( pathVal != null ) {
-                            apiPath += "/" + pathVal;
-                        }
-        			    requiredUberUserMethodsToPaths.put(methodType, apiPath);
-        			}
-        		}
-        	}
+        // default to setting the apiPath to the root path in case the method has no path
+        String apiPath = AppConstants.PATH_ROOT_NO_SLASH + classRootPath;
+        if ( !Strings.isNullOrEmpty(route.getMethodPath()) ) {
+            apiPath += "/" + AppUtil.removeBeginAndEndForwardSlash( route.getMethodPath() );
+        }
+        
+        if ( route.isPublicApi() ) {
+            trie.addPublicPath( apiPath );
+        }
+        if ( route.requiresUberUserSession() ) {
+            // every path of the method type, not just the last one found
+            trie.addUberUserPath( route.getHttpMethod(), apiPath );
         }
-
     }
     
     /**
@@ -5,9 +5,6 @@
 package com.baddata.api.filter;
 
 import java.io.IOException;
-import java.util.Map;
-import java.util.Set;
-import java.util.regex.Pattern;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -22,12 +19,16 @@ import javax.ws.rs.core.Response.Status;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.baddata.api.dto.system.AuditLogApiInfo;
 import com.baddata.api.dto.user.User;
-import com.baddata.api.dto.user.User.RoleType;
+import com.baddata.api.factory.ApiPrincipal;
+import com.baddata.api.factory.ApiRouteTrie;
 import com.baddata.api.factory.ApiSessionContext;
 import com.baddata.api.factory.ResourceBase;
+import com.baddata.db.lucene.IndexLookupCounter;
 import com.baddata.log.EventLogger.ApiErrorCode;
 import com.baddata.log.Logger;
+import com.baddata.manager.log.AuditLogPublisher;
 import com.baddata.manager.system.SystemManager;
 import com.baddata.util.AppConstants;
 import com.baddata.util.AppUtil;
@@ -36,10 +37,11 @@ public class RestApiFilter implements Filter {
 
 	private static final Logger logger = Logger.getLogger(RestApiFilter.class.getName());
 
-	private static Pattern tokenOnlyPattern = Pattern.compile("^(\\{.*\\})$");
-	private static Pattern tokenPattern = Pattern.compile("(\\{.*\\})");
-
 	private static SystemManager systemMgr = SystemManager.getInstance();
+	private static AuditLogPublisher auditPublisher = AuditLogPublisher.getInstance();
+
+	// the public and uber user api paths, compiled once from the resource annotations
+	private ApiRouteTrie apiRoutes = null;
 
 	@Override
 	public void destroy() {
@@ -48,7 +50,7 @@ public class RestApiFilter implements Filter {
 
 	@Override
 	public void init(FilterConfig filterConfig) throws ServletException {
-		// TODO Auto-generated method stub
+		apiRoutes = ResourceBase.getApiRouteTrie();
 	}
 
 	@Override
@@ -64,9 +66,15 @@ public class RestApiFilter implements Filter {
 		int status = 0;
 		int bufferSize = 0;
 		String error = "";
+		int indexLookups = 0;
+		Long userRef = null;
+		String sessionId = null;
+		String referer = null;
 
 		try {
 			HttpServletRequest httpReq = (HttpServletRequest) servletRequest;
+			sessionId = httpReq.getRequestedSessionId();
+			referer = httpReq.getHeader("Referer");
 
 			HttpServletResponse httpResp = (HttpServletResponse) servletResponse;
 
@@ -80,7 +88,13 @@ public class RestApiFilter implements Filter {
 			if (user != null) {
 				isLoggedIn = true;
 				username = user.getUsername();
+				userRef = user.getId();
+				//
+				// the session is resolved once per request, the resources and servlets read the principal
+				new ApiPrincipal(user, ApiSessionContext.getCsrfToken(userRef)).attachTo(httpReq);
 			}
+			// count the index lookups the request makes from here on
+			IndexLookupCounter.start();
 
 			if ( httpReq.getRequestURI().indexOf("download") == -1 ) {
 				httpResp.setContentType("application/json;charset=UTF-8");
@@ -110,17 +124,8 @@ public class RestApiFilter implements Filter {
 			reqUrl = reqUri + "" + qryStr;
 			method = (httpReq.getMethod() != null) ? httpReq.getMethod().toUpperCase() : "GET";
 
-			String lowercaseUri = reqUri.toLowerCase();
-			if (lowercaseUri.indexOf("/") == 0) {
-				if (lowercaseUri.length() > 0) {
-					lowercaseUri = lowercaseUri.substring(1);
-				} else {
-					lowercaseUri = "";
-				}
-			}
-			String[] lowerCaseUriParts = lowercaseUri.split("/");
-			boolean isPublicRequest = this.isPublicRequest( lowerCaseUriParts );
-			boolean isForbiddenRequest = this.isForbiddenApi( user, method, lowerCaseUriParts );
+			boolean isPublicRequest = this.isPublicRequest( reqUri );
+			boolean isForbiddenRequest = this.isForbiddenApi( ApiPrincipal.fromRequest(httpReq), method, reqUri );
 
 			boolean isMaintenanceMode = systemMgr.isMaintenanceMode();
 			if (!isPublicRequest && isLoggedIn && isMaintenanceMode && !method.equals("GET")) {
@@ -142,6 +147,7 @@ public class RestApiFilter implements Filter {
 				//
 				// Log the response
 				elapsed = System.currentTimeMillis() - start;
+				indexLookups = IndexLookupCounter.get();
 
 				status = httpResp.getStatus();
 				bufferSize = httpResp.getBufferSize();
@@ -181,75 +187,58 @@ public class RestApiFilter implements Filter {
 			logger.error("API Filter Error", e);
 			error += "; Exception: " + AppUtil.getErrMsg(e);
 		} finally {
+			IndexLookupCounter.stop();
+
 			if ( this.isAuditableApi(reqUrl, method) ) {
-				boolean hasError = (StringUtils.isNotBlank(error)) ? true : false;
 				//
-				// Audit log everything except the audit log api resource path
+				// Audit everything except the audit log api resource path. The record is
+				// handed to the audit pipeline which indexes it in the background
 				//
-				// request: [url: "GET /api/salesforce/opportunity/quarters?tenantUsername=xavierluiz%40yahoo.com", user: admin, status: 200, size: 8192, elapsed: 57]
-				StringBuilder sb = new StringBuilder();
-				// method, reqUrl, username, status, bufferSize, elapsed, and possibly error
-				sb.append("API: [request: \"%s %s\", user: %s, status: %d, size: %d, elapsed: %d");
-
-				// add the error to the log if we have it
-				if (hasError) {
-					sb.append(", error: \"%s\"");
+				AuditLogApiInfo apiInfo = new AuditLogApiInfo();
+				apiInfo.setMethod(method);
+				apiInfo.setUrl(reqUrl);
+				apiInfo.setUserName(username);
+				apiInfo.setUserRef(userRef);
+				apiInfo.setStatus(status);
+				apiInfo.setSize(bufferSize);
+				apiInfo.setElapsed(elapsed);
+				apiInfo.setIndexLookups(indexLookups);
+				if ( StringUtils.isNotBlank(error) ) {
+					apiInfo.setError(error);
 				}
-
-				sb.append("]");
-
-				if (hasError) {
-					// has an error, add it to the log
-					logger.apiAudit( String.format(  sb.toString(),
-							method, reqUrl, username, status, bufferSize, elapsed, error ) );
-				} else {
-					// no error, leave the empty error message out
-					logger.apiAudit( String.format(  sb.toString(),
-							method, reqUrl, username, status, bufferSize, elapsed ) );
+				if ( sessionId != null ) {
+					apiInfo.setSessionId(sessionId);
+				}
+				if ( referer != null ) {
+					apiInfo.setReferer(referer);
 				}
+				auditPublisher.publish(apiInfo);
 			}
 
 		}
 	}
 
-	private boolean isPublicRequest(String[] lowerCaseUriParts) {
-		Set<String> publicApiPaths = ResourceBase.getPublicApiPaths();
-
-		for ( String rawPath : publicApiPaths ) {
-			rawPath = AppConstants.PATH_ROOT_NO_SLASH + "" + rawPath.toLowerCase();
+	private boolean isPublicRequest(String reqUri) {
+		return this.getApiRoutes().isPublic(reqUri);
+	}
 
+	private boolean isForbiddenApi(ApiPrincipal principal, String method, String reqUri) {
+		if ( this.getApiRoutes().requiresUberUser(method, reqUri) ) {
 			//
-			// check if the raw path matches the lowercase'd request uri
+			// It's an admin required endpoint, it's forbidden if the session user is not an admin.
 			//
-			if ( this.foundUriMatch(lowerCaseUriParts, rawPath) ) {
-				return true;
-			}
+			return ( principal == null || !principal.isAdmin() );
 		}
-
-		// it's not public
+		// not forbidden
 		return false;
 	}
 
-	private boolean isForbiddenApi(User user, String method, String[] lowerCaseUriParts) {
-
-		Map<String, String> adminRequiredApiPaths = ResourceBase.getRequiredUberUserPaths();
-
-		for ( String endpointMethod : adminRequiredApiPaths.keySet() ) {
-			String rawPath = adminRequiredApiPaths.get(endpointMethod);
-			rawPath = AppConstants.PATH_ROOT_NO_SLASH + "" + rawPath.toLowerCase();
-			if ( this.foundUriMatch(lowerCaseUriParts, rawPath) && method.equalsIgnoreCase(endpointMethod) ) {
-				if ( user == null || RoleType.getRoleTypeFromValue( user.getRole() ) != RoleType.ADMIN ) {
-					//
-					// It's an admin required endpoint and the session user is not an admin.
-					// Return true, it's forbidden
-					//
-					return true;
-				}
-				break;
-			}
+	private ApiRouteTrie getApiRoutes() {
+		if ( apiRoutes == null ) {
+			// init hasn't run
+			apiRoutes = ResourceBase.getApiRouteTrie();
 		}
-		// not forbidden
-		return false;
+		return apiRoutes;
 	}
 
 	private boolean isAuditableApi(String url, String method) {
@@ -259,39 +248,4 @@ public class RestApiFilter implements Filter {
 		return (url.indexOf("/api/audit/") == -1 && url.indexOf("/api/database/") == -1 && url.indexOf("/api/job/progress") == -1);
 	}
 
-	private boolean foundUriMatch(String[] lowerCaseUriParts, String rawPath) {
-		String lowercaseUri = StringUtils.join(lowerCaseUriParts, "/");
-
-		String[] rawParts = rawPath.split("/");
-
-		if ( rawParts.length == lowerCaseUriParts.length ) {
-
-			if ( tokenPattern.matcher(rawPath).find() ) {
-
-				boolean updateRawPath = false;
-				for (int i = 0; i < rawParts.length; i++) {
-					String rawPart = rawParts[i];
-					String uriPart = lowerCaseUriParts[i];
-
-					if ( tokenOnlyPattern.matcher(rawPart).find() ) {
-						// replace it with the value from the uri part
-						rawParts[i] = uriPart;
-						updateRawPath = true;
-					}
-				}
-				//
-				// replace origLowercaseUri with the new pathPartsRecompiled list
-				if (updateRawPath) {
-					rawPath = StringUtils.join(rawParts, "/");
-				}
-			}
-
-			if ( lowercaseUri.indexOf(rawPath) == 0 ) {
-				return true;
-			}
-		}
-
-		return false;
-	}
-
 }
@@ -17,19 +17,26 @@ import com.baddata.api.dto.ApiDto;
 import com.baddata.api.dto.job.Progress;
 import com.baddata.api.dto.page.Page;
 import com.baddata.api.dto.salesforce.SalesforceOauth2Creds;
+import com.baddata.api.factory.HttpConnectionManager;
 import com.baddata.db.DbIndex.DbIndexType;
+import com.baddata.db.lucene.IndexStoreProfiles;
 import com.baddata.db.lucene.IndexerService;
 import com.baddata.log.EventLogger;
 import com.baddata.log.EventLogger.EventMessage;
 import com.baddata.log.Logger;
 import com.baddata.manager.currency.CurrencyLayerManager;
 import com.baddata.manager.db.PersistenceManager;
+import com.baddata.manager.event.EventLogDispatcher;
 import com.baddata.manager.job.JobManager;
 import com.baddata.manager.job.JobManager.JobType;
+import com.baddata.manager.job.ProgressRegistry;
+import com.baddata.manager.log.AuditLogPublisher;
+import com.baddata.manager.log.BaddataLogManager;
 import com.baddata.manager.salesforce.SalesforceDataLoadManager;
 import com.baddata.manager.system.SystemManager;
 import com.baddata.manager.upgrade.UpgradeManager;
 import com.baddata.manager.user.TokenManager;
+import com.baddata.manager.user.UserImageThumbnailer;
 import com.baddata.manager.user.UserSessionManager;
 import com.baddata.util.DateUtil;
 import com.baddata.util.ExecutorServiceUtil;
@@ -86,10 +93,21 @@ public class AppServletContextListener implements ServletContextListener {
 
         ExecutorServiceUtil.getInstance().init();
         
+        // the store profile of each index, from the server.properties loaded above
+        IndexStoreProfiles.getInstance().load();
+        
         logger.info("AppServletContextListener Start: checking to remove locks to restart the index service");
         IndexerService.getInstance().start();
         logger.info("AppServletContextListener Start: completed check to remove locks to restart the index service");
         
+        // start indexing the audit records published by the api filter
+        AuditLogPublisher.getInstance().start();
+        // tails the log if the audit log tail fallback is enabled
+        BaddataLogManager.getInstance().startTasks();
+        
+        // start sending the event notifications of the EventLogger
+        EventLogDispatcher.getInstance().start();
+        
         SystemManager.getInstance();
         
         JobManager.getInstance();
@@ -139,6 +157,26 @@ public class AppServletContextListener implements ServletContextListener {
             }
         }
         
+        //
+        // Save the progress of the jobs still running
+        ProgressRegistry.getInstance().stop();
+        
+        //
+        // Send the event notifications still buffered
+        EventLogDispatcher.getInstance().stop();
+        
+        // the images without thumbnails are scaled by the image api
+        UserImageThumbnailer.getInstance().stop();
+        
+        //
+        // Close the outbound http connection pool
+        HttpConnectionManager.shutdownInstance();
+        
+        //
+        // Index the audit records still buffered
+        BaddataLogManager.getInstance().stopTasks();
+        AuditLogPublisher.getInstance().stop();
+        
         //
         // Wait to complete indexing
         logger.info("AppServletContextListener End: waiting to complete indexing");
@@ -48,6 +48,9 @@ public class SearchSpec {
 	private Long delay = null;
 	private List<SearchQuery> queries;
 	private boolean fetchAll;
+	private boolean hydrateSubObjects = true; // resolve the nested TypedObject fields of the results
+	private String searchAfter = null; // Page.searchAfter token of the previous page, takes precedence over the page number
+	private boolean useResultCache = true; // serve the results from the query result cache while the index is unchanged
 
 	//
 	// These keywords are reserved for the search spec attributes and
@@ -61,7 +64,7 @@ public class SearchSpec {
 			"reportname", "jobtype", "timeout", "since", "until", "sortby", "sortfield",
 			"daterangetype", "sortorder", "paginate", "authtoken", "token",
 			"asset", "assetwidth", "assetheight", "_ts",
-			"amountfilter", "cyclefilter", "primarygroupfilter");
+			"amountfilter", "cyclefilter", "primarygroupfilter", "hydrate", "searchafter", "cache");
 
 	//
 	// transient variables. these are derived from
@@ -220,6 +223,45 @@ public class SearchSpec {
 		this.fetchAll = fetchAll;
 	}
 
+	public boolean hydrateSubObjects() {
+		return hydrateSubObjects;
+	}
+
+	/**
+	 * Set to false to return the results without searching for their
+	 * nested TypedObject and list of TypedObject fields.
+	 * @param hydrateSubObjects
+	 */
+	public void setHydrateSubObjects(boolean hydrateSubObjects) {
+		this.hydrateSubObjects = hydrateSubObjects;
+	}
+
+	public String getSearchAfter() {
+		return searchAfter;
+	}
+
+	/**
+	 * Continue after the last item of the previous page rather than skipping to the page number.
+	 *
+	 * @param searchAfter the Page.searchAfter token of the previous page
+	 */
+	public void setSearchAfter(String searchAfter) {
+		this.searchAfter = searchAfter;
+	}
+
+	public boolean useResultCache() {
+		return useResultCache;
+	}
+
+	/**
+	 * Set to false to always search the index rather than the query result cache.
+	 *
+	 * @param useResultCache
+	 */
+	public void setUseResultCache(boolean useResultCache) {
+		this.useResultCache = useResultCache;
+	}
+
 	public void setSortQuery(SortQuery sortQuery) {
 		this.sortQuery = sortQuery;
 	}
@@ -580,6 +622,12 @@ public class SearchSpec {
 					this.setAuthToken(val);
 				} else if ( key.equals( "paginate" ) ) {
 					paginate = Boolean.valueOf(val);
+				} else if ( key.equals( "hydrate" ) ) {
+					this.hydrateSubObjects = Boolean.valueOf(val);
+				} else if ( key.equals( "searchafter" ) ) {
+					this.searchAfter = val;
+				} else if ( key.equals( "cache" ) ) {
+					this.useResultCache = Boolean.valueOf(val);
 				} else if ( key.equals("limit") ) {
 					this.limit = (Strings.isNullOrEmpty( val )) ? AppConstants.MAX_SEARCH_LIMIT : Integer.valueOf( val );
 				} else if ( key.equals("page") ) {
@@ -838,7 +886,7 @@ public class SearchSpec {
 	@Override
 	public String toString() {
 		return "SearchSpec [page=" + page + ", limit=" + limit + ", sortQuery=" + sortQuery + ", rangeQueries="
-				+ rangeQueries + ", delay=" + delay + ", queries=" + queries + ", fetchAll=" + fetchAll
+				+ rangeQueries + ", delay=" + delay + ", queries=" + queries + ", fetchAll=" + fetchAll + ", hydrateSubObjects=" + hydrateSubObjects + ", searchAfter=" + searchAfter + ", useResultCache=" + useResultCache
 				+ ", reservedQueryKeys=" + reservedQueryKeys + ", start=" + startDate + ", end=" + endDate + ", since=" + since
 				+ ", until=" + until + ", aggregationFields=" + aggregationFields + ", toggleBy=" + toggleBy
 				+ ", tenantId=" + tenantId + ", userRef=" + userRef + ", reportName=" + reportName + ", jobType="
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2018 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.api.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.Response.Status;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import com.baddata.api.factory.ApiPrincipal;
+import com.baddata.api.factory.ResourceBase;
+import com.baddata.api.util.LongPollInfo;
+import com.baddata.api.util.ProgressLongPollManager;
+import com.baddata.log.EventLogger.ApiErrorCode;
+import com.baddata.manager.job.JobManager.JobType;
+import com.baddata.util.AppUtil;
+
+/**
+ * Long poll variant of GET job/progress. The request is parked (Servlet 3 async) until the
+ * progress of the job changes from the version the client has, or the timeout expires.
+ *
+ * GET /api/job/progress/poll?jobtype=salesforce_data&tenantusername=...&version=12&timeout=30
+ *
+ * Answers with the progress json, or no content if there's no job. The jersey servlet
+ * doesn't support async requests, that's why this isn't part of the JobResource.
+ */
+public class JobProgressLongPollServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    // seconds, the max matches the search spec "timeout" param
+    private static final long DEFAULT_TIMEOUT = 30;
+    private static final long MAX_TIMEOUT = 60 * 5;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+
+        // the session was resolved by the RestApiFilter
+        ApiPrincipal principal = ApiPrincipal.fromRequest(req);
+        if ( principal == null ) {
+            ResourceBase.sendJsonErrorBeanResponse(
+                    Status.UNAUTHORIZED,
+                    resp,
+                    ApiErrorCode.INVALID_SESSION_ERROR,
+                    "Invalid session, please reauthenticate and try again." );
+            return;
+        }
+
+        JobType jobType = null;
+        try {
+            jobType = JobType.getJobType(AppUtil.getSingleQueryParamValueByName(req, "jobtype"));
+        } catch (IllegalArgumentException e) {
+            ResourceBase.sendJsonErrorBeanResponse(
+                    Status.BAD_REQUEST,
+                    resp,
+                    ApiErrorCode.BAD_API_QUERY_PARAM_FORMAT_ERROR,
+                    "Invalid 'jobtype' query string value." );
+            return;
+        }
+
+        String tenantId = AppUtil.getSingleQueryParamValueByName(req, "tenantid");
+        if ( StringUtils.isBlank(tenantId) ) {
+            tenantId = AppUtil.generateTenantId(AppUtil.getSingleQueryParamValueByName(req, "tenantusername"), principal.getUserId());
+        }
+
+        long knownVersion = NumberUtils.toLong(AppUtil.getSingleQueryParamValueByName(req, "version"), -1l);
+        long timeout = NumberUtils.toLong(AppUtil.getSingleQueryParamValueByName(req, "timeout"), DEFAULT_TIMEOUT);
+        timeout = Math.max(1, Math.min(timeout, MAX_TIMEOUT));
+
+        LongPollInfo pollInfo = new LongPollInfo(jobType, principal.getUserId(), timeout);
+        ProgressLongPollManager.getInstance().poll(req, resp, pollInfo, tenantId, knownVersion);
+    }
+}
@@ -6,7 +6,6 @@ package com.baddata.api.servlet;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
@@ -14,25 +13,25 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.Part;
-import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response.Status;
 
-import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import com.baddata.api.dto.UploadResponse;
 import com.baddata.api.dto.user.User;
-import com.baddata.api.factory.ApiSessionContext;
+import com.baddata.api.factory.ApiPrincipal;
 import com.baddata.api.factory.ResourceBase;
 import com.baddata.db.lucene.IndexPathInfo;
 import com.baddata.exception.IndexPersistException;
 import com.baddata.log.EventLogger.ApiErrorCode;
 import com.baddata.log.Logger;
 import com.baddata.manager.db.PersistenceManager;
+import com.baddata.manager.user.UserImageThumbnailer;
 import com.baddata.util.AppConstants;
 import com.baddata.util.AppUtil;
 import com.baddata.util.FileUtil;
@@ -49,22 +48,49 @@ public abstract class UploaderServletBase extends HttpServlet {
     protected static String UPLOADS_FOLDER = "uploads".intern();
     protected static String TMP_PREFIX = "tmp_".intern();
     
-    public File userFileUploadDir = null;
-    public String username = "";
-    public String prefix = "";
+    // 10 MB per file and 20 MB per request
+    protected static final long MAX_FILE_SIZE = 10485760;
+    protected static final long MAX_REQUEST_SIZE = 20971520;
     
-    protected enum FileDeleteType {
-        DELETE_TMP_ONLY, DELETE_NON_TMP_ONLY, DELETE_ALL
+    /**
+     * The state of an upload request. The servlet instance is shared by concurrent
+     * requests, so nothing of the request is kept in its fields.
+     */
+    protected static final class UploadContext {
+        private final String username;
+        private final String prefix;
+        private final File userFileUploadDir;
+        
+        UploadContext(String username, String prefix, File userFileUploadDir) {
+            this.username = username;
+            this.prefix = prefix;
+            this.userFileUploadDir = userFileUploadDir;
+        }
+        
+        public String getUsername() {
+            return username;
+        }
+        
+        public String getPrefix() {
+            return prefix;
+        }
+        
+        public File getUserFileUploadDir() {
+            return userFileUploadDir;
+        }
     }
     
-    protected boolean isValidDoPostUpload( HttpServletRequest req, HttpServletResponse resp, boolean validateMultipart ) throws IOException {
+    /**
+     * Validates the session, the csrf token and the content type of the upload
+     * 
+     * @return UploadContext or null if it's not valid, the error has been sent
+     * @throws IOException
+     */
+    protected UploadContext validateDoPostUpload( HttpServletRequest req, HttpServletResponse resp, boolean validateMultipart ) throws IOException {
         
-        String authorizationHeader = req.getHeader(HttpHeaders.AUTHORIZATION);
-        if ( StringUtils.isBlank( authorizationHeader ) ) {
-            authorizationHeader = AppUtil.getSingleQueryParamValueByName(req, AppConstants.AUTH_TOKEN);
-        }
-        User user = ApiSessionContext.getUser(authorizationHeader);
-        boolean isLoggedIn = (user != null);
+        // the session was resolved by the RestApiFilter
+        ApiPrincipal principal = ApiPrincipal.fromRequest(req);
+        boolean isLoggedIn = (principal != null);
         if (!isLoggedIn) {
             String errMsg = "File upload failed, invalid session for request: " + req.toString();
             logger.error( errMsg, null);
@@ -73,21 +99,21 @@ public abstract class UploaderServletBase extends HttpServlet {
                     resp,
                     ApiErrorCode.INVALID_SESSION_ERROR,
                     "Invalid session, please reauthenticate and try again." );
-            return false;
+            return null;
         }
         
         //
         // check if they have the correct csrf token
         //
         String afToken = AppUtil.getSingleQueryParamValueByName(req, AppConstants.AF_TOKEN);
-        String csrfToken = ApiSessionContext.getCsrfToken(user.getId());
+        String csrfToken = principal.getCsrfToken();
         if ( StringUtils.isBlank(afToken) || StringUtils.isBlank(csrfToken)) {
             ResourceBase.sendJsonErrorBeanResponse(
                     Status.UNAUTHORIZED,
                     resp,
                     ApiErrorCode.UNAUTHORIZED_ACCESS_ERROR,
                     "Invalid security token, unable to process the request." );
-            return false;
+            return null;
         }
         boolean csrfTokenMatches = (afToken.equals(csrfToken)) ? true : false;
         
@@ -100,11 +126,11 @@ public abstract class UploaderServletBase extends HttpServlet {
                     resp,
                     ApiErrorCode.UNAUTHORIZED_ACCESS_ERROR,
                     "Invalid security token, unable to process the request." );
-            return false;
+            return null;
         }
         
-        // user isn't null, get the username
-        username = user.getUsername();
+        // principal isn't null, get the username
+        String username = principal.getUsername();
         
         // check if it's a multipart request
         if ( validateMultipart && !ServletFileUpload.isMultipartContent( req ) ) {
@@ -114,23 +140,31 @@ public abstract class UploaderServletBase extends HttpServlet {
                     resp,
                     ApiErrorCode.FILE_UPLOAD_NON_MULTIPART_ERROR,
                     "Invalid content type, please set the content type as 'multipart/form-data'");
-            return false;
+            return null;
         }
         
-        prefix = ( req.getParameter("prefix") != null) ? req.getParameter("prefix").trim() : "";
+        // there's no multipart config, this only reads the query string and leaves the body to stream
+        String prefix = ( req.getParameter("prefix") != null) ? req.getParameter("prefix").trim() : "";
         
         // user found, create the destination dir
         String webInfPath = getServletContext().getRealPath(File.separatorChar + REPO_FOLDER);
         IndexPathInfo pathInfo = new IndexPathInfo(webInfPath, UPLOADS_FOLDER, username);
-        userFileUploadDir = FileUtil.getOrCreatePathDir( pathInfo );
+        File userFileUploadDir = FileUtil.getOrCreatePathDir( pathInfo );
         
-        return true;
+        return new UploadContext(username, prefix, userFileUploadDir);
     }
     
+    /**
+     * Stream the uploaded image to the user's images dir. The image part is written through a digest to
+     * a temp file as it's read off the request and published with an atomic rename, the thumbnails are
+     * built in the background.
+     */
     protected void postNewUserImage(HttpServletRequest req, HttpServletResponse resp, String imageFileTokenPart) throws ServletException, IOException {
-    	if ( !this.isValidDoPostUpload(req, resp, true /*validateMultipart*/) ) {
+        UploadContext upload = this.validateDoPostUpload(req, resp, true /*validateMultipart*/);
+        if ( upload == null ) {
             return;
         }
+        String username = upload.getUsername();
         
         // --------------------------------------------------------------------------------------------
         // example payload
@@ -147,85 +181,89 @@ public abstract class UploaderServletBase extends HttpServlet {
         // 
         // ------WebKitFormBoundary5LiiiTVMXy8lqfWP--
         // --------------------------------------------------------------------------------------------
-
-        Collection<Part> fileParts = req.getParts();
-        if ( CollectionUtils.isEmpty(fileParts) ) {
-        	ResourceBase.sendJsonErrorBeanResponse(
-                    Status.INTERNAL_SERVER_ERROR,
-                    resp,
-                    ApiErrorCode.FILE_UPLOAD_ERROR,
-                    "No file content to save. Please check the file and try again.");
-        	return;
-        }
-        
-        // get the file extension. this will also check if this is an image file
-        String ext = this.getExtensionForImageContentType(resp, fileParts, true /*includeDot*/);
-
-        if ( ext == null ) {
-        	// no extension found, probably a content type issue. we've already flushed the error, return out
-        	return;
-        }
-        
-        // verify it's an image extension
-        if (!this.isValidImageFileExtension(ext)) {
-            // throw an error
-            String errMsg = "The file does not match a valid image filename or content type.";
-            logger.error( errMsg, null);
-            ResourceBase.sendJsonErrorBeanResponse(
-                    Status.INTERNAL_SERVER_ERROR,
-                    resp,
-                    ApiErrorCode.FILE_UPLOAD_ERROR,
-                    "Please provide a valid image to upload.");
-            return;
-        }
         
         String destinationDirStr = FileUtil.getAndCreateAbsoluteUserImagesDir(username);
         File destinationDir = new File(destinationDirStr);
         String imgPrefix = username + "" + imageFileTokenPart;
+        String imgName = null;
+        byte[] digest = null;
+        List<String> foundContentTypes = Lists.newArrayList();
         
-        //
-        // continue to create/build the avatar file name
-        this.deleteUserTmpFiles(destinationDir, imgPrefix);
-        String imgName = imgPrefix + "" + ext;
-        String tmpImgName = TMP_PREFIX + "" + imgPrefix + "" + ext;
-
-        //
-        // Go through the parts and write the data to disk
-        long totalBytesUploaded = 0;
-        for ( Part part : fileParts ) {
-        	String contentType = part.getContentType();
-        	if ( StringUtils.isBlank( contentType ) ) {
-        		// no content type, go to the next one
-        		continue;
-        	}
-        	if ( contentType.toLowerCase().indexOf("image/") != -1 ) {
-        		// this is the part to write
-        		try {
-        		    FileUtil.writeImageFile( destinationDir, tmpImgName, ext, part.getInputStream() );
-        		    totalBytesUploaded +=  part.getSize();
-				} catch (FileUploadException e) {
-					logger.error( "Failed to upload user avatar image.", e );
+        ServletFileUpload fileUpload = new ServletFileUpload();
+        fileUpload.setFileSizeMax(MAX_FILE_SIZE);
+        fileUpload.setSizeMax(MAX_REQUEST_SIZE);
+        
+        try {
+            //
+            // Go through the parts as they're read off the request, the image part is written to disk
+            FileItemIterator items = fileUpload.getItemIterator(req);
+            while ( imgName == null && items.hasNext() ) {
+                FileItemStream item = items.next();
+                String contentType = item.getContentType();
+                if ( item.isFormField() || StringUtils.isBlank( contentType ) ) {
+                    // this part doesn't contain the file information we need
+                    continue;
+                }
+                
+                contentType = contentType.toLowerCase();
+                if ( contentType.indexOf("image/") == -1 ) {
+                    foundContentTypes.add(contentType);
+                    continue;
+                }
+                
+                // get the extension out of the passed in filename and verify it's an image extension
+                String ext = AppUtil.getFileExtension(item.getName(), true /*includeDot*/);
+                if ( !this.isValidImageFileExtension(ext) ) {
+                    String errMsg = "The file does not match a valid image filename or content type.";
+                    logger.error( errMsg, null);
                     ResourceBase.sendJsonErrorBeanResponse(
                             Status.INTERNAL_SERVER_ERROR,
                             resp,
                             ApiErrorCode.FILE_UPLOAD_ERROR,
-                            "Failed to upload the user avatar image. " + AppUtil.getErrMsg(e));
+                            "Please provide a valid image to upload.");
                     return;
-				}
-        	}
+                }
+                
+                digest = FileUtil.storeImageFileAtomically( destinationDir, imgPrefix + "" + ext, item.openStream() );
+                imgName = imgPrefix + "" + ext;
+            }
+        } catch (FileUploadException | IOException e) {
+            logger.error( "Failed to upload user avatar image.", e );
+            ResourceBase.sendJsonErrorBeanResponse(
+                    Status.INTERNAL_SERVER_ERROR,
+                    resp,
+                    ApiErrorCode.FILE_UPLOAD_ERROR,
+                    "Failed to upload the user avatar image. " + AppUtil.getErrMsg(e));
+            return;
         }
         
+        if ( imgName == null ) {
+            if ( foundContentTypes.isEmpty() ) {
+                ResourceBase.sendJsonErrorBeanResponse(
+                        Status.INTERNAL_SERVER_ERROR,
+                        resp,
+                        ApiErrorCode.FILE_UPLOAD_ERROR,
+                        "No file content to save. Please check the file and try again.");
+            } else {
+                ResourceBase.sendJsonErrorBeanResponse(
+                        Status.BAD_REQUEST,
+                        resp,
+                        ApiErrorCode.FILE_UPLOAD_NON_MULTIPART_ERROR,
+                        "Invalid content type, please upload an image. Found content type(s): " + StringUtils.join(foundContentTypes, ", "));
+            }
+            return;
+        }
         
         //
-        // No errors, delete all user files except for the tmp and copy the tmp to the real filename
-        // delete existing user files except fo the tmp
-        this.deleteUserFiles(destinationDir, imgPrefix);
-        // copy the src to the dest
-        File srcFile = new File( destinationDir, tmpImgName );
-        File destFile = new File( destinationDir, imgName );
-        FileUtils.copyFile(srcFile, destFile);
+        // The new image is in place, delete the user's image saved with another extension
+        this.deleteStaleUserImages(destinationDir, imgPrefix, imgName);
+        
+        File imageFile = new File( destinationDir, imgName );
+        logger.debug("Uploaded file '" + imgName + "' to destination '" + destinationDirStr + "' containing "
+                + imageFile.length() + " bytes, md5 " + Hex.encodeHexString(digest) + ".");
         
-        logger.debug("Uploaded file '" + imgName + "' to destination '" + destinationDirStr + "' containing " + totalBytesUploaded + " bytes.");
+        // scaled off the request
+        UserImageThumbnailer.getInstance().submit(imageFile);
         
         User user = PersistenceManager.getInstance().getUserByUsername(username);
         if ( user != null ) {
@@ -251,56 +289,41 @@ public abstract class UploaderServletBase extends HttpServlet {
         this.sendSuccessResponse(resp, newContextFileName);
     }
     
-    private void deleteUserFiles(File userDir, String imagePrefix) {
-        this.deleteUserFilesByDirective(userDir, imagePrefix, FileDeleteType.DELETE_NON_TMP_ONLY);
-    }
-    
-    private void deleteUserTmpFiles(File userDir, String imagePrefix) {
-        this.deleteUserFilesByDirective(userDir, imagePrefix, FileDeleteType.DELETE_TMP_ONLY);
-    }
-    
-    private void deleteUserFilesByDirective(File userDir, String imagePrefix, FileDeleteType deleteType) {
-        if (userDir.isDirectory()) {
-            if (userDir.listFiles() != null) {
-                for (File dirFile : userDir.listFiles()) {
-                    
-                    String fName = dirFile.getName().toLowerCase();
-                    String fNameTmpPattern = TMP_PREFIX + "" + imagePrefix;
-                    
-                    if (!dirFile.isDirectory() &&
-                            fName.indexOf(imagePrefix) == 0) {
-                        
-                        switch (deleteType) {
-                            case DELETE_NON_TMP_ONLY:
-                                if (fName.indexOf(fNameTmpPattern) == 0) {
-                                    continue;
-                                } else {
-                                    dirFile.delete();
-                                }
-                                break;
-                            case DELETE_TMP_ONLY:
-                                if (fName.indexOf(fNameTmpPattern) == 0) {
-                                    dirFile.delete();
-                                }
-                                break;
-                            default:
-                                dirFile.delete();
-                                break;
-                        }
-                    }
-                }
+    /**
+     * Delete the user's images of the prefix other than the current one, i.e. the ".png" one
+     * after uploading a ".jpg", with their thumbnails, and the temp files left by a previous
+     * upload path. The thumbnails of the current image are replaced by the thumbnailer.
+     */
+    private void deleteStaleUserImages(File userDir, String imagePrefix, String currentImageName) {
+        File[] dirFiles = userDir.listFiles();
+        if ( dirFiles == null ) {
+            return;
+        }
+        String imagePattern = imagePrefix + ".";
+        String tmpPattern = TMP_PREFIX + imagePrefix;
+        String currentImageExt = AppUtil.getFileExtension(currentImageName, true /*includeDot*/);
+        for ( File dirFile : dirFiles ) {
+            String fName = dirFile.getName();
+            if ( dirFile.isDirectory() || fName.equals(currentImageName) ) {
+                continue;
+            }
+            if ( fName.startsWith(imagePattern) || fName.startsWith(tmpPattern) ) {
+                dirFile.delete();
+            } else if ( UserImageThumbnailer.isThumbnailOf(fName, imagePrefix)
+                    && !fName.endsWith(currentImageExt) ) {
+                dirFile.delete();
             }
         }
     }
     
-    protected String buildNewFilename(HttpServletRequest req, String submittedFilename) {
+    protected String buildNewFilename(UploadContext upload, String submittedFilename) {
         // create a unique uuid part to add into the file name
         String uniqueUuid = this.createSmallId();
         
         // get the extension out of the passed in filename if we have it
         String ext = AppUtil.getFileExtension(submittedFilename, true /*includeDot*/);
         
-        String newFilename = prefix + "_" + uniqueUuid + "" + ext;
+        String newFilename = upload.getPrefix() + "_" + uniqueUuid + "" + ext;
         
         return newFilename;
     }
@@ -329,48 +352,6 @@ public abstract class UploaderServletBase extends HttpServlet {
         ResourceBase.sendJsonUploadSuccessBeanResponse(resp, uploadResponse);
     }
     
-    protected String getExtensionForImageContentType( HttpServletResponse resp, Collection<Part> fileParts, boolean includeDot ) throws IOException {
-    	List<String> foundContentTypes = Lists.newArrayList();
-    	
-    	if ( CollectionUtils.isNotEmpty( fileParts ) ) {
-
-        	//
-        	// Go through the file parts to get the extension and make sure it's only an image file
-            for ( Part part : fileParts ) {
-
-                String contentType = part.getContentType();
-                
-                //
-                // Go to the next part if the contentType is null/empty
-                if ( StringUtils.isBlank( contentType ) ) {
-                    // this part doesn't contain the file information we need
-                    continue;
-                }
-                
-                //
-                // Get the extension
-                String fileName = part.getSubmittedFileName();
-                contentType = contentType.toLowerCase();
-                // only accept "image/*" content type
-                if ( contentType.indexOf("image/") != -1 ) {
-                	// get the extension out of the passed in filename if we have it
-                	return AppUtil.getFileExtension(fileName, includeDot);
-                } else {
-                	// add this content type to the found content types list
-                	foundContentTypes.add(contentType);
-                }
-            }
-        }
-    	
-    	// unable to return an extension, throw an exception
-    	ResourceBase.sendJsonErrorBeanResponse(
-                Status.BAD_REQUEST,
-                resp,
-                ApiErrorCode.FILE_UPLOAD_NON_MULTIPART_ERROR,
-                "Invalid content type, please upload an image. Found content type(s): " + StringUtils.join(foundContentTypes, ", "));
-    	return null;
-    }
-    
     protected boolean isValidImageFileExtension(String ext) {
         // verify it's an image extension
         String testExt = (ext.indexOf(".") == 0) ? ext.substring(1) : ext;
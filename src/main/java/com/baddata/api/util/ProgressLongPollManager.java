@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2018 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.api.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.MediaType;
+
+import org.joda.time.DateTime;
+
+import com.baddata.api.dto.job.Progress;
+import com.baddata.log.Logger;
+import com.baddata.manager.job.JobManager;
+import com.baddata.manager.job.JobManager.JobType;
+import com.baddata.manager.job.ProgressRegistry;
+import com.baddata.manager.job.ProgressRegistry.ProgressListener;
+import com.baddata.util.JsonRepresentation;
+import com.google.common.collect.Maps;
+
+/**
+ * Parks the job progress long poll requests (Servlet 3 async) until the live progress of
+ * the job changes or the poll times out. The client sends the progress version it has and
+ * gets the next one as soon as the job updates it, one request per update instead of
+ * polling on a timer.
+ *
+ * The parked requests are keyed by job type and tenant, each keeps its LongPollInfo
+ * (user, timeout, when it was parked and answered).
+ */
+public class ProgressLongPollManager implements ProgressListener {
+
+    private static Logger logger = Logger.getLogger(ProgressLongPollManager.class.getName());
+
+    private static ProgressLongPollManager ref;
+
+    private ProgressRegistry progressRegistry = ProgressRegistry.getInstance();
+
+    // "JOBTYPE-tenantId" -> parked requests
+    private ConcurrentMap<String, Queue<PendingPoll>> pendingPollMap = Maps.newConcurrentMap();
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static ProgressLongPollManager getInstance() {
+        if (ref == null) {
+            synchronized(ProgressLongPollManager.class) {
+                if (ref == null) {
+                    ref = new ProgressLongPollManager();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private ProgressLongPollManager() {
+        progressRegistry.addListener(this);
+    }
+
+    /**
+     * Answer the request right away if the progress isn't the version the client has,
+     * otherwise park it until the progress is updated or the poll times out.
+     *
+     * @param req
+     * @param resp
+     * @param pollInfo
+     * @param tenantId
+     * @param knownVersion the progress version the client has, -1 if it has none
+     * @throws IOException
+     */
+    public void poll(HttpServletRequest req, HttpServletResponse resp, LongPollInfo pollInfo, String tenantId, long knownVersion) throws IOException {
+        pollInfo.setLastAccessDateTime(DateTime.now());
+
+        Progress progress = progressRegistry.get(pollInfo.getJobType(), tenantId);
+        if ( hasChanged(progress, knownVersion) ) {
+            this.writeProgress(resp, progress);
+            pollInfo.setObjectUpdateDateTime(DateTime.now());
+            this.deleteIfDone(progress);
+            return;
+        }
+
+        AsyncContext asyncContext = req.startAsync(req, resp);
+        asyncContext.setTimeout(TimeUnit.SECONDS.toMillis(pollInfo.getTimeoutInSeconds()));
+
+        final String key = getKey(pollInfo.getJobType().name(), tenantId);
+        final PendingPoll pendingPoll = new PendingPoll(asyncContext, pollInfo, tenantId);
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if ( pendingPoll.claim() ) {
+                    removePendingPoll(key, pendingPoll);
+                    // answer with what's there, the client polls again
+                    respond(pendingPoll, progressRegistry.get(pendingPoll.pollInfo.getJobType(), pendingPoll.tenantId));
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                pendingPoll.claim();
+                removePendingPoll(key, pendingPoll);
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException {
+                removePendingPoll(key, pendingPoll);
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException {
+                //
+            }
+        });
+
+        Queue<PendingPoll> pendingPolls = pendingPollMap.get(key);
+        if ( pendingPolls == null ) {
+            pendingPolls = new ConcurrentLinkedQueue<PendingPoll>();
+            Queue<PendingPoll> existing = pendingPollMap.putIfAbsent(key, pendingPolls);
+            if ( existing != null ) {
+                pendingPolls = existing;
+            }
+        }
+        pendingPolls.add(pendingPoll);
+
+        // check again, the progress may have been updated before the request was parked
+        final Progress latestProgress = progressRegistry.get(pollInfo.getJobType(), tenantId);
+        if ( hasChanged(latestProgress, knownVersion) && pendingPoll.claim() ) {
+            removePendingPoll(key, pendingPoll);
+            this.respond(pendingPoll, latestProgress);
+        }
+    }
+
+    @Override
+    public void progressUpdated(String jobType, String tenantId, final Progress progress) {
+        Queue<PendingPoll> pendingPolls = pendingPollMap.get(getKey(jobType, tenantId));
+        if ( pendingPolls == null || pendingPolls.isEmpty() ) {
+            return;
+        }
+
+        PendingPoll pendingPoll = null;
+        while ( (pendingPoll = pendingPolls.poll()) != null ) {
+            if ( !pendingPoll.claim() ) {
+                continue;
+            }
+            // answered on a container thread, this is the job's thread
+            final PendingPoll claimedPoll = pendingPoll;
+            claimedPoll.asyncContext.start(new Runnable() {
+                @Override
+                public void run() {
+                    respond(claimedPoll, progress);
+                }
+            });
+        }
+    }
+
+    private void respond(PendingPoll pendingPoll, Progress progress) {
+        try {
+            this.writeProgress((HttpServletResponse) pendingPoll.asyncContext.getResponse(), progress);
+            pendingPoll.pollInfo.setObjectUpdateDateTime(DateTime.now());
+        } catch (Exception e) {
+            logger.error("Failed to answer the progress long poll of user '" + pendingPoll.pollInfo.getUserReferenceId() + "'.", e);
+        } finally {
+            pendingPoll.asyncContext.complete();
+        }
+        this.deleteIfDone(progress);
+    }
+
+    private void writeProgress(HttpServletResponse resp, Progress progress) throws IOException {
+        if ( progress == null ) {
+            // no job, same as the progress api
+            resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            return;
+        }
+
+        String jsonStr = null;
+        // a consistent copy, the job may be updating it
+        synchronized (progress) {
+            jsonStr = JsonRepresentation.getJsonRepresentation(progress, Progress.class);
+        }
+
+        resp.setContentType(MediaType.APPLICATION_JSON);
+        resp.setStatus(HttpServletResponse.SC_OK);
+        OutputStream ostr = resp.getOutputStream();
+        ostr.write(jsonStr.getBytes(StandardCharsets.UTF_8));
+        ostr.flush();
+    }
+
+    private void deleteIfDone(Progress progress) {
+        // like the progress api, the completed job is deleted once the client has it
+        if ( progress != null && progress.isDone()
+                && progressRegistry.get(JobType.valueOf(progress.getType()), progress.getReferenceTenant()) == progress ) {
+            JobManager.getInstance().deleteJob(progress);
+        }
+    }
+
+    private void removePendingPoll(String key, PendingPoll pendingPoll) {
+        Queue<PendingPoll> pendingPolls = pendingPollMap.get(key);
+        if ( pendingPolls != null ) {
+            pendingPolls.remove(pendingPoll);
+        }
+    }
+
+    private static boolean hasChanged(Progress progress, long knownVersion) {
+        if ( progress == null ) {
+            // the job the client knew of is gone
+            return knownVersion >= 0;
+        }
+        return progress.getVersion() != knownVersion;
+    }
+
+    private static String getKey(String jobType, String tenantId) {
+        return jobType + "-" + tenantId;
+    }
+
+    private static class PendingPoll {
+        private final AsyncContext asyncContext;
+        private final LongPollInfo pollInfo;
+        private final String tenantId;
+        // set by whichever answers the request first, the update or the timeout
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        PendingPoll(AsyncContext asyncContext, LongPollInfo pollInfo, String tenantId) {
+            this.asyncContext = asyncContext;
+            this.pollInfo = pollInfo;
+            this.tenantId = tenantId;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
@@ -5,12 +5,15 @@
 package com.baddata.broker;
 
 import java.util.List;
+import java.util.Map;
 
 import com.baddata.api.dto.page.Page;
 import com.baddata.api.dto.system.AuditLogStat;
 import com.baddata.api.query.SearchSpec;
 import com.baddata.db.DbIndex.DbIndexType;
 import com.baddata.db.RangeQuery;
+import com.baddata.manager.log.AuditLogPublisher;
+import com.baddata.manager.log.AuditStatAggregator;
 import com.google.common.collect.Lists;
 
 public class AuditLogBrokerImpl extends BaseBroker {
@@ -42,9 +45,18 @@ public class AuditLogBrokerImpl extends BaseBroker {
         return page;
     }
     
+    /**
+     * Returns the stats from "since" (default the last 24 hours) until "until" (default now)
+     */
     public AuditLogStat getStats(SearchSpec searchSpec) {
-        this.updateSearchSpecRange(searchSpec);
-        AuditLogStat logStat = (AuditLogStat) persistence.getLatestObject(DbIndexType.AUDIT_LOG_STAT_TYPE, null /*tenantId*/);
-        return logStat;
+        return AuditStatAggregator.getInstance().getStats(searchSpec.getSince(), searchSpec.getUntil());
+    }
+    
+    public List<AuditLogStat> getHourlyStats(SearchSpec searchSpec) {
+        return AuditStatAggregator.getInstance().getHourlyStats(searchSpec.getSince(), searchSpec.getUntil());
+    }
+    
+    public Map<String, Long> getPipelineMetrics() {
+        return AuditLogPublisher.getInstance().getMetrics();
     }
 }
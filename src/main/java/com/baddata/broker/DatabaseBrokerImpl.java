@@ -5,6 +5,7 @@
 package com.baddata.broker;
 
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
@@ -14,6 +15,8 @@ import com.baddata.api.dto.page.Page;
 import com.baddata.api.query.SearchSpec;
 import com.baddata.db.DbIndex;
 import com.baddata.db.DbIndex.DbIndexType;
+import com.baddata.db.lucene.QueryResultCache;
+import com.baddata.db.lucene.SearchMetrics;
 import com.baddata.exception.ApiServiceException;
 import com.baddata.exception.ApiServiceException.ApiExceptionType;
 import com.baddata.exception.IndexPersistException;
@@ -38,6 +41,20 @@ public class DatabaseBrokerImpl extends BaseBroker {
     		return DbIndex.getIndexIds();
     }
     
+    /**
+     * @return the query result cache metrics per index path
+     */
+    public Map<String, Map<String, Long>> getQueryCacheMetrics() {
+        return QueryResultCache.getInstance().getMetrics();
+    }
+    
+    /**
+     * @return the search latency percentiles per index path
+     */
+    public Map<String, Map<String, Long>> getSearchMetrics() {
+        return SearchMetrics.getInstance().getMetrics();
+    }
+    
     public void updateRow(TypedObject objectToUpdate) throws ApiServiceException {
         try {
             persistence.save(objectToUpdate);
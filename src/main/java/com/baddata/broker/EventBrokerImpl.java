@@ -18,6 +18,7 @@ import com.baddata.db.DbIndex.DbIndexType;
 import com.baddata.db.RangeQuery;
 import com.baddata.db.SearchQuery;
 import com.baddata.exception.ApiServiceException;
+import com.baddata.manager.event.EventLogDispatcher;
 import com.google.common.collect.Lists;
 
 
@@ -100,6 +101,8 @@ public class EventBrokerImpl extends BaseBroker {
                 // they match, delete it
                 try {
                     persistence.delete(existingLogEvent);
+                    // the next event of this code is sent again
+                    EventLogDispatcher.getInstance().forgetEvent(existingLogEvent.getUserRef(), existingLogEvent.getEventCode());
                 } catch (Exception e) {
                     logger.error("Failed to delete/acknowledge user alert '" + id.longValue() + "'.", e);
                 }
@@ -9,6 +9,7 @@ import com.baddata.api.query.SearchSpec;
 import com.baddata.db.DbIndex.DbIndexType;
 import com.baddata.manager.db.PersistenceManager;
 import com.baddata.manager.job.JobManager;
+import com.baddata.manager.job.ProgressRegistry;
 
 public class JobBrokerImpl extends BaseBroker {
 
@@ -37,10 +38,8 @@ public class JobBrokerImpl extends BaseBroker {
 
 		String instanceTenantId = searchSpec.getTenantId();
 
-		Progress progress = jobMgr.getJobInProgress(searchSpec.getJobType(), instanceTenantId);
-		if ( progress == null ) {
-			progress = jobMgr.getJob(searchSpec.getJobType(), instanceTenantId);
-		}
+		// the live progress, updated in memory by the running job
+		Progress progress = ProgressRegistry.getInstance().get(searchSpec.getJobType(), instanceTenantId);
 
 		if ( progress != null && progress.isDone() ) {
 			// it's done, delete it and return out
@@ -0,0 +1,651 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.db.lucene;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleDocValuesField;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FloatDocValuesField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.baddata.annotation.ApiDataInfo;
+import com.baddata.api.dto.TypedObject;
+import com.baddata.exception.BaddataException;
+import com.baddata.log.Logger;
+import com.baddata.util.AppConstants;
+import com.baddata.util.DateUtil;
+import com.baddata.util.ReflectionUtil;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+
+/**
+ * Compiled field plan used to map a TypedObject class to a Lucene Document and back.
+ *
+ * The getters, setters, annotations and value types of a class are resolved once the
+ * first time the class is indexed or searched. After that each document is encoded and
+ * decoded by walking the plan and invoking the cached method handles, no reflection
+ * or type name comparisons per document.
+ */
+public class DocumentCodec {
+
+    private static Logger logger = Logger.getLogger(DocumentCodec.class.getName());
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static ConcurrentMap<Class<?>, DocumentCodec> codecMap = Maps.newConcurrentMap();
+    private static ConcurrentMap<String, DocumentCodec> codecByNameMap = Maps.newConcurrentMap();
+
+    private static DateTime dt = new DateTime().withZone(DateTimeZone.UTC);
+
+    /**
+     * The value type of a getter or setter, resolved once per field
+     */
+    public enum FieldKind {
+        REFERENCE, INT, LONG, FLOAT, DOUBLE, BOOLEAN, SHORT, CHAR, ENUM, DATETIME, DATE, CALENDAR,
+        STRING, BIGDECIMAL, JSONARRAY, TYPED_OBJECT, COLLECTION, UNSUPPORTED
+    }
+
+    private Class<?> beanClass;
+    private MethodHandle constructor;
+    private List<FieldWriter> writers = Lists.newArrayList();
+    private List<FieldReader> readers = Lists.newArrayList();
+
+    /**
+     * Returns the codec for the class, building it the first time it's requested
+     *
+     * @param beanClass
+     * @return DocumentCodec
+     */
+    public static DocumentCodec forClass(Class<?> beanClass) {
+        DocumentCodec codec = codecMap.get(beanClass);
+        if ( codec == null ) {
+            codec = new DocumentCodec(beanClass);
+            DocumentCodec existing = codecMap.putIfAbsent(beanClass, codec);
+            if ( existing != null ) {
+                codec = existing;
+            }
+        }
+        return codec;
+    }
+
+    /**
+     * Returns the codec for the class name stored in the document's forName field
+     *
+     * @param forName
+     * @return DocumentCodec
+     * @throws ClassNotFoundException
+     */
+    public static DocumentCodec forName(String forName) throws ClassNotFoundException {
+        DocumentCodec codec = codecByNameMap.get(forName);
+        if ( codec == null ) {
+            codec = forClass(Class.forName(forName));
+            codecByNameMap.putIfAbsent(forName, codec);
+        }
+        return codec;
+    }
+
+    /**
+     * Returns the stored values of the document keyed by the lowercase field name.
+     * The first stored value wins if a field is stored more than once.
+     *
+     * @param d
+     * @return Map<String, String>
+     */
+    public static Map<String, String> getStoredValues(Document d) {
+        List<IndexableField> docFields = d.getFields();
+        Map<String, String> storedValueMap = Maps.newHashMapWithExpectedSize(docFields.size());
+        for ( IndexableField iField : docFields ) {
+            String value = iField.stringValue();
+            if ( value != null ) {
+                String fieldName = iField.name().toLowerCase();
+                if ( !storedValueMap.containsKey(fieldName) ) {
+                    storedValueMap.put(fieldName, value);
+                }
+            }
+        }
+        return storedValueMap;
+    }
+
+    private DocumentCodec(Class<?> beanClass) {
+        this.beanClass = beanClass;
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            this.constructor = lookup.findConstructor(beanClass, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+        } catch (Exception e) {
+            // abstract or no default constructor, the codec can still encode
+            this.constructor = null;
+        }
+
+        //
+        // Use getter methods only. The beans we use to persist
+        // should only provide public getters and private fields.
+        //
+        for ( Method getter : ReflectionUtil.getGetterMethods(beanClass) ) {
+            if ( !isPersisted(getter) || Modifier.isFinal(getter.getModifiers()) ) {
+                // transient or final getter vals are not saved
+                continue;
+            }
+
+            Class<?> returnType = getter.getReturnType();
+            String fieldStrType = returnType.getSimpleName().toLowerCase();
+
+            // don't process the class type
+            if ( fieldStrType.equals("class") ) {
+                continue;
+            }
+
+            MethodHandle getterHandle = unreflect(lookup, getter, GETTER_TYPE);
+            if ( getterHandle == null ) {
+                continue;
+            }
+
+            String fieldName = ReflectionUtil.getGetterFieldName(getter.getName());
+            writers.add(new FieldWriter(fieldName, getWriterKind(fieldName, fieldStrType, returnType), returnType, getterHandle));
+        }
+
+        for ( Method setter : ReflectionUtil.getSetterMethods(beanClass) ) {
+            Class<?> paramType = setter.getParameterTypes()[0];
+
+            //
+            // get the generics param type if it's a list/collection type
+            //
+            boolean isList = false;
+            if ( paramType != Object.class &&
+                    ( paramType.isAssignableFrom(List.class) || paramType.isAssignableFrom(Collection.class) ) ) {
+                isList = true;
+                Type genericType = setter.getGenericParameterTypes()[0];
+                if ( genericType instanceof ParameterizedType ) {
+                    Type[] argTypes = ((ParameterizedType) genericType).getActualTypeArguments();
+                    if ( argTypes.length > 0 && argTypes[0] instanceof Class ) {
+                        paramType = (Class<?>) argTypes[0];
+                    }
+                }
+            }
+
+            MethodHandle setterHandle = unreflect(lookup, setter, SETTER_TYPE);
+            if ( setterHandle == null ) {
+                continue;
+            }
+
+            String fieldName = ReflectionUtil.getFieldNameFromSetter(setter).toLowerCase();
+            readers.add(new FieldReader(fieldName, setter.getName(), getReaderKind(paramType), paramType, isList, setterHandle));
+        }
+    }
+
+    public Class<?> getBeanClass() {
+        return beanClass;
+    }
+
+    /**
+     * @return the persisted getters in the order they're added to the document
+     */
+    public List<FieldWriter> getWriters() {
+        return writers;
+    }
+
+    /**
+     * @return the setters that can be populated from a document
+     */
+    public List<FieldReader> getReaders() {
+        return readers;
+    }
+
+    /**
+     * Create an empty bean using the default constructor
+     *
+     * @return TypedObject
+     * @throws Exception
+     */
+    public TypedObject newInstance() throws Exception {
+        if ( constructor == null ) {
+            throw new InstantiationException("No public default constructor found for '" + beanClass.getName() + "'.");
+        }
+        try {
+            return (TypedObject) (Object) constructor.invokeExact();
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    private static boolean isPersisted(Method getter) {
+        // look for ApiDataInfo annotation and if it's isPersisted=false
+        for ( Annotation annotation : getter.getDeclaredAnnotations() ) {
+            if ( annotation instanceof ApiDataInfo ) {
+                // if it's "isPersisted=false", this means we're not required
+                // to store this value (it's transient)
+                return ((ApiDataInfo) annotation).isPersisted();
+            }
+        }
+        return true;
+    }
+
+    private static MethodHandle unreflect(MethodHandles.Lookup lookup, Method method, MethodType type) {
+        try {
+            // public methods inherited from a non-public class aren't accessible without this
+            method.setAccessible(true);
+            MethodHandle handle = lookup.unreflect(method);
+            if ( Modifier.isStatic(method.getModifiers()) ) {
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            return handle.asType(type);
+        } catch (Exception e) {
+            logger.error("Failed to build a method handle for '" + method.toString() + "'.", e);
+        }
+        return null;
+    }
+
+    private static FieldKind getWriterKind(String fieldName, String fieldStrType, Class<?> returnType) {
+        if ( fieldName.equalsIgnoreCase(AppConstants.ID_KEY) ||
+                fieldName.equalsIgnoreCase(AppConstants.PARENT_ID_KEY) ||
+                fieldName.equalsIgnoreCase(AppConstants.USER_REFERENCE_KEY) ) {
+            return FieldKind.REFERENCE;
+        } else if ( fieldStrType.indexOf("int") == 0 ) {
+            return FieldKind.INT;
+        } else if ( fieldStrType.equals("long") ) {
+            return FieldKind.LONG;
+        } else if ( fieldStrType.equals("float") ) {
+            return FieldKind.FLOAT;
+        } else if ( fieldStrType.equals("double") ) {
+            return FieldKind.DOUBLE;
+        } else if ( fieldStrType.equals("boolean") ) {
+            return FieldKind.BOOLEAN;
+        } else if ( fieldStrType.equals("short") ) {
+            return FieldKind.SHORT;
+        } else if ( returnType.isEnum() ) {
+            return FieldKind.ENUM;
+        } else if ( fieldStrType.equals("datetime") ) {
+            return FieldKind.DATETIME;
+        } else if ( fieldStrType.equals("date") ) {
+            return FieldKind.DATE;
+        } else if ( fieldStrType.equals("calendar") ) {
+            return FieldKind.CALENDAR;
+        } else if ( fieldStrType.equals("string") ) {
+            return FieldKind.STRING;
+        } else if ( fieldStrType.equals("bigdecimal") ) {
+            return FieldKind.BIGDECIMAL;
+        } else if ( fieldStrType.indexOf("jsonarray") != -1 ) {
+            return FieldKind.JSONARRAY;
+        } else if ( ReflectionUtil.isClassOfBase(returnType, TypedObject.class) ) {
+            return FieldKind.TYPED_OBJECT;
+        } else if ( returnType.isAssignableFrom(List.class) || returnType.isAssignableFrom(Collection.class) ) {
+            return FieldKind.COLLECTION;
+        }
+        return FieldKind.UNSUPPORTED;
+    }
+
+    private static FieldKind getReaderKind(Class<?> paramType) {
+        String simpleName = paramType.getSimpleName().toLowerCase();
+        if ( paramType.isEnum() ) {
+            return FieldKind.ENUM;
+        } else if ( simpleName.equals("string") ) {
+            return FieldKind.STRING;
+        } else if ( simpleName.equals("int") || simpleName.equals("integer") ) {
+            return FieldKind.INT;
+        } else if ( simpleName.equals("boolean") ) {
+            return FieldKind.BOOLEAN;
+        } else if ( simpleName.equals("long") ) {
+            return FieldKind.LONG;
+        } else if ( simpleName.equals("datetime") ) {
+            return FieldKind.DATETIME;
+        } else if ( simpleName.equals("float") ) {
+            return FieldKind.FLOAT;
+        } else if ( simpleName.equals("double") ) {
+            return FieldKind.DOUBLE;
+        } else if ( simpleName.equals("short") ) {
+            return FieldKind.SHORT;
+        } else if ( simpleName.equals("date") ) {
+            return FieldKind.DATE;
+        } else if ( simpleName.equals("calendar") ) {
+            return FieldKind.CALENDAR;
+        } else if ( simpleName.equals("char") || simpleName.equals("character") ) {
+            return FieldKind.CHAR;
+        } else if ( simpleName.equals("bigdecimal") ) {
+            return FieldKind.BIGDECIMAL;
+        } else if ( simpleName.equals("jsonarray") ) {
+            return FieldKind.JSONARRAY;
+        } else if ( ReflectionUtil.isClassOfBase(paramType, TypedObject.class) ) {
+            return FieldKind.TYPED_OBJECT;
+        }
+        return FieldKind.UNSUPPORTED;
+    }
+
+    /**
+     * A persisted getter of the bean
+     */
+    public static class FieldWriter {
+
+        private String fieldName;
+        private FieldKind kind;
+        private Class<?> returnType;
+        private MethodHandle getter;
+
+        FieldWriter(String fieldName, FieldKind kind, Class<?> returnType, MethodHandle getter) {
+            this.fieldName = fieldName;
+            this.kind = kind;
+            this.returnType = returnType;
+            this.getter = getter;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public FieldKind getKind() {
+            return kind;
+        }
+
+        public Class<?> getReturnType() {
+            return returnType;
+        }
+
+        /**
+         * Get the bean's value, null if the getter fails
+         *
+         * @param bean
+         * @return Object
+         */
+        public Object get(Object bean) {
+            try {
+                return (Object) getter.invokeExact(bean);
+            } catch (Throwable t) {
+                logger.error("Failed to get the '" + fieldName + "' value of '" + bean.getClass().getName() + "'.", t);
+            }
+            return null;
+        }
+
+        /**
+         * Add the value to the document. Nested TypedObject and collection values
+         * are not handled here, these return false so the caller can index them.
+         *
+         * Lucene 6.2 allows sorting against the values that are stored,
+         * so no need to add another field just for sorting.
+         *
+         * @param doc
+         * @param fieldValue
+         * @param tokens the string values to add to the contents field
+         * @return false if the value is a sub-object or collection that wasn't added
+         */
+        public boolean write(Document doc, Object fieldValue, List<String> tokens) {
+            if ( fieldValue == null ) {
+                // null value
+                doc.add(new StringField(fieldName, "", Field.Store.YES));
+                return true;
+            }
+
+            // Number values can be filtered with a NumericRangeFilter
+            switch ( kind ) {
+                case REFERENCE:
+                    // store it as a string
+                    doc.add(new StringField(fieldName, String.valueOf(fieldValue), Field.Store.YES));
+                    break;
+                case INT:
+                    int intValue = ((Integer) fieldValue).intValue();
+                    doc.add(new NumericDocValuesField(fieldName, intValue));
+                    doc.add(new StoredField(fieldName, intValue));
+                    break;
+                case LONG:
+                    long longValue = ((Long) fieldValue).longValue();
+                    doc.add(new NumericDocValuesField(fieldName, longValue));
+                    doc.add(new StoredField(fieldName, longValue));
+                    break;
+                case FLOAT:
+                    float floatValue = ((Float) fieldValue).floatValue();
+                    doc.add(new FloatDocValuesField(fieldName, floatValue));
+                    doc.add(new StoredField(fieldName, floatValue));
+                    break;
+                case DOUBLE:
+                    double doubleValue = ((Double) fieldValue).doubleValue();
+                    doc.add(new DoubleDocValuesField(fieldName, doubleValue));
+                    doc.add(new StoredField(fieldName, doubleValue));
+                    break;
+                case BOOLEAN:
+                    doc.add(new StringField(fieldName, Boolean.toString((Boolean) fieldValue), Field.Store.YES));
+                    break;
+                case SHORT:
+                    doc.add(new StringField(fieldName, Short.toString((Short) fieldValue), Field.Store.YES));
+                    break;
+                case ENUM:
+                    doc.add(new StringField(fieldName, ((Enum<?>) fieldValue).name(), Field.Store.YES));
+                    break;
+                case DATETIME:
+                    long dateTimeValue = ((DateTime) fieldValue).getMillis();
+                    doc.add(new NumericDocValuesField(fieldName, dateTimeValue));
+                    doc.add(new StoredField(fieldName, dateTimeValue));
+                    break;
+                case DATE:
+                    long dateValue = ((Date) fieldValue).getTime();
+                    doc.add(new NumericDocValuesField(fieldName, dateValue));
+                    doc.add(new StoredField(fieldName, dateValue));
+                    break;
+                case CALENDAR:
+                    long calendarValue = ((Calendar) fieldValue).getTimeInMillis();
+                    doc.add(new NumericDocValuesField(fieldName, calendarValue));
+                    doc.add(new StoredField(fieldName, calendarValue));
+                    break;
+                case STRING:
+                    // use a field that is indexed (i.e. searchable), but don't tokenize
+                    String str = (String) fieldValue;
+                    if ( StringUtils.isNotBlank(str) ) {
+                        tokens.add(str);
+                        str = str.trim();
+                    } else {
+                        str = "";
+                    }
+                    doc.add(new SortedDocValuesField(fieldName, new BytesRef(str)));
+                    doc.add(new StringField(fieldName, str, Field.Store.YES));
+                    break;
+                case BIGDECIMAL:
+                    // make it a double
+                    double bigDecimalValue = ((BigDecimal) fieldValue).doubleValue();
+                    doc.add(new DoubleDocValuesField(fieldName, bigDecimalValue));
+                    doc.add(new StoredField(fieldName, bigDecimalValue));
+                    break;
+                case JSONARRAY:
+                    // stringify it
+                    doc.add(new StringField(fieldName, ((JsonArray) fieldValue).toString(), Field.Store.YES));
+                    break;
+                case TYPED_OBJECT:
+                case COLLECTION:
+                    return false;
+                default:
+                    // object, not supported
+                    break;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A setter of the bean
+     */
+    public static class FieldReader {
+
+        private String fieldName;
+        private String setterName;
+        private FieldKind kind;
+        private Class<?> paramType;
+        private boolean isList;
+        private MethodHandle setter;
+
+        FieldReader(String fieldName, String setterName, FieldKind kind, Class<?> paramType, boolean isList, MethodHandle setter) {
+            this.fieldName = fieldName;
+            this.setterName = setterName;
+            this.kind = kind;
+            this.paramType = paramType;
+            this.isList = isList;
+            this.setter = setter;
+        }
+
+        /**
+         * @return the lowercase field name matching the indexed field
+         */
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public String getSetterName() {
+            return setterName;
+        }
+
+        public FieldKind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the setter's param type, or the generics type if it's a list
+         */
+        public Class<?> getParamType() {
+            return paramType;
+        }
+
+        public boolean isList() {
+            return isList;
+        }
+
+        /**
+         * Invoke the setter
+         *
+         * @param bean
+         * @param value
+         * @throws Exception
+         */
+        public void set(Object bean, Object value) throws Exception {
+            try {
+                setter.invokeExact(bean, value);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        /**
+         * Convert the stored value and invoke the setter. List values are
+         * stored comma delimited, each value is converted to the generics type.
+         *
+         * @param bean
+         * @param value
+         * @throws Exception
+         */
+        public void setValue(Object bean, String value) throws Exception {
+            if ( value == null ) {
+                return;
+            }
+
+            if ( isList ) {
+                // get the list of String values and convert them to the param type
+                List<Object> values = Lists.newArrayList();
+                for ( String val : StringUtils.split(value, ',') ) {
+                    Object trueValue = this.convert(val);
+                    if ( trueValue != null ) {
+                        values.add(trueValue);
+                    }
+                }
+                if ( !values.isEmpty() ) {
+                    this.set(bean, values);
+                }
+                return;
+            }
+
+            Object trueValue = this.convert(value);
+            if ( trueValue != null ) {
+                this.set(bean, trueValue);
+            }
+        }
+
+        /**
+         * Convert the stored string value to the param type
+         *
+         * @param val
+         * @return the converted value or null if it's empty or not supported
+         */
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        public Object convert(String val) {
+            if ( kind == FieldKind.STRING ) {
+                return val;
+            }
+            if ( val == null || val.equals("") ) {
+                return null;
+            }
+
+            switch ( kind ) {
+                case ENUM:
+                    return Enum.valueOf((Class<Enum>) paramType, val);
+                case INT:
+                    return Integer.parseInt(val);
+                case BOOLEAN:
+                    return Boolean.parseBoolean(val);
+                case LONG:
+                    return Long.parseLong(val);
+                case DATETIME:
+                    if ( StringUtils.isNumeric(val) ) {
+                        return dt.withMillis(Long.parseLong(val));
+                    }
+                    // try using the date util
+                    try {
+                        return DateUtil.buildUtcDateTime(val);
+                    } catch (BaddataException e) {
+                        logger.trace("Failed to build a datetime using value '" + val + "', error: " + e.toString());
+                    }
+                    return null;
+                case FLOAT:
+                    return Float.parseFloat(val);
+                case DOUBLE:
+                    return Double.parseDouble(val);
+                case SHORT:
+                    return Short.parseShort(val);
+                case DATE:
+                    return new Date(Long.parseLong(val));
+                case CALENDAR:
+                    Calendar cal = Calendar.getInstance();
+                    cal.setTimeInMillis(Long.parseLong(val));
+                    return cal;
+                case CHAR:
+                    return val.charAt(0);
+                case BIGDECIMAL:
+                    return new BigDecimal(val);
+                case JSONARRAY:
+                    // change the string value to a json array
+                    return new JsonParser().parse(val).getAsJsonArray();
+                default:
+                    // object, not yet supported
+                    logger.trace("Updating a dynamic object accessor is not yet supported.");
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.db.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import com.baddata.db.DbIndex.DbIndexType;
+import com.baddata.exception.IndexPersistException;
+import com.baddata.log.Logger;
+import com.baddata.util.AppConstants;
+import com.baddata.util.AppUtil;
+import com.baddata.util.FileUtil;
+import com.google.common.collect.Maps;
+
+/**
+ * Hands out the object ids of each index type.
+ *
+ * Ids are reserved in blocks. The end of the reserved block (high-water mark) is
+ * committed to the commit user data of the id sequence index before any id of that
+ * block is handed out, so a restart continues after the last reserved block and never
+ * reissues an id. Within a block ids are handed out lock-free.
+ */
+public class IdAllocator {
+
+    private static Logger logger = Logger.getLogger(IdAllocator.class.getName());
+
+    private static IdAllocator ref;
+
+    private int blockSize = Math.max(1, AppUtil.getAsInt(AppConstants.ID_BLOCK_SIZE, 1000));
+
+    // index id -> sequence
+    private Map<String, IdSequence> sequenceMap = Maps.newConcurrentMap();
+
+    // index id -> persisted high-water mark
+    private Map<String, String> highWaterMarks = null;
+    private Directory sequenceDir = null;
+    private IndexWriter sequenceWriter = null;
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static IdAllocator getInstance() {
+        if (ref == null) {
+            synchronized(IdAllocator.class) {
+                if (ref == null) {
+                    ref = new IdAllocator();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private IdAllocator() {
+        //
+    }
+
+    /**
+     * Returns the next id of the index type
+     *
+     * @param indexType
+     * @return Long
+     * @throws IndexPersistException if a new block can't be reserved
+     */
+    public Long nextId(DbIndexType indexType) throws IndexPersistException {
+        String indexId = indexType.getIndexId();
+        IdSequence sequence = sequenceMap.get(indexId);
+        if ( sequence == null ) {
+            sequence = this.loadSequence(indexType);
+        }
+        return sequence.next();
+    }
+
+    /**
+     * Commit and close the id sequence index. The sequences are reloaded
+     * from the committed high-water marks by the next nextId call.
+     */
+    public synchronized void close() {
+        sequenceMap.clear();
+        highWaterMarks = null;
+
+        if ( sequenceWriter != null ) {
+            try {
+                sequenceWriter.close();
+            } catch (IOException e) {
+                logger.error("Failed to close the id sequence index.", e);
+            }
+            sequenceWriter = null;
+        }
+        if ( sequenceDir != null ) {
+            try {
+                sequenceDir.close();
+            } catch (IOException e) {
+                logger.error("Failed to close the id sequence directory.", e);
+            }
+            sequenceDir = null;
+        }
+    }
+
+    private synchronized IdSequence loadSequence(DbIndexType indexType) throws IndexPersistException {
+        String indexId = indexType.getIndexId();
+        IdSequence sequence = sequenceMap.get(indexId);
+        if ( sequence != null ) {
+            return sequence;
+        }
+
+        this.openSequenceIndex();
+
+        String highWaterMarkStr = highWaterMarks.get(indexId);
+        long highWaterMark = 0;
+        if ( highWaterMarkStr != null ) {
+            highWaterMark = Long.parseLong(highWaterMarkStr);
+        } else {
+            // first time this type is allocated by this store, continue after the objects already indexed
+            highWaterMark = this.getMaxIndexedId(indexType);
+        }
+
+        sequence = new IdSequence(indexId, highWaterMark);
+        sequenceMap.put(indexId, sequence);
+        return sequence;
+    }
+
+    /**
+     * Commit the new high-water mark of the index id
+     */
+    private synchronized void persistHighWaterMark(String indexId, long highWaterMark) throws IndexPersistException {
+        this.openSequenceIndex();
+
+        highWaterMarks.put(indexId, String.valueOf(highWaterMark));
+        try {
+            sequenceWriter.setLiveCommitData(Maps.newHashMap(highWaterMarks).entrySet());
+            sequenceWriter.commit();
+        } catch (IOException e) {
+            highWaterMarks.remove(indexId);
+            throw new IndexPersistException("Failed to reserve a block of ids for '" + indexId + "'.", e);
+        }
+    }
+
+    private void openSequenceIndex() throws IndexPersistException {
+        if ( sequenceWriter != null ) {
+            return;
+        }
+
+        IndexPathInfo sequencePathInfo = new IndexPathInfo(AppConstants.LUCENE_STORE_NAME, AppConstants.ID_SEQUENCE_STORE_NAME);
+        File f = FileUtil.getLuceneIndex(sequencePathInfo, false /*isSearch*/);
+        try {
+            sequenceDir = FSDirectory.open(f.toPath());
+
+            highWaterMarks = Maps.newHashMap();
+            if ( DirectoryReader.indexExists(sequenceDir) ) {
+                highWaterMarks.putAll(SegmentInfos.readLatestCommit(sequenceDir).getUserData());
+            }
+
+            IndexWriterConfig iwc = new IndexWriterConfig(new KeywordAnalyzer());
+            iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+            sequenceWriter = new IndexWriter(sequenceDir, iwc);
+        } catch (IOException e) {
+            this.close();
+            throw new IndexPersistException("Failed to open the id sequence index '" + f.getAbsolutePath() + "'.", e);
+        }
+    }
+
+    /**
+     * Find the highest id of the index type. Tenant indexes are
+     * stored in a sub directory per tenant so look through those as well.
+     */
+    private long getMaxIndexedId(DbIndexType indexType) {
+        long maxId = this.getMaxIndexedId(new IndexPathInfo(AppConstants.LUCENE_STORE_NAME, indexType));
+
+        File[] luceneDirs = FileUtil.getLuceneDir().listFiles();
+        if ( luceneDirs != null ) {
+            for ( File tenantDir : luceneDirs ) {
+                if ( tenantDir.isDirectory() && new File(tenantDir, indexType.getIndexId()).isDirectory() ) {
+                    IndexPathInfo tenantPathInfo = new IndexPathInfo(AppConstants.LUCENE_STORE_NAME, tenantDir.getName(), indexType);
+                    maxId = Math.max(maxId, this.getMaxIndexedId(tenantPathInfo));
+                }
+            }
+        }
+        return maxId;
+    }
+
+    private long getMaxIndexedId(IndexPathInfo indexPathInfo) {
+        SearcherRegistry searcherRegistry = SearcherRegistry.getInstance();
+        IndexSearcher searcher = searcherRegistry.acquire(indexPathInfo);
+        if ( searcher == null ) {
+            return 0;
+        }
+        try {
+            Sort sort = new Sort(new SortField(AppConstants.ORDERBY_OBJ_ID_REF_KEY, SortField.Type.LONG, true /*reverse*/));
+            TopFieldDocs topDocs = searcher.search(new MatchAllDocsQuery(), 1, sort);
+            if ( topDocs.scoreDocs.length > 0 ) {
+                return (Long) ((FieldDoc) topDocs.scoreDocs[0]).fields[0];
+            }
+        } catch (IOException e) {
+            logger.error("Failed to find the max id of index '" + indexPathInfo.getFilePath() + "'.", e);
+        } finally {
+            searcherRegistry.release(searcher);
+        }
+        return 0;
+    }
+
+    /**
+     * Id sequence of a single index type
+     */
+    private class IdSequence {
+
+        private String indexId;
+        // the next id to hand out
+        private AtomicLong nextId;
+        // the last id of the reserved block
+        private volatile long reservedUpTo;
+
+        IdSequence(String indexId, long highWaterMark) {
+            this.indexId = indexId;
+            this.nextId = new AtomicLong(highWaterMark + 1);
+            // nothing is reserved until the first call
+            this.reservedUpTo = highWaterMark;
+        }
+
+        long next() throws IndexPersistException {
+            while (true) {
+                long id = nextId.get();
+                if ( id <= reservedUpTo ) {
+                    if ( nextId.compareAndSet(id, id + 1) ) {
+                        return id;
+                    }
+                } else {
+                    this.reserveBlock();
+                }
+            }
+        }
+
+        private synchronized void reserveBlock() throws IndexPersistException {
+            if ( nextId.get() <= reservedUpTo ) {
+                // another caller reserved it
+                return;
+            }
+            long newReservedUpTo = reservedUpTo + blockSize;
+            persistHighWaterMark(indexId, newReservedUpTo);
+            reservedUpTo = newReservedUpTo;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.db.lucene;
+
+/**
+ * Counts the index lookups (searcher acquires) made by the current request thread.
+ * The RestApiFilter starts counting once the session is resolved and stores the count
+ * with the audit record of the request, the authenticated hot path should make none.
+ *
+ * Lookups made outside of a counted request (background jobs, other threads) aren't counted.
+ */
+public class IndexLookupCounter {
+
+    private static final ThreadLocal<int[]> counter = new ThreadLocal<int[]>();
+
+    private IndexLookupCounter() {
+        //
+    }
+
+    /**
+     * Start counting the lookups of the current thread from zero
+     */
+    public static void start() {
+        int[] count = counter.get();
+        if ( count == null ) {
+            counter.set(new int[1]);
+        } else {
+            count[0] = 0;
+        }
+    }
+
+    /**
+     * Stop counting and return the lookups made since start
+     *
+     * @return int
+     */
+    public static int stop() {
+        int[] count = counter.get();
+        counter.remove();
+        return ( count != null ) ? count[0] : 0;
+    }
+
+    /**
+     * Returns the lookups made by the current thread since start
+     *
+     * @return int
+     */
+    public static int get() {
+        int[] count = counter.get();
+        return ( count != null ) ? count[0] : 0;
+    }
+
+    static void increment() {
+        int[] count = counter.get();
+        if ( count != null ) {
+            count[0]++;
+        }
+    }
+}
@@ -6,8 +6,6 @@ package com.baddata.db.lucene;
 
 import java.io.File;
 
-import org.apache.commons.lang3.StringUtils;
-
 import com.baddata.db.DbIndex.DbIndexType;
 import com.google.common.base.Strings;
 
@@ -84,12 +82,6 @@ public class IndexPathInfo {
 		return tenantId;
 	}
 	
-	public String getSyncObject() {
-	    return (StringUtils.isNotBlank(tenantId)) ?
-	            tenantId + "-" + indexType.name() :
-	                indexType.name();
-	}
-
 	@Override
 	public String toString() {
 		return "IndexPathInfo [filePath=" + filePath + ", tenantId=" + tenantId + ", indexType=" + indexType + "]";
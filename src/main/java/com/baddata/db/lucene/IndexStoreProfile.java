@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.db.lucene;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat.Mode;
+import org.apache.lucene.codecs.lucene70.Lucene70Codec;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+
+import com.baddata.util.AppUtil;
+
+/**
+ * How an index is stored: the directory implementation used by the writer and the readers,
+ * when the writer flushes, how segments are merged, the stored fields compression and if
+ * segments are written as compound files.
+ *
+ * default  the settings every index had before the profiles, flushes every 20 docs
+ * append   write once and rarely read (audit logs): flushes by ram, merges less often,
+ *          compresses the stored fields and skips the compound files
+ * lookup   small and read by id (users, progress): memory mapped, merges down to fewer
+ *          segments so a lookup visits less of them
+ */
+public class IndexStoreProfile {
+
+    public enum DirectoryType {
+        // the platform's pick, memory mapped on 64 bit jvms
+        FS,
+        MMAP,
+        NIOFS
+    }
+
+    public enum MergePolicyType {
+        TIERED,
+        LOG_BYTE_SIZE
+    }
+
+    public enum Compression {
+        BEST_SPEED(Mode.BEST_SPEED),
+        BEST_COMPRESSION(Mode.BEST_COMPRESSION);
+
+        private Mode mode;
+
+        private Compression(Mode mode) {
+            this.mode = mode;
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+    }
+
+    public static final String DEFAULT = "default";
+    public static final String APPEND = "append";
+    public static final String LOOKUP = "lookup";
+
+    private String name;
+    private DirectoryType directoryType = DirectoryType.FS;
+    private double ramBufferSizeMB = 64;
+    // IndexWriterConfig.DISABLE_AUTO_FLUSH (-1) to flush by ram only
+    private int maxBufferedDocs = 20;
+    private MergePolicyType mergePolicyType = MergePolicyType.TIERED;
+    // segments per tier of the tiered policy, merge factor of the log policy
+    private double segmentsPerTier = 10;
+    private double maxMergedSegmentMB = 5 * 1024;
+    private Compression compression = Compression.BEST_SPEED;
+    private boolean useCompoundFile = true;
+
+    private IndexStoreProfile(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the built in profile of that name
+     *
+     * @param name default, append or lookup
+     * @return IndexStoreProfile
+     * @throws IllegalArgumentException if there's no profile of that name
+     */
+    public static IndexStoreProfile forName(String name) {
+        IndexStoreProfile profile = new IndexStoreProfile(name);
+        if ( DEFAULT.equals(name) ) {
+            return profile;
+        } else if ( APPEND.equals(name) ) {
+            profile.directoryType = DirectoryType.NIOFS;
+            profile.maxBufferedDocs = IndexWriterConfig.DISABLE_AUTO_FLUSH;
+            profile.segmentsPerTier = 20;
+            profile.compression = Compression.BEST_COMPRESSION;
+            profile.useCompoundFile = false;
+            return profile;
+        } else if ( LOOKUP.equals(name) ) {
+            profile.directoryType = DirectoryType.MMAP;
+            profile.ramBufferSizeMB = 16;
+            profile.maxBufferedDocs = IndexWriterConfig.DISABLE_AUTO_FLUSH;
+            profile.segmentsPerTier = 5;
+            return profile;
+        }
+        throw new IllegalArgumentException("Unknown index store profile '" + name + "'.");
+    }
+
+    /**
+     * Returns a copy of the profile with the settings found under the key prefix
+     * (i.e. "index.store.user_type.") applied to it
+     *
+     * @param keyPrefix
+     * @return IndexStoreProfile
+     */
+    public IndexStoreProfile withOverrides(String keyPrefix) {
+        IndexStoreProfile profile = new IndexStoreProfile(name);
+        profile.directoryType = DirectoryType.valueOf(
+                AppUtil.get(keyPrefix + "directory", directoryType.name()).toUpperCase());
+        profile.ramBufferSizeMB = AppUtil.getAsDouble(keyPrefix + "ram.buffer.mb", ramBufferSizeMB);
+        profile.maxBufferedDocs = AppUtil.getAsInt(keyPrefix + "max.buffered.docs", maxBufferedDocs);
+        profile.mergePolicyType = MergePolicyType.valueOf(
+                AppUtil.get(keyPrefix + "merge.policy", mergePolicyType.name()).toUpperCase());
+        profile.segmentsPerTier = AppUtil.getAsDouble(keyPrefix + "merge.segments.per.tier", segmentsPerTier);
+        profile.maxMergedSegmentMB = AppUtil.getAsDouble(keyPrefix + "merge.max.segment.mb", maxMergedSegmentMB);
+        profile.compression = Compression.valueOf(
+                AppUtil.get(keyPrefix + "compression", compression.name()).toUpperCase());
+        profile.useCompoundFile = AppUtil.getAsBoolean(keyPrefix + "compound.file", useCompoundFile);
+        return profile;
+    }
+
+    /**
+     * Open the index directory with the profile's directory implementation
+     *
+     * @param path
+     * @return Directory
+     * @throws IOException
+     */
+    public Directory openDirectory(Path path) throws IOException {
+        switch (directoryType) {
+            case MMAP:
+                return new MMapDirectory(path);
+            case NIOFS:
+                return new NIOFSDirectory(path);
+            default:
+                return FSDirectory.open(path);
+        }
+    }
+
+    /**
+     * Build the writer config: create or append, the flush triggers, merge policy,
+     * codec and compound file setting of the profile
+     *
+     * @param analyzer
+     * @return IndexWriterConfig
+     */
+    public IndexWriterConfig buildWriterConfig(Analyzer analyzer) {
+        IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+        iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+
+        // one of the flush triggers has to stay enabled at all times, so the
+        // disabled one is set last
+        if ( ramBufferSizeMB == IndexWriterConfig.DISABLE_AUTO_FLUSH ) {
+            iwc.setMaxBufferedDocs(maxBufferedDocs);
+            iwc.setRAMBufferSizeMB(ramBufferSizeMB);
+        } else {
+            iwc.setRAMBufferSizeMB(ramBufferSizeMB);
+            iwc.setMaxBufferedDocs(maxBufferedDocs);
+        }
+
+        iwc.setMergePolicy(this.buildMergePolicy());
+        // readers find the codec by the name written with each segment
+        iwc.setCodec(new Lucene70Codec(compression.getMode()));
+        iwc.setUseCompoundFile(useCompoundFile);
+        return iwc;
+    }
+
+    private MergePolicy buildMergePolicy() {
+        MergePolicy mergePolicy = null;
+        if ( mergePolicyType == MergePolicyType.LOG_BYTE_SIZE ) {
+            LogByteSizeMergePolicy logPolicy = new LogByteSizeMergePolicy();
+            logPolicy.setMergeFactor((int) Math.max(2, segmentsPerTier));
+            logPolicy.setMaxMergeMB(maxMergedSegmentMB);
+            mergePolicy = logPolicy;
+        } else {
+            TieredMergePolicy tieredPolicy = new TieredMergePolicy();
+            tieredPolicy.setSegmentsPerTier(Math.max(2, segmentsPerTier));
+            tieredPolicy.setMaxMergedSegmentMB(maxMergedSegmentMB);
+            mergePolicy = tieredPolicy;
+        }
+        if ( !useCompoundFile ) {
+            // merged segments too, by default the small ones are compound
+            mergePolicy.setNoCFSRatio(0.0);
+        }
+        return mergePolicy;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DirectoryType getDirectoryType() {
+        return directoryType;
+    }
+
+    public double getRamBufferSizeMB() {
+        return ramBufferSizeMB;
+    }
+
+    public int getMaxBufferedDocs() {
+        return maxBufferedDocs;
+    }
+
+    public MergePolicyType getMergePolicyType() {
+        return mergePolicyType;
+    }
+
+    public double getSegmentsPerTier() {
+        return segmentsPerTier;
+    }
+
+    public double getMaxMergedSegmentMB() {
+        return maxMergedSegmentMB;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public boolean isUseCompoundFile() {
+        return useCompoundFile;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexStoreProfile [name=" + name + ", directoryType=" + directoryType + ", ramBufferSizeMB=" + ramBufferSizeMB
+                + ", maxBufferedDocs=" + maxBufferedDocs + ", mergePolicyType=" + mergePolicyType + ", segmentsPerTier="
+                + segmentsPerTier + ", maxMergedSegmentMB=" + maxMergedSegmentMB + ", compression=" + compression
+                + ", useCompoundFile=" + useCompoundFile + "]";
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.db.lucene;
+
+import java.util.Map;
+
+import com.baddata.db.DbIndex.DbIndexType;
+import com.baddata.log.Logger;
+import com.baddata.util.AppConstants;
+import com.baddata.util.AppUtil;
+import com.google.common.collect.Maps;
+
+/**
+ * The store profile of each index type, loaded from the "index.store." properties at startup
+ * (see AppConstants.INDEX_STORE_PREFIX) and used by both the index writers and the readers.
+ * Indexes without a type (i.e. the id sequences) use the default profile.
+ */
+public class IndexStoreProfiles {
+
+    private static Logger logger = Logger.getLogger(IndexStoreProfiles.class.getName());
+
+    private static IndexStoreProfiles ref;
+
+    private volatile Map<DbIndexType, IndexStoreProfile> profileMap = null;
+    private IndexStoreProfile defaultProfile = IndexStoreProfile.forName(IndexStoreProfile.DEFAULT);
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static IndexStoreProfiles getInstance() {
+        if (ref == null) {
+            synchronized(IndexStoreProfiles.class) {
+                if (ref == null) {
+                    ref = new IndexStoreProfiles();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private IndexStoreProfiles() {
+        //
+    }
+
+    /**
+     * Load the profiles from the properties. The writers and readers opened before
+     * keep the profile they were opened with.
+     */
+    public synchronized void load() {
+        Map<DbIndexType, IndexStoreProfile> profiles = Maps.newEnumMap(DbIndexType.class);
+        for ( DbIndexType indexType : DbIndexType.values() ) {
+            String keyPrefix = AppConstants.INDEX_STORE_PREFIX + indexType.name().toLowerCase() + ".";
+            String profileName = AppUtil.get(keyPrefix + "profile", getDefaultProfileName(indexType));
+
+            IndexStoreProfile profile = null;
+            try {
+                profile = IndexStoreProfile.forName(profileName).withOverrides(keyPrefix);
+            } catch (IllegalArgumentException e) {
+                logger.error("Invalid store profile settings for index '" + indexType.getIndexId() + "', using the '"
+                        + getDefaultProfileName(indexType) + "' profile.", e);
+                profile = IndexStoreProfile.forName(getDefaultProfileName(indexType));
+            }
+            profiles.put(indexType, profile);
+
+            if ( !IndexStoreProfile.DEFAULT.equals(profile.getName()) ) {
+                logger.info("Index '" + indexType.getIndexId() + "' store: " + profile);
+            }
+        }
+        profileMap = profiles;
+    }
+
+    /**
+     * Returns the store profile of the index type
+     *
+     * @param indexType can be null
+     * @return IndexStoreProfile
+     */
+    public IndexStoreProfile getProfile(DbIndexType indexType) {
+        if ( indexType == null ) {
+            return defaultProfile;
+        }
+        if ( profileMap == null ) {
+            this.load();
+        }
+        return profileMap.get(indexType);
+    }
+
+    /**
+     * The audit and log event indexes are appended to and rarely read, the
+     * user and progress indexes are small and read by id
+     */
+    private static String getDefaultProfileName(DbIndexType indexType) {
+        switch (indexType) {
+            case AUDIT_LOG_API_INFO_TYPE:
+            case AUDIT_LOG_ERROR_INFO_TYPE:
+            case BADDATA_LOG_EVENT_TYPE:
+                return IndexStoreProfile.APPEND;
+            case USER_TYPE:
+            case USER_SETTINGS_TYPE:
+            case PROGRESS_TYPE:
+            case AUTHENTICATION_TOKEN_TYPE:
+                return IndexStoreProfile.LOOKUP;
+            default:
+                return IndexStoreProfile.DEFAULT;
+        }
+    }
+}
@@ -7,50 +7,44 @@ package com.baddata.db.lucene;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.Collection;
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.mail.search.SearchException;
 import javax.xml.bind.annotation.XmlEnum;
 
-import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.time.DateUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.DoubleDocValuesField;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Store;
-import org.apache.lucene.document.FloatDocValuesField;
 import org.apache.lucene.document.NumericDocValuesField;
-import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.store.RateLimiter;
 import org.joda.time.DateTime;
 
-import com.baddata.annotation.ApiDataInfo;
 import com.baddata.api.dto.DbIndexInfo;
 import com.baddata.api.dto.TypedObject;
 import com.baddata.db.DbIndex.DbIndexType;
@@ -60,12 +54,11 @@ import com.baddata.log.Logger;
 import com.baddata.manager.db.PersistenceManager;
 import com.baddata.util.AppConstants;
 import com.baddata.util.AppUtil;
-import com.baddata.util.Condition;
 import com.baddata.util.FileUtil;
-import com.baddata.util.ReflectionUtil;
+import com.baddata.util.NamedThreadFactory;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Maps;
-import com.google.gson.JsonArray;
+import com.google.common.collect.Sets;
 
 public class IndexerService {
 
@@ -74,10 +67,29 @@ public class IndexerService {
 	private static String INDEX_WRITE_LOCK = "write.lock";
     private static IndexerService ref;
     
-    private Map<DbIndexType, IndexWorker> indexWorkerMap = Maps.newConcurrentMap();
+    // index path -> worker, each worker is the only writer of its index directory
+    private Map<String, IndexWorker> indexWorkerMap = Maps.newConcurrentMap();
+    // index id and tenant -> path info
     private Map<String, IndexPathInfo> indexPathInfoByIndexId = Maps.newConcurrentMap();
     
     private AtomicBoolean haltIndexing = new AtomicBoolean(false);
+    
+    //
+    // group commit settings. writes are made visible to searchers right away,
+    // the committer thread makes them durable once a size or time threshold is hit.
+    private int groupCommitMaxOps = AppUtil.getAsInt(AppConstants.GROUP_COMMIT_MAX_OPS, 1000);
+    private long groupCommitIntervalMs = AppUtil.getAsLong(AppConstants.GROUP_COMMIT_INTERVAL_MS, 1000L);
+    private IndexCommitter indexCommitter = new IndexCommitter();
+    
+    // index types that don't wait for their commit unless the caller asks for it
+    private static Set<DbIndexType> BUFFERED_COMMIT_INDEX_TYPES = Sets.newHashSet(
+            DbIndexType.DB_INDEX_INFO_TYPE,
+            DbIndexType.PROGRESS_TYPE,
+            DbIndexType.LOG_MONITOR_TYPE,
+            DbIndexType.AUDIT_LOG_API_INFO_TYPE,
+            DbIndexType.AUDIT_LOG_ERROR_INFO_TYPE,
+            DbIndexType.AUDIT_LOG_STAT_TYPE,
+            DbIndexType.AUDIT_LOG_PROPERTY_STAT_TYPE);
 
     /**
      * Singleton instance
@@ -100,11 +112,20 @@ public class IndexerService {
         
         // remove the locks. this will close the writers and remove the locks
         this.closeWritersAndRemoveLocks();
+        
+        // stop refreshing the shared searchers
+        SearcherRegistry.getInstance().stop();
     }
     
     public void start() {
         this.stop();
         haltIndexing = new AtomicBoolean(false);
+        
+        // start the group committer
+        indexCommitter.start();
+        
+        // start refreshing the shared searchers in the background
+        SearcherRegistry.getInstance().start();
     }
 
     @Override
@@ -112,6 +133,15 @@ public class IndexerService {
         throw new CloneNotSupportedException();
     }
 
+    /**
+     * DURABLE waits until the write has been committed (fsync'd),
+     * BUFFERED returns once the write is searchable and leaves the commit
+     * to the committer thread's size or time threshold.
+     */
+    public enum CommitMode {
+        DURABLE, BUFFERED
+    }
+
     @XmlEnum(String.class)
     public enum IndexPersistType {
 
@@ -151,7 +181,11 @@ public class IndexerService {
      * @throws IOException
      */
     public void create(TypedObject obj, IndexPathInfo indexPathInfo, boolean isIndexerRequest) throws IndexPersistException {
-        this.addDocuments(Arrays.asList(obj), indexPathInfo, IndexPersistType.CREATE, isIndexerRequest);
+        this.create(obj, indexPathInfo, isIndexerRequest, null /*commitMode*/);
+    }
+    
+    public void create(TypedObject obj, IndexPathInfo indexPathInfo, boolean isIndexerRequest, CommitMode commitMode) throws IndexPersistException {
+        this.addDocuments(Arrays.asList(obj), indexPathInfo, IndexPersistType.CREATE, isIndexerRequest, commitMode);
     }
 
     /**
@@ -161,7 +195,11 @@ public class IndexerService {
      * @throws ApiServiceException
      */
     public void createBatch(List<? extends TypedObject> objects, IndexPathInfo indexPathInfo, boolean isIndexerRequest) throws IndexPersistException {
-        this.addDocuments(objects, indexPathInfo, IndexPersistType.CREATE, isIndexerRequest);
+        this.createBatch(objects, indexPathInfo, isIndexerRequest, null /*commitMode*/);
+    }
+    
+    public void createBatch(List<? extends TypedObject> objects, IndexPathInfo indexPathInfo, boolean isIndexerRequest, CommitMode commitMode) throws IndexPersistException {
+        this.addDocuments(objects, indexPathInfo, IndexPersistType.CREATE, isIndexerRequest, commitMode);
     }
 
     /**
@@ -171,7 +209,11 @@ public class IndexerService {
      * @throws ApiServiceException
      */
     public void updateBatch(List<? extends TypedObject> objects, IndexPathInfo indexPathInfo, boolean isIndexerRequest) throws IndexPersistException {
-        this.addDocuments(objects, indexPathInfo, IndexPersistType.UPDATE, isIndexerRequest);
+        this.updateBatch(objects, indexPathInfo, isIndexerRequest, null /*commitMode*/);
+    }
+    
+    public void updateBatch(List<? extends TypedObject> objects, IndexPathInfo indexPathInfo, boolean isIndexerRequest, CommitMode commitMode) throws IndexPersistException {
+        this.addDocuments(objects, indexPathInfo, IndexPersistType.UPDATE, isIndexerRequest, commitMode);
     }
 
     /**
@@ -180,11 +222,15 @@ public class IndexerService {
      * @throws IOException
      */
     public void update(TypedObject obj, IndexPathInfo indexPathInfo, boolean isIndexerRequest) throws IndexPersistException {
+        this.update(obj, indexPathInfo, isIndexerRequest, null /*commitMode*/);
+    }
+    
+    public void update(TypedObject obj, IndexPathInfo indexPathInfo, boolean isIndexerRequest, CommitMode commitMode) throws IndexPersistException {
         Long ref = obj.getId();
         if (ref == null) {
             throw new IndexPersistException("Unable to update, missing identity reference.");
         }
-        this.addDocuments(Arrays.asList(obj), indexPathInfo, IndexPersistType.UPDATE, isIndexerRequest);
+        this.addDocuments(Arrays.asList(obj), indexPathInfo, IndexPersistType.UPDATE, isIndexerRequest, commitMode);
     }
 
     /**
@@ -192,22 +238,90 @@ public class IndexerService {
      * @param obj
      * @throws IOException
      */
-    private void addDocuments(List<? extends TypedObject> objects, IndexPathInfo indexPathInfo, IndexPersistType persistType, boolean isIndexerRequest) throws IndexPersistException {
+    private void addDocuments(
+            List<? extends TypedObject> objects, IndexPathInfo indexPathInfo, IndexPersistType persistType, boolean isIndexerRequest, CommitMode commitMode)
+                    throws IndexPersistException {
         assert(objects != null);
         
         if (!isIndexerRequest && haltIndexing.get()) {
             throw new IndexPersistException("Indexing is shutting down, please try later.");
         }
         
-        synchronized (indexPathInfo.getSyncObject()) {
-            IndexWorker indexWorker = indexWorkerMap.get(indexPathInfo.getDbIndexType());
-            if ( indexWorker == null ) {
-                indexWorker = new IndexWorker();
-                indexWorkerMap.put(indexPathInfo.getDbIndexType(), indexWorker);
-            }
-            indexWorker.indexObjects(objects, indexPathInfo, persistType);
+        IndexWorker indexWorker = this.getIndexWorker(indexPathInfo);
+        Future<Void> commitFuture = indexWorker.indexObjects(objects, indexPathInfo, persistType);
+        
+        // the write lock is released by now so other writes can join the same commit
+        this.waitForCommit(indexWorker, commitFuture, indexPathInfo, commitMode);
+    }
+    
+    /**
+     * Returns the worker of the index path. Tenants get their own worker per index type
+     * so writes to different indexes never wait on each other.
+     * 
+     * @param indexPathInfo
+     * @return IndexWorker
+     */
+    private IndexWorker getIndexWorker(IndexPathInfo indexPathInfo) {
+        String filePath = indexPathInfo.getFilePath();
+        IndexWorker indexWorker = indexWorkerMap.get(filePath);
+        if ( indexWorker == null ) {
+            indexWorkerMap.putIfAbsent(filePath, new IndexWorker());
+            indexWorker = indexWorkerMap.get(filePath);
+        }
+        return indexWorker;
+    }
+    
+    /**
+     * Returns the commit mode to use. A null commit mode uses the index type's default.
+     * 
+     * @param indexType
+     * @param commitMode
+     * @return CommitMode
+     */
+    public CommitMode getCommitMode(DbIndexType indexType, CommitMode commitMode) {
+        if ( commitMode != null ) {
+            return commitMode;
+        }
+        return ( BUFFERED_COMMIT_INDEX_TYPES.contains(indexType) ) ? CommitMode.BUFFERED : CommitMode.DURABLE;
+    }
+    
+    private void waitForCommit(IndexWorker indexWorker, Future<Void> commitFuture, IndexPathInfo indexPathInfo, CommitMode commitMode) throws IndexPersistException {
+        // make sure the committer is running, the unit tests don't go through start()
+        indexCommitter.start();
+        
+        if ( commitFuture == null ) {
+            // nothing was written
+            return;
         }
         
+        if ( commitFuture.isDone() ) {
+            // the write itself failed (or it's already committed), don't report a failed write as buffered
+            this.getCommitResult(commitFuture, indexPathInfo);
+            return;
+        }
+        
+        //
+        // Writes coming from the committer itself (i.e. the db index info doc counts)
+        // can't wait on their own commit
+        //
+        if ( this.getCommitMode(indexPathInfo.getDbIndexType(), commitMode) == CommitMode.BUFFERED || indexCommitter.isCommitterThread() ) {
+            return;
+        }
+        
+        // ask for the commit now, any other writes pending on this index go with it
+        indexCommitter.requestCommit(indexWorker);
+        this.getCommitResult(commitFuture, indexPathInfo);
+    }
+    
+    private void getCommitResult(Future<Void> commitFuture, IndexPathInfo indexPathInfo) throws IndexPersistException {
+        try {
+            commitFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexPersistException("Interrupted waiting for the commit of index '" + indexPathInfo.getDbIndexType().name() + "'.", e);
+        } catch (ExecutionException e) {
+            throw new IndexPersistException("Failed to write or commit document(s) for index '" + indexPathInfo.getDbIndexType().name() + "'.", e.getCause());
+        }
     }
 
     /**
@@ -217,54 +331,76 @@ public class IndexerService {
      * @throws IOException
      */
     public void delete(IndexPathInfo indexPathInfo, Long reference, boolean isIndexerRequest) throws IndexPersistException {
-        
+        this.delete(indexPathInfo, Arrays.asList(reference), isIndexerRequest, null /*commitMode*/);
+    }
+    
+    public void delete(IndexPathInfo indexPathInfo, List<Long> references, boolean isIndexerRequest) throws IndexPersistException {
+        this.delete(indexPathInfo, references, isIndexerRequest, null /*commitMode*/);
+    }
+    
+    public void delete(IndexPathInfo indexPathInfo, List<Long> references, boolean isIndexerRequest, CommitMode commitMode) throws IndexPersistException {
         if (!isIndexerRequest && haltIndexing.get()) {
             throw new IndexPersistException("Indexing is shutting down, please try later.");
         }
-        synchronized (indexPathInfo.getSyncObject()) {
-            IndexWorker indexWorker = indexWorkerMap.get(indexPathInfo.getDbIndexType());
-            if ( indexWorker == null ) {
-                indexWorker = new IndexWorker();
-                indexWorkerMap.put(indexPathInfo.getDbIndexType(), indexWorker);
-            }
-            indexWorker.deleteObjects(Arrays.asList(reference), indexPathInfo);
-        }
+        IndexWorker indexWorker = this.getIndexWorker(indexPathInfo);
+        Future<Void> commitFuture = indexWorker.deleteObjects(references, indexPathInfo);
+        this.waitForCommit(indexWorker, commitFuture, indexPathInfo, commitMode);
     }
     
-    public void delete(IndexPathInfo indexPathInfo, List<Long> references, boolean isIndexerRequest) throws IndexPersistException {
+    /**
+     * Delete every document matching the query without searching for them first
+     * @param indexPathInfo
+     * @param query
+     * @param isIndexerRequest
+     * @throws IndexPersistException
+     */
+    public void deleteByQuery(IndexPathInfo indexPathInfo, Query query, boolean isIndexerRequest) throws IndexPersistException {
+        this.deleteByQuery(indexPathInfo, query, isIndexerRequest, null /*commitMode*/);
+    }
+    
+    public void deleteByQuery(IndexPathInfo indexPathInfo, Query query, boolean isIndexerRequest, CommitMode commitMode) throws IndexPersistException {
         if (!isIndexerRequest && haltIndexing.get()) {
             throw new IndexPersistException("Indexing is shutting down, please try later.");
         }
-        synchronized (indexPathInfo.getSyncObject()) {
-            IndexWorker indexWorker = indexWorkerMap.get(indexPathInfo.getDbIndexType());
-            if ( indexWorker == null ) {
-                indexWorker = new IndexWorker();
-                indexWorkerMap.put(indexPathInfo.getDbIndexType(), indexWorker);
-            }
-            indexWorker.deleteObjects(references, indexPathInfo);
+        IndexWorker indexWorker = this.getIndexWorker(indexPathInfo);
+        Future<Void> commitFuture = indexWorker.deleteObjects(query, indexPathInfo);
+        this.waitForCommit(indexWorker, commitFuture, indexPathInfo, commitMode);
+    }
+    
+    /**
+     * Merge away the deleted documents of the index. The merge writes are rate limited
+     * so the writes and searches going on meanwhile keep their io, only the caller waits.
+     * @param indexPathInfo
+     * @param mbPerSec the merge write rate, Double.POSITIVE_INFINITY to not throttle
+     * @throws IndexPersistException
+     */
+    public void forceMergeDeletes(IndexPathInfo indexPathInfo, double mbPerSec) throws IndexPersistException {
+        if (haltIndexing.get()) {
+            throw new IndexPersistException("Indexing is shutting down, please try later.");
         }
+        IndexWorker indexWorker = this.getIndexWorker(indexPathInfo);
+        Future<Void> commitFuture = indexWorker.forceMergeDeletes(indexPathInfo, mbPerSec);
+        this.waitForCommit(indexWorker, commitFuture, indexPathInfo, CommitMode.DURABLE);
     }
     
     public void closeWritersAndRemoveLocks() {
         
+        // stop the committer and commit what's pending, it's restarted by the next write
+        indexCommitter.stop();
+        
         // close the writer if it's open
         if ( indexWorkerMap != null && !indexWorkerMap.isEmpty() ) {
-            for ( DbIndexType indexType : indexWorkerMap.keySet() ) {
-                IndexWorker indexWorker = indexWorkerMap.get(indexType);
-                
-                // create a condition to check if the index worker map size is zero
-                Condition condition = new Condition() {
-                    @Override
-                    public boolean condition() { return !indexWorker.indexing.get(); }
-                };
-                
-                // 3 minute timeout
-                long timeoutMs = DateUtils.MILLIS_PER_MINUTE * 3;
-                AppUtil.waitUntil(condition, timeoutMs);
+            for ( IndexWorker indexWorker : indexWorkerMap.values() ) {
                 indexWorker.closeIndex();
             }
         }
         
+        // close the shared readers, the index directories may be removed after this
+        SearcherRegistry.getInstance().closeAll();
+        
+        // commit and close the id sequences, they're reloaded by the next create
+        IdAllocator.getInstance().close();
+        
         // go through all directories and remove "write.lock"
         IndexPathInfo luceneBasePath = new IndexPathInfo(AppConstants.LUCENE_STORE_NAME);
         
@@ -362,7 +498,21 @@ public class IndexerService {
         protected Analyzer analyzer = null;
 
         public IndexWriter indexWriter = null;
-        public AtomicBoolean indexing = new AtomicBoolean(false);
+        
+        // single writer per index, searches go through the SearcherRegistry and never take it
+        private ReentrantLock writeLock = new ReentrantLock();
+        
+        //
+        // group commit state, guarded by the worker
+        //
+        private CompletableFuture<Void> pendingCommit = null;
+        private int pendingOps = 0;
+        private long pendingSinceTime = 0;
+        private long pendingIndexTime = 0;
+        private IndexPathInfo pendingIndexPathInfo = null;
+        
+        // commit and close can't overlap
+        private Object commitLock = new Object();
         
         // private constructor to ensure singleton usage
         public IndexWorker() {
@@ -372,33 +522,180 @@ public class IndexerService {
             }
         }
 
-        public void deleteObjects(List<Long> referencesToDelete, IndexPathInfo indexPathInfo) throws IndexPersistException {
+        public Future<Void> deleteObjects(List<Long> referencesToDelete, IndexPathInfo indexPathInfo) throws IndexPersistException {
         	if (referencesToDelete == null) {
         		logger.error("Null references to delete for index type: " + indexPathInfo.getDbIndexType().getIndexId(), null);
-        		return;
+        		return null;
         	}
 
-            if (referencesToDelete != null) {
-            	this.runIndexer(indexPathInfo, null /*objectsToPersist*/, IndexPersistType.DELETE /*persistType*/, referencesToDelete);
+            return this.runIndexer(indexPathInfo, null /*objectsToPersist*/, IndexPersistType.DELETE /*persistType*/, referencesToDelete, null /*queryToDelete*/);
+        }
+
+        public Future<Void> deleteObjects(Query queryToDelete, IndexPathInfo indexPathInfo) throws IndexPersistException {
+            if (queryToDelete == null) {
+                logger.error("Null query to delete for index type: " + indexPathInfo.getDbIndexType().getIndexId(), null);
+                return null;
             }
+
+            return this.runIndexer(indexPathInfo, null /*objectsToPersist*/, IndexPersistType.DELETE /*persistType*/, null /*referencesToDelete*/, queryToDelete);
         }
 
-        public void indexObjects(List<? extends TypedObject> objects, IndexPathInfo indexPathInfo, IndexPersistType persistType) throws IndexPersistException {
+        public Future<Void> forceMergeDeletes(IndexPathInfo indexPathInfo, double mbPerSec) throws IndexPersistException {
+            String indexTypeName = indexPathInfo.getDbIndexType().name();
+            File f = FileUtil.getLuceneIndex(indexPathInfo, false /*isSearch*/);
+            
+            // only held to get the writer, the merges don't block the writes
+            IndexWriter w = null;
+            writeLock.lock();
+            try {
+                w = this.getIndexWriterHandler(f, indexPathInfo.getDbIndexType());
+            } finally {
+                writeLock.unlock();
+            }
+            if (w == null) {
+                throw new IndexPersistException("No index writer to merge the deletes of index '" + indexTypeName + "'.");
+            }
+            
+            // the scheduler's forced merge rate doesn't apply to forceMergeDeletes, rate limit
+            // the merge writes in the directory and restore its throttle once done
+            MergeThrottleDirectory throttleDir = (w.getDirectory() instanceof MergeThrottleDirectory) ?
+                    (MergeThrottleDirectory) w.getDirectory() : null;
+            RateLimiter.SimpleRateLimiter rateLimiter = null;
+            RateLimiter previousRateLimiter = null;
+            if (throttleDir != null && mbPerSec > 0 && mbPerSec != Double.POSITIVE_INFINITY) {
+                rateLimiter = new RateLimiter.SimpleRateLimiter(mbPerSec);
+                previousRateLimiter = throttleDir.setMergeRateLimiter(rateLimiter);
+            }
+            
+            try {
+                w.forceMergeDeletes(true /*doWait*/);
+            } catch (IOException | AlreadyClosedException e) {
+                throw new IndexPersistException("Failed to merge the deletes of index '" + indexTypeName + "'.", e);
+            } finally {
+                if (rateLimiter != null) {
+                    throttleDir.setMergeRateLimiter(previousRateLimiter);
+                    // a background merge that started meanwhile finishes at the normal rate
+                    rateLimiter.setMBPerSec(Double.POSITIVE_INFINITY);
+                }
+            }
+            
+            // drop the searchers still holding the merged away segments
+            SearcherRegistry.getInstance().onChange(indexPathInfo, w);
+            return this.addPendingOps(indexPathInfo, 1 /*numOps*/, 0 /*indexTime*/);
+        }
+
+        public Future<Void> indexObjects(List<? extends TypedObject> objects, IndexPathInfo indexPathInfo, IndexPersistType persistType) throws IndexPersistException {
         	if (objects == null) {
         		logger.error("Null objects to index for index type: " + indexPathInfo.getDbIndexType().getIndexId() + " of persist type: " + persistType.getDisplayName(), null);
-        		return;
+        		return null;
         	}
             
-            this.runIndexer(indexPathInfo, objects /*objectsToPersist*/, persistType, null /*referencesToDelete*/);
+            return this.runIndexer(indexPathInfo, objects /*objectsToPersist*/, persistType, null /*referencesToDelete*/, null /*queryToDelete*/);
+        }
+        
+        /**
+         * Register written operations with the next group commit
+         * 
+         * @return the future completed once the operations are committed
+         */
+        private synchronized Future<Void> addPendingOps(IndexPathInfo indexPathInfo, int numOps, long indexTime) {
+            if ( pendingCommit == null ) {
+                pendingCommit = new CompletableFuture<Void>();
+                pendingSinceTime = System.currentTimeMillis();
+            }
+            pendingOps += numOps;
+            pendingIndexTime += indexTime;
+            pendingIndexPathInfo = indexPathInfo;
+            
+            if ( pendingOps >= groupCommitMaxOps ) {
+                // size threshold reached, don't wait for the interval
+                indexCommitter.requestCommit(this);
+            }
+            return pendingCommit;
+        }
+        
+        private synchronized boolean isCommitDue() {
+            if ( pendingCommit == null ) {
+                return false;
+            }
+            return ( pendingOps >= groupCommitMaxOps || System.currentTimeMillis() - pendingSinceTime >= groupCommitIntervalMs );
+        }
+        
+        /**
+         * Commit everything written since the last commit and complete the waiting callers
+         * 
+         * @param updateDocCount update the db index info doc count after the commit
+         */
+        private void commitPending(boolean updateDocCount) {
+            CompletableFuture<Void> commitFuture = null;
+            IndexPathInfo indexPathInfo = null;
+            int numOps = 0;
+            long totalIndexTime = 0;
+            synchronized (this) {
+                if ( pendingCommit == null ) {
+                    return;
+                }
+                commitFuture = pendingCommit;
+                indexPathInfo = pendingIndexPathInfo;
+                numOps = pendingOps;
+                totalIndexTime = pendingIndexTime;
+                
+                pendingCommit = null;
+                pendingOps = 0;
+                pendingIndexTime = 0;
+            }
+            
+            DbIndexType indexType = indexPathInfo.getDbIndexType();
+            long numDocs = 0;
+            synchronized (commitLock) {
+                IndexWriter w = indexWriter;
+                try {
+                    // a closed writer already committed on close
+                    if ( w != null && w.isOpen() ) {
+                        w.commit();
+                        numDocs = w.numDocs();
+                    }
+                    commitFuture.complete(null);
+                } catch (Throwable t) {
+                    logger.error("Failed to commit document(s) for index '" + indexType.name() + "'.", t);
+                    commitFuture.completeExceptionally(t);
+                    return;
+                }
+            }
+            
+            //
+            // update the db index info record once per commit, but only if the
+            // current object is not the db_index_info object
+            //
+            if ( updateDocCount && indexType != DbIndexType.DB_INDEX_INFO_TYPE ) {
+                long avgIndexTime = ( numOps > 0 ) ? totalIndexTime / numOps : 0;
+                this.updateNumDocs(indexPathInfo, numDocs, avgIndexTime, totalIndexTime);
+            }
         }
         
         public void closeIndex() {
+            // waits for the write in progress, no new write gets in before the close
+            writeLock.lock();
+            try {
+                // commit what's pending so the waiting callers are released
+                this.commitPending(false /*updateDocCount*/);
+                this.closeIndexWriter();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        
+        private void closeIndexWriter() {
             if ( indexWriter != null ) {
+                // close the near-real-time searchers opened on this writer
+                SearcherRegistry.getInstance().unbindWriter(indexWriter);
                 try {
                     //
                     // Close the writer
                     //
-                    indexWriter.close();
+                    synchronized (commitLock) {
+                        indexWriter.close();
+                    }
                     indexWriter = null;
                 } catch (Exception e) {
                     if (indexWriter != null) {
@@ -418,10 +715,12 @@ public class IndexerService {
          * Return the IndexWriter for the specified index name using the directory file.
          * 
          * @param f
-         * @param indexTypeName
+         * @param indexType
          * @return IndexWriter
          */
-        private IndexWriter getIndexWriterHandler(File f, String indexTypeName) {
+        private IndexWriter getIndexWriterHandler(File f, DbIndexType indexType) {
+            
+            String indexTypeName = indexType.name();
             
             //
             // Check if the fs directory has a lock file. If it doesn't that means
@@ -442,7 +741,7 @@ public class IndexerService {
                     //
                     // Build the index writer
                     //
-                    indexWriter = this.getIndexWriter(f);
+                    indexWriter = this.getIndexWriter(f, indexType);
                 } catch (IOException e) {
                     logger.error("Failed to get the index writer for index '" + indexTypeName + "'.", e);
                 }
@@ -453,12 +752,15 @@ public class IndexerService {
                 //
                 // No lock found
                 if (indexWriter.isOpen()) {
+                    SearcherRegistry.getInstance().unbindWriter(indexWriter);
                     try {
                         //
                         // Close the IndexWriter since there's no current write lock and it's open.  We need a lock
                         // file present to commit data
                         //
-                        indexWriter.close();
+                        synchronized (commitLock) {
+                            indexWriter.close();
+                        }
                     } catch (IOException e) {
                         logger.error("Failed to close the indexwriter that had no lock '" + indexTypeName + "'.", e);
                     }
@@ -468,7 +770,7 @@ public class IndexerService {
                     //
                     // Build the index writer to obtain a new lock
                     //
-                    indexWriter = this.getIndexWriter(f);
+                    indexWriter = this.getIndexWriter(f, indexType);
                 } catch (IOException e) {
                     logger.error("Failed to get the index writer for index '" + indexTypeName + "'.", e);
                 }
@@ -478,95 +780,81 @@ public class IndexerService {
         }
 
         /**
-         * TODO: look into whether we should just remove the IndexWriter as an argument since it's not getting used.
+         * Apply the writes to the IndexWriter and make them searchable. The commit
+         * itself is left to the committer thread.
          * 
          * @param indexPathInfo
          * @param objects
          * @param persistType
          * @param referencesToDelete
-         * @param indexWriter
+         * @param queryToDelete deletes the matching documents instead of the references
+         * @return the future completed once the writes are committed, completed exceptionally if they failed
          * @throws IndexPersistException
          */
-        private void runIndexer(
+        private Future<Void> runIndexer(
                 IndexPathInfo indexPathInfo,
                 List<? extends TypedObject> objects,
                 IndexPersistType persistType,
-                List<Long> referencesToDelete) 
+                List<Long> referencesToDelete,
+                Query queryToDelete) 
                 throws IndexPersistException {
             
-            // mark indexing to true
-            indexing = new AtomicBoolean(true);
-            
         	DbIndexType indexType = indexPathInfo.getDbIndexType();
             long startTime = System.currentTimeMillis();
             
-            long avgIndexTime = 0;
-            long totalIndexTime = 0;
-            long numDocs = 0;
-            
             // make sure the directory exists
             File f = FileUtil.getLuceneIndex(indexPathInfo, false /*isSearch*/);
             
             String indexTypeName = indexType.name();
             
-            IndexWriter w = null;
-            
-            // get the index writer
-            w = this.getIndexWriterHandler(f, indexTypeName);
-
+            writeLock.lock();
             try {
+                // get the index writer
+                IndexWriter w = this.getIndexWriterHandler(f, indexType);
 
-                try {
-                    
-                    if (persistType == IndexPersistType.CREATE) {
-                        // object creation, set the reference id's and index
-                        for (TypedObject dto : objects) {
-                            this.addDoc(dto, indexType, w);
-                        }
-                    } else if (persistType == IndexPersistType.UPDATE) {
-                        // object deletion, delete the matching doc and re-index
-                        for (TypedObject dto : objects) {
-                            this.deleteMatchingDoc(dto, w);
-                            this.addDoc(dto, indexType, w);
-                        }
-                    } else {
-                        // it's a delete request
-                        for (Long ref : referencesToDelete) {
-                            Term t = new Term(AppConstants.ID_KEY.toLowerCase(), String.valueOf(ref));
-                            w.deleteDocuments(t);
-                        }
+                int numOps = 0;
+                if (persistType == IndexPersistType.CREATE) {
+                    // object creation, set the reference id's and index
+                    for (TypedObject dto : objects) {
+                        this.addDoc(dto, indexType, w);
                     }
+                    numOps = objects.size();
+                } else if (persistType == IndexPersistType.UPDATE) {
+                    // object deletion, delete the matching doc and re-index
+                    for (TypedObject dto : objects) {
+                        this.deleteMatchingDoc(dto, w);
+                        this.addDoc(dto, indexType, w);
+                    }
+                    numOps = objects.size();
+                } else if (queryToDelete != null) {
+                    // it's a delete by query request
+                    w.deleteDocuments(queryToDelete);
+                    numOps = 1;
+                } else {
+                    // it's a delete request
+                    for (Long ref : referencesToDelete) {
+                        Term t = new Term(AppConstants.ID_KEY.toLowerCase(), String.valueOf(ref));
+                        w.deleteDocuments(t);
+                    }
+                    numOps = referencesToDelete.size();
+                }
 
-                    // commit the index
-                    w.commit();
-
-                    // get the current number of docs for this writer
-                    numDocs = w.numDocs();
+                // make the change visible to the shared searchers
+                SearcherRegistry.getInstance().onChange(indexPathInfo, w);
+                
+                // join the next group commit
+                long totalIndexTime = ( objects != null ) ? System.currentTimeMillis() - startTime : 0;
+                return this.addPendingOps(indexPathInfo, numOps, totalIndexTime);
 
-                } catch (Throwable t) {
-                    logger.error("Failed to commit document(s) for index '" + indexTypeName + "'.", t);
-                    return;
-                }
-    
-                //
-                // update the db index info record, but only if the
-                // current object is not the db_index_info object
-                //
-                if ( indexType != DbIndexType.DB_INDEX_INFO_TYPE ) {
-    	            if (objects != null) {
-    	                totalIndexTime = System.currentTimeMillis() - startTime;
-    	                avgIndexTime = totalIndexTime / objects.size();
-    	            }
-    	
-    	            this.updateNumDocs(indexPathInfo, numDocs, avgIndexTime, totalIndexTime);
-                }
-            } catch (Exception e) {
-            	logger.error("Failed to index files for index '" + indexTypeName + "'.", e);
+            } catch (Throwable t) {
+                logger.error("Failed to index document(s) for index '" + indexTypeName + "'.", t);
+                // handed back to the caller by waitForCommit, whatever the commit mode
+                CompletableFuture<Void> failedWrite = new CompletableFuture<Void>();
+                failedWrite.completeExceptionally(t);
+                return failedWrite;
             } finally {
-                // mark indexing to false
-                indexing = new AtomicBoolean(false);
+                writeLock.unlock();
             }
-
         }
 
         /**
@@ -589,13 +877,18 @@ public class IndexerService {
                         + DbIndexType.DB_INDEX_INFO_TYPE.getCanonicalName() + "'.", e );
             }
 
-            if (dbInfo == null) {
-            	//
-            	// The db info doesn't yet exist for this index id, create it
-                dbInfo = new DbIndexInfo();
-                dbInfo.setId(PersistenceManager.getInstance().createId(DbIndexType.DB_INDEX_INFO_TYPE));
-                dbInfo.setIndexName(indexType.getIndexId());
-                dbInfo.setTenantId(indexPathInfo.getTenantId());
+            try {
+                if (dbInfo == null) {
+                	//
+                	// The db info doesn't yet exist for this index id, create it
+                    dbInfo = new DbIndexInfo();
+                    dbInfo.setId(PersistenceManager.getInstance().createId(DbIndexType.DB_INDEX_INFO_TYPE));
+                    dbInfo.setIndexName(indexType.getIndexId());
+                    dbInfo.setTenantId(indexPathInfo.getTenantId());
+                }
+            } catch (IndexPersistException e) {
+                logger.error("Unable to create the index db info id.", e );
+                return;
             }
 
             long totalSpace = FileUtil.getLuceneIndexSize(infoTypePathInfo, false /*isSearch*/);
@@ -613,26 +906,21 @@ public class IndexerService {
         }
 
         /**
-         * Build the IndexWriter by setting up the lucene writer config (create or append)
+         * Build the IndexWriter using the store profile of the index type for the
+         * directory and the lucene writer config (create or append)
          *
          * @param f
+         * @param indexType
          * @throws IOException
          */
-        private IndexWriter getIndexWriter(File f) throws IOException {
+        private IndexWriter getIndexWriter(File f, DbIndexType indexType) throws IOException {
             
-            Directory dir = FSDirectory.open(f.toPath());
+            IndexStoreProfile profile = IndexStoreProfiles.getInstance().getProfile(indexType);
             
-            IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
-            iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+            // the retention purge throttles its merges through the directory
+            Directory dir = new MergeThrottleDirectory(profile.openDirectory(f.toPath()));
             
-            //
-            // optional: for better indexing performance, if you
-            // are indexing many documents, increase the RAM
-            // buffer.  But if you do this, increase the max heap
-            // size to the JVM (eg add -Xmx512m or -Xmx1g):
-            //
-            iwc.setMaxBufferedDocs( 20 );
-            iwc.setRAMBufferSizeMB( 64 );
+            IndexWriterConfig iwc = profile.buildWriterConfig(analyzer);
 
             IndexWriter w = new IndexWriter(dir, iwc);
             
@@ -673,63 +961,19 @@ public class IndexerService {
          */
         private Document getObjectDocument(TypedObject obj, DbIndexType indexType) {
 
-            // get public getter methods
-            List<Method> getterMethods = ReflectionUtil.getGetterMethods(obj.getClass());
+            // compiled getters of the bean, resolved once per class
+            DocumentCodec codec = DocumentCodec.forClass(obj.getClass());
 
             Document doc = new Document();
             List<String> tokens = new ArrayList<String>();
-            Object fieldValue = null;
 
-            //
-            // Use getter methods only. The beans we use to persist 
-            // should only provide public getters and private fields.
-            //
-            for (Method getter : getterMethods) {
-                
-                Annotation[] annotations = getter.getDeclaredAnnotations();
-                // look for ApiDataInfo annotation and if it's isPersisted=false
-                if ( annotations != null ) {
-                    
-                    boolean persistGetterVal = true;
-                    for ( Annotation annotation : annotations ) {
-                        if ( annotation instanceof ApiDataInfo ) {
-                            // if it's "isPersisted=false", this means we're not required
-                            // to store this value (it's transient)
-                            ApiDataInfo infoAnnotation = ( ApiDataInfo ) annotation;
-                            if ( !infoAnnotation.isPersisted() ) {
-                                persistGetterVal = false;
-                                break;
-                            }
-                            break;
-                        }
-                    }
-                    if ( !persistGetterVal ) {
-                        continue;
-                    }
-                }
-                
-                if ( Modifier.isFinal( getter.getModifiers() ) ) {
-                    // no need to save final getter vals
-                    continue;
-                }
-                
-                // create the getter field name
-                String fieldName = ReflectionUtil.getGetterFieldName(getter.getName());
-
-                String fieldStrType = getter.getReturnType().getSimpleName().toLowerCase();
-
-                // don't process the class type
-                if (fieldStrType.equals("class")) {
-                    continue;
-                }
+            for (DocumentCodec.FieldWriter fieldWriter : codec.getWriters()) {
+                Object fieldValue = fieldWriter.get(obj);
 
-                // check if we can access the value
-                int classModifier = obj.getClass().getModifiers();
-                if (!Modifier.isAbstract(classModifier) && !Modifier.isInterface(classModifier)) {
-                    fieldValue = ReflectionUtil.getGetterMethodValue(getter, obj);
+                if ( !fieldWriter.write(doc, fieldValue, tokens) ) {
+                    // it's a TypedObject or a collection, index it in it's own index
+                    this.updateDocumentForSubObject(fieldWriter, fieldValue, doc, obj.getId());
                 }
-
-                this.updateDocumentForObject(fieldName, fieldStrType, getter.getReturnType(), fieldValue, doc, tokens, obj.getId());
             }
             
             //
@@ -749,167 +993,66 @@ public class IndexerService {
         }
 
         /**
-         * Build the indexed document from the java object.
-         * 
-         * Lucene 6.2 allows sorting against the values that are stored,
-         * so no need to add another field just for sorting.
+         * Index the TypedObject or the list of values of the field and add
+         * the reference to the document.
          * 
-         * @param fieldName (should be lowercased by this point)
-         * @param fieldStrType
-         * @param returnType
+         * @param fieldWriter
          * @param fieldValue
          * @param doc
-         * @param tokens
+         * @param id
          */
-        private void updateDocumentForObject(
-                String fieldName, String fieldStrType, Class<?> returnType, Object fieldValue, Document doc, List<String> tokens, Long id) {
-            String str = "";
-
-            // Number values can be filtered with a NumericRangeFilter
-            if (fieldValue != null) {
-                if ( fieldName.equalsIgnoreCase(AppConstants.ID_KEY) ||
-                		fieldName.equalsIgnoreCase(AppConstants.PARENT_ID_KEY) ||
-                				fieldName.equalsIgnoreCase(AppConstants.USER_REFERENCE_KEY) ) {
-                    // store it as a string
-                    doc.add(new StringField(fieldName, String.valueOf(fieldValue), Field.Store.YES));
-                } else if (fieldStrType.indexOf("int") == 0) {
-                    // integer
-                    Integer intValue = ((Integer)fieldValue).intValue();
-                    doc.add(new NumericDocValuesField(fieldName, intValue));
-                    doc.add(new StoredField(fieldName, intValue));
-                } else if (fieldStrType.equals("long")) {
-                    // long
-                    Long longValue = ((Long)fieldValue).longValue();
-                    doc.add(new NumericDocValuesField(fieldName, longValue));
-                    doc.add(new StoredField(fieldName, longValue));
-                } else if (fieldStrType.equals("float")) {
-                    // float
-                    Float floatValue = ((Float)fieldValue).floatValue();
-                    doc.add(new FloatDocValuesField(fieldName, floatValue));
-                    doc.add(new StoredField(fieldName, floatValue));
-                } else if (fieldStrType.equals("double")) {
-                    // double
-                    Double doubleValue = ((Double)fieldValue).doubleValue();
-                    doc.add(new DoubleDocValuesField(fieldName, doubleValue));
-                    doc.add(new StoredField(fieldName, doubleValue));
-                } else if (fieldStrType.equals("boolean")) {
-                    // boolean
-                    doc.add(new StringField(fieldName, Boolean.toString((Boolean)fieldValue), Field.Store.YES));
-                } else if (fieldStrType.equals("short")) {
-                    // short
-                    doc.add(new StringField(fieldName, Short.toString((Short)fieldValue), Field.Store.YES));
-                } else if (returnType.isEnum()) {
-                    // enum
-                	// str = ((Enum<?>)fieldValue).name();
-                    doc.add(new StringField(fieldName, ((Enum<?>)fieldValue).name(), Field.Store.YES));
-                } else if (fieldStrType.equals("datetime")) {
-                    // org.joda.time.DateTime
-                    Long dateValue = ((DateTime)fieldValue).getMillis();
-                    doc.add(new NumericDocValuesField(fieldName, dateValue));
-                    doc.add(new StoredField(fieldName, dateValue));
-                } else if (fieldStrType.equals("date")) {
-                    // date
-                    Long dateValue = ((Date)fieldValue).getTime();
-                    doc.add(new NumericDocValuesField(fieldName, dateValue));
-                    doc.add(new StoredField(fieldName, dateValue));
-                } else if (fieldStrType.equals("calendar")) {
-                    // calendar
-                    Long calendarValue = ((Calendar)fieldValue).getTimeInMillis();
-                    doc.add(new NumericDocValuesField(fieldName, calendarValue));
-                    doc.add(new StoredField(fieldName, calendarValue));
-                } else if (fieldStrType.equals("string")) {
-                    // string
-                    // use a field that is indexed (i.e. searchable), but don't tokenize
-                    str = (String) fieldValue;
-                    
-                    if ( StringUtils.isNotBlank( str ) ) {
-                        tokens.add(str);
-                        str = str.trim();
-                    } else {
-                        str = "";
-                    }
+        private void updateDocumentForSubObject(DocumentCodec.FieldWriter fieldWriter, Object fieldValue, Document doc, Long id) {
+            String fieldName = fieldWriter.getFieldName();
+            
+            //
+            // Currently only support persisting a single TypedObject nested within the class
+            // or if the value is in a List or Collection
+            //
+            if ( fieldWriter.getKind() == DocumentCodec.FieldKind.TYPED_OBJECT ) {
+                //
+                // it's of the right type, lets add it to a map so we can index it once we're done with the current object list
+                //
+                TypedObject innerTypedObject = (TypedObject) fieldValue;
+                
+                // persist the typed object class
+                Long subObjRef = this.processInnerTypedObject(innerTypedObject, doc, id);
+                
+                String refValue = AppConstants.ORDERBY_SUB_OBJ_REF_KEY + "" + subObjRef;
+                doc.add(new StringField(fieldName, refValue, Field.Store.YES));
 
-                    doc.add( new SortedDocValuesField(fieldName, new BytesRef(str)) );
-                    doc.add( new StringField(fieldName, str, Field.Store.YES) );
-                } else if (fieldStrType.equals("bigdecimal")) {
-                    // make it a double
-                    double doubleValue = ((BigDecimal)fieldValue).doubleValue();
-                    doc.add(new DoubleDocValuesField(fieldName, doubleValue));
-                    doc.add(new StoredField(fieldName, doubleValue));
-                } else if (fieldStrType.indexOf("jsonarray") != -1) {
-                    JsonArray jsonArr = (JsonArray) fieldValue;
-                    // stringify it
-                    String jsonArrStr = jsonArr.toString();
-                    doc.add(new StringField(fieldName, jsonArrStr, Field.Store.YES));
-                } else {
-                    // try to get a TypedObject sub object and index that in it's own index
-                    String canonicalName = returnType.getCanonicalName();
-                    try {
-                        Class<?> theClass = Class.forName(canonicalName);
-                        
-                        //
-                        // Currently only support persisting a single TypedObject nested within the class
-                        // or if the value is in a List or Collection
-                        //
+            } else if ( fieldWriter.getKind() == DocumentCodec.FieldKind.COLLECTION ) {
+                //
+                // It's a List or Collection, persist the values in this list
+                //
+                Collection<?> collectionOfObjects = (Collection<?>) fieldValue;
+                List<String> nonTypedObjectVals = new ArrayList<String>();
+                if ( !collectionOfObjects.isEmpty() ) {
+                    // get the 1st one to determine if it's a TypedObject or not
+                    for ( Object obj : collectionOfObjects ) {
+                        if( obj == null ) {
+                            continue;
+                        }
                         
-                        // check if it's of type TypedObject (single object)
-                        if (ReflectionUtil.isClassOfBase(theClass, TypedObject.class)) {
-                            //
-                            // it's of the right type, lets add it to a map so we can index it once we're done with the current object list
-                            //
-                            TypedObject innerTypedObject = (TypedObject) theClass.cast(fieldValue);
-                            
+                        if ( !(obj instanceof TypedObject) ) {
+                            // persist as an array of values
+                            nonTypedObjectVals.add( Objects.toString(obj, "") );
+                        } else {
                             // persist the typed object class
-                            Long subObjRef = this.processInnerTypedObject(innerTypedObject, canonicalName, fieldName, doc, id);
-                            
-                            String refValue = AppConstants.ORDERBY_SUB_OBJ_REF_KEY + "" + subObjRef;
-                            doc.add(new StringField(fieldName, refValue, Field.Store.YES));
-
-                        } else if ( theClass.isAssignableFrom( List.class ) || theClass.isAssignableFrom( Collection.class ) ) {
-                            //
-                            // It's a List or Collection, persist the values in this list
-                            //
-                            Collection<?> collectionOfObjects = (Collection<?>) theClass.cast(fieldValue);
-                            List<String> nonTypedObjectVals = new ArrayList<String>();
-                            if ( collectionOfObjects != null && !collectionOfObjects.isEmpty() ) {
-                                // get the 1st one to determine if it's a TypedObject or not
-                                for ( Object obj : collectionOfObjects ) {
-                                    if( obj == null ) {
-                                        continue;
-                                    }
-                                    
-                                    if ( !(obj instanceof TypedObject) ) {
-                                        // persist as an array of values
-                                        nonTypedObjectVals.add( Objects.toString(obj, "") );
-                                    } else {
-                                        
-                                        // create the getter field name
-                                        canonicalName = obj.getClass().getCanonicalName();
-                                        
-                                        // persist the typed object class
-                                        this.processInnerTypedObject((TypedObject) obj, canonicalName, fieldName, doc, id);
-                                    }
-                                }
-                            }
-                            
-                            if ( !nonTypedObjectVals.isEmpty() ) {
-                                // persist the comma delimited objects as a string array
-                                doc.add(new StringField(fieldName, StringUtils.join(nonTypedObjectVals, ","), Field.Store.YES));
-                            } else {
-                                //
-                                // It's an index type reference object
-                                //
-                                String refValue = AppConstants.ORDERBY_SUB_OBJ_PARENT_REF_KEY + "" + id;
-                                doc.add(new StringField(fieldName, refValue, Field.Store.YES));
-                            }
+                            this.processInnerTypedObject((TypedObject) obj, doc, id);
                         }
-                    } catch (ClassNotFoundException e) {
-                        logger.error("Error trying to obtain the class name while indexing.", e );
                     }
                 }
-            } else {
-                // null value
-                doc.add(new StringField(fieldName, str, Field.Store.YES));
+                
+                if ( !nonTypedObjectVals.isEmpty() ) {
+                    // persist the comma delimited objects as a string array
+                    doc.add(new StringField(fieldName, StringUtils.join(nonTypedObjectVals, ","), Field.Store.YES));
+                } else {
+                    //
+                    // It's an index type reference object
+                    //
+                    String refValue = AppConstants.ORDERBY_SUB_OBJ_PARENT_REF_KEY + "" + id;
+                    doc.add(new StringField(fieldName, refValue, Field.Store.YES));
+                }
             }
         }
         
@@ -917,13 +1060,11 @@ public class IndexerService {
          * Index the inner TypedObject.
          *  
          * @param innerTypedObject
-         * @param canonicalName
-         * @param fieldName
          * @param doc
          * @param parentRefId
          * @return
          */
-        private Long processInnerTypedObject( TypedObject innerTypedObject, String canonicalName, String fieldName, Document doc, Long parentRefId ) {
+        private Long processInnerTypedObject( TypedObject innerTypedObject, Document doc, Long parentRefId ) {
             Long subObjRef = innerTypedObject.getId();
             try {
                 
@@ -945,10 +1086,136 @@ public class IndexerService {
 
     } // end IndexWorker thread class
     
+    //------------------------------------------------------------------------------------
+    //
+    // Index Committer
+    //
+    //------------------------------------------------------------------------------------
+    
+    /**
+     * Single thread committing the index workers. A worker is committed when a durable
+     * writer asks for it, when it reaches the max pending ops, or when its oldest
+     * pending write is older than the commit interval.
+     */
+    private class IndexCommitter implements Runnable {
+        
+        private LinkedBlockingQueue<IndexWorker> commitRequests = new LinkedBlockingQueue<IndexWorker>();
+        
+        // guarded by the committer: the running thread, and the stopped one until it has exited
+        private Thread committerThread = null;
+        private Thread stoppingThread = null;
+        
+        // set on the committer threads, a stopping one included
+        private ThreadLocal<Boolean> onCommitterThread = new ThreadLocal<Boolean>();
+        
+        public synchronized void start() {
+            if ( this.isCommitterThread() ) {
+                // a write of the committer itself, it's running
+                return;
+            }
+            // only one committer at a time, let the stopped one finish its last pass
+            while ( stoppingThread != null ) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if ( committerThread != null ) {
+                return;
+            }
+            committerThread = NamedThreadFactory.create(this, "index-committer");
+            committerThread.setDaemon(true);
+            committerThread.start();
+        }
+        
+        public void stop() {
+            Thread t = null;
+            synchronized (this) {
+                t = committerThread;
+                if ( t != null ) {
+                    committerThread = null;
+                    stoppingThread = t;
+                }
+            }
+            if ( t != null ) {
+                // don't interrupt, an interrupted commit closes the writer's channels.
+                // It exits once its current pass is done.
+                boolean interrupted = false;
+                while ( t != Thread.currentThread() && t.isAlive() ) {
+                    try {
+                        t.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                synchronized (this) {
+                    if ( stoppingThread == t ) {
+                        stoppingThread = null;
+                    }
+                    this.notifyAll();
+                }
+                if ( interrupted ) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            
+            // commit anything left behind
+            for ( IndexWorker indexWorker : indexWorkerMap.values() ) {
+                indexWorker.commitPending(false /*updateDocCount*/);
+            }
+        }
+        
+        public boolean isCommitterThread() {
+            return Boolean.TRUE.equals(onCommitterThread.get());
+        }
+        
+        private synchronized boolean isRunning() {
+            return committerThread == Thread.currentThread();
+        }
+        
+        public void requestCommit(IndexWorker indexWorker) {
+            commitRequests.offer(indexWorker);
+        }
+        
+        @Override
+        public void run() {
+            onCommitterThread.set(Boolean.TRUE);
+            // a stopped committer exits, even if a new one was started meanwhile
+            while ( this.isRunning() ) {
+                try {
+                    IndexWorker requested = commitRequests.poll(groupCommitIntervalMs, TimeUnit.MILLISECONDS);
+                    if ( requested != null ) {
+                        // coalesce the requests that came in while we were busy
+                        Set<IndexWorker> requestedWorkers = Sets.newLinkedHashSet();
+                        requestedWorkers.add(requested);
+                        commitRequests.drainTo(requestedWorkers);
+                        for ( IndexWorker indexWorker : requestedWorkers ) {
+                            indexWorker.commitPending(true /*updateDocCount*/);
+                        }
+                    }
+                    
+                    // time or size threshold
+                    for ( IndexWorker indexWorker : indexWorkerMap.values() ) {
+                        if ( indexWorker.isCommitDue() ) {
+                            indexWorker.commitPending(true /*updateDocCount*/);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // check if it was stopped
+                } catch (Throwable t) {
+                    logger.error("Index committer failed to commit pending writes.", t);
+                }
+            }
+        }
+    }
+    
     public IndexPathInfo buildIndexPathInfo(TypedObject typedObj) {
         DbIndexType indexType = this.getIndexId(typedObj);
         
-        String indexId = indexType.getIndexId();
+        // tenant scoped objects are written to the tenant's own index
+        String indexId = indexType.getIndexId() + "-" + StringUtils.defaultString(typedObj.getTenantId());
         IndexPathInfo reqIndexPathInfo = indexPathInfoByIndexId.get(indexId);
         if (reqIndexPathInfo != null ) {
             return reqIndexPathInfo;
@@ -983,21 +1250,11 @@ public class IndexerService {
     }
     
     public void deleteIndex(DbIndexType indexType, String tenantId) {
-        IndexPathInfo indexPathInfo = this.buildIndexPathInfo(indexType, tenantId);
-        
-        synchronized (indexPathInfo.getSyncObject()) {
-            // close the writer
-            String indexTypeName = indexPathInfo.getDbIndexType().name();
-            List<? extends TypedObject> objList= PersistenceManager.getInstance().getAllForIndex(indexPathInfo.getDbIndexType(), indexPathInfo.getTenantId());
-            if ( CollectionUtils.isNotEmpty(objList) ) {
-                for ( TypedObject obj : objList ) {
-                    try {
-                        this.delete(indexPathInfo, obj.getId(), false /*isIndexerRequest*/);
-                    } catch (Exception e) {
-                        logger.trace("Failed to delete index files for index '" + indexTypeName + "'. Error: " + e.toString());
-                    }
-                }
-            }
+        // the delete goes through the index's worker, it waits for the write in progress
+        try {
+            PersistenceManager.getInstance().deleteObjectsByIndexType(indexType, tenantId);
+        } catch (Exception e) {
+            logger.trace("Failed to delete index files for index '" + indexType.name() + "'. Error: " + e.toString());
         }
     }
 }
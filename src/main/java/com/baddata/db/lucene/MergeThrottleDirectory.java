@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.db.lucene;
+
+import java.io.IOException;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RateLimitedIndexOutput;
+import org.apache.lucene.store.RateLimiter;
+
+/**
+ * Directory of an index writer that rate limits the merge writes while a throttle is set.
+ *
+ * The merge scheduler only throttles forceMerge(n) merges, the merges of forceMergeDeletes
+ * run at the normal rate. The retention purge sets a throttle around its merge instead, the
+ * merge outputs created meanwhile share its rate.
+ */
+public class MergeThrottleDirectory extends FilterDirectory {
+
+    private volatile RateLimiter mergeRateLimiter = null;
+
+    public MergeThrottleDirectory(Directory in) {
+        super(in);
+    }
+
+    /**
+     * Rate limit the merge outputs created from now on
+     *
+     * @param rateLimiter the rate limiter or null to not throttle
+     * @return the previous rate limiter, to restore once done
+     */
+    public synchronized RateLimiter setMergeRateLimiter(RateLimiter rateLimiter) {
+        RateLimiter previous = mergeRateLimiter;
+        mergeRateLimiter = rateLimiter;
+        return previous;
+    }
+
+    @Override
+    public IndexOutput createOutput(String name, IOContext context) throws IOException {
+        return this.throttle(in.createOutput(name, context), context);
+    }
+
+    @Override
+    public IndexOutput createTempOutput(String prefix, String suffix, IOContext context) throws IOException {
+        return this.throttle(in.createTempOutput(prefix, suffix, context), context);
+    }
+
+    private IndexOutput throttle(IndexOutput out, IOContext context) {
+        RateLimiter rateLimiter = mergeRateLimiter;
+        if ( rateLimiter != null && context.context == IOContext.Context.MERGE ) {
+            return new RateLimitedIndexOutput(rateLimiter, out);
+        }
+        return out;
+    }
+}
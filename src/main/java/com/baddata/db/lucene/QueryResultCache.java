@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.db.lucene;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+
+import com.baddata.util.AppConstants;
+import com.baddata.util.AppUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+
+/**
+ * LRU cache of search results in front of the SearchService.
+ *
+ * An entry holds the doc ids of a page, the total hits and the searchAfter position
+ * of the next page, not the objects, so the cached results are rebuilt per hit and
+ * callers never share instances. Each entry is tied to the reader it was collected
+ * from. Once the index changes and the shared searcher is refreshed the entry no
+ * longer matches and the next search runs against the index again.
+ */
+public class QueryResultCache {
+
+    private static QueryResultCache ref;
+
+    // results with more docs than this aren't cached
+    private static final int MAX_CACHED_DOCS = 1000;
+
+    private Cache<String, CachedResult> resultCache;
+    private boolean enabled;
+
+    // index path -> counters
+    private Map<String, IndexCounters> countersMap = Maps.newConcurrentMap();
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static QueryResultCache getInstance() {
+        if (ref == null) {
+            synchronized(QueryResultCache.class) {
+                if (ref == null) {
+                    ref = new QueryResultCache();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private QueryResultCache() {
+        long maxSize = AppUtil.getAsLong(AppConstants.QUERY_CACHE_SIZE, 1000L);
+        enabled = maxSize > 0;
+        resultCache = CacheBuilder.newBuilder().maximumSize(Math.max(1, maxSize)).build();
+    }
+
+    /**
+     * Build the cache key of the search. The query and sort are the ones built from the
+     * search spec so equivalent specs (i.e. field names in a different case) share the key.
+     *
+     * @return the key, or null if caching is disabled
+     */
+    public String buildKey(IndexPathInfo indexPathInfo, Query query, Sort sort, int pageSize, int skip, boolean fetchAll, String searchAfter) {
+        if ( !enabled ) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(indexPathInfo.getFilePath());
+        sb.append('|').append(query.toString());
+        sb.append('|').append((sort != null) ? sort.toString() : "");
+        sb.append('|').append(pageSize).append('|').append(skip).append('|').append(fetchAll);
+        sb.append('|').append((searchAfter != null) ? searchAfter : "");
+        return sb.toString();
+    }
+
+    /**
+     * Returns the cached result if it was collected from the searcher's reader
+     *
+     * @param indexPathInfo
+     * @param key
+     * @param searcher
+     * @return CachedResult or null
+     */
+    public CachedResult get(IndexPathInfo indexPathInfo, String key, IndexSearcher searcher) {
+        IndexCounters counters = this.getCounters(indexPathInfo);
+        CachedResult cached = resultCache.getIfPresent(key);
+        if ( cached != null ) {
+            if ( cached.readerKey == getReaderKey(searcher) ) {
+                counters.hits.incrementAndGet();
+                return cached;
+            }
+            // the index changed since it was cached
+            resultCache.invalidate(key);
+            counters.invalidations.incrementAndGet();
+        }
+        counters.misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Cache the result collected from the searcher
+     */
+    public void put(String key, IndexSearcher searcher, ScoreDoc[] scoreDocs, int totalHits, ScoreDoc next) {
+        if ( key == null || scoreDocs.length > MAX_CACHED_DOCS ) {
+            return;
+        }
+        Object readerKey = getReaderKey(searcher);
+        if ( readerKey != null ) {
+            resultCache.put(key, new CachedResult(readerKey, scoreDocs, totalHits, next));
+        }
+    }
+
+    /**
+     * Drop all of the cached results
+     */
+    public void clear() {
+        resultCache.invalidateAll();
+    }
+
+    /**
+     * Returns the metrics per index path:
+     * hits, misses, invalidations (misses because the index changed) and hitRatio (percent)
+     *
+     * @return Map<String, Map<String, Long>>
+     */
+    public Map<String, Map<String, Long>> getMetrics() {
+        Map<String, Map<String, Long>> metrics = Maps.newTreeMap();
+        for ( Map.Entry<String, IndexCounters> entry : countersMap.entrySet() ) {
+            IndexCounters counters = entry.getValue();
+            long hits = counters.hits.get();
+            long misses = counters.misses.get();
+            long total = hits + misses;
+
+            Map<String, Long> indexMetrics = Maps.newLinkedHashMap();
+            indexMetrics.put("hits", hits);
+            indexMetrics.put("misses", misses);
+            indexMetrics.put("invalidations", counters.invalidations.get());
+            indexMetrics.put("hitRatio", (total > 0) ? Math.round(hits * 100.0 / total) : 0L);
+            metrics.put(entry.getKey(), indexMetrics);
+        }
+        return metrics;
+    }
+
+    private IndexCounters getCounters(IndexPathInfo indexPathInfo) {
+        String filePath = indexPathInfo.getFilePath();
+        IndexCounters counters = countersMap.get(filePath);
+        if ( counters == null ) {
+            countersMap.putIfAbsent(filePath, new IndexCounters());
+            counters = countersMap.get(filePath);
+        }
+        return counters;
+    }
+
+    private static Object getReaderKey(IndexSearcher searcher) {
+        IndexReader.CacheHelper cacheHelper = searcher.getIndexReader().getReaderCacheHelper();
+        return (cacheHelper != null) ? cacheHelper.getKey() : null;
+    }
+
+    /**
+     * The page of doc ids of a search
+     */
+    public static class CachedResult {
+        private Object readerKey;
+        private ScoreDoc[] scoreDocs;
+        private int totalHits;
+        private ScoreDoc next;
+
+        CachedResult(Object readerKey, ScoreDoc[] scoreDocs, int totalHits, ScoreDoc next) {
+            this.readerKey = readerKey;
+            this.scoreDocs = scoreDocs;
+            this.totalHits = totalHits;
+            this.next = next;
+        }
+
+        public ScoreDoc[] getScoreDocs() {
+            return scoreDocs;
+        }
+
+        public int getTotalHits() {
+            return totalHits;
+        }
+
+        public ScoreDoc getNext() {
+            return next;
+        }
+    }
+
+    private static class IndexCounters {
+        private AtomicLong hits = new AtomicLong(0);
+        private AtomicLong misses = new AtomicLong(0);
+        private AtomicLong invalidations = new AtomicLong(0);
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.db.lucene;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.util.BytesRef;
+
+import com.baddata.log.Logger;
+import com.google.common.base.Splitter;
+
+/**
+ * Encodes the last hit of a page (doc, score and sort values) into the opaque
+ * token handed back to the client as Page.searchAfter, and decodes it into the
+ * ScoreDoc the next page is searched after.
+ *
+ * The searches always sort on the object id last, so the sort values of a hit are
+ * unique and the next page is found by them alone. The doc id in the token goes stale
+ * once a merge renumbers the docs, the search replaces it with the last doc of its reader.
+ */
+public class SearchAfterToken {
+
+    private static Logger logger = Logger.getLogger(SearchAfterToken.class.getName());
+
+    private static final String SEPARATOR = ":";
+
+    private SearchAfterToken() {
+        //
+    }
+
+    /**
+     * Encode the hit into a search after token
+     *
+     * @param scoreDoc
+     * @return String or null if there's no hit
+     */
+    public static String encode(ScoreDoc scoreDoc) {
+        if ( scoreDoc == null ) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(scoreDoc.doc).append(SEPARATOR).append(Float.toString(scoreDoc.score));
+        if ( scoreDoc instanceof FieldDoc && ((FieldDoc) scoreDoc).fields != null ) {
+            for ( Object value : ((FieldDoc) scoreDoc).fields ) {
+                sb.append(SEPARATOR).append(encodeValue(value));
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode the search after token
+     *
+     * @param token
+     * @return FieldDoc if the token carries sort values, ScoreDoc if it doesn't,
+     *         or null if the token is blank or invalid
+     */
+    public static ScoreDoc decode(String token) {
+        if ( StringUtils.isBlank(token) ) {
+            return null;
+        }
+
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8);
+            List<String> parts = Splitter.on(SEPARATOR).splitToList(decoded);
+
+            int doc = Integer.parseInt(parts.get(0));
+            float score = Float.parseFloat(parts.get(1));
+            if ( parts.size() == 2 ) {
+                return new ScoreDoc(doc, score);
+            }
+
+            Object[] fields = new Object[parts.size() - 2];
+            for ( int i = 0; i < fields.length; i++ ) {
+                fields[i] = decodeValue(parts.get(i + 2));
+            }
+            return new FieldDoc(doc, score, fields);
+        } catch (Exception e) {
+            logger.error("Invalid search after token '" + token + "'.", e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the hit carries a value for each field of the sort
+     *
+     * @param scoreDoc
+     * @param sort
+     * @return boolean
+     */
+    public static boolean matchesSort(ScoreDoc scoreDoc, Sort sort) {
+        if ( !(scoreDoc instanceof FieldDoc) || ((FieldDoc) scoreDoc).fields == null ) {
+            return false;
+        }
+        return ((FieldDoc) scoreDoc).fields.length == sort.getSort().length;
+    }
+
+    private static String encodeValue(Object value) {
+        if ( value == null ) {
+            return "n";
+        } else if ( value instanceof Long ) {
+            return "l" + value;
+        } else if ( value instanceof Integer ) {
+            return "i" + value;
+        } else if ( value instanceof Float ) {
+            return "f" + value;
+        } else if ( value instanceof Double ) {
+            return "d" + value;
+        } else if ( value instanceof BytesRef ) {
+            BytesRef bytesRef = (BytesRef) value;
+            byte[] bytes = new byte[bytesRef.length];
+            System.arraycopy(bytesRef.bytes, bytesRef.offset, bytes, 0, bytesRef.length);
+            return "s" + Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        }
+        throw new IllegalArgumentException("Unsupported sort value type: " + value.getClass().getName());
+    }
+
+    private static Object decodeValue(String value) {
+        char type = value.charAt(0);
+        String str = value.substring(1);
+        switch (type) {
+            case 'n':
+                return null;
+            case 'l':
+                return Long.valueOf(str);
+            case 'i':
+                return Integer.valueOf(str);
+            case 'f':
+                return Float.valueOf(str);
+            case 'd':
+                return Double.valueOf(str);
+            case 's':
+                return new BytesRef(Base64.getUrlDecoder().decode(str));
+            default:
+                throw new IllegalArgumentException("Unsupported sort value type '" + type + "'.");
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.db.lucene;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.baddata.util.LatencyHistogram;
+import com.google.common.collect.Maps;
+
+/**
+ * Search latency per index path (see LatencyHistogram)
+ */
+public class SearchMetrics {
+
+    private static SearchMetrics ref;
+
+    // index path -> histogram
+    private Map<String, LatencyHistogram> histogramMap = Maps.newConcurrentMap();
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static SearchMetrics getInstance() {
+        if (ref == null) {
+            synchronized(SearchMetrics.class) {
+                if (ref == null) {
+                    ref = new SearchMetrics();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private SearchMetrics() {
+        //
+    }
+
+    /**
+     * Record the latency of a search
+     *
+     * @param indexPathInfo
+     * @param elapsedNanos
+     */
+    public void record(IndexPathInfo indexPathInfo, long elapsedNanos) {
+        String filePath = indexPathInfo.getFilePath();
+        LatencyHistogram histogram = histogramMap.get(filePath);
+        if ( histogram == null ) {
+            histogramMap.putIfAbsent(filePath, new LatencyHistogram());
+            histogram = histogramMap.get(filePath);
+        }
+        histogram.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    /**
+     * Returns the latencies in microseconds per index path:
+     * count, p50, p95, p99 and max
+     *
+     * @return Map<String, Map<String, Long>>
+     */
+    public Map<String, Map<String, Long>> getMetrics() {
+        Map<String, Map<String, Long>> metrics = Maps.newTreeMap();
+        for ( Map.Entry<String, LatencyHistogram> entry : histogramMap.entrySet() ) {
+            metrics.put(entry.getKey(), entry.getValue().getMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * Reset all of the histograms
+     */
+    public void reset() {
+        histogramMap.clear();
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.db.lucene;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.search.ScoreDoc;
+
+import com.baddata.api.dto.TypedObject;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The outcome of a single index search: the result objects by key plus the
+ * statistics of that search. Built per call, it's never shared between searches.
+ */
+public class SearchResult {
+
+    private Map<String, List<TypedObject>> results;
+    private int totalHits = 0;
+    // last hit of the page if there are more hits after it
+    private ScoreDoc next = null;
+    // version of the reader searched, -1 if there's no index
+    private long readerVersion = -1;
+    private long queryBuildTimeMs = 0;
+    private long elapsedMs = 0;
+
+    /**
+     * Empty result, the key maps to an empty list if it's provided
+     *
+     * @param overridingKey
+     */
+    public static SearchResult empty(String overridingKey) {
+        Map<String, List<TypedObject>> results = Maps.newHashMap();
+        if ( overridingKey != null ) {
+            results.put(overridingKey, Lists.<TypedObject>newArrayList());
+        }
+        return new SearchResult(results);
+    }
+
+    public SearchResult(Map<String, List<TypedObject>> results) {
+        this.results = results;
+    }
+
+    public Map<String, List<TypedObject>> getResults() {
+        return results;
+    }
+
+    public void setResults(Map<String, List<TypedObject>> results) {
+        this.results = results;
+    }
+
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    public void setTotalHits(int totalHits) {
+        this.totalHits = totalHits;
+    }
+
+    public ScoreDoc getNext() {
+        return next;
+    }
+
+    public void setNext(ScoreDoc next) {
+        this.next = next;
+    }
+
+    public long getReaderVersion() {
+        return readerVersion;
+    }
+
+    public void setReaderVersion(long readerVersion) {
+        this.readerVersion = readerVersion;
+    }
+
+    public long getQueryBuildTimeMs() {
+        return queryBuildTimeMs;
+    }
+
+    public void setQueryBuildTimeMs(long queryBuildTimeMs) {
+        this.queryBuildTimeMs = queryBuildTimeMs;
+    }
+
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    public void setElapsedMs(long elapsedMs) {
+        this.elapsedMs = elapsedMs;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchResult [totalHits=" + totalHits + ", readerVersion=" + readerVersion + ", queryBuildTimeMs="
+                + queryBuildTimeMs + ", elapsedMs=" + elapsedMs + "]";
+    }
+}
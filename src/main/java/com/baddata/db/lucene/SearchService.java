@@ -4,16 +4,14 @@
  */
 package com.baddata.db.lucene;
 
-import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Method;
-import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.mail.search.SearchException;
 
@@ -23,29 +21,31 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.DocValuesRangeQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.SortField.Type;
 import org.apache.lucene.search.SortedNumericSortField;
+import org.apache.lucene.search.TermInSetQuery;
 import org.apache.lucene.search.TermRangeQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.TopFieldDocs;
 import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.search.Weight;
 import org.apache.lucene.search.WildcardQuery;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
 import com.baddata.api.dto.TypedObject;
 import com.baddata.api.dto.page.Page;
@@ -57,9 +57,7 @@ import com.baddata.db.SearchQuery;
 import com.baddata.db.SortQuery;
 import com.baddata.log.Logger;
 import com.baddata.util.AppConstants;
-import com.baddata.util.FileUtil;
-import com.baddata.util.ReflectionUtil;
-import com.google.common.base.Strings;
+import com.baddata.util.AppUtil;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
@@ -71,12 +69,26 @@ public class SearchService {
     private Analyzer keywordAnalyzer = null;
     private Analyzer contentAnalyzer = null;
 
-    // index reader map
-    private Map<DbIndexType, DirectoryReader> indexReaderMap = new HashMap<DbIndexType, DirectoryReader>();
-    private Map<DbIndexType, Integer> totalHitsMap = new HashMap<DbIndexType, Integer>();
+    // shared searchers per index path
+    private SearcherRegistry searcherRegistry = SearcherRegistry.getInstance();
+    // page results per search spec
+    private QueryResultCache queryResultCache = QueryResultCache.getInstance();
+    // search latency per index path
+    private SearchMetrics searchMetrics = SearchMetrics.getInstance();
     
     private static SearchService ref;
     
+    /**
+     * Handles the objects of a scan one at a time
+     */
+    public interface ScanHandler {
+        /**
+         * @param obj
+         * @return false to stop the scan
+         */
+        boolean handle(TypedObject obj);
+    }
+    
     /**
      * Singleton instance
      * @return
@@ -99,35 +111,19 @@ public class SearchService {
     }
 
     /**
-     * Get the IndexSearcher
-     * @param index
-     * @return IndexSearcher
-     * @throws CorruptIndexException
-     * @throws IOException
+     * Acquire the shared IndexSearcher for the index path. It
+     * must be handed back with releaseIndexSearcher.
+     *
+     * @param indexPathInfo
+     * @return IndexSearcher or null if the index doesn't exist
      */
-    private IndexSearcher getIndexSearcher(IndexPathInfo indexPathInfo) {
-        File f = FileUtil.getLuceneIndex(indexPathInfo, true /*isSearch*/);
-        if (f == null || !f.exists()) {
-        		// no search index found, return null
-            return null;
-        }
-        DbIndexType indexType = indexPathInfo.getDbIndexType();
-        try {
-	        Directory dir = NIOFSDirectory.open(f.toPath());
-	
-	        if ( DirectoryReader.indexExists(dir) ) {
-	            // open the reader
-	            DirectoryReader r = DirectoryReader.open(dir);
-	            // put in a reader map to close it later
-	            indexReaderMap.put(indexType, r);
-	
-	            return new IndexSearcher(r);
-	        }
-        } catch ( Exception e ) {
-        	logger.error( "Failed to read and open db index for type " + indexType.getIndexId() + ".", e );
-        }
+    private IndexSearcher acquireIndexSearcher(IndexPathInfo indexPathInfo) {
+        IndexLookupCounter.increment();
+        return searcherRegistry.acquire(indexPathInfo);
+    }
 
-        return null;
+    private void releaseIndexSearcher(IndexSearcher searcher) {
+        searcherRegistry.release(searcher);
     }
     
     public Map<String, List<TypedObject>> getKeyToObjects(SearchSpec searchSpec, IndexPathInfo indexPathInfo) {
@@ -135,7 +131,7 @@ public class SearchService {
         //
         // Perform the SEARCH HERE
         //
-        return this.searchIndex(indexPathInfo, searchSpec, null /*overridingKey*/);
+        return this.searchIndex(indexPathInfo, searchSpec, null /*overridingKey*/).getResults();
     }
 
     /**
@@ -157,24 +153,17 @@ public class SearchService {
             return page;
         }
         
-        //
-        // update the index type related attributes
-        //
-        totalHitsMap.put(indexType, 0);
-
-        long startTime = System.currentTimeMillis();
-        
         //
         // Perform the SEARCH HERE
         //
         String resultKey = "key";
-        Map<String, List<TypedObject>> searchResults = this.searchIndex(indexPathInfo, searchSpec, resultKey /*overridingKey*/);
+        SearchResult searchResult = this.searchIndex(indexPathInfo, searchSpec, resultKey /*overridingKey*/);
+        Map<String, List<TypedObject>> searchResults = searchResult.getResults();
 
         //
         // Build the Page result
         //
-        Integer totalHits = totalHitsMap.get(indexType);
-        totalHits = (totalHits == null) ? 0 : totalHits;
+        int totalHits = searchResult.getTotalHits();
         
         int resultLimit = searchSpec.getLimit();
         // set the page results by the given index
@@ -185,9 +174,10 @@ public class SearchService {
             page.setItems( new ArrayList<TypedObject>() );
         }
         page.setLimit( resultLimit );
-        page.setEllapsed( System.currentTimeMillis() - startTime );
+        page.setEllapsed( searchResult.getElapsedMs() );
         page.setPage( searchSpec.getPage() );
         page.setTotalHits(totalHits);
+        page.setSearchAfter( SearchAfterToken.encode(searchResult.getNext()) );
         
         if ( resultLimit > 1 ) {
             int totalPages = ( totalHits > 0 ) ? (int) Math.ceil( (float)totalHits / (float)resultLimit) : 0;
@@ -200,29 +190,235 @@ public class SearchService {
 
     }
 
+    /**
+     * Walk every object matching the search spec without collecting them. The matching docs
+     * are read segment by segment in index order (the spec's sort and paging are ignored) and
+     * turned into objects a batch at a time, so at most a batch of objects is held at once.
+     * The scan sees the index as it was when it started, writes made by the handler
+     * don't change what's visited.
+     *
+     * @param searchSpec
+     * @param indexPathInfo
+     * @param handler
+     * @return the number of objects handled
+     */
+    public int scan(SearchSpec searchSpec, IndexPathInfo indexPathInfo, ScanHandler handler) {
+        IndexSearcher searcher = this.acquireIndexSearcher(indexPathInfo);
+        if (searcher == null) {
+            // no index, nothing to scan
+            return 0;
+        }
+
+        int batchSize = Math.max(1, AppUtil.getAsInt(AppConstants.SCAN_BATCH_SIZE, 1000));
+        BooleanQuery query = this.buildQuery(searchSpec, indexPathInfo.getDbIndexType());
+        AtomicInteger numHandled = new AtomicInteger(0);
+        try {
+            Weight weight = searcher.createNormalizedWeight(query, false /*needsScores*/);
+            List<ScoreDoc> batch = Lists.newArrayListWithCapacity(batchSize);
+
+            for ( LeafReaderContext leaf : searcher.getIndexReader().leaves() ) {
+                Scorer scorer = weight.scorer(leaf);
+                if ( scorer == null ) {
+                    // nothing matches in this segment
+                    continue;
+                }
+                Bits liveDocs = leaf.reader().getLiveDocs();
+                DocIdSetIterator docs = scorer.iterator();
+                for ( int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc() ) {
+                    if ( liveDocs != null && !liveDocs.get(doc) ) {
+                        // deleted
+                        continue;
+                    }
+                    batch.add(new ScoreDoc(leaf.docBase + doc, 0f));
+                    if ( batch.size() == batchSize && !this.handleBatch(batch, searcher, indexPathInfo, searchSpec, handler, numHandled) ) {
+                        // stopped by the handler
+                        return numHandled.get();
+                    }
+                }
+            }
+
+            this.handleBatch(batch, searcher, indexPathInfo, searchSpec, handler, numHandled);
+        } catch ( IOException e ) {
+            logger.error( "Scan error: [query: '" + query.toString() + "', index: '" + indexPathInfo.getFilePath() + "']", e );
+        } finally {
+            this.releaseIndexSearcher(searcher);
+        }
+        return numHandled.get();
+    }
+
+    /**
+     * Build the objects of the batch and pass them to the handler, the batch is cleared.
+     *
+     * @return false if the handler stopped the scan
+     */
+    private boolean handleBatch(List<ScoreDoc> batch, IndexSearcher searcher, IndexPathInfo indexPathInfo,
+            SearchSpec searchSpec, ScanHandler handler, AtomicInteger numHandled) {
+        if ( batch.isEmpty() ) {
+            return true;
+        }
+
+        String resultKey = "key";
+        Map<String, List<TypedObject>> results = this.buildResults(batch.toArray(new ScoreDoc[batch.size()]), searcher,
+                indexPathInfo.getTenantId(), resultKey /*overridingKey*/, searchSpec.hydrateSubObjects());
+        batch.clear();
+
+        for ( TypedObject obj : results.get(resultKey) ) {
+            if ( !handler.handle(obj) ) {
+                return false;
+            }
+            numHandled.incrementAndGet();
+        }
+        return true;
+    }
+
     /**
      * Search an index
      * @param indexName
      * @param searchRequest
      * @throws Throwable
      */
-    private Map<String, List<TypedObject>> searchIndex(IndexPathInfo indexPathInfo, SearchSpec searchSpec, String overridingKey) {
-        Map<String, List<TypedObject>> resultMap = Maps.newHashMap();
-    	DbIndexType indexType = indexPathInfo.getDbIndexType();
-        IndexSearcher searcher = this.getIndexSearcher(indexPathInfo);
+    private SearchResult searchIndex(IndexPathInfo indexPathInfo, SearchSpec searchSpec, String overridingKey) {
+        long startTime = System.nanoTime();
+        IndexSearcher searcher = this.acquireIndexSearcher(indexPathInfo);
 
+        SearchResult searchResult = null;
         if (searcher == null) {
             // no index, return empty
-            resultMap.put(overridingKey, Lists.newArrayList());
-            return resultMap;
+            searchResult = SearchResult.empty(overridingKey);
+        } else {
+            try {
+                searchResult = this.searchIndex(searcher, indexPathInfo, searchSpec, overridingKey);
+            } finally {
+                this.releaseIndexSearcher(searcher);
+            }
+        }
+
+        long elapsedNanos = System.nanoTime() - startTime;
+        searchResult.setElapsedMs(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        searchMetrics.record(indexPathInfo, elapsedNanos);
+        return searchResult;
+    }
+
+    private SearchResult searchIndex(IndexSearcher searcher, IndexPathInfo indexPathInfo, SearchSpec searchSpec, String overridingKey) {
+    	DbIndexType indexType = indexPathInfo.getDbIndexType();
+        SearchResult searchResult = SearchResult.empty(overridingKey);
+        if ( searcher.getIndexReader() instanceof DirectoryReader ) {
+            searchResult.setReaderVersion(((DirectoryReader) searcher.getIndexReader()).getVersion());
+        }
+
+        long buildStartTime = System.currentTimeMillis();
+        Sort sort = this.buildSort(searchSpec);
+        BooleanQuery booleanQuery = this.buildQuery(searchSpec, indexType);
+        searchResult.setQueryBuildTimeMs(System.currentTimeMillis() - buildStartTime);
+
+        //
+        // Search for the query and build search results. Only a page of hits is
+        // collected per pass, the next pass continues after the last hit collected.
+        //
+        int pageSize = (searchSpec.getLimit() <= 0) ? AppConstants.MAX_SEARCH_LIMIT : searchSpec.getLimit();
+        // no limit, collect every hit a page at a time
+        boolean allHits = searchSpec.fetchAll() && searchSpec.getLimit() <= 0;
+
+        ScoreDoc after = SearchAfterToken.decode(searchSpec.getSearchAfter());
+        if ( after != null && !SearchAfterToken.matchesSort(after, sort) ) {
+            // i.e. a token of a different sort, start over at the first page
+            logger.warn("The search after token doesn't match the sort '" + sort + "', ignoring it.");
+            after = null;
+        }
+        if ( after != null ) {
+            // the token's doc id is stale once a merge renumbers the docs. The sort values are unique,
+            // with the last doc of the reader only the hit with the token's values counts as collected
+            after.doc = searcher.getIndexReader().maxDoc() - 1;
+        }
+        int skip = 0;
+        if ( after == null && searchSpec.fetchAll() && !allHits ) {
+            // offset page, skip the hits of the previous pages
+            skip = (searchSpec.getPage() - 1) * pageSize;
         }
 
-        Sort sort = null;
-        List<Query> mustQueriesToAdd = new ArrayList<Query>();
-        List<Query> shouldQueriesToAdd = new ArrayList<Query>();
-        
         //
-        // Build the sort query if we have it
+        // Check the query result cache, the cached doc ids are only
+        // returned if they were collected from this searcher's reader
+        String cacheKey = (searchSpec.useResultCache()) ?
+                queryResultCache.buildKey(indexPathInfo, booleanQuery, sort, pageSize, skip, searchSpec.fetchAll(), searchSpec.getSearchAfter()) : null;
+        if ( cacheKey != null ) {
+            QueryResultCache.CachedResult cached = queryResultCache.get(indexPathInfo, cacheKey, searcher);
+            if ( cached != null ) {
+                searchResult.setTotalHits(cached.getTotalHits());
+                searchResult.setNext(cached.getNext());
+                searchResult.setResults(this.buildResults(cached.getScoreDocs(), searcher,
+                        indexPathInfo.getTenantId(), overridingKey, searchSpec.hydrateSubObjects()));
+                return searchResult;
+            }
+        }
+
+        try {
+            List<ScoreDoc> pageDocs = Lists.newArrayList();
+            while (true) {
+                // what's left of the page, a page crossing a pass boundary is collected over two passes
+                int passSize = (allHits) ? pageSize : pageSize - pageDocs.size();
+                // skip up to the search limit per pass, the page is collected with the last skipped hits
+                int numHits = (allHits) ? pageSize : Math.min(skip + passSize, Math.max(passSize, AppConstants.MAX_SEARCH_LIMIT));
+                TopDocs topDocs = this.searchAfter(searcher, booleanQuery, after, numHits, sort);
+                searchResult.setTotalHits(topDocs.totalHits);
+
+                ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+                boolean hasMore = (scoreDocs.length == numHits);
+                if ( scoreDocs.length == 0 ) {
+                    break;
+                }
+
+                if ( skip >= scoreDocs.length ) {
+                    // still before the requested page
+                    skip -= scoreDocs.length;
+                    after = scoreDocs[scoreDocs.length - 1];
+                    if ( !hasMore ) {
+                        break;
+                    }
+                    continue;
+                }
+
+                int endIndex = Math.min(scoreDocs.length, skip + passSize);
+                pageDocs.addAll(Arrays.asList(scoreDocs).subList(skip, endIndex));
+                skip = 0;
+                after = scoreDocs[endIndex - 1];
+
+                if ( !hasMore && endIndex == scoreDocs.length ) {
+                    // out of hits
+                    break;
+                }
+                if ( !allHits && pageDocs.size() == pageSize ) {
+                    // page is full and there are hits after it
+                    searchResult.setNext(after);
+                    break;
+                }
+            }
+
+            ScoreDoc[] resultDocs = pageDocs.toArray(new ScoreDoc[pageDocs.size()]);
+            queryResultCache.put(cacheKey, searcher, resultDocs, searchResult.getTotalHits(), searchResult.getNext());
+
+            searchResult.setResults(this.buildResults(resultDocs, searcher,
+                    indexPathInfo.getTenantId(), overridingKey, searchSpec.hydrateSubObjects()));
+            return searchResult;
+        } catch ( Exception e ) {
+            String sortStr = (sort != null) ? sort.toString() : "";
+            logger.error( "Search error: [booleanQuery: '" + booleanQuery.toString() + "', pageSize: '" + pageSize + "', sort: '" + sortStr + "']", e );
+        }
+        
+        return SearchResult.empty(overridingKey);
+    }
+
+    /**
+     * Build the sort of the search spec, by relevance if the spec has no sort query.
+     * The object id is always the last sort field so no two hits tie, a search after
+     * token then holds up across merges and deletes that renumber the doc ids.
+     *
+     * @param searchSpec
+     * @return Sort
+     */
+    private Sort buildSort(SearchSpec searchSpec) {
+        SortField idSortField = new SortField(AppConstants.ORDERBY_OBJ_ID_REF_KEY, SortField.Type.LONG);
+        Sort sort = new Sort(SortField.FIELD_SCORE, idSortField);
         SortQuery sortQry = searchSpec.getSortQuery();
         if ( sortQry != null ) {
             Type sortType = sortQry.getSortType();
@@ -236,8 +432,22 @@ public class SearchService {
                 sortField = new SortField(field, sortType, !isAsc);
             }
             // set the Sort query
-            sort = new Sort(sortField);
+            sort = new Sort(sortField, idSortField);
         }
+        return sort;
+    }
+
+    /**
+     * Build the query of the search spec. A spec without any queries
+     * matches every object of the index type.
+     *
+     * @param searchSpec
+     * @param indexType
+     * @return BooleanQuery
+     */
+    public BooleanQuery buildQuery(SearchSpec searchSpec, DbIndexType indexType) {
+        List<Query> mustQueriesToAdd = new ArrayList<Query>();
+        List<Query> shouldQueriesToAdd = new ArrayList<Query>();
         
         //
         // Build the range query if we have it
@@ -406,94 +616,35 @@ public class SearchService {
         for ( Query q : shouldQueriesToAdd ) {
             booleanQueryBuilder.add(q, Occur.SHOULD);
         }
-        BooleanQuery booleanQuery = booleanQueryBuilder.build();
+        return booleanQueryBuilder.build();
+    }
 
-        //
-        // Search for the query and build search results
-        //
-        int pageSize = (searchSpec.getLimit() <= 0) ? AppConstants.MAX_SEARCH_LIMIT : searchSpec.getLimit();
-        
-        if ( searchSpec.fetchAll() ) {
-            TopDocs topDocs = null;
-            TotalHitCountCollector collector = new TotalHitCountCollector();
-            try {
-                // this is needed to populate the collector's "totalHits" count
-                searcher.search(booleanQuery, collector);
-                
-                if ( sort != null ) {
-                    topDocs = searcher.search( booleanQuery, Math.max(1, collector.getTotalHits()), sort );
-                } else {
-                    topDocs = searcher.search(booleanQuery, Math.max(1, collector.getTotalHits()));
-                }
-                
-                if (topDocs != null) {
-                    totalHitsMap.put(indexType, topDocs.totalHits);
-                    
-                    if (searchSpec.getLimit() > 0 && searchSpec.getPage() > 0) {
-                        // return the correct page of results
-                        
-                        List<TypedObject> results = Lists.newArrayList();
-                        resultMap.put(overridingKey, results);
-                        
-                        int startIndex = (searchSpec.getPage() - 1) * pageSize;
-                        int endIndex = searchSpec.getPage() * pageSize;
-                        endIndex = (topDocs.totalHits < endIndex) ? topDocs.totalHits : endIndex;
-
-                        for (int i = startIndex; i < endIndex; i++) {
-                            TypedObject resultObj = this.buildResult(topDocs.scoreDocs[i], searcher, indexPathInfo.getTenantId());
-                            if (resultObj != null) {
-                                results.add(resultObj);
-                            }
-                        }
-                        return resultMap;
-                    } else {
-                        return this.buildResults(topDocs.scoreDocs, searcher, indexPathInfo.getTenantId(), overridingKey);
-                    }
-                }
-                
-                
-            } catch ( Exception e ) {
-                logger.error( "Search error: [booleanQuery: '" + booleanQuery.toString() + "', pageSize: '" + pageSize + "']", e );
-            }
-        } else if (sort != null) {
-            
-            TopFieldDocs topFieldDocs = null;
-            try {
-            	topFieldDocs = searcher.search(booleanQuery, pageSize, sort);
-            } catch ( Exception e ) {
-            	logger.error( "Search error: [booleanQuery: '" + booleanQuery.toString() + "', pageSize: '" + pageSize + "', sort: '" + sort.toString() + "']", e );
-            }
-            if ( topFieldDocs != null ) {
-	            totalHitsMap.put(indexType, topFieldDocs.totalHits);
-	            return this.buildResults(topFieldDocs.scoreDocs, searcher, indexPathInfo.getTenantId(), overridingKey);
-            }
-        } else {
-            TopDocs topDocs = null;
-            try {
-            	topDocs = searcher.search(booleanQuery, pageSize);
-            } catch ( Exception e ) {
-            	logger.error( "Search error: [booleanQuery: '" + booleanQuery.toString() + "', pageSize: '" + pageSize + "']", e );
-            }
-            if ( topDocs != null ) {
-                Integer totalHits = totalHitsMap.get(indexType);
-                if ( totalHits == null ) {
-                    totalHits = 0;
-                }
-	            totalHits += topDocs.totalHits;
-	            totalHitsMap.put(indexType, totalHits);
-	            return this.buildResults(topDocs.scoreDocs, searcher, indexPathInfo.getTenantId(), overridingKey);
-            }
-        }
-        
-        resultMap.put(overridingKey, Lists.newArrayList());
-        
-        return resultMap;
+    /**
+     * Collect the top hits after the given hit, or the first hits if it's null
+     */
+    private TopDocs searchAfter(IndexSearcher searcher, Query query, ScoreDoc after, int numHits, Sort sort) throws IOException {
+        return searcher.searchAfter(after, query, numHits, sort);
     }
 
-    private Map<String, List<TypedObject>> buildResults(ScoreDoc[] scoreDocs, IndexSearcher searcher, String tenantId, String overridingKey)  {
+    private Map<String, List<TypedObject>> buildResults(
+            ScoreDoc[] scoreDocs, IndexSearcher searcher, String tenantId, String overridingKey, boolean hydrateSubObjects) {
+        return this.buildResults(scoreDocs, 0, scoreDocs.length, searcher, tenantId, overridingKey, hydrateSubObjects);
+    }
+
+    /**
+     * Build the result objects of the score docs between the start (inclusive) and end index.
+     * The sub-objects referenced by the results are fetched once the page is built.
+     */
+    private Map<String, List<TypedObject>> buildResults(ScoreDoc[] scoreDocs, int startIndex, int endIndex,
+            IndexSearcher searcher, String tenantId, String overridingKey, boolean hydrateSubObjects)  {
         Map<String, List<TypedObject>> typedObjects = Maps.newHashMap();
-        for (ScoreDoc scoreDoc : scoreDocs) {
-			TypedObject classObj = this.buildResult(scoreDoc, searcher, tenantId);
+        if (StringUtils.isNotBlank(overridingKey)) {
+            typedObjects.put(overridingKey, Lists.<TypedObject>newArrayList());
+        }
+
+        SubObjectBatch subObjectBatch = (hydrateSubObjects) ? new SubObjectBatch(tenantId) : null;
+        for (int i = startIndex; i < endIndex; i++) {
+			TypedObject classObj = this.buildResult(scoreDocs[i], searcher, tenantId, subObjectBatch);
 			if (classObj != null) {
 			    String key = (StringUtils.isNotBlank(overridingKey)) ? overridingKey : classObj.getKey();
 			    List<TypedObject> objectsPerKey = typedObjects.get(key);
@@ -502,18 +653,21 @@ public class SearchService {
 			        typedObjects.put(key, objectsPerKey);
 			    }
 			    objectsPerKey.add(classObj);
-			    // typedObjects.add(classObj);
 			}
         }
+
+        if (subObjectBatch != null) {
+            subObjectBatch.hydrate();
+        }
         return typedObjects;
     }
     
-    private TypedObject buildResult(ScoreDoc scoreDoc, IndexSearcher searcher, String tenantId) {
+    private TypedObject buildResult(ScoreDoc scoreDoc, IndexSearcher searcher, String tenantId, SubObjectBatch subObjectBatch) {
         TypedObject classObj = null;
         Document d;
         try {
             d = searcher.doc(scoreDoc.doc);
-            classObj = this.constructObjectFromDoc(d, tenantId);
+            classObj = this.constructObjectFromDoc(d, subObjectBatch);
         } catch ( Exception e ) {
             logger.error( "Failed to build search result document from ScoreDoc '" + scoreDoc.toString() + "'.", e );
         }
@@ -521,188 +675,241 @@ public class SearchService {
     }
 
     /**
-     * Construct the Lucene document into a java bean
+     * Construct the Lucene document into a java bean. Sub-object references
+     * are added to the batch, they're not set until the batch is hydrated.
      * @param d
+     * @param subObjectBatch the batch to add the references to or null to skip them
      * @return
-     * @throws Throwable
      */
-    @SuppressWarnings("unchecked")
-    private TypedObject constructObjectFromDoc(Document d, String tenantId) {
+    private TypedObject constructObjectFromDoc(Document d, SubObjectBatch subObjectBatch) {
         String forNameStr = d.get(AppConstants.FOR_NAME_FIELD);
-        Object classObj = null;
+        TypedObject classObj = null;
         if (forNameStr != null) {
-            // get the doc fields from the Lucene document
-            List<IndexableField> docFields = d.getFields();
 
+            //
+            // Use the forNameStr found in the doc to find the compiled setters of the java class
+            //
+            DocumentCodec codec = null;
             try {
-	            Class<?> cls = Class.forName(forNameStr);
-	            classObj = cls.newInstance();
+                codec = DocumentCodec.forName(forNameStr);
+                classObj = codec.newInstance();
             } catch ( Exception e ) {
             	logger.error("Failed to construct document " + d.toString() + " into an EntityObject.", e );
             	return null;
             }
 
-            if (docFields == null || docFields.size() == 0) {
-                return (TypedObject) classObj;
+            // get the stored values from the Lucene document
+            Map<String, String> docValueMap = DocumentCodec.getStoredValues(d);
+            if (docValueMap.isEmpty()) {
+                return classObj;
             }
-            
-            Map<String, String> docFieldMap = Maps.newHashMap();
-            for ( IndexableField iField : docFields ) {
-                docFieldMap.put(iField.name().toLowerCase(), iField.name());
+
+            // go through each setter of this class
+            for (DocumentCodec.FieldReader fieldReader : codec.getReaders()) {
+
+                // get the stored value, the field names match the lowercase'd setter field name
+                String value = docValueMap.get(fieldReader.getFieldName());
+                if (value == null) {
+                    continue;
+                }
+
+                if ( value.startsWith(AppConstants.ORDERBY_SUB_OBJ_REF_KEY) ) {
+                    //
+                    // it has a sub-object, fetch it with the rest of the page
+                    //
+                    if ( subObjectBatch != null ) {
+                    	try {
+                    		Long innerObjRefId = Long.valueOf(value.substring(AppConstants.ORDERBY_SUB_OBJ_REF_KEY.length()));
+                    		subObjectBatch.addRef(classObj, fieldReader, innerObjRefId);
+                    	} catch (Exception e) {
+                    		logger.trace("Failed to get sub object ref id, reason: " + e.toString());
+                    	}
+                    }
+                    
+                } else if ( value.startsWith(AppConstants.ORDERBY_SUB_OBJ_PARENT_REF_KEY) ) {
+                    //
+                    // look for the children with the parentId of this value with the rest of the page
+                    //
+                    if ( subObjectBatch != null ) {
+                        try {
+                            Long innerObjParentId = Long.valueOf(value.substring(AppConstants.ORDERBY_SUB_OBJ_PARENT_REF_KEY.length()));
+                            subObjectBatch.addParentRef(classObj, fieldReader, innerObjParentId);
+                        } catch (Exception e) {
+                            logger.trace("Failed to get sub object parent ref id, reason: " + e.toString());
+                        }
+                    }
+                    
+                } else {
+                    //
+                    // set the bean attribute, list values are converted to the generics param type
+                    //
+                    try {
+                        fieldReader.setValue(classObj, value);
+					} catch ( Exception e ) {
+						logger.error( "Failed to set the '" + forNameStr + "' object's setter '" + fieldReader.getSetterName() + "' with value '" + value + "'.", e );
+					}
+                }
+            } // end field readers for loop
+
+        }
+        return classObj;
+    }
+
+    /**
+     * Search the index for the documents with one of the values in the field and
+     * group the objects built from them by that value. The sub-objects of these are
+     * fetched the same way before returning.
+     *
+     * @param indexPathInfo
+     * @param field the id or parent field
+     * @param values
+     * @return Map<Long, List<TypedObject>>
+     */
+    private Map<Long, List<TypedObject>> searchByReferences(IndexPathInfo indexPathInfo, String field, Set<Long> values) {
+        Map<Long, List<TypedObject>> objectsByRef = Maps.newHashMap();
+        IndexSearcher searcher = this.acquireIndexSearcher(indexPathInfo);
+        if (searcher == null) {
+            return objectsByRef;
+        }
+
+        SubObjectBatch subObjectBatch = new SubObjectBatch(indexPathInfo.getTenantId());
+        try {
+            List<BytesRef> terms = Lists.newArrayListWithCapacity(values.size());
+            for (Long value : values) {
+                terms.add(new BytesRef(String.valueOf(value)));
             }
+            Query query = new TermInSetQuery(field, terms);
 
-            //
-            // Use the forNameStr found in the doc to build a java class
-            //
+            TotalHitCountCollector collector = new TotalHitCountCollector();
+            searcher.search(query, collector);
+            if (collector.getTotalHits() == 0) {
+                return objectsByRef;
+            }
+
+            TopDocs topDocs = searcher.search(query, collector.getTotalHits());
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                TypedObject obj = this.buildResult(scoreDoc, searcher, indexPathInfo.getTenantId(), subObjectBatch);
+                if (obj == null) {
+                    continue;
+                }
+                Long ref = (field.equals(AppConstants.PARENT_ID_KEY)) ? obj.getParent() : obj.getId();
+                List<TypedObject> objects = objectsByRef.get(ref);
+                if (objects == null) {
+                    objects = Lists.newArrayList();
+                    objectsByRef.put(ref, objects);
+                }
+                objects.add(obj);
+            }
+        } catch (Exception e) {
+            logger.error("Failed to search the sub-objects of index '" + indexPathInfo.getFilePath() + "' by " + field + ".", e);
+        } finally {
+            this.releaseIndexSearcher(searcher);
+        }
 
-            List<Method> setterMethods = ReflectionUtil.getSetterMethods(classObj.getClass());
+        subObjectBatch.hydrate();
+        return objectsByRef;
+    }
 
-            // go through each setter method of this class
-            for (Method setter : setterMethods) {
+    /**
+     * Setter waiting on a sub-object
+     */
+    private static class PendingSubObject {
+        private TypedObject target;
+        private DocumentCodec.FieldReader fieldReader;
 
-                // create the field name that matches what was used to create the doc's field
-                String fieldName = ReflectionUtil.getFieldNameFromSetter(setter);
-                
-                String docFieldName = docFieldMap.get(fieldName.toLowerCase());
-                if (docFieldName != null) {
-
-                    // get the parameter types of the setter (should be only 1)
-                    Class<?>[] paramTypes = setter.getParameterTypes();
-
-                    if (paramTypes.length == 1) {
-                        Class<?> paramType = paramTypes[0];
-                        
-                        // get the stored value
-                        String value = d.get(docFieldName);
-                        
-                        //
-                        // get the generics param type if it's a list/collection type
-                        //
-                        boolean isListValue = false;
-                        if ( paramType.isAssignableFrom( List.class ) || paramType.isAssignableFrom( Collections.class ) ) {
-                            isListValue = true;
-                            java.lang.reflect.Type[] types = setter.getGenericParameterTypes();
-                            if ( types != null && types.length > 0 ) {
-                                ParameterizedType pType = (ParameterizedType) types[0];
-                                java.lang.reflect.Type[] argTypes = pType.getActualTypeArguments();
-                                if ( argTypes != null && argTypes.length > 0 ) {
-                                    java.lang.reflect.Type argType = argTypes[0];
-                                    
-                                    //
-                                    // Get the param type from the generics type
-                                    //
-                                    paramType = ((Class<?>)argType);
-                                }
-                            }
-                        }
+        PendingSubObject(TypedObject target, DocumentCodec.FieldReader fieldReader) {
+            this.target = target;
+            this.fieldReader = fieldReader;
+        }
+    }
 
-                        if ( value.startsWith(AppConstants.ORDERBY_SUB_OBJ_REF_KEY) ) {
-                            //
-                            // it has a sub-object, fetch it and set it
-                            //
-                        	try {
-                        		Long innerObjRefId = Long.valueOf(value.substring(AppConstants.ORDERBY_SUB_OBJ_REF_KEY.length()));
-                                DbIndexType innerObjIndexType = DbIndex.getIndexTypeByClass((Class<? extends TypedObject>) paramType);
-
-                                //
-                                // Search for the inner object
-                                //
-                                TypedObject innerObjVal = null;
-                                try {
-                                	IndexPathInfo indexPathInfo = new IndexPathInfo(AppConstants.LUCENE_STORE_NAME, tenantId, innerObjIndexType);
-                                    innerObjVal = search(indexPathInfo, innerObjRefId);
-                                } catch (SearchException e) {
-                                    logger.error("Failed to perform inner object search against index '" + innerObjIndexType.getCanonicalName() + "'.", e );
-                                }
-
-                                if ( innerObjVal != null ) {
-                                    try {
-										setter.invoke(classObj, innerObjVal);
-									} catch ( Exception e ) {
-										logger.error( "Failed to set the sub-object's setter '" + setter.getName() + "' with entity '" + forNameStr + "'.", e );
-									}
-                                }
-                        	} catch (Exception e) {
-                        		logger.trace("Failed to get sub object ref id, reason: " + e.toString());
-                        	}
-                            
-                        } else if ( value.startsWith(AppConstants.ORDERBY_SUB_OBJ_PARENT_REF_KEY) ) {
-                            //
-                            // look for the children with the parentId of this value
-                            //
-                            String innerObjRefId = value.substring(AppConstants.ORDERBY_SUB_OBJ_PARENT_REF_KEY.length());
-                            DbIndexType innerObjIndexType = DbIndex.getIndexTypeByClass((Class<? extends TypedObject>) paramType);
-                            
-                            // get all of the child items by parent id
-                            SearchSpec searchSpec = new SearchSpec(null /*userReferenceId*/);
-                            SearchQuery query = new SearchQuery();
-                            query.setParent(Long.valueOf(innerObjRefId));
-                            searchSpec.setQueries(Lists.newArrayList(query));
-                            
-                            IndexPathInfo indexPathInfo = new IndexPathInfo(AppConstants.LUCENE_STORE_NAME, tenantId, innerObjIndexType);
-                            String key = "key";
-                            Map<String, List<TypedObject>> results = searchIndex(indexPathInfo, searchSpec, key);
-                            
-                            if ( results != null ) {
-                                try {
-                                    setter.invoke(classObj, results.get(key));
-                                } catch ( Exception e ) {
-                                    logger.error("Failed to set the '" + forNameStr + "' object's setter '" + setter.getName() + "' with value '" + value + "'.", e );
-                                }
-                            }
-                            
-                            //
-                            // set the bean setter
-                            //
-                            try {
-                                ReflectionUtil.setSetterMethodValue(setter, classObj, value, paramType);
-                            } catch ( Exception e ) {
-                                logger.error( "Failed to set the '" + forNameStr + "' object's setter '" + setter.getName() + "' with value '" + value + "'.", e );
-                            }
-                            
-                        } else if ( isListValue ) {
-                            //
-                            // get the list of String values and convert them to the param type
-                            //
-                            List<Object> stuff = new ArrayList<Object>();
-                            if ( value.indexOf(",") != -1 ) {
-                                String[] vals = value.split(",");
-                                if ( vals != null && vals.length > 0 ) {
-                                    for ( String val : vals ) {
-                                        if ( !Strings.isNullOrEmpty( val ) ) {
-                                            Object trueValue = ReflectionUtil.getParamTypeValue( val, paramType );
-                                            if ( trueValue != null ) {
-                                                stuff.add(trueValue);
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                            if ( CollectionUtils.isNotEmpty( stuff ) ) {
-                                try {
-                                    //
-                                    // set the setter with the list of converted objects
-                                    setter.invoke(classObj, stuff);
-                                } catch ( Exception e ) {
-                                    logger.error("Failed to set an array list of items.", e );
-                                }
-                            }
-                        } else {
-                            //
-                            // set the bean attribute
-                            //
-                            try {
-								ReflectionUtil.setSetterMethodValue(setter, classObj, value, paramType);
-							} catch ( Exception e ) {
-								logger.error( "Failed to set the '" + forNameStr + "' object's setter '" + setter.getName() + "' with value '" + value + "'.", e );
-							}
-                        }
-                    } // end paramTypes.length if check
-                } // end docFieldName not null if
-            } // end setterMethods for loop
+    /**
+     * The sub-object references of a page of results. Instead of a search per result
+     * and field, the references are fetched with one search per nested index for the
+     * single object references and one per nested index for the child lists.
+     */
+    private class SubObjectBatch {
+
+        private String tenantId;
+        // nested index type -> object id -> setters waiting for it
+        private Map<DbIndexType, Map<Long, List<PendingSubObject>>> refsById = Maps.newLinkedHashMap();
+        // nested index type -> parent id -> setters waiting for the list of children
+        private Map<DbIndexType, Map<Long, List<PendingSubObject>>> refsByParent = Maps.newLinkedHashMap();
 
+        SubObjectBatch(String tenantId) {
+            this.tenantId = tenantId;
+        }
+
+        void addRef(TypedObject target, DocumentCodec.FieldReader fieldReader, Long refId) {
+            this.add(refsById, target, fieldReader, refId);
+        }
+
+        void addParentRef(TypedObject target, DocumentCodec.FieldReader fieldReader, Long parentId) {
+            this.add(refsByParent, target, fieldReader, parentId);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void add(Map<DbIndexType, Map<Long, List<PendingSubObject>>> refs,
+                TypedObject target, DocumentCodec.FieldReader fieldReader, Long ref) {
+            DbIndexType innerObjIndexType = DbIndex.getIndexTypeByClass((Class<? extends TypedObject>) fieldReader.getParamType());
+            if (innerObjIndexType == null) {
+                logger.trace("No index found for the sub-object type '" + fieldReader.getParamType().getName() + "'.");
+                return;
+            }
+
+            Map<Long, List<PendingSubObject>> pendingByRef = refs.get(innerObjIndexType);
+            if (pendingByRef == null) {
+                pendingByRef = Maps.newLinkedHashMap();
+                refs.put(innerObjIndexType, pendingByRef);
+            }
+            List<PendingSubObject> pending = pendingByRef.get(ref);
+            if (pending == null) {
+                pending = Lists.newArrayList();
+                pendingByRef.put(ref, pending);
+            }
+            pending.add(new PendingSubObject(target, fieldReader));
+        }
+
+        /**
+         * Search for the referenced sub-objects and set them
+         */
+        void hydrate() {
+            for (Map.Entry<DbIndexType, Map<Long, List<PendingSubObject>>> entry : refsById.entrySet()) {
+                IndexPathInfo indexPathInfo = new IndexPathInfo(AppConstants.LUCENE_STORE_NAME, tenantId, entry.getKey());
+                Map<Long, List<TypedObject>> objectsById = searchByReferences(indexPathInfo, AppConstants.ID_KEY, entry.getValue().keySet());
+
+                for (Map.Entry<Long, List<PendingSubObject>> pendingEntry : entry.getValue().entrySet()) {
+                    List<TypedObject> objects = objectsById.get(pendingEntry.getKey());
+                    if (CollectionUtils.isNotEmpty(objects)) {
+                        this.set(pendingEntry.getValue(), objects.get(0));
+                    }
+                }
+            }
+
+            for (Map.Entry<DbIndexType, Map<Long, List<PendingSubObject>>> entry : refsByParent.entrySet()) {
+                IndexPathInfo indexPathInfo = new IndexPathInfo(AppConstants.LUCENE_STORE_NAME, tenantId, entry.getKey());
+                Map<Long, List<TypedObject>> objectsByParent = searchByReferences(indexPathInfo, AppConstants.PARENT_ID_KEY, entry.getValue().keySet());
+
+                for (Map.Entry<Long, List<PendingSubObject>> pendingEntry : entry.getValue().entrySet()) {
+                    List<TypedObject> children = objectsByParent.get(pendingEntry.getKey());
+                    this.set(pendingEntry.getValue(), (children != null) ? children : Lists.<TypedObject>newArrayList());
+                }
+            }
+
+            refsById.clear();
+            refsByParent.clear();
+        }
+
+        private void set(List<PendingSubObject> pending, Object value) {
+            for (PendingSubObject pendingSubObject : pending) {
+                try {
+                    pendingSubObject.fieldReader.set(pendingSubObject.target, value);
+                } catch ( Exception e ) {
+                    logger.error( "Failed to set the '" + pendingSubObject.target.getClass().getName() + "' object's sub-object setter '"
+                            + pendingSubObject.fieldReader.getSetterName() + "'.", e );
+                }
+            }
         }
-        return (TypedObject) classObj;
     }
 
     /**
@@ -819,9 +1026,34 @@ public class SearchService {
      * @return int is the number of docs per specified index type
      */
     public int getNumDocsByIndex(IndexPathInfo indexPathInfo) {
-        IndexSearcher searcher = this.getIndexSearcher(indexPathInfo);
+        IndexSearcher searcher = this.acquireIndexSearcher(indexPathInfo);
         if (searcher != null) {
-            return searcher.getIndexReader().numDocs();
+            try {
+                return searcher.getIndexReader().numDocs();
+            } finally {
+                this.releaseIndexSearcher(searcher);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Count the documents matching the search spec without loading them
+     * 
+     * @param searchSpec
+     * @param indexPathInfo
+     * @return int the number of matching docs
+     */
+    public int getNumDocsBySearchSpec(SearchSpec searchSpec, IndexPathInfo indexPathInfo) {
+        IndexSearcher searcher = this.acquireIndexSearcher(indexPathInfo);
+        if (searcher != null) {
+            try {
+                return searcher.count(this.buildQuery(searchSpec, indexPathInfo.getDbIndexType()));
+            } catch (IOException e) {
+                logger.error("Failed to count the documents of index '" + indexPathInfo.getDbIndexType().name() + "'.", e);
+            } finally {
+                this.releaseIndexSearcher(searcher);
+            }
         }
         return 0;
     }
@@ -0,0 +1,387 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.db.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+
+import com.baddata.log.Logger;
+import com.baddata.util.AppConstants;
+import com.baddata.util.AppUtil;
+import com.baddata.util.ExecutorServiceUtil;
+import com.baddata.util.FileUtil;
+import com.google.common.collect.Maps;
+
+/**
+ * Keeps one reference counted SearcherManager per index path so searches reuse
+ * warmed readers instead of opening a new DirectoryReader per request.
+ *
+ * Once the IndexWorker has an IndexWriter open for a path the manager is rebuilt
+ * on top of that writer (near-real-time), otherwise it's opened against the directory.
+ * Managers are refreshed right after each write and by a background task at the
+ * configured refresh interval.
+ */
+public class SearcherRegistry {
+
+    private static Logger logger = Logger.getLogger(SearcherRegistry.class.getName());
+
+    private static SearcherRegistry ref;
+
+    private Map<String, ManagedSearcher> managedSearcherMap = Maps.newConcurrentMap();
+
+    // number of searchers acquired but not yet released
+    private AtomicInteger openSearcherCount = new AtomicInteger(0);
+
+    private ScheduledFuture<?> refreshFuture = null;
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static SearcherRegistry getInstance() {
+        if (ref == null) {
+            synchronized(SearcherRegistry.class) {
+                if (ref == null) {
+                    ref = new SearcherRegistry();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private SearcherRegistry() {
+        //
+    }
+
+    /**
+     * Start the background refresh task
+     */
+    public synchronized void start() {
+        if ( refreshFuture != null ) {
+            return;
+        }
+
+        long refreshIntervalMs = AppUtil.getAsLong(AppConstants.SEARCHER_REFRESH_INTERVAL_MS, 1000L);
+        if ( refreshIntervalMs <= 0 ) {
+            logger.info("Searcher background refresh is disabled, readers refresh after writes only.");
+            return;
+        }
+
+        refreshFuture = ExecutorServiceUtil.getInstance().getScheduleExecutor().scheduleWithFixedDelay(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        refreshAll();
+                    }
+                }, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background refresh task and close all of the managed readers
+     */
+    public synchronized void stop() {
+        if ( refreshFuture != null ) {
+            refreshFuture.cancel(false);
+            refreshFuture = null;
+        }
+        this.closeAll();
+    }
+
+    /**
+     * Acquire a searcher for the index path. Every acquired searcher must be
+     * handed back using release(searcher).
+     *
+     * @param indexPathInfo
+     * @return IndexSearcher or null if the index doesn't exist yet
+     */
+    public IndexSearcher acquire(IndexPathInfo indexPathInfo) {
+        while (true) {
+            ManagedSearcher managed = this.getOrOpen(indexPathInfo);
+            if ( managed == null ) {
+                return null;
+            }
+            try {
+                IndexSearcher searcher = managed.manager.acquire();
+                openSearcherCount.incrementAndGet();
+                return searcher;
+            } catch (AlreadyClosedException e) {
+                // the manager was swapped (writer bound or closed) while acquiring, try again
+                managedSearcherMap.remove(indexPathInfo.getFilePath(), managed);
+            } catch (IOException e) {
+                logger.error("Failed to acquire a searcher for index '" + indexPathInfo.getFilePath() + "'.", e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Release a searcher previously returned by acquire
+     *
+     * @param searcher
+     */
+    public void release(IndexSearcher searcher) {
+        if ( searcher == null ) {
+            return;
+        }
+        try {
+            // same as SearcherManager.release, but doesn't require the manager
+            // that handed out the searcher to still be registered
+            searcher.getIndexReader().decRef();
+        } catch (IOException e) {
+            logger.error("Failed to release the index searcher.", e);
+        } finally {
+            openSearcherCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Called by the IndexWorker after each write. Binds the manager to the writer if
+     * it isn't already and refreshes it so the change is visible to the next search,
+     * whether or not it has been committed yet.
+     *
+     * @param indexPathInfo
+     * @param writer
+     */
+    public void onChange(IndexPathInfo indexPathInfo, IndexWriter writer) {
+        ManagedSearcher managed = this.bindWriter(indexPathInfo, writer);
+        if ( managed != null ) {
+            managed.refresh(true /*blocking*/);
+        }
+    }
+
+    /**
+     * Close any manager that was built on top of this writer. The next acquire will
+     * open against the directory until a new writer is bound.
+     *
+     * @param writer
+     */
+    public synchronized void unbindWriter(IndexWriter writer) {
+        if ( writer == null ) {
+            return;
+        }
+        for ( String filePath : managedSearcherMap.keySet() ) {
+            ManagedSearcher managed = managedSearcherMap.get(filePath);
+            if ( managed != null && managed.writer == writer ) {
+                managedSearcherMap.remove(filePath);
+                managed.close();
+            }
+        }
+    }
+
+    /**
+     * Close all of the managed readers
+     */
+    public synchronized void closeAll() {
+        for ( String filePath : managedSearcherMap.keySet() ) {
+            ManagedSearcher managed = managedSearcherMap.remove(filePath);
+            if ( managed != null ) {
+                managed.close();
+            }
+        }
+    }
+
+    /**
+     * Refresh all of the managed readers
+     */
+    public void refreshAll() {
+        for ( ManagedSearcher managed : managedSearcherMap.values() ) {
+            managed.refresh(false /*blocking*/);
+        }
+    }
+
+    /**
+     * Returns the metrics per index path:
+     * readerAgeMs, lastRefreshMs, refreshCount, nrt (1 if opened on the writer)
+     *
+     * @return Map<String, Map<String, Long>>
+     */
+    public Map<String, Map<String, Long>> getMetrics() {
+        Map<String, Map<String, Long>> metrics = Maps.newTreeMap();
+        long now = System.currentTimeMillis();
+        for ( String filePath : managedSearcherMap.keySet() ) {
+            ManagedSearcher managed = managedSearcherMap.get(filePath);
+            if ( managed == null ) {
+                continue;
+            }
+            Map<String, Long> indexMetrics = Maps.newLinkedHashMap();
+            indexMetrics.put("readerAgeMs", now - managed.readerOpenedTime);
+            indexMetrics.put("lastRefreshMs", managed.lastRefreshMs);
+            indexMetrics.put("refreshCount", managed.refreshCount);
+            indexMetrics.put("nrt", (managed.writer != null) ? 1L : 0L);
+            metrics.put(filePath, indexMetrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the number of searchers currently acquired and not yet released
+     */
+    public int getOpenSearcherCount() {
+        return openSearcherCount.get();
+    }
+
+    /**
+     * @return the number of indexes with an open reader
+     */
+    public int getOpenReaderCount() {
+        return managedSearcherMap.size();
+    }
+
+    private ManagedSearcher getOrOpen(IndexPathInfo indexPathInfo) {
+        String filePath = indexPathInfo.getFilePath();
+        ManagedSearcher managed = managedSearcherMap.get(filePath);
+        if ( managed != null ) {
+            return managed;
+        }
+
+        synchronized (this) {
+            managed = managedSearcherMap.get(filePath);
+            if ( managed != null ) {
+                return managed;
+            }
+
+            File f = FileUtil.getLuceneIndex(indexPathInfo, true /*isSearch*/);
+            if (f == null || !f.exists()) {
+                // no search index found
+                return null;
+            }
+
+            try {
+                // the same directory implementation the index is written with
+                Directory dir = IndexStoreProfiles.getInstance().getProfile(indexPathInfo.getDbIndexType()).openDirectory(f.toPath());
+                if ( !DirectoryReader.indexExists(dir) ) {
+                    dir.close();
+                    return null;
+                }
+                managed = new ManagedSearcher(new SearcherManager(dir, null /*searcherFactory*/), dir, null /*writer*/);
+                managedSearcherMap.put(filePath, managed);
+            } catch (Exception e) {
+                logger.error("Failed to read and open db index '" + filePath + "'.", e);
+                return null;
+            }
+        }
+        return managed;
+    }
+
+    private synchronized ManagedSearcher bindWriter(IndexPathInfo indexPathInfo, IndexWriter writer) {
+        String filePath = indexPathInfo.getFilePath();
+        ManagedSearcher managed = managedSearcherMap.get(filePath);
+        if ( managed != null && managed.writer == writer ) {
+            return managed;
+        }
+
+        if ( writer == null || !writer.isOpen() || !this.isWriterForPath(writer, indexPathInfo) ) {
+            // can't go near-real-time on this writer, keep the directory reader
+            return managed;
+        }
+
+        try {
+            ManagedSearcher nrtManaged = new ManagedSearcher(
+                    new SearcherManager(writer, true /*applyAllDeletes*/, false /*writeAllDeletes*/, null /*searcherFactory*/),
+                    null /*dir*/, writer);
+            managedSearcherMap.put(filePath, nrtManaged);
+            if ( managed != null ) {
+                managed.close();
+            }
+            return nrtManaged;
+        } catch (IOException e) {
+            logger.error("Failed to open a near-real-time reader for index '" + filePath + "'.", e);
+        }
+        return managed;
+    }
+
+    private boolean isWriterForPath(IndexWriter writer, IndexPathInfo indexPathInfo) {
+        // the writers open their directory wrapped in a MergeThrottleDirectory
+        Directory writerDir = FilterDirectory.unwrap(writer.getDirectory());
+        if ( !(writerDir instanceof FSDirectory) ) {
+            return false;
+        }
+        File f = FileUtil.getLuceneIndex(indexPathInfo, true /*isSearch*/);
+        Path writerPath = ((FSDirectory) writerDir).getDirectory().toAbsolutePath().normalize();
+        return writerPath.equals(f.toPath().toAbsolutePath().normalize());
+    }
+
+    /**
+     * SearcherManager plus the bookkeeping used for the metrics
+     */
+    private static class ManagedSearcher implements ReferenceManager.RefreshListener {
+
+        private SearcherManager manager;
+        private Directory dir;
+        private IndexWriter writer;
+
+        private volatile long readerOpenedTime = System.currentTimeMillis();
+        private volatile long lastRefreshMs = 0;
+        private volatile long refreshCount = 0;
+        private long refreshStartTime = 0;
+
+        ManagedSearcher(SearcherManager manager, Directory dir, IndexWriter writer) {
+            this.manager = manager;
+            this.dir = dir;
+            this.writer = writer;
+            this.manager.addListener(this);
+        }
+
+        void refresh(boolean blocking) {
+            try {
+                if ( blocking ) {
+                    manager.maybeRefreshBlocking();
+                } else {
+                    manager.maybeRefresh();
+                }
+            } catch (AlreadyClosedException e) {
+                // closed while refreshing, nothing to do
+            } catch (IOException e) {
+                logger.error("Failed to refresh the index searcher.", e);
+            }
+        }
+
+        void close() {
+            try {
+                manager.close();
+            } catch (IOException e) {
+                logger.error("Failed to close the index searcher manager.", e);
+            }
+            if ( dir != null ) {
+                try {
+                    dir.close();
+                } catch (IOException e) {
+                    logger.error("Failed to close the index directory.", e);
+                }
+            }
+        }
+
+        @Override
+        public void beforeRefresh() throws IOException {
+            refreshStartTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public void afterRefresh(boolean didRefresh) throws IOException {
+            long now = System.currentTimeMillis();
+            lastRefreshMs = now - refreshStartTime;
+            if ( didRefresh ) {
+                readerOpenedTime = now;
+                refreshCount++;
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.log;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.spi.LoggingEvent;
+
+import com.baddata.util.AppConstants;
+import com.baddata.util.BoundedRingBuffer;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Hands the log events of the Logger to a single appender thread through a lock-free
+ * ring buffer, so the calling thread never waits on the log4j appenders.
+ *
+ * The events are built on the calling thread (time and thread name included) and only
+ * rendered by the appenders. When the buffer is full the errors are appended on the
+ * calling thread and the other events are dropped and counted. The appender thread
+ * also runs the logging maintenance (the error dedupe cache cleanup).
+ *
+ * Doesn't log through the Logger itself, and reads its settings from the system
+ * properties directly, since it's created by the first log call.
+ */
+public class AsyncLogDispatcher implements Runnable {
+
+    private static AsyncLogDispatcher ref;
+
+    private static final int BATCH_SIZE = 512;
+    private static final long IDLE_PARK_MS = 100;
+    private static final long MAINTENANCE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private BoundedRingBuffer<LoggingEvent> ringBuffer;
+    private boolean async;
+
+    private volatile boolean running = false;
+    private volatile boolean idle = false;
+    private volatile Thread appenderThread = null;
+    private long nextMaintenanceTime = 0;
+
+    private AtomicLong dispatched = new AtomicLong(0);
+    private AtomicLong dropped = new AtomicLong(0);
+    private AtomicLong appendedInline = new AtomicLong(0);
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static AsyncLogDispatcher getInstance() {
+        if (ref == null) {
+            synchronized(AsyncLogDispatcher.class) {
+                if (ref == null) {
+                    ref = new AsyncLogDispatcher();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private AsyncLogDispatcher() {
+        ringBuffer = new BoundedRingBuffer<LoggingEvent>(Integer.getInteger(AppConstants.LOG_BUFFER_SIZE, 16384));
+        async = Boolean.parseBoolean(System.getProperty(AppConstants.LOG_ASYNC_ENABLED, "true"));
+
+        // append what's still buffered when the jvm exits
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                AsyncLogDispatcher.this.stop();
+            }
+        }, "bd-log-appender-shutdown"));
+    }
+
+    /**
+     * Queue the event for the appender thread
+     *
+     * @param event
+     */
+    public void dispatch(LoggingEvent event) {
+        dispatched.incrementAndGet();
+
+        if ( !async ) {
+            event.getLogger().callAppenders(event);
+            return;
+        }
+
+        if ( !running ) {
+            this.start();
+        }
+
+        if ( !ringBuffer.offer(event) ) {
+            if ( event.getLevel().isGreaterOrEqual(Level.ERROR) ) {
+                // never lose an error, append it on the caller's thread
+                appendedInline.incrementAndGet();
+                event.getLogger().callAppenders(event);
+            } else {
+                dropped.incrementAndGet();
+            }
+            return;
+        }
+
+        if ( idle ) {
+            Thread t = appenderThread;
+            if ( t != null ) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    public synchronized void start() {
+        if ( running ) {
+            return;
+        }
+        running = true;
+        appenderThread = new Thread(this, "bd-log-appender");
+        appenderThread.setDaemon(true);
+        appenderThread.start();
+    }
+
+    /**
+     * Stop the appender thread and append what's left in the buffer
+     */
+    public void stop() {
+        Thread t = null;
+        synchronized (this) {
+            running = false;
+            t = appenderThread;
+        }
+        if ( t != null ) {
+            LockSupport.unpark(t);
+            try {
+                t.join(IDLE_PARK_MS * 10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        appenderThread = null;
+        this.appendBatch();
+    }
+
+    /**
+     * Returns the dispatch counters: dispatched, dropped, appendedInline, pending
+     * and suppressed (repeated errors left out of the log)
+     *
+     * @return Map<String, Long>
+     */
+    public Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = Maps.newLinkedHashMap();
+        metrics.put("dispatched", dispatched.get());
+        metrics.put("dropped", dropped.get());
+        metrics.put("appendedInline", appendedInline.get());
+        metrics.put("pending", (long) ringBuffer.size());
+        metrics.put("suppressed", LogDedupeCache.getInstance().getSuppressedCount());
+        return metrics;
+    }
+
+    @Override
+    public void run() {
+        while ( running ) {
+            try {
+                int count = this.appendBatch();
+
+                long now = System.currentTimeMillis();
+                if ( now >= nextMaintenanceTime ) {
+                    nextMaintenanceTime = now + MAINTENANCE_INTERVAL_MS;
+                    // reports the suppressed counts of the expired errors
+                    LogDedupeCache.getInstance().cleanUp();
+                }
+
+                if ( count == 0 ) {
+                    idle = true;
+                    // check again, an event may have come in before the flag was set
+                    if ( ringBuffer.isEmpty() ) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(IDLE_PARK_MS));
+                    }
+                    idle = false;
+                }
+            } catch (Throwable t) {
+                // nowhere else to report it
+                System.err.println("Log appender failed to append the log events: " + t);
+            }
+        }
+    }
+
+    private int appendBatch() {
+        List<LoggingEvent> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+        int count = ringBuffer.drainTo(batch, BATCH_SIZE);
+        for ( LoggingEvent event : batch ) {
+            event.getLogger().callAppenders(event);
+        }
+        return count;
+    }
+}
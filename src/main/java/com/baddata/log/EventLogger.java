@@ -4,31 +4,12 @@
  */
 package com.baddata.log;
 
-import java.util.List;
-
-import org.apache.commons.lang3.StringUtils;
-import org.joda.time.DateTime;
-
-import com.baddata.api.dto.page.Page;
-import com.baddata.api.dto.system.BaddataLogEvent;
-import com.baddata.api.dto.user.User;
-import com.baddata.api.query.SearchSpec;
-import com.baddata.db.DbIndex.DbIndexType;
-import com.baddata.db.RangeQuery;
-import com.baddata.db.SearchQuery;
-import com.baddata.exception.IndexPersistException;
-import com.baddata.manager.db.PersistenceManager;
-import com.baddata.manager.email.EmailManager;
-import com.baddata.util.AppConstants;
-import com.baddata.util.AppUtil;
-import com.google.common.collect.Lists;
+import com.baddata.manager.event.EventLogDispatcher;
 
 public class EventLogger {
     
     private static Logger logger = Logger.getLogger(EventLogger.class.getName());
     
-    private static PersistenceManager persistenceMgr = PersistenceManager.getInstance();
-    
     public enum ThrottlerKey {
         
         // event service keys
@@ -100,7 +81,13 @@ public class EventLogger {
         return log( sessionUserReferenceId, m, eventTemplateVals );
     }
     
-    public static synchronized String log( Long sessionUserReferenceId, EventMessage m, Object... eventTemplateVals ) {
+    /**
+     * Format the event message and queue the notice or alert for the EventLogDispatcher,
+     * which looks up the users, dedupes, emails and persists it off the caller's thread.
+     *
+     * @return the formatted message
+     */
+    public static String log( Long sessionUserReferenceId, EventMessage m, Object... eventTemplateVals ) {
         
         String formattedMessage = "";
         try {
@@ -117,115 +104,18 @@ public class EventLogger {
         if (m.severityType == SeverityType.EVENT_AUDIT || m.severityType == SeverityType.USER_AUDIT) {
             // just log it
             logger.info(formattedMessage);
+            return formattedMessage;
+        }
+        
+        if (m.severityType == SeverityType.DEBUG) {
+            // neither emailed nor persisted
+            return formattedMessage;
         }
         
         //
         // it's a notice or alert
         //
-        try {
-            
-            //
-            // Get the session user
-            //
-            User user = (User) persistenceMgr.getById(DbIndexType.USER_TYPE, sessionUserReferenceId);
-            if (user == null) {
-                logger.error("Failed to get the session user when logging, will return current formatted message", null);
-                return formattedMessage;
-            }
-
-            String subject = (StringUtils.isNotBlank(m.subject)) ? m.subject : "BadData alert";
-
-            //
-            // Get the support user
-            //
-            User supportUser = persistenceMgr.getUserByUsername( AppUtil.get( AppConstants.ADMIN1_USERNAME ) );
-            
-            SeverityType sType = m.severityType;
-
-            if (sType == SeverityType.SUPPORT_ALERT || sType == SeverityType.SUPPORT_NOTICE) {
-                //
-                // set the user to the support user
-                user = persistenceMgr.getUserByUsername( AppUtil.get( AppConstants.ADMIN1_USERNAME ) );
-                // null out the support user
-                supportUser = null;
-            }
-
-            //
-            // determine if we should persist it so the event is shown on the UI in the alerts view
-            //
-            boolean persistEvent =
-                (sType == SeverityType.USER_ALERT || sType == SeverityType.USER_UI_ALERT) ? true : false;
-            
-            //
-            // Determine if we should send an email
-            //
-            boolean sendEmail =
-                (sType == SeverityType.SUPPORT_NOTICE ||
-                    sType == SeverityType.USER_NOTICE || sType == SeverityType.USER_ALERT) ?
-                        true : false;
-            
-            Long userRef = user.getId();
-            
-            //
-            // Make sure we haven't already sent the message, look for this exact message in the db
-            //
-            SearchSpec searchSpec = new SearchSpec(userRef);
-            
-            List<SearchQuery> queries = Lists.newArrayList();
-            // match the event code
-            SearchQuery sq = new SearchQuery("eventcode", m.eventCode);
-            queries.add(sq);
-
-            // as long as it was created less than a week ago
-            List<RangeQuery> rangeQueries = Lists.newArrayList();
-            long aWeekAgoTimestamp = DateTime.now().minusDays(7).getMillis();
-            RangeQuery rangeQuery = new RangeQuery("createtime", aWeekAgoTimestamp /*minimum*/, null /*max*/);
-            rangeQueries.add(rangeQuery);
-            
-            searchSpec.setRangeQueries(rangeQueries);
-            searchSpec.setQueries(queries);
-            
-            boolean alreadySentIt = false;
-            Page pageOfLogEvents = persistenceMgr.get(DbIndexType.BADDATA_LOG_EVENT_TYPE, searchSpec);
-            if (pageOfLogEvents != null && pageOfLogEvents.getTotalHits() > 0) {
-                // looks like we have
-                
-                List<BaddataLogEvent> existingEvents = (List<BaddataLogEvent>) pageOfLogEvents.getItems();
-                for (BaddataLogEvent existingEvent : existingEvents) {
-                    if (!existingEvent.isAcknowledged()) {
-                        //
-                        // Hasn't been acknowledged yet, don't send it again
-                        //
-                        alreadySentIt = true;
-                        break;
-                    }
-                }
-            }
-            
-            if (!alreadySentIt) {
-                // send the message and persist it
-                BaddataLogEvent logEvent = new BaddataLogEvent(m.severityType, m.eventCode, formattedMessage, m.subject, userRef);
-                
-                if (sendEmail) {
-                    try {
-                        EmailManager.getInstance().sendEmail( user, supportUser, subject, formattedMessage /* message */ );
-                        
-                        //
-                        // Set "notified" to true
-                        logEvent.setNotified(true);
-                    } catch (Exception e) {
-                        logger.error( "Failed to send notification email.", e );
-                    }
-                }
-                
-                if (persistEvent) {
-                    persistenceMgr.create(logEvent);
-                }
-            }
-
-        } catch (IndexPersistException e) {
-            logger.error( "Failed to send save log event", e );
-        }
+        EventLogDispatcher.getInstance().dispatch(sessionUserReferenceId, m, formattedMessage);
         
         return formattedMessage;
     }
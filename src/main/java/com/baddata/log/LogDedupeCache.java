@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.baddata.util.AppConstants;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * Keeps the same error from flooding the log. An error message is logged once per
+ * window, the repeats within the window are counted and the count is logged once
+ * the message expires from the cache.
+ *
+ * The cache is bounded, the least recently logged messages are evicted (and their
+ * counts reported) first. Expired entries are cleaned up by the log appender thread.
+ */
+public class LogDedupeCache {
+
+    private static Logger logger = Logger.getLogger(LogDedupeCache.class.getName());
+
+    private static LogDedupeCache ref;
+
+    // message -> repeats suppressed in the current window
+    private Cache<String, AtomicLong> suppressedCache;
+    private long windowMs;
+
+    private AtomicLong totalSuppressed = new AtomicLong(0);
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static LogDedupeCache getInstance() {
+        if (ref == null) {
+            synchronized(LogDedupeCache.class) {
+                if (ref == null) {
+                    ref = new LogDedupeCache();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private LogDedupeCache() {
+        windowMs = Long.getLong(AppConstants.LOG_DEDUPE_WINDOW_MS, TimeUnit.HOURS.toMillis(1));
+        suppressedCache = CacheBuilder.newBuilder()
+                .maximumSize(Long.getLong(AppConstants.LOG_DEDUPE_MAX_SIZE, 10000L))
+                .expireAfterWrite(windowMs, TimeUnit.MILLISECONDS)
+                .removalListener(new RemovalListener<String, AtomicLong>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, AtomicLong> notification) {
+                        reportSuppressed(notification);
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Returns true if the message wasn't logged within the window, the repeats are counted
+     *
+     * @param msg
+     * @return boolean
+     */
+    public boolean shouldLog(String msg) {
+        AtomicLong suppressed = suppressedCache.getIfPresent(msg);
+        if ( suppressed == null ) {
+            suppressed = suppressedCache.asMap().putIfAbsent(msg, new AtomicLong(0));
+            if ( suppressed == null ) {
+                // first time in the window
+                return true;
+            }
+        }
+        suppressed.incrementAndGet();
+        totalSuppressed.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Expire the messages past the window, reporting their suppressed counts
+     */
+    public void cleanUp() {
+        suppressedCache.cleanUp();
+    }
+
+    /**
+     * Returns the number of messages suppressed since startup
+     */
+    public long getSuppressedCount() {
+        return totalSuppressed.get();
+    }
+
+    private void reportSuppressed(RemovalNotification<String, AtomicLong> notification) {
+        AtomicLong suppressed = notification.getValue();
+        if ( notification.getCause() == RemovalCause.EXPLICIT || suppressed == null || suppressed.get() == 0 ) {
+            return;
+        }
+        logger.warn("Suppressed " + suppressed.get() + " repeat(s) of error within "
+                + TimeUnit.MILLISECONDS.toMinutes(windowMs) + " minute(s): " + StringUtils.abbreviate(notification.getKey(), 200));
+    }
+}
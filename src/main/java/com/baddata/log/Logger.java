@@ -5,73 +5,34 @@
 package com.baddata.log;
 
 
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
-
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.time.DateUtils;
 import org.apache.log4j.Level;
 import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
 
 import com.baddata.util.AppConstants;
-import com.baddata.util.ExecutorServiceUtil;
 import com.baddata.util.StringUtil;
-import com.google.common.collect.Maps;
 
 /**
  *
  * Log4j Logging utility
  *
+ * The events are handed to the AsyncLogDispatcher's appender thread, the caller never
+ * waits on the appenders. Repeated errors are left out by the LogDedupeCache. The level
+ * is checked before anything is built, the "{}" formatting methods only format the
+ * message if the level is enabled.
+ *
  */
 public class Logger {
     // Fully Qualified Class Name
     static private final String LOGGER_CLASS_NAME = Logger.class.getName();
     
-    static Map<String, Long> errorMsgMap = Maps.newHashMap();
-    static Map<String, LogMessageWrapper> logMessageMap = Maps.newHashMap();
-    
     public enum LogLevel {
         WARN,
         DEBUG,
         ERROR,
         INFO
     }
-    
-    public static class LogMessageWrapper {
-        private long time;
-        private String message;
-        public long getTime() {
-            return time;
-        }
-        public void setTime(long time) {
-            this.time = time;
-        }
-        public String getMessage() {
-            return message;
-        }
-        public void setMessage(String message) {
-            this.message = message;
-        }
-    }
-    
-    public static class LogMessageMonitor implements Runnable {
-
-        @Override
-        public void run() {
-            // go through the map and remove the one's greater than 2 hours
-            for (String key : logMessageMap.keySet() ) {
-                LogMessageWrapper wrapper = logMessageMap.get(key);
-                if (wrapper.getTime() >= (DateUtils.MILLIS_PER_HOUR * 2)) {
-                    logMessageMap.remove(key);
-                }
-            }
-        }
-    }
-    
-    private static void init() {
-        ExecutorServiceUtil.getInstance().getScheduleExecutor().scheduleAtFixedRate(
-                new LogMessageMonitor(), DateUtils.MILLIS_PER_HOUR, DateUtils.MILLIS_PER_HOUR, TimeUnit.MILLISECONDS);
-    }
 
     private final org.apache.log4j.Logger logger4j;
 
@@ -82,33 +43,49 @@ public class Logger {
     public static Logger getLogger(String name) {
         // remove the class name
         org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger(name);
-        init();
         return new Logger(logger);
     }
 
     public static Logger getLogger(Class<?> clazz) {
-        init();
         return new Logger(org.apache.log4j.Logger.getLogger(clazz));
     }
 
     /**
-     * Log the event in the specified logger files and persist the events that are required.
+     * Build the event on the caller's thread and dispatch it to the appenders.
      * @param level
      * @param message
      * @param t
      */
-    private synchronized void forcedLog(Level level, String message, Throwable t) {
+    private void forcedLog(Level level, String message, Throwable t) {
         // The class name (FCQN) lets it know that the caller of this class is the one that should be printed in
         // the log message.  Otherwise the log messages would all say "com.baddata.server.<blah>.logger.Logger..."
-        String key = level.toString() + "_" + message;
-        LogMessageWrapper msgWrapper = logMessageMap.get(key);
-        if (msgWrapper == null || msgWrapper.getTime() > (DateUtils.MILLIS_PER_HOUR * 2)) {
-            msgWrapper = new LogMessageWrapper();
-            msgWrapper.setTime(System.currentTimeMillis());
-            msgWrapper.setMessage(message);
-            logMessageMap.put(key, msgWrapper);
-            logger4j.callAppenders( new LoggingEvent(LOGGER_CLASS_NAME, logger4j, level, message, t) );
+        // The thread name is captured now, the appender thread renders the event.
+        LoggingEvent event = new LoggingEvent(
+                LOGGER_CLASS_NAME, logger4j, System.currentTimeMillis(), level, message,
+                Thread.currentThread().getName(),
+                (t != null) ? new ThrowableInformation(t) : null,
+                null /*ndc*/, null /*locationInfo*/, null /*properties*/);
+        AsyncLogDispatcher.getInstance().dispatch(event);
+    }
+    
+    /**
+     * Replace the "{}" placeholders with the arguments, in order
+     */
+    static String format(String pattern, Object... args) {
+        if ( pattern == null || args == null || args.length == 0 ) {
+            return pattern;
+        }
+        StringBuilder sb = new StringBuilder(pattern.length() + 16 * args.length);
+        int argIdx = 0;
+        int start = 0;
+        int idx = pattern.indexOf("{}");
+        while ( idx != -1 && argIdx < args.length ) {
+            sb.append(pattern, start, idx).append(args[argIdx++]);
+            start = idx + 2;
+            idx = pattern.indexOf("{}", start);
         }
+        sb.append(pattern, start, pattern.length());
+        return sb.toString();
     }
     
     public void apiAudit(String msg) {
@@ -123,21 +100,28 @@ public class Logger {
             forcedLog(Level.DEBUG, msg, null);
         }
     }
+
+    public void debug(String pattern, Object arg) {
+        if (logger4j.isDebugEnabled()) {
+            forcedLog(Level.DEBUG, format(pattern, arg), null);
+        }
+    }
+
+    public void debug(String pattern, Object arg1, Object arg2) {
+        if (logger4j.isDebugEnabled()) {
+            forcedLog(Level.DEBUG, format(pattern, arg1, arg2), null);
+        }
+    }
     
     public void error(String msg, Throwable t) {
         if (logger4j.isEnabledFor(Level.ERROR)) {
             
-            Long msgDateTime = errorMsgMap.get(msg);
-            long now = System.currentTimeMillis();
-            if ( msgDateTime != null && now - msgDateTime.longValue() < DateUtils.MILLIS_PER_HOUR ) {
-                // already have the error message in cache, skip logging this one. If
-                // it's past an hour, we'll refresh the cache timestamp and log it
+            if ( !LogDedupeCache.getInstance().shouldLog(msg) ) {
+                // already logged within the dedupe window, it's counted and
+                // reported once the message expires from the cache
                 return;
             }
             
-            // add the error msg to the map so we don't flood the log with the same error
-            errorMsgMap.put(msg, new Long(now));
-            
             StringBuffer errorMsg = new StringBuffer();
             errorMsg.append(AppConstants.AUDIT_ERROR_TAG + "" + msg);
             
@@ -215,16 +199,48 @@ public class Logger {
         }
     }
 
+    public void info(String pattern, Object arg) {
+        if (logger4j.isInfoEnabled()) {
+            forcedLog(Level.INFO, format(pattern, arg), null);
+        }
+    }
+
+    public void info(String pattern, Object arg1, Object arg2) {
+        if (logger4j.isInfoEnabled()) {
+            forcedLog(Level.INFO, format(pattern, arg1, arg2), null);
+        }
+    }
+
     public void trace(String msg) {
         if (logger4j.isTraceEnabled()) {
             forcedLog(Level.TRACE, msg, null);
         }
     }
 
+    public void trace(String pattern, Object arg) {
+        if (logger4j.isTraceEnabled()) {
+            forcedLog(Level.TRACE, format(pattern, arg), null);
+        }
+    }
+
+    public void trace(String pattern, Object arg1, Object arg2) {
+        if (logger4j.isTraceEnabled()) {
+            forcedLog(Level.TRACE, format(pattern, arg1, arg2), null);
+        }
+    }
+
     public boolean isDebugEnabled() {
         return logger4j.isDebugEnabled();
     }
 
+    public boolean isTraceEnabled() {
+        return logger4j.isTraceEnabled();
+    }
+
+    public boolean isInfoEnabled() {
+        return logger4j.isInfoEnabled();
+    }
+
     public void warn(String msg) {
         if (logger4j.isEnabledFor(Level.WARN)) {
             forcedLog(Level.WARN, msg, null);
@@ -8,7 +8,6 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -18,22 +17,27 @@ import javax.mail.search.SearchException;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.search.Query;
 import org.apache.lucene.search.SortField.Type;
 import org.joda.time.DateTime;
 
-import com.baddata.api.dto.DbIndexInfo;
 import com.baddata.api.dto.TypedObject;
 import com.baddata.api.dto.page.Page;
 import com.baddata.api.dto.salesforce.SalesforceOauth2Creds;
 import com.baddata.api.dto.user.User;
+import com.baddata.api.factory.ApiSessionContext;
 import com.baddata.api.query.SearchSpec;
 import com.baddata.db.DbIndex;
 import com.baddata.db.DbIndex.DbIndexType;
+import com.baddata.db.RangeQuery;
 import com.baddata.db.SearchQuery;
 import com.baddata.db.SortQuery;
+import com.baddata.db.lucene.IdAllocator;
 import com.baddata.db.lucene.IndexPathInfo;
 import com.baddata.db.lucene.IndexerService;
+import com.baddata.db.lucene.IndexerService.CommitMode;
 import com.baddata.db.lucene.SearchService;
+import com.baddata.db.lucene.SearchService.ScanHandler;
 import com.baddata.exception.ApiServiceException;
 import com.baddata.exception.IndexPersistException;
 import com.baddata.log.Logger;
@@ -52,7 +56,7 @@ public class PersistenceManager {
 	
 	private SearchService searchSvc;
 	private IndexerService indexSvc;
-	private Map<DbIndexType, Long> idMap = new HashMap<DbIndexType, Long>();
+	private IdAllocator idAllocator;
 	
 	public static PersistenceManager getInstance() {
 		if ( singleton == null ) {
@@ -65,27 +69,15 @@ public class PersistenceManager {
 		return singleton;
 	}
 	
-	@SuppressWarnings("unchecked")
 	private PersistenceManager() {
 		searchSvc = SearchService.getInstance();
 		indexSvc = IndexerService.getInstance();
-        
-        //
-        // Build the idMap with latest count of any existing index.
-        // The "createId" function will use the value greater than the latest count
-        // as an id to allow searching (sorting or filtering) by sequence number.
-        //
-        Page p = this.getPage(DbIndexType.DB_INDEX_INFO_TYPE);
-        if ( p != null && p.getTotalHits() > 0 ) {
-            List<TypedObject> typedObjects = (List<TypedObject>) p.getItems();
-            if ( CollectionUtils.isNotEmpty(typedObjects) ) {
-                for ( TypedObject indexInfo : typedObjects ) {
-                	DbIndexInfo dbIndexInfo = (DbIndexInfo) indexInfo;
-                	// update the idMap
-                    idMap.put(DbIndexType.getTypeById(dbIndexInfo.getIndexName()), dbIndexInfo.getDocCount());
-                }
-            }
-        }
+		
+		//
+		// The id allocator continues after the persisted high-water mark of each
+		// index to allow searching (sorting or filtering) by sequence number.
+		//
+		idAllocator = IdAllocator.getInstance();
         
         this.init();
 	}
@@ -99,21 +91,11 @@ public class PersistenceManager {
      * sequence number for that index.
      * 
      * @param indexType
-     * @return String is the sequence number as a String
+     * @return Long is the sequence number
+     * @throws IndexPersistException if the next block of ids can't be reserved
      */
-    public Long createId(DbIndexType indexType) {
-        synchronized (indexType) {
-            Long value = idMap.get(indexType);
-            if ( value == null ) {
-                // it doesn't exist yet, set it to 1
-                value = 1L;
-            } else {
-                // increment the value
-                value += 1;
-            }
-            idMap.put(indexType, value);
-            return value;
-        }
+    public Long createId(DbIndexType indexType) throws IndexPersistException {
+        return idAllocator.nextId(indexType);
     }
 
 	/**
@@ -148,9 +130,8 @@ public class PersistenceManager {
 	
 	public void createEntityWithProvidedId(TypedObject entity) throws IndexPersistException {
 	    IndexPathInfo indexPathInfo = indexSvc.buildIndexPathInfo(entity);
-        synchronized (indexPathInfo.getDbIndexType()) {
-            indexSvc.create(entity, indexPathInfo, false /*isIndexerRequest*/);
-        }
+        indexSvc.create(entity, indexPathInfo, false /*isIndexerRequest*/);
+        this.invalidateCachedUser(indexPathInfo.getDbIndexType(), entity.getId());
     }
 	
 	/**
@@ -165,6 +146,23 @@ public class PersistenceManager {
 	    return this.save(entity, false /*isIndexerRequest*/);
 	}
 	public Long save(TypedObject entity, boolean isIndexerRequest) throws IndexPersistException {
+	    return this.save(entity, isIndexerRequest, null /*commitMode*/);
+	}
+	
+	/**
+	 * Save using the commit mode, DURABLE waits for the index commit and BUFFERED
+	 * returns once the entity is searchable. A null commit mode uses the index type's default.
+	 * 
+	 * @param entity
+	 * @param commitMode
+	 * @return
+	 * @throws IndexPersistException
+	 */
+	public Long save(TypedObject entity, CommitMode commitMode) throws IndexPersistException {
+	    return this.save(entity, false /*isIndexerRequest*/, commitMode);
+	}
+	
+	public Long save(TypedObject entity, boolean isIndexerRequest, CommitMode commitMode) throws IndexPersistException {
         if ( entity == null ) {
             throw new IndexPersistException("Failed to persist the null entity");
         }
@@ -175,7 +173,7 @@ public class PersistenceManager {
 
         if (id == null) {
             // No ID found, is a simple create
-            this.createEntity(entity, indexPathInfo, isIndexerRequest);
+            this.createEntity(entity, indexPathInfo, isIndexerRequest, commitMode);
         } else {
             // ID found, it still may be a create but most likely an update
         	TypedObject existing;
@@ -198,21 +196,26 @@ public class PersistenceManager {
                 entity.setUpdateTime( now );
 
                 // update
-                indexSvc.update( entity, indexPathInfo, isIndexerRequest);
+                indexSvc.update( entity, indexPathInfo, isIndexerRequest, commitMode );
 
             } catch (Exception e) {
                 logger.error("Failed to find an existing record to update using id '" + id + "' in index '" + indexPathInfo.getDbIndexType().getCanonicalName() + "'.", e);
                 // create instead
-                this.createEntity(entity, indexPathInfo, isIndexerRequest);
+                this.createEntity(entity, indexPathInfo, isIndexerRequest, commitMode);
             }
         }
         
         id = entity.getId();
+        this.invalidateCachedUser(indexPathInfo.getDbIndexType(), id);
         
         return id;
     }
     
     public void createEntities(List<? extends TypedObject> entities, DbIndexType indexType) throws IndexPersistException {
+        this.createEntities(entities, indexType, null /*commitMode*/);
+    }
+    
+    public void createEntities(List<? extends TypedObject> entities, DbIndexType indexType, CommitMode commitMode) throws IndexPersistException {
     	IndexPathInfo indexPathInfo = null;
         if ( entities != null ) {
             for ( TypedObject entity : entities ) {
@@ -223,7 +226,8 @@ public class PersistenceManager {
                 this.initializeNewEntity(entity, indexType);
             }
         }
-        indexSvc.createBatch(entities, indexPathInfo, false /*isIndexerRequest*/);
+        indexSvc.createBatch(entities, indexPathInfo, false /*isIndexerRequest*/, commitMode);
+        this.invalidateCachedUsers(indexType);
     }
     
     public void updateEntities(List<? extends TypedObject> entities, DbIndexType indexType) throws IndexPersistException {
@@ -238,6 +242,7 @@ public class PersistenceManager {
             }
         }
         indexSvc.updateBatch(entities, indexPathInfo, false /*isIndexerRequest*/);
+        this.invalidateCachedUsers(indexType);
     }
     
     //------------------------------------------------------------------------------------------
@@ -272,28 +277,74 @@ public class PersistenceManager {
      */
     public void deleteObjectsByIndexType(DbIndexType indexType, String tenantId) throws IndexPersistException, SearchException {
 	    	IndexPathInfo indexPathInfo = new IndexPathInfo(AppConstants.LUCENE_STORE_NAME, tenantId, indexType);
-	    	List<? extends TypedObject> result = this.getAllForIndexByIndexPath(indexPathInfo);
-	    	if ( CollectionUtils.isNotEmpty(result) ) {
-	    		// delete them as a batch
-	    		List<Long> refIds = Lists.newArrayList();
-	    		for ( TypedObject obj : result ) {
-	    			refIds.add(((TypedObject)obj).getId());
-	    		}
-	    		indexSvc.delete(indexPathInfo, refIds, false /*isIndexerRequest*/);
-	    	}
+	    	// delete them by query, they're not fetched first
+	    	this.deleteObjectsBySearchSpec(indexPathInfo, this.buildFieldSearchSpec("typeid", indexType.getIndexId()));
     }
     
     public void deleteObjectsByUserRef(DbIndexType indexType, Long userRef) throws IndexPersistException {
     		IndexPathInfo indexPathInfo = new IndexPathInfo(AppConstants.LUCENE_STORE_NAME, indexType);
-    		List<? extends TypedObject> result = this.getAllForUserRef(indexType, userRef);
-    		if ( CollectionUtils.isNotEmpty(result) ) {
-    			// delete them as a batch
-	    		List<Long> refIds = Lists.newArrayList();
-	    		for ( TypedObject obj : result ) {
-	    			refIds.add(((TypedObject)obj).getId());
-	    		}
-	    		indexSvc.delete(indexPathInfo, refIds, false /*isIndexerRequest*/);
-    		}
+    		this.deleteObjectsBySearchSpec(indexPathInfo, this.buildFieldSearchSpec(AppConstants.USER_REFERENCE_KEY, String.valueOf(userRef)));
+    }
+    
+    /**
+     * Delete every object matching the search spec in a single delete by query.
+     * The sub-objects of the deleted objects are left in their own indexes.
+     * 
+     * @param indexType
+     * @param searchSpec
+     * @param tenantId
+     * @throws IndexPersistException
+     */
+    public void deleteObjectsBySearchSpec(DbIndexType indexType, SearchSpec searchSpec, String tenantId) throws IndexPersistException {
+        this.deleteObjectsBySearchSpec(indexSvc.buildIndexPathInfo(indexType, tenantId), searchSpec);
+    }
+    
+    /**
+     * Delete the objects created at or before the cutoff with a single delete by query
+     * on the create time, none of them are loaded.
+     * 
+     * @param indexType
+     * @param createTimeCutoff millis, inclusive
+     * @param tenantId
+     * @throws IndexPersistException
+     */
+    public void deleteObjectsCreatedBefore(DbIndexType indexType, long createTimeCutoff, String tenantId) throws IndexPersistException {
+        this.deleteObjectsBySearchSpec(indexSvc.buildIndexPathInfo(indexType, tenantId), this.buildCreatedBeforeSearchSpec(createTimeCutoff));
+    }
+    
+    /**
+     * Returns the number of objects created at or before the cutoff without loading them
+     * 
+     * @param indexType
+     * @param createTimeCutoff millis, inclusive
+     * @param tenantId
+     * @return int
+     */
+    public int getNumObjectsCreatedBefore(DbIndexType indexType, long createTimeCutoff, String tenantId) {
+        return searchSvc.getNumDocsBySearchSpec(this.buildCreatedBeforeSearchSpec(createTimeCutoff), indexSvc.buildIndexPathInfo(indexType, tenantId));
+    }
+    
+    /**
+     * Merge away the deleted objects of the index at a throttled rate
+     * 
+     * @param indexType
+     * @param tenantId
+     * @param mbPerSec
+     * @throws IndexPersistException
+     */
+    public void forceMergeDeletes(DbIndexType indexType, String tenantId, double mbPerSec) throws IndexPersistException {
+        indexSvc.forceMergeDeletes(indexSvc.buildIndexPathInfo(indexType, tenantId), mbPerSec);
+    }
+    
+    private void deleteObjectsBySearchSpec(IndexPathInfo indexPathInfo, SearchSpec searchSpec) throws IndexPersistException {
+        DbIndexType indexType = indexPathInfo.getDbIndexType();
+        if ( searchSvc.getNumDocsByIndex(indexPathInfo) == 0 ) {
+            // nothing to delete, don't create the index
+            return;
+        }
+        Query query = searchSvc.buildQuery(searchSpec, indexType);
+        indexSvc.deleteByQuery(indexPathInfo, query, false /*isIndexerRequest*/);
+        this.invalidateCachedUsers(indexType);
     }
     
     //------------------------------------------------------------------------------------------
@@ -452,25 +503,31 @@ public class PersistenceManager {
     }
     
     /**
-     * Fetch all results in 1 go.  This should only be used on results less than say... 5,000
+     * Walk every object matching the search spec without building the list of results. The
+     * objects are built a batch at a time (lucene.scan.batch.size) and handed to the handler
+     * in index order until it returns false.
+     * 
      * @param indexType
-     * @return
+     * @param searchSpec
+     * @param tenantId
+     * @param handler
+     * @return the number of objects handled
      */
-    private List<? extends TypedObject> getAllForIndexByIndexPath(IndexPathInfo indexPathInfo) {
-        SearchSpec searchSpec = new SearchSpec(true /*getall*/);
-        
-        SearchQuery query = new SearchQuery();
-        query.setField("typeid");
-        query.setPattern(indexPathInfo.getDbIndexType().getIndexId());
-        searchSpec.setQueries(Arrays.asList(query));
-        
-        List<TypedObject> result = new ArrayList<TypedObject>();
-        Page p = searchSvc.search(searchSpec, indexPathInfo);
-        if ( p != null && p.getItemCount() > 0 ) {
-            result = (List<TypedObject>) p.getItems();
-        }
-        
-        return result;
+    public int scan(DbIndexType indexType, SearchSpec searchSpec, String tenantId, ScanHandler handler) {
+        IndexPathInfo indexPathInfo = indexSvc.buildIndexPathInfo(indexType, tenantId);
+        return searchSvc.scan(searchSpec, indexPathInfo, handler);
+    }
+    
+    /**
+     * Walk every object of the index
+     * 
+     * @param indexType
+     * @param tenantId
+     * @param handler
+     * @return the number of objects handled
+     */
+    public int scanIndex(DbIndexType indexType, String tenantId, ScanHandler handler) {
+        return this.scan(indexType, this.buildFieldSearchSpec("typeid", indexType.getIndexId()), tenantId, handler);
     }
     
     public List<? extends TypedObject> getAllForKeywordFromContent(DbIndexType indexType, String keyword) {
@@ -588,12 +645,11 @@ public class PersistenceManager {
     // PRIVATE METHODS
     //------------------------------------------------------------------------------------------
     
-    private void createEntity(TypedObject entity, IndexPathInfo indexPathInfo, boolean isIndexerRequest) throws IndexPersistException {
-        synchronized (indexPathInfo.getDbIndexType()) {
-            this.initializeNewEntity(entity, indexPathInfo.getDbIndexType());
+    private void createEntity(TypedObject entity, IndexPathInfo indexPathInfo, boolean isIndexerRequest, CommitMode commitMode) throws IndexPersistException {
+        // the id allocator is thread safe and the index has its own write lock
+        this.initializeNewEntity(entity, indexPathInfo.getDbIndexType());
 
-            indexSvc.create(entity, indexPathInfo, isIndexerRequest);
-        }
+        indexSvc.create(entity, indexPathInfo, isIndexerRequest, commitMode);
     }
     
     private void delete(DbIndexType indexType, Long id, String tenantId, boolean isIndexerRequest) throws IndexPersistException, SearchException {
@@ -634,9 +690,42 @@ public class PersistenceManager {
             }
             
             indexSvc.delete(indexPathInfo, id, isIndexerRequest);
+            this.invalidateCachedUser(indexType, id);
+        }
+    }
+    
+    /**
+     * The logged in users are cached by the ApiSessionContext, drop the
+     * cached copy once the user has been written or deleted.
+     */
+    private void invalidateCachedUser(DbIndexType indexType, Long id) {
+        if ( indexType == DbIndexType.USER_TYPE ) {
+            ApiSessionContext.invalidateUser(id);
+        }
+    }
+    
+    private void invalidateCachedUsers(DbIndexType indexType) {
+        if ( indexType == DbIndexType.USER_TYPE ) {
+            ApiSessionContext.invalidateAllUsers();
         }
     }
     
+    private SearchSpec buildFieldSearchSpec(String field, String keyword) {
+        SearchSpec searchSpec = new SearchSpec(true /*getall*/);
+        
+        SearchQuery query = new SearchQuery();
+        query.setField(field);
+        query.setPattern(keyword);
+        searchSpec.setQueries(Arrays.asList(query));
+        return searchSpec;
+    }
+    
+    private SearchSpec buildCreatedBeforeSearchSpec(long createTimeCutoff) {
+        SearchSpec searchSpec = new SearchSpec(true /*getall*/);
+        searchSpec.addRangeQuery(new RangeQuery("createtime", null /*min*/, createTimeCutoff /*max*/));
+        return searchSpec;
+    }
+    
     private SearchSpec buildObjectSortedBySearchSpec(String sortByField, Type sortByType, boolean ascending) {
         SearchSpec spec = new SearchSpec(null /*userReferenceId*/);
         SortQuery sortQuery = new SortQuery();
@@ -659,7 +748,7 @@ public class PersistenceManager {
         return null;
     }
     
-    private void initializeNewEntity(TypedObject entity, DbIndexType indexType) {
+    private void initializeNewEntity(TypedObject entity, DbIndexType indexType) throws IndexPersistException {
         // create
         entity.setId( this.createId(indexType) );
         // set the update and create date
@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.manager.db;
+
+import java.util.Map;
+
+import org.apache.commons.lang3.time.DateUtils;
+
+import com.baddata.db.DbIndex.DbIndexType;
+import com.baddata.exception.IndexPersistException;
+import com.baddata.log.Logger;
+import com.baddata.util.AppConstants;
+import com.baddata.util.AppUtil;
+import com.google.common.collect.Maps;
+
+/**
+ * Enforces the retention policy (max age, max docs) of the audit, event and log indexes.
+ *
+ * A purge is a single delete by query on the create time followed by a throttled merge of
+ * the deletes, no object is loaded. The max docs cutoff is found by binary searching the
+ * create time with counts, about 40 of them, so the memory used doesn't grow with the index.
+ */
+public class RetentionManager {
+
+    private static Logger logger = Logger.getLogger(RetentionManager.class.getName());
+
+    private static RetentionManager ref;
+
+    private PersistenceManager persistence = PersistenceManager.getInstance();
+
+    private volatile Map<DbIndexType, RetentionPolicy> policyMap = null;
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static RetentionManager getInstance() {
+        if (ref == null) {
+            synchronized(RetentionManager.class) {
+                if (ref == null) {
+                    ref = new RetentionManager();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private RetentionManager() {
+        //
+    }
+
+    /**
+     * Load the retention policies from the properties, only the index types
+     * with a max age or a max docs get one
+     */
+    public synchronized void load() {
+        Map<DbIndexType, RetentionPolicy> policies = Maps.newEnumMap(DbIndexType.class);
+        for ( DbIndexType indexType : DbIndexType.values() ) {
+            String keyPrefix = AppConstants.INDEX_RETENTION_PREFIX + indexType.name().toLowerCase() + ".";
+            RetentionPolicy policy = new RetentionPolicy(
+                    AppUtil.getAsInt(keyPrefix + "max.age.days", getDefaultMaxAgeDays(indexType)),
+                    AppUtil.getAsInt(keyPrefix + "max.docs", getDefaultMaxDocs(indexType)));
+            if ( policy.isEnabled() ) {
+                policies.put(indexType, policy);
+                logger.info("Index '" + indexType.getIndexId() + "' retention: " + policy);
+            }
+        }
+        policyMap = policies;
+    }
+
+    /**
+     * Returns the retention policy of the index type
+     *
+     * @param indexType
+     * @return RetentionPolicy or null if the index is kept forever
+     */
+    public RetentionPolicy getPolicy(DbIndexType indexType) {
+        if ( policyMap == null ) {
+            this.load();
+        }
+        return policyMap.get(indexType);
+    }
+
+    /**
+     * Purge every index that has a retention policy. A failure on one
+     * index doesn't stop the others.
+     */
+    public void purge() {
+        if ( policyMap == null ) {
+            this.load();
+        }
+        for ( Map.Entry<DbIndexType, RetentionPolicy> entry : policyMap.entrySet() ) {
+            try {
+                this.purge(entry.getKey(), entry.getValue());
+            } catch (Exception e) {
+                logger.error("Failed to purge the index '" + entry.getKey().getIndexId() + "'.", e);
+            }
+        }
+    }
+
+    /**
+     * Delete the objects of the index that are past its retention policy
+     *
+     * @param indexType
+     * @param policy
+     * @return the number of objects deleted
+     * @throws IndexPersistException
+     */
+    public int purge(DbIndexType indexType, RetentionPolicy policy) throws IndexPersistException {
+        long startTime = System.currentTimeMillis();
+
+        // objects created at or before the cutoff are deleted
+        long cutoff = -1;
+        if ( policy.getMaxAgeDays() > 0 ) {
+            cutoff = startTime - policy.getMaxAgeDays() * DateUtils.MILLIS_PER_DAY;
+        }
+        if ( policy.getMaxDocs() > 0 ) {
+            cutoff = Math.max(cutoff, this.getMaxDocsCutoff(indexType, policy.getMaxDocs(), startTime));
+        }
+        if ( cutoff < 0 ) {
+            return 0;
+        }
+
+        int numToDelete = persistence.getNumObjectsCreatedBefore(indexType, cutoff, null /*tenantId*/);
+        if ( numToDelete == 0 ) {
+            return 0;
+        }
+
+        persistence.deleteObjectsCreatedBefore(indexType, cutoff, null /*tenantId*/);
+        long deleteTime = System.currentTimeMillis() - startTime;
+
+        persistence.forceMergeDeletes(indexType, null /*tenantId*/,
+                AppUtil.getAsDouble(AppConstants.INDEX_RETENTION_MERGE_MB_PER_SEC, 20d));
+
+        logger.info("Purged " + numToDelete + " object(s) of index '" + indexType.getIndexId() + "' created before "
+                + cutoff + " in " + deleteTime + " ms, merged the deletes in "
+                + (System.currentTimeMillis() - startTime - deleteTime) + " ms.");
+        return numToDelete;
+    }
+
+    /**
+     * Returns the latest create time that leaves at least maxDocs objects created after it,
+     * -1 if the index doesn't have more than maxDocs objects
+     */
+    private long getMaxDocsCutoff(DbIndexType indexType, int maxDocs, long now) {
+        int numDocs = persistence.getNumDocsByIndex(indexType, null /*tenantId*/);
+        int excess = numDocs - maxDocs;
+        if ( excess <= 0 ) {
+            return -1;
+        }
+
+        long low = 0;
+        long high = now;
+        long cutoff = -1;
+        while ( low <= high ) {
+            long mid = low + (high - low) / 2;
+            if ( persistence.getNumObjectsCreatedBefore(indexType, mid, null /*tenantId*/) <= excess ) {
+                cutoff = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return cutoff;
+    }
+
+    /**
+     * The audit api calls are the bulk of the writes, the errors, events and
+     * stats are kept longer
+     */
+    private static int getDefaultMaxAgeDays(DbIndexType indexType) {
+        switch (indexType) {
+            case AUDIT_LOG_API_INFO_TYPE:
+                return 30;
+            case AUDIT_LOG_ERROR_INFO_TYPE:
+            case BADDATA_LOG_EVENT_TYPE:
+                return 90;
+            case AUDIT_LOG_STAT_TYPE:
+            case AUDIT_LOG_PROPERTY_STAT_TYPE:
+                return 365;
+            default:
+                return 0;
+        }
+    }
+
+    private static int getDefaultMaxDocs(DbIndexType indexType) {
+        return ( indexType == DbIndexType.AUDIT_LOG_API_INFO_TYPE ) ? 1000000 : 0;
+    }
+
+    /**
+     * How long the objects of an index are kept, 0 disables a limit
+     */
+    public static class RetentionPolicy {
+        private int maxAgeDays;
+        private int maxDocs;
+
+        public RetentionPolicy(int maxAgeDays, int maxDocs) {
+            this.maxAgeDays = maxAgeDays;
+            this.maxDocs = maxDocs;
+        }
+
+        public int getMaxAgeDays() {
+            return maxAgeDays;
+        }
+
+        public int getMaxDocs() {
+            return maxDocs;
+        }
+
+        public boolean isEnabled() {
+            return maxAgeDays > 0 || maxDocs > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "RetentionPolicy [maxAgeDays=" + maxAgeDays + ", maxDocs=" + maxDocs + "]";
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/**
+ * Copyright (c) 2017 by Baddata
+ * All rights reserved.
+ */
+package com.baddata.manager.event;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.DateUtils;
+
+import com.baddata.api.dto.system.BaddataLogEvent;
+import com.baddata.api.dto.user.User;
+import com.baddata.api.factory.ApiSessionContext;
+import com.baddata.api.query.SearchSpec;
+import com.baddata.db.DbIndex.DbIndexType;
+import com.baddata.db.RangeQuery;
+import com.baddata.log.EventLogger.EventMessage;
+import com.baddata.log.EventLogger.SeverityType;
+import com.baddata.log.Logger;
+import com.baddata.manager.db.PersistenceManager;
+import com.baddata.manager.email.EmailManager;
+import com.baddata.util.AppConstants;
+import com.baddata.util.AppUtil;
+import com.baddata.util.BoundedRingBuffer;
+import com.baddata.util.NamedThreadFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Sends the notices and alerts of the EventLogger off the caller's thread. EventLogger.log
+ * queues the event into a bounded ring buffer and a single dispatcher thread resolves the
+ * users, dedupes, emails and persists the events in batches.
+ *
+ * The users are resolved through the ApiSessionContext user cache. An alert is sent once
+ * per user and event code until it's acknowledged or a week old, tracked in memory in the
+ * recent events table (loaded from the index on the first batch). The emails of a batch
+ * going to the same recipients with the same subject are sent as one email.
+ */
+public class EventLogDispatcher implements Runnable {
+
+    private static Logger logger = Logger.getLogger(EventLogDispatcher.class.getName());
+
+    private static EventLogDispatcher ref;
+
+    private static final int BATCH_SIZE = 200;
+    private static final long DEDUPE_WINDOW_MS = DateUtils.MILLIS_PER_DAY * 7;
+
+    private PersistenceManager persistence = PersistenceManager.getInstance();
+
+    private BoundedRingBuffer<PendingEvent> ringBuffer;
+    private long flushIntervalMs;
+
+    private volatile boolean running = false;
+    private volatile Thread dispatcherThread = null;
+
+    // "userRef:eventCode" -> create time of the unacknowledged alert
+    private Cache<String, Long> recentEvents = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(DEDUPE_WINDOW_MS, TimeUnit.MILLISECONDS)
+            .build();
+    private boolean recentEventsLoaded = false;
+
+    // resolved once by username, the user itself comes from the user cache
+    private Long supportUserId = null;
+
+    private AtomicLong queued = new AtomicLong(0);
+    private AtomicLong dropped = new AtomicLong(0);
+    private AtomicLong deduped = new AtomicLong(0);
+    private AtomicLong emailsSent = new AtomicLong(0);
+    private AtomicLong emailsFailed = new AtomicLong(0);
+    private AtomicLong persisted = new AtomicLong(0);
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static EventLogDispatcher getInstance() {
+        if (ref == null) {
+            synchronized(EventLogDispatcher.class) {
+                if (ref == null) {
+                    ref = new EventLogDispatcher();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private EventLogDispatcher() {
+        ringBuffer = new BoundedRingBuffer<PendingEvent>(AppUtil.getAsInt(AppConstants.EVENT_LOG_BUFFER_SIZE, 4096));
+        flushIntervalMs = Math.max(1, AppUtil.getAsLong(AppConstants.EVENT_LOG_FLUSH_INTERVAL_MS, 5000L));
+    }
+
+    public synchronized void start() {
+        if ( running ) {
+            return;
+        }
+        running = true;
+        dispatcherThread = NamedThreadFactory.create(this, "event-log-dispatcher");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    /**
+     * Stop the dispatcher and send what's left in the buffer
+     */
+    public void stop() {
+        Thread t = null;
+        synchronized (this) {
+            running = false;
+            t = dispatcherThread;
+        }
+        if ( t != null ) {
+            LockSupport.unpark(t);
+            try {
+                t.join(flushIntervalMs * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        dispatcherThread = null;
+
+        while ( !ringBuffer.isEmpty() ) {
+            this.dispatchBatch();
+        }
+    }
+
+    /**
+     * Queue the event for the dispatcher thread
+     *
+     * @param sessionUserReferenceId
+     * @param m
+     * @param formattedMessage
+     * @return false if the event was dropped because the buffer is full
+     */
+    public boolean dispatch(Long sessionUserReferenceId, EventMessage m, String formattedMessage) {
+        if ( !running ) {
+            this.start();
+        }
+
+        if ( !ringBuffer.offer(new PendingEvent(sessionUserReferenceId, m, formattedMessage)) ) {
+            dropped.incrementAndGet();
+            logger.error("Event log buffer is full, dropped event '" + m.eventCode + "'.", null);
+            return false;
+        }
+        queued.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Forget the alert once it's acknowledged, the next one of the user and event code is sent
+     *
+     * @param userRef
+     * @param eventCode
+     */
+    public void forgetEvent(Long userRef, String eventCode) {
+        recentEvents.invalidate(getEventKey(userRef, eventCode));
+    }
+
+    /**
+     * Returns the dispatcher counters: queued, dropped, deduped, emailsSent, emailsFailed,
+     * persisted and pending
+     *
+     * @return Map<String, Long>
+     */
+    public Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = Maps.newLinkedHashMap();
+        metrics.put("queued", queued.get());
+        metrics.put("dropped", dropped.get());
+        metrics.put("deduped", deduped.get());
+        metrics.put("emailsSent", emailsSent.get());
+        metrics.put("emailsFailed", emailsFailed.get());
+        metrics.put("persisted", persisted.get());
+        metrics.put("pending", (long) ringBuffer.size());
+        return metrics;
+    }
+
+    @Override
+    public void run() {
+        while ( running ) {
+            try {
+                int count = this.dispatchBatch();
+                if ( count < BATCH_SIZE ) {
+                    // wait for more events so the emails to the same user go out together
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushIntervalMs));
+                }
+            } catch (Throwable t) {
+                logger.error("Event log dispatcher failed to send the log events.", t);
+            }
+        }
+    }
+
+    private int dispatchBatch() {
+        List<PendingEvent> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+        int count = ringBuffer.drainTo(batch, BATCH_SIZE);
+        if ( count == 0 ) {
+            return 0;
+        }
+
+        if ( !recentEventsLoaded ) {
+            this.loadRecentEvents();
+        }
+
+        // recipients and subject -> email
+        Map<String, PendingEmail> emails = Maps.newLinkedHashMap();
+        List<BaddataLogEvent> eventsToPersist = Lists.newArrayList();
+
+        for ( PendingEvent pendingEvent : batch ) {
+            EventMessage m = pendingEvent.eventMessage;
+
+            //
+            // Get the session user
+            //
+            User user = ApiSessionContext.getUserById(pendingEvent.sessionUserReferenceId);
+            if (user == null) {
+                logger.error("Failed to get the session user of event '" + m.eventCode + "', dropping the event", null);
+                continue;
+            }
+
+            String subject = (StringUtils.isNotBlank(m.subject)) ? m.subject : "BadData alert";
+
+            //
+            // Get the support user
+            //
+            User supportUser = this.getSupportUser();
+
+            SeverityType sType = m.severityType;
+
+            if (sType == SeverityType.SUPPORT_ALERT || sType == SeverityType.SUPPORT_NOTICE) {
+                //
+                // set the user to the support user
+                user = supportUser;
+                // null out the support user
+                supportUser = null;
+                if (user == null) {
+                    logger.error("Failed to get the support user of event '" + m.eventCode + "', dropping the event", null);
+                    continue;
+                }
+            }
+
+            //
+            // determine if we should persist it so the event is shown on the UI in the alerts view
+            //
+            boolean persistEvent = (sType == SeverityType.USER_ALERT || sType == SeverityType.USER_UI_ALERT);
+
+            //
+            // Determine if we should send an email
+            //
+            boolean sendEmail =
+                (sType == SeverityType.SUPPORT_NOTICE || sType == SeverityType.USER_NOTICE || sType == SeverityType.USER_ALERT);
+
+            Long userRef = user.getId();
+
+            //
+            // Make sure we haven't already sent the alert and it's not acknowledged yet
+            //
+            String eventKey = getEventKey(userRef, m.eventCode);
+            Long sentTime = recentEvents.getIfPresent(eventKey);
+            if ( sentTime != null && System.currentTimeMillis() - sentTime.longValue() < DEDUPE_WINDOW_MS ) {
+                deduped.incrementAndGet();
+                continue;
+            }
+
+            BaddataLogEvent logEvent = new BaddataLogEvent(m.severityType, m.eventCode, pendingEvent.formattedMessage, m.subject, userRef);
+
+            if (sendEmail) {
+                String emailKey = user.getEmail() + "|" + ((supportUser != null) ? supportUser.getEmail() : "") + "|" + subject;
+                PendingEmail email = emails.get(emailKey);
+                if ( email == null ) {
+                    email = new PendingEmail(user, supportUser, subject);
+                    emails.put(emailKey, email);
+                }
+                email.add(logEvent);
+            }
+
+            if (persistEvent) {
+                eventsToPersist.add(logEvent);
+                // the events are only looked up by the dedupe once they're persisted
+                recentEvents.put(eventKey, System.currentTimeMillis());
+            }
+        }
+
+        for ( PendingEmail email : emails.values() ) {
+            this.sendEmail(email);
+        }
+
+        if ( !eventsToPersist.isEmpty() ) {
+            try {
+                persistence.createEntities(eventsToPersist, DbIndexType.BADDATA_LOG_EVENT_TYPE);
+                persisted.addAndGet(eventsToPersist.size());
+            } catch (Exception e) {
+                logger.error("Failed to save " + eventsToPersist.size() + " log event(s).", e);
+            }
+        }
+
+        return count;
+    }
+
+    private void sendEmail(PendingEmail email) {
+        StringBuilder message = new StringBuilder();
+        for ( BaddataLogEvent logEvent : email.logEvents ) {
+            if ( message.length() > 0 ) {
+                message.append("<br/><br/>");
+            }
+            message.append(logEvent.getFormattedMessage());
+        }
+
+        try {
+            EmailManager.getInstance().sendEmail( email.toUser, email.ccUser, email.subject, message.toString() );
+            emailsSent.incrementAndGet();
+
+            //
+            // Set "notified" to true
+            for ( BaddataLogEvent logEvent : email.logEvents ) {
+                logEvent.setNotified(true);
+            }
+        } catch (Exception e) {
+            emailsFailed.incrementAndGet();
+            logger.error( "Failed to send notification email.", e );
+        }
+    }
+
+    private User getSupportUser() {
+        if ( supportUserId == null ) {
+            User supportUser = persistence.getUserByUsername( AppUtil.get( AppConstants.ADMIN1_USERNAME ) );
+            if ( supportUser == null ) {
+                return null;
+            }
+            supportUserId = supportUser.getId();
+        }
+        return ApiSessionContext.getUserById(supportUserId);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void loadRecentEvents() {
+        // the acknowledged alerts are deleted, what's left of the last week is still unacknowledged
+        long aWeekAgoTimestamp = System.currentTimeMillis() - DEDUPE_WINDOW_MS;
+        SearchSpec searchSpec = new SearchSpec(true /*getall*/);
+        searchSpec.addRangeQuery(new RangeQuery("createtime", aWeekAgoTimestamp /*minimum*/, null /*max*/));
+
+        List<BaddataLogEvent> existingEvents = (List<BaddataLogEvent>) persistence.getAllForObjectBySearchSpec(
+                DbIndexType.BADDATA_LOG_EVENT_TYPE, searchSpec, null /*tenantId*/);
+        if ( existingEvents != null ) {
+            for ( BaddataLogEvent existingEvent : existingEvents ) {
+                if ( !existingEvent.isAcknowledged() && existingEvent.getCreateTime() != null ) {
+                    recentEvents.put(getEventKey(existingEvent.getUserRef(), existingEvent.getEventCode()),
+                            existingEvent.getCreateTime().getMillis());
+                }
+            }
+        }
+        recentEventsLoaded = true;
+    }
+
+    private static String getEventKey(Long userRef, String eventCode) {
+        return userRef + ":" + eventCode;
+    }
+
+    private static class PendingEvent {
+        private final Long sessionUserReferenceId;
+        private final EventMessage eventMessage;
+        private final String formattedMessage;
+
+        PendingEvent(Long sessionUserReferenceId, EventMessage eventMessage, String formattedMessage) {
+            this.sessionUserReferenceId = sessionUserReferenceId;
+            this.eventMessage = eventMessage;
+            this.formattedMessage = formattedMessage;
+        }
+    }
+
+    private static class PendingEmail {
+        private final User toUser;
+        private final User ccUser;
+        private final String subject;
+        private final List<BaddataLogEvent> logEvents = Lists.newArrayList();
+
+        PendingEmail(User toUser, User ccUser, String subject) {
+            this.toUser = toUser;
+            this.ccUser = ccUser;
+            this.subject = subject;
+        }
+
+        void add(BaddataLogEvent logEvent) {
+            logEvents.add(logEvent);
+        }
+    }
+}
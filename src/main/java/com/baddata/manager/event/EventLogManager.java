@@ -17,6 +17,7 @@ import com.baddata.db.DbIndex.DbIndexType;
 import com.baddata.log.EventLogger.SeverityType;
 import com.baddata.log.Logger;
 import com.baddata.manager.db.PersistenceManager;
+import com.baddata.manager.db.RetentionManager;
 import com.baddata.manager.email.EmailManager;
 import com.baddata.util.AppConstants;
 import com.baddata.util.AppUtil;
@@ -93,8 +94,9 @@ public class EventLogManager {
         //
         // Don't run as a daemon thread. The JVM will wait for this to complete if asked to shutdown
         purgeAlertTimer = new Timer( "PurgeAlertsTask", false /*isDaemon*/ );
-        // start in a minute then run once a day
-        purgeAlertTimer.schedule( new PurgeAlertsTask(), DateUtils.MILLIS_PER_MINUTE /*delay*/, DateUtils.MILLIS_PER_DAY /*period*/ );
+        // start in a minute then run once a day by default
+        long purgeIntervalHours = AppUtil.getAsLong( AppConstants.INDEX_RETENTION_PURGE_INTERVAL_HOURS, 24L );
+        purgeAlertTimer.schedule( new PurgeAlertsTask(), DateUtils.MILLIS_PER_MINUTE /*delay*/, purgeIntervalHours * DateUtils.MILLIS_PER_HOUR /*period*/ );
 
         logger.debug("PurgeAlertsTask: start(): scheduled successfully");
     }
@@ -111,7 +113,13 @@ public class EventLogManager {
         public void run() {
             
             //
-            // Fetch alerts older than a month ago and acknowledge them
+            // Purge the audit, event and log objects past their retention. An exception
+            // thrown out of here would cancel the timer.
+            try {
+                RetentionManager.getInstance().purge();
+            } catch (Throwable t) {
+                logger.error("PurgeAlertsTask: failed to purge the indexes.", t);
+            }
         }
     }
 }
@@ -6,7 +6,6 @@ package com.baddata.manager.job;
 
 import java.util.List;
 
-import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import com.baddata.api.dto.job.Progress;
@@ -26,6 +25,8 @@ public class JobManager {
 	
 	private PersistenceManager persistence;
 	
+	private ProgressRegistry progressRegistry;
+	
 	public static JobManager getInstance() {
 		if ( singleton == null ) {
 			synchronized (JobManager.class) {
@@ -46,6 +47,10 @@ public class JobManager {
 		} catch (Exception e) {
 			logger.error("Failed to delete existing jobs on webapp startup", e);
 		}
+		
+		// the running jobs are kept live in memory and saved to the index periodically
+		progressRegistry = ProgressRegistry.getInstance();
+		progressRegistry.start();
 	}
 	
 	public enum JobType {
@@ -100,11 +105,17 @@ public class JobManager {
 		} catch (IndexPersistException e) {
 			logger.error("Failed to create a new job progress.", e);
 		}
+		progressRegistry.register(progress);
 		
 		return progress;
 	}
 	
 	public Progress getJob(JobType progressType, String tenantId) {
+		Progress liveProgress = progressRegistry.get(progressType, tenantId);
+		if ( liveProgress != null ) {
+			return liveProgress;
+		}
+		
 		SearchQuery sq2 = new SearchQuery();
 		sq2.setField("type");
 		sq2.setPattern(progressType.name());
@@ -121,13 +132,11 @@ public class JobManager {
 	
 	public Progress getJobInProgress(JobType progressType, String tenantId) {
 		
-		List<Progress> progressList = this.getJobsOfType(progressType, tenantId);
-		if ( CollectionUtils.isNotEmpty(progressList) ) {
-		    for ( Progress progress : progressList ) {
-		        if ( progress.getPercent() < 1.0 ) {
-		            return progress;
-		        }
-		    }
+		// the jobs are registered when they're initialized and the index is
+		// cleared on startup, the running ones are all in the registry
+		Progress progress = progressRegistry.get(progressType, tenantId);
+		if ( progress != null && progress.getPercent() < 1.0 ) {
+			return progress;
 		}
 		
 		return null;
@@ -135,6 +144,15 @@ public class JobManager {
 	
 	public List<Progress> getJobsOfType(JobType progressType, String tenantId) {
 		
+		SearchSpec searchSpec = this.buildJobsOfTypeSearchSpec(progressType, tenantId);
+		
+		List<Progress> progressList = (List<Progress>) persistence.getAllForObjectBySearchSpec(DbIndexType.PROGRESS_TYPE, searchSpec, null);
+		
+		return progressList;
+	}
+	
+	private SearchSpec buildJobsOfTypeSearchSpec(JobType progressType, String tenantId) {
+		
 		SearchQuery sq2 = new SearchQuery();
 		sq2.setField("type");
 		sq2.setPattern(progressType.name());
@@ -145,13 +163,11 @@ public class JobManager {
 		
 		SearchSpec searchSpec = new SearchSpec();
 		searchSpec.setQueries(Lists.newArrayList(sq2, sq3));
-		
-		List<Progress> progressList = (List<Progress>) persistence.getAllForObjectBySearchSpec(DbIndexType.PROGRESS_TYPE, searchSpec, null);
-		
-		return progressList;
+		return searchSpec;
 	}
 
 	public void deleteJob(Progress job) {
+		progressRegistry.remove(job);
 		try {
 			persistence.delete(job);
 		} catch (Exception e) {
@@ -161,36 +177,28 @@ public class JobManager {
 	
 	public void deleteJobsForTenant(List<JobType> jobTypes, String tenantId) {
 		for (JobType jobType : jobTypes) {
-			List<Progress> progressList = this.getJobsOfType(jobType, tenantId);
-			if (CollectionUtils.isNotEmpty(progressList)) {
-	            for (Progress progress : progressList) {
-	                try {
-	                    persistence.delete(progress);
-	                } catch (Exception e) {
-	                    logger.error("Failed to delete progress object for " + tenantId + " of type " + jobType.name(), e);
-	                }
-	            }
-	        }
+			progressRegistry.remove(jobType, tenantId);
+			// delete by query, the jobs have no sub-objects to clean up
+			try {
+				persistence.deleteObjectsBySearchSpec(DbIndexType.PROGRESS_TYPE, this.buildJobsOfTypeSearchSpec(jobType, tenantId), null /*tenantId*/);
+			} catch (Exception e) {
+				logger.error("Failed to delete progress objects for " + tenantId + " of type " + jobType.name(), e);
+			}
 		}
 	}
 	
-	@SuppressWarnings("unchecked")
 	public Progress getJobWithLeastProgress(String tenantId) {
 		Progress leastProgress = null;
-		List<Progress> progressList = (List<Progress>) persistence.getAllForIndex(DbIndexType.PROGRESS_TYPE, null);
-		if ( CollectionUtils.isNotEmpty(progressList) ) {
-			
-			for ( Progress progress : progressList ) {
-			    
-			    if (StringUtils.isNoneBlank(tenantId)) {
-			        if (!progress.getReferenceTenant().equals(tenantId)) {
-			            continue;
-			        }
-			    }
-			    
-				if ( progress.getPercent() < 1.0 && (leastProgress == null || progress.getPercent() < leastProgress.getPercent()) ) {
-					leastProgress = progress;
-				}
+		for ( Progress progress : progressRegistry.getAll() ) {
+		    
+		    if (StringUtils.isNoneBlank(tenantId)) {
+		        if (!progress.getReferenceTenant().equals(tenantId)) {
+		            continue;
+		        }
+		    }
+		    
+			if ( progress.getPercent() < 1.0 && (leastProgress == null || progress.getPercent() < leastProgress.getPercent()) ) {
+				leastProgress = progress;
 			}
 		}
 		return leastProgress;
@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) 2017 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.manager.job;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.baddata.api.dto.job.Progress;
+import com.baddata.exception.IndexPersistException;
+import com.baddata.log.Logger;
+import com.baddata.manager.db.PersistenceManager;
+import com.baddata.manager.job.JobManager.JobType;
+import com.baddata.util.AppConstants;
+import com.baddata.util.AppUtil;
+import com.baddata.util.ExecutorServiceUtil;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Holds the live Progress of each running job, one per job type and tenant. The job
+ * updates its Progress in memory on every task and the progress api reads it from here,
+ * the PROGRESS index is only written every flush interval and when the job completes.
+ *
+ * The listeners are told of every update, i.e. to answer the long poll requests waiting
+ * on the progress. They're called on the job's thread and shouldn't block.
+ */
+public class ProgressRegistry {
+
+    private static Logger logger = Logger.getLogger(ProgressRegistry.class.getName());
+
+    private static ProgressRegistry ref;
+
+    private PersistenceManager persistence = PersistenceManager.getInstance();
+
+    // "JOBTYPE-tenantId" -> live progress
+    private ConcurrentMap<String, Progress> liveProgressMap = Maps.newConcurrentMap();
+    // keys of the progress updated since the last flush
+    private Set<String> dirtyKeys = Sets.newConcurrentHashSet();
+
+    private ScheduledFuture<?> flushFuture = null;
+
+    private List<ProgressListener> listeners = new CopyOnWriteArrayList<ProgressListener>();
+
+    /**
+     * Told of the updates to the live progress
+     */
+    public interface ProgressListener {
+        /**
+         * @param jobType
+         * @param tenantId
+         * @param progress the updated progress or null if it was removed
+         */
+        void progressUpdated(String jobType, String tenantId, Progress progress);
+    }
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static ProgressRegistry getInstance() {
+        if (ref == null) {
+            synchronized(ProgressRegistry.class) {
+                if (ref == null) {
+                    ref = new ProgressRegistry();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private ProgressRegistry() {
+        //
+    }
+
+    /**
+     * Schedule the periodic save of the updated progress
+     */
+    public synchronized void start() {
+        if ( flushFuture != null ) {
+            return;
+        }
+        long flushIntervalMs = Math.max(100, AppUtil.getAsLong(AppConstants.PROGRESS_FLUSH_INTERVAL_MS, 5000L));
+        flushFuture = ExecutorServiceUtil.getInstance().getScheduleExecutor().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                // an exception would cancel the schedule
+                try {
+                    flush();
+                } catch (Throwable t) {
+                    logger.error("Failed to save the job progress.", t);
+                }
+            }
+        }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancel the periodic save and save what's been updated
+     */
+    public synchronized void stop() {
+        if ( flushFuture != null ) {
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+        this.flush();
+    }
+
+    public void addListener(ProgressListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ProgressListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Make the progress the live one of its job type and tenant
+     *
+     * @param progress
+     */
+    public void register(Progress progress) {
+        String key = getKey(progress);
+        Progress previous = liveProgressMap.put(key, progress);
+        if ( previous != null && previous != progress ) {
+            logger.debug("Replaced the live progress of " + key + ": " + previous);
+        }
+        this.notifyListeners(progress.getType(), progress.getReferenceTenant(), progress);
+    }
+
+    /**
+     * Returns the live progress of the job type and tenant
+     *
+     * @param jobType
+     * @param tenantId
+     * @return Progress or null if there's none
+     */
+    public Progress get(JobType jobType, String tenantId) {
+        return liveProgressMap.get(getKey(jobType.name(), tenantId));
+    }
+
+    public Collection<Progress> getAll() {
+        return liveProgressMap.values();
+    }
+
+    /**
+     * Flag the progress as updated, it's saved on the next flush
+     *
+     * @param progress
+     */
+    public void markDirty(Progress progress) {
+        String key = getKey(progress);
+        if ( liveProgressMap.get(key) == progress ) {
+            dirtyKeys.add(key);
+            this.notifyListeners(progress.getType(), progress.getReferenceTenant(), progress);
+        } else {
+            // not the live one (i.e. replaced), save it as before
+            this.save(progress);
+        }
+    }
+
+    /**
+     * Save the completed progress right away, it stays live until it's deleted
+     *
+     * @param progress
+     */
+    public void complete(Progress progress) {
+        dirtyKeys.remove(getKey(progress));
+        this.save(progress);
+        this.notifyListeners(progress.getType(), progress.getReferenceTenant(), progress);
+    }
+
+    /**
+     * Drop the progress, it's no longer saved
+     *
+     * @param progress
+     */
+    public void remove(Progress progress) {
+        String key = getKey(progress);
+        Progress live = liveProgressMap.get(key);
+        if ( live != null && (live == progress || Objects.equals(live.getId(), progress.getId())) ) {
+            liveProgressMap.remove(key, live);
+            dirtyKeys.remove(key);
+            this.notifyListeners(progress.getType(), progress.getReferenceTenant(), null);
+        }
+    }
+
+    /**
+     * Drop the live progress of the job type and tenant
+     *
+     * @param jobType
+     * @param tenantId
+     */
+    public void remove(JobType jobType, String tenantId) {
+        String key = getKey(jobType.name(), tenantId);
+        if ( liveProgressMap.remove(key) != null ) {
+            dirtyKeys.remove(key);
+            this.notifyListeners(jobType.name(), tenantId, null);
+        }
+    }
+
+    /**
+     * Save the progress updated since the last flush
+     */
+    public void flush() {
+        for ( String key : dirtyKeys ) {
+            dirtyKeys.remove(key);
+            Progress progress = liveProgressMap.get(key);
+            if ( progress != null ) {
+                this.save(progress);
+            }
+        }
+    }
+
+    private void notifyListeners(String jobType, String tenantId, Progress progress) {
+        for ( ProgressListener listener : listeners ) {
+            try {
+                listener.progressUpdated(jobType, tenantId, progress);
+            } catch (Exception e) {
+                logger.error("Progress listener failed to handle the update of " + getKey(jobType, tenantId) + ".", e);
+            }
+        }
+    }
+
+    private void save(Progress progress) {
+        // the job thread doesn't update the progress while it's saved
+        synchronized (progress) {
+            try {
+                persistence.save(progress);
+            } catch (IndexPersistException e) {
+                logger.error("Failed to update the progress.", e);
+            }
+        }
+    }
+
+    private static String getKey(Progress progress) {
+        return getKey(progress.getType(), progress.getReferenceTenant());
+    }
+
+    private static String getKey(String jobType, String tenantId) {
+        return jobType + "-" + tenantId;
+    }
+}
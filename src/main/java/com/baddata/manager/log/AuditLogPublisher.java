@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) 2017 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.manager.log;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+
+import com.baddata.api.dto.system.AuditLogApiInfo;
+import com.baddata.db.DbIndex.DbIndexType;
+import com.baddata.log.Logger;
+import com.baddata.manager.db.PersistenceManager;
+import com.baddata.util.AppConstants;
+import com.baddata.util.AppUtil;
+import com.baddata.util.BoundedRingBuffer;
+import com.baddata.util.NamedThreadFactory;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+
+/**
+ * In-process audit pipeline. The RestApiFilter publishes an AuditLogApiInfo per request
+ * into a bounded ring buffer and a single consumer thread indexes them in batches,
+ * one index write per batch.
+ *
+ * The indexed records are rolled into the hourly stats by the AuditStatAggregator.
+ *
+ * Publishing never blocks the request: if the buffer is full the record is dropped
+ * and counted. With the log tail fallback enabled the records are written to the
+ * log as JSON instead, for the BaddataLogManager's MonitorLogTask to pick up.
+ */
+public class AuditLogPublisher implements Runnable {
+
+    private static Logger logger = Logger.getLogger(AuditLogPublisher.class.getName());
+
+    private static AuditLogPublisher ref;
+
+    private BoundedRingBuffer<AuditLogApiInfo> ringBuffer;
+    private int batchSize;
+    private long flushIntervalMs;
+    private boolean logTailEnabled;
+
+    private volatile boolean running = false;
+    private volatile Thread consumerThread = null;
+
+    private AtomicLong published = new AtomicLong(0);
+    private AtomicLong dropped = new AtomicLong(0);
+    private AtomicLong persisted = new AtomicLong(0);
+    private AtomicLong failed = new AtomicLong(0);
+    private AtomicLong batches = new AtomicLong(0);
+
+    private AuditStatAggregator statAggregator = AuditStatAggregator.getInstance();
+
+    private static Gson gson;
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static AuditLogPublisher getInstance() {
+        if (ref == null) {
+            synchronized(AuditLogPublisher.class) {
+                if (ref == null) {
+                    ref = new AuditLogPublisher();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private AuditLogPublisher() {
+        ringBuffer = new BoundedRingBuffer<AuditLogApiInfo>(AppUtil.getAsInt(AppConstants.AUDIT_BUFFER_SIZE, 8192));
+        batchSize = Math.max(1, AppUtil.getAsInt(AppConstants.AUDIT_BATCH_SIZE, 500));
+        flushIntervalMs = Math.max(1, AppUtil.getAsLong(AppConstants.AUDIT_FLUSH_INTERVAL_MS, 1000L));
+        logTailEnabled = AppUtil.getAsBoolean(AppConstants.AUDIT_LOG_TAIL_ENABLED, false);
+    }
+
+    public synchronized void start() {
+        if ( running ) {
+            return;
+        }
+        running = true;
+        consumerThread = NamedThreadFactory.create(this, "audit-log-publisher");
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+    }
+
+    /**
+     * Stop the consumer and index what's left in the buffer
+     */
+    public void stop() {
+        Thread t = null;
+        synchronized (this) {
+            running = false;
+            t = consumerThread;
+        }
+        if ( t != null ) {
+            LockSupport.unpark(t);
+            try {
+                t.join(flushIntervalMs * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        consumerThread = null;
+
+        while ( !ringBuffer.isEmpty() ) {
+            this.flushBatch();
+        }
+        statAggregator.flushAll();
+    }
+
+    /**
+     * Hand the audit record to the pipeline
+     *
+     * @param apiInfo
+     * @return false if the record was dropped because the buffer is full
+     */
+    public boolean publish(AuditLogApiInfo apiInfo) {
+        published.incrementAndGet();
+
+        if ( logTailEnabled ) {
+            logger.apiAudit( getGson().toJson(apiInfo) );
+            return true;
+        }
+
+        // the consumer is started on the first request, like the index committer
+        if ( !running ) {
+            this.start();
+        }
+
+        if ( !ringBuffer.offer(apiInfo) ) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Index an audit record read back from the log, used by the log tail fallback
+     *
+     * @param apiInfo
+     */
+    public void enqueue(AuditLogApiInfo apiInfo) {
+        if ( !running ) {
+            this.start();
+        }
+        if ( !ringBuffer.offer(apiInfo) ) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the pipeline counters: published, dropped, persisted, failed, batches and pending
+     *
+     * @return Map<String, Long>
+     */
+    public Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = Maps.newLinkedHashMap();
+        metrics.put("published", published.get());
+        metrics.put("dropped", dropped.get());
+        metrics.put("persisted", persisted.get());
+        metrics.put("failed", failed.get());
+        metrics.put("batches", batches.get());
+        metrics.put("pending", (long) ringBuffer.size());
+        return metrics;
+    }
+
+    @Override
+    public void run() {
+        while ( running ) {
+            try {
+                int count = this.flushBatch();
+                if ( count < batchSize ) {
+                    // the buffer is drained, wait for the next batch to build up
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushIntervalMs));
+                }
+                statAggregator.rollCompletedHours();
+            } catch (Throwable t) {
+                logger.error("Audit log publisher failed to index the audit records.", t);
+            }
+        }
+    }
+
+    private int flushBatch() {
+        List<AuditLogApiInfo> batch = Lists.newArrayListWithCapacity(batchSize);
+        int count = ringBuffer.drainTo(batch, batchSize);
+        if ( count == 0 ) {
+            return 0;
+        }
+
+        try {
+            PersistenceManager.getInstance().createEntities(batch, DbIndexType.AUDIT_LOG_API_INFO_TYPE);
+            persisted.addAndGet(count);
+            batches.incrementAndGet();
+            statAggregator.record(batch);
+        } catch (Exception e) {
+            failed.addAndGet(count);
+            logger.error("Failed to index a batch of " + count + " audit log api records.", e);
+        }
+        return count;
+    }
+
+    private static Gson getGson() {
+        if ( gson == null ) {
+            // dates in the ISO 8601 format the MonitorLogTask parses
+            gson = new GsonBuilder()
+                    .registerTypeAdapter(DateTime.class, (JsonSerializer<DateTime>) (src, type, ctx) ->
+                            new JsonPrimitive(ISODateTimeFormat.dateTime().print(src)))
+                    .create();
+        }
+        return gson;
+    }
+}
@@ -0,0 +1,319 @@
+/**
+ * Copyright (c) 2017 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.manager.log;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.DateUtils;
+import org.joda.time.DateTime;
+
+import com.baddata.api.dto.system.AuditLogApiInfo;
+import com.baddata.api.dto.system.AuditLogPropertyStat;
+import com.baddata.api.dto.system.AuditLogStat;
+import com.baddata.api.query.SearchSpec;
+import com.baddata.db.DbIndex.DbIndexType;
+import com.baddata.db.RangeQuery;
+import com.baddata.exception.IndexPersistException;
+import com.baddata.log.Logger;
+import com.baddata.manager.db.PersistenceManager;
+import com.baddata.util.HyperLogLog;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Rolls the audit records into hourly AuditLogStat buckets as they're indexed by the
+ * AuditLogPublisher: request, error and duration totals per hour and per api path,
+ * with HyperLogLog sketches of the sessions and users.
+ *
+ * The current hours are kept in memory and persisted once they're over, so the cost
+ * of the stats is per new record and never a rescan of the audit index. A time range
+ * is answered by merging the persisted hours with the ones still in memory.
+ */
+public class AuditStatAggregator {
+
+    private static Logger logger = Logger.getLogger(AuditStatAggregator.class.getName());
+
+    private static AuditStatAggregator ref;
+
+    // an hour is persisted once it's over by this much, late records start a new bucket of the hour
+    private static final long ROLL_GRACE_MS = DateUtils.MILLIS_PER_MINUTE * 5;
+
+    private PersistenceManager persistence = PersistenceManager.getInstance();
+
+    // hour start -> stats of the records not persisted yet, guarded by this
+    private NavigableMap<Long, StatAccumulator> openHours = Maps.newTreeMap();
+    // bumped each time an open hour is persisted, guarded by this
+    private long persistCount = 0;
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static AuditStatAggregator getInstance() {
+        if (ref == null) {
+            synchronized(AuditStatAggregator.class) {
+                if (ref == null) {
+                    ref = new AuditStatAggregator();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private AuditStatAggregator() {
+        //
+    }
+
+    /**
+     * Add the indexed audit records to the stats of their hour
+     *
+     * @param apiInfos
+     */
+    public synchronized void record(List<AuditLogApiInfo> apiInfos) {
+        for ( AuditLogApiInfo apiInfo : apiInfos ) {
+            long time = ( apiInfo.getCreateTime() != null ) ? apiInfo.getCreateTime().getMillis() : System.currentTimeMillis();
+            long hourStart = getHourStart(time);
+
+            StatAccumulator accumulator = openHours.get(hourStart);
+            if ( accumulator == null ) {
+                accumulator = new StatAccumulator();
+                openHours.put(hourStart, accumulator);
+            }
+            accumulator.add(apiInfo);
+        }
+    }
+
+    /**
+     * Persist the hours that are over
+     */
+    public void rollCompletedHours() {
+        this.persistHours(System.currentTimeMillis() - ROLL_GRACE_MS);
+    }
+
+    /**
+     * Persist all of the hours in memory, including the current one
+     */
+    public void flushAll() {
+        this.persistHours(Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the stats of the range merged into one AuditLogStat
+     *
+     * @param since defaults to the last 24 hours
+     * @param until defaults to now
+     * @return AuditLogStat
+     */
+    public AuditLogStat getStats(DateTime since, DateTime until) {
+        long end = getRangeEnd(until);
+        long start = getRangeStart(since, end);
+
+        StatAccumulator total = new StatAccumulator();
+        for ( AuditLogStat hourStat : this.getHourlyStats(since, until) ) {
+            total.add(hourStat);
+        }
+        return total.toStat(start, end);
+    }
+
+    /**
+     * Returns the stats of each hour of the range
+     *
+     * @param since defaults to the last 24 hours
+     * @param until defaults to now
+     * @return List<AuditLogStat> ordered by hour
+     */
+    @SuppressWarnings("unchecked")
+    public List<AuditLogStat> getHourlyStats(DateTime since, DateTime until) {
+        long end = getRangeEnd(until);
+        long start = getRangeStart(since, end);
+
+        SearchSpec searchSpec = new SearchSpec(true);
+        searchSpec.addRangeQuery(new RangeQuery("start", start /*min*/, end /*max*/));
+
+        NavigableMap<Long, StatAccumulator> hours = null;
+        while ( true ) {
+            //
+            // Snapshot the open hours then read the persisted ones. An hour persisted in
+            // between would be counted twice, it's detected by the persist count and
+            // the range is read again. Recording isn't blocked by the index read.
+            hours = Maps.newTreeMap();
+            long snapshotPersistCount;
+            synchronized (this) {
+                snapshotPersistCount = persistCount;
+                for ( Map.Entry<Long, StatAccumulator> entry : openHours.subMap(start, true, end, true).entrySet() ) {
+                    long hourStart = entry.getKey();
+                    getAccumulator(hours, hourStart).add(entry.getValue().toStat(hourStart, hourStart + DateUtils.MILLIS_PER_HOUR));
+                }
+            }
+
+            List<AuditLogStat> persistedStats = (List<AuditLogStat>) persistence.getAllForObjectBySearchSpec(
+                    DbIndexType.AUDIT_LOG_STAT_TYPE, searchSpec, null /*tenantId*/);
+
+            synchronized (this) {
+                if ( persistCount != snapshotPersistCount ) {
+                    continue;
+                }
+            }
+
+            for ( AuditLogStat persistedStat : persistedStats ) {
+                if ( persistedStat.getStart() != null ) {
+                    // an hour may have been persisted in more than one bucket
+                    getAccumulator(hours, getHourStart(persistedStat.getStart().getMillis())).add(persistedStat);
+                }
+            }
+            break;
+        }
+
+        List<AuditLogStat> hourlyStats = Lists.newArrayListWithCapacity(hours.size());
+        for ( Map.Entry<Long, StatAccumulator> entry : hours.entrySet() ) {
+            long hourStart = entry.getKey();
+            hourlyStats.add(entry.getValue().toStat(hourStart, hourStart + DateUtils.MILLIS_PER_HOUR));
+        }
+        return hourlyStats;
+    }
+
+    private synchronized void persistHours(long before) {
+        // an hour leaves the open hours once it's in the index, a range query that
+        // overlaps with this sees the persist count change and reads again
+        Iterator<Map.Entry<Long, StatAccumulator>> iter = openHours.entrySet().iterator();
+        while ( iter.hasNext() ) {
+            Map.Entry<Long, StatAccumulator> entry = iter.next();
+            long hourStart = entry.getKey();
+            if ( hourStart + DateUtils.MILLIS_PER_HOUR > before ) {
+                // the hours are in order, the rest aren't over either
+                break;
+            }
+
+            try {
+                persistence.create(entry.getValue().toStat(hourStart, hourStart + DateUtils.MILLIS_PER_HOUR));
+            } catch (IndexPersistException e) {
+                // keep it and the later hours open, they're retried on the next roll
+                logger.error("Failed to create the audit log stat of hour '" + new DateTime(hourStart) + "', retrying on the next roll.", e);
+                break;
+            }
+            iter.remove();
+            persistCount++;
+        }
+    }
+
+    private static StatAccumulator getAccumulator(Map<Long, StatAccumulator> hours, long hourStart) {
+        StatAccumulator accumulator = hours.get(hourStart);
+        if ( accumulator == null ) {
+            accumulator = new StatAccumulator();
+            hours.put(hourStart, accumulator);
+        }
+        return accumulator;
+    }
+
+    private static long getHourStart(long time) {
+        return time - (time % DateUtils.MILLIS_PER_HOUR);
+    }
+
+    private static long getRangeEnd(DateTime until) {
+        return ( until != null ) ? until.getMillis() : System.currentTimeMillis();
+    }
+
+    private static long getRangeStart(DateTime since, long end) {
+        if ( since != null ) {
+            return getHourStart(since.getMillis());
+        }
+        return getHourStart(end) - DateUtils.MILLIS_PER_DAY + DateUtils.MILLIS_PER_HOUR;
+    }
+
+    /**
+     * Running totals of a set of audit records or stats
+     */
+    private static class StatAccumulator {
+        private long requestCount = 0;
+        private long errorCount = 0;
+        private long durationTotal = 0;
+        private HyperLogLog sessions = new HyperLogLog();
+        private HyperLogLog users = new HyperLogLog();
+        // api path -> stat
+        private Map<String, AuditLogPropertyStat> apiStatsMap = Maps.newHashMap();
+
+        void add(AuditLogApiInfo apiInfo) {
+            boolean hasError = StringUtils.isNotBlank(apiInfo.getError());
+
+            requestCount++;
+            durationTotal += apiInfo.getElapsed();
+            if ( hasError ) {
+                errorCount++;
+            }
+            if ( StringUtils.isNotBlank(apiInfo.getSessionId()) ) {
+                sessions.add(apiInfo.getSessionId());
+            }
+            if ( apiInfo.getUserRef() != null ) {
+                users.add(String.valueOf(apiInfo.getUserRef()));
+            }
+
+            // count per api path, the query string would make every request unique
+            String apiPath = apiInfo.getMethod() + " " + StringUtils.substringBefore(apiInfo.getUrl(), "?");
+            AuditLogPropertyStat apiStat = this.getApiStat(apiPath);
+            apiStat.setCount(apiStat.getCount() + 1);
+            apiStat.setDurationTotal(apiStat.getDurationTotal() + apiInfo.getElapsed());
+            if ( hasError ) {
+                apiStat.setErrorCount(apiStat.getErrorCount() + 1);
+            }
+        }
+
+        void add(AuditLogStat stat) {
+            requestCount += stat.getRequestCount();
+            errorCount += stat.getErrorCount();
+            durationTotal += stat.getDurationTotal();
+            sessions.merge(HyperLogLog.fromBase64(stat.getSessionSketch()));
+            users.merge(HyperLogLog.fromBase64(stat.getUserSketch()));
+
+            for ( AuditLogPropertyStat statApiStat : stat.getApiStats() ) {
+                AuditLogPropertyStat apiStat = this.getApiStat(statApiStat.getName());
+                apiStat.setCount(apiStat.getCount() + statApiStat.getCount());
+                apiStat.setDurationTotal(apiStat.getDurationTotal() + statApiStat.getDurationTotal());
+                apiStat.setErrorCount(apiStat.getErrorCount() + statApiStat.getErrorCount());
+            }
+        }
+
+        AuditLogStat toStat(long start, long end) {
+            AuditLogStat stat = new AuditLogStat();
+            stat.setStart(new DateTime(start));
+            stat.setEnd(new DateTime(end));
+            stat.setRequestCount(requestCount);
+            stat.setErrorCount(errorCount);
+            stat.setDurationTotal(durationTotal);
+            stat.setAvgDuration( ( requestCount > 0 ) ? (float) durationTotal / requestCount : 0 );
+            stat.setUniqueSessions(sessions.estimate());
+            stat.setUniqueUsers(users.estimate());
+            stat.setSessionSketch(sessions.toBase64());
+            stat.setUserSketch(users.toBase64());
+
+            for ( AuditLogPropertyStat apiStat : apiStatsMap.values() ) {
+                // copies, the persisted stat gets its own sub-objects
+                AuditLogPropertyStat statApiStat = new AuditLogPropertyStat();
+                statApiStat.setName(apiStat.getName());
+                statApiStat.setDescription(apiStat.getDescription());
+                statApiStat.setCount(apiStat.getCount());
+                statApiStat.setDurationTotal(apiStat.getDurationTotal());
+                statApiStat.setErrorCount(apiStat.getErrorCount());
+                stat.getApiStatsMap().put(statApiStat.getName(), statApiStat);
+            }
+            return stat;
+        }
+
+        private AuditLogPropertyStat getApiStat(String apiPath) {
+            AuditLogPropertyStat apiStat = apiStatsMap.get(apiPath);
+            if ( apiStat == null ) {
+                apiStat = new AuditLogPropertyStat();
+                apiStat.setName(apiPath);
+                apiStat.setDescription("Total count per API");
+                apiStatsMap.put(apiPath, apiStat);
+            }
+            return apiStat;
+        }
+    }
+}
@@ -11,8 +11,6 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.ZonedDateTime;
 import java.util.Date;
-import java.util.List;
-import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -27,22 +25,18 @@ import com.baddata.api.config.DateTimeJsonDeserializer;
 import com.baddata.api.config.JsonTypedBeanDeserializer;
 import com.baddata.api.config.ZonedDateTimeJsonDeserializer;
 import com.baddata.api.dto.TypedObject;
-import com.baddata.api.dto.page.Page;
 import com.baddata.api.dto.system.AuditLogApiInfo;
 import com.baddata.api.dto.system.AuditLogErrorInfo;
-import com.baddata.api.dto.system.AuditLogPropertyStat;
-import com.baddata.api.dto.system.AuditLogStat;
 import com.baddata.api.dto.system.LogMonitor;
-import com.baddata.api.query.SearchSpec;
 import com.baddata.db.DbIndex.DbIndexType;
 import com.baddata.exception.BaddataException;
 import com.baddata.exception.IndexPersistException;
 import com.baddata.log.Logger;
 import com.baddata.manager.db.PersistenceManager;
 import com.baddata.util.AppConstants;
+import com.baddata.util.AppUtil;
 import com.baddata.util.DateUtil;
 import com.baddata.util.FileUtil;
-import com.google.common.collect.Sets;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
@@ -54,15 +48,11 @@ public class BaddataLogManager {
     private static BaddataLogManager singleton;
     
     private Timer monitorTimer = null;
-    private Timer logStatBuilderTimer = null;
     
     // Checks the log every 9 seconds
     private final long NINE_SEC_INTERVAL = 1000 * 9;
-    // Build stats every hour
-    private final long ONE_HOUR_INTERVAL = DateUtils.MILLIS_PER_HOUR;
     
     private AtomicBoolean monitorTimeScheduled = new AtomicBoolean( false );
-    private AtomicBoolean statBuilderTimerScheduled = new AtomicBoolean( false );
     
     private PersistenceManager persistence;
     protected static Gson gson;
@@ -71,10 +61,6 @@ public class BaddataLogManager {
     public static long logMonitorDelay = DateUtils.MILLIS_PER_MINUTE;
     public static AtomicBoolean runningLogMonitor = new AtomicBoolean( false );
     
-    // stat builder tunables
-    public static long statBuilderDelay = DateUtils.MILLIS_PER_MINUTE * 2;
-    public static AtomicBoolean runningStatBuilder = new AtomicBoolean( false );
-    
     public static BaddataLogManager getInstance() {
         if ( singleton == null ) {
             synchronized (BaddataLogManager.class) {
@@ -91,11 +77,10 @@ public class BaddataLogManager {
     }
     
     public synchronized void startTasks() {
-        //
-        // *** Commented out to disable tasks from executing for now ***
-        //
+        // the audit records are indexed by the AuditLogPublisher, tailing the log is only a fallback
+        boolean logTailEnabled = AppUtil.getAsBoolean(AppConstants.AUDIT_LOG_TAIL_ENABLED, false);
         
-        if ( !monitorTimeScheduled.get() ) {
+        if ( logTailEnabled && !monitorTimeScheduled.get() ) {
         
             GsonBuilder gsonBuilder = new GsonBuilder();
             gsonBuilder.registerTypeAdapter( DateTime.class, new DateTimeJsonDeserializer() );
@@ -104,21 +89,14 @@ public class BaddataLogManager {
             gsonBuilder.registerTypeAdapter( ZonedDateTime.class, new ZonedDateTimeJsonDeserializer() );
             gson = gsonBuilder.create();
     
-            // monitorTimer = new Timer( "monitor-log", false /*isDaemon*/ );
-            // monitorTimer.schedule( new MonitorLogTask(), logMonitorDelay /*delay*/, NINE_SEC_INTERVAL /*period*/ );
+            monitorTimer = new Timer( "monitor-log", false /*isDaemon*/ );
+            monitorTimer.schedule( new MonitorLogTask(), logMonitorDelay /*delay*/, NINE_SEC_INTERVAL /*period*/ );
     
-            // monitorTimeScheduled.set( true );
-            // logger.debug("MonitorLog: start(): scheduled successfully");
+            monitorTimeScheduled.set( true );
+            logger.debug("MonitorLog: start(): scheduled successfully");
         }
         
-        if ( !statBuilderTimerScheduled.get() ) {
-            
-            // logStatBuilderTimer = new Timer( "log-stat-builder", false /*isDaemon*/ );
-            // logStatBuilderTimer.schedule( new LogStatBuilderTask(), statBuilderDelay /*delay*/, ONE_HOUR_INTERVAL /*period*/ );
-            
-            // statBuilderTimerScheduled.set( true );
-            // logger.debug("LogStatBuilder: start(): scheduled successfully");
-        }
+        // the hourly audit stats are rolled up by the AuditStatAggregator as the records are indexed
     }
     
     public synchronized void stopTasks() {
@@ -126,156 +104,6 @@ public class BaddataLogManager {
             monitorTimer.cancel();
             monitorTimeScheduled.set( false );
         }
-        
-        if ( logStatBuilderTimer != null ) {
-            logStatBuilderTimer.cancel();
-            statBuilderTimerScheduled.set( false );
-        }
-    }
-    
-    protected class LogStatBuilderTask extends TimerTask {
-
-        @SuppressWarnings("unchecked")
-        @Override
-        public void run() {
-            runningStatBuilder.set(true);
-            
-            try {
-            
-                SearchSpec searchSpec = new SearchSpec(true);
-                searchSpec.setLimit(1000);
-                searchSpec.setPage(1);
-                Page p = persistence.get(DbIndexType.AUDIT_LOG_API_INFO_TYPE, searchSpec);
-                
-                Set<String> sessionSet = Sets.newHashSet();
-                Set<Long> userRefSet = Sets.newHashSet();
-                DateTime statStart = null;
-                
-                if ( p != null ) {
-                    AuditLogStat logStat = new AuditLogStat();
-                    while ( p.getItemCount() > 0 ) {
-                        //
-                        // Add the typed items found in the page
-                        List<AuditLogApiInfo> apiInfoList = (List<AuditLogApiInfo>) p.getItems();
-
-                        boolean persistedStats = false;
-                        long avgCount = 0;
-                        for ( AuditLogApiInfo apiInfo : apiInfoList ) {
-                            
-                            long createTime = apiInfo.getCreateTime().getMillis();
-                            if ( statStart == null ) {
-                                statStart = new DateTime(createTime);
-                            }
-                            
-                            String sessionId = apiInfo.getSessionId();
-                            Long userRef = apiInfo.getUserRef();
-                            String url = apiInfo.getUrl();
-                            
-                            //
-                            // Add to the session set
-                            if ( !sessionSet.contains(sessionId) ) {
-                                sessionSet.add(sessionId);
-                            }
-                            
-                            //
-                            // Add to the user ref set
-                            if ( userRef != null && !userRefSet.contains(userRef) ) {
-                                userRefSet.add(userRef);
-                            }
-
-                            long timeSinceStart = createTime - statStart.getMillis();
-                            
-                            // increment the average counter
-                            avgCount += 1;
-                            
-                            // update the average duration
-                            logStat.setAvgDuration( logStat.getAvgDuration() + apiInfo.getElapsed() );
-                            
-                            //
-                            // Set the API Count per api
-                            //
-                            AuditLogPropertyStat apiStat = logStat.getApiStatsMap().get( url );
-                            if (apiStat == null) {
-                                // it's not there, add it
-                                apiStat = new AuditLogPropertyStat();
-                                apiStat.setName("API Count");
-                                apiStat.setDescription( "Total count per API" );
-                                logStat.getApiStatsMap().put( url, apiStat );
-                            }
-                            // update the apiStat by reference now
-                            apiStat.setCount( apiStat.getCount() + 1 );
-                            
-                            if ( timeSinceStart > DateUtils.MILLIS_PER_HOUR ) {
-
-                                //
-                                // Falls into the hourly bucket,
-                                // save the current stat info and reset the set
-                                //
-                                logStat.setUniqueSessions(sessionSet.size());
-                                logStat.setUniqueUsers(userRefSet.size());
-                                
-                                // complete the average duration
-                                logStat.setAvgDuration(logStat.getAvgDuration() / avgCount);
-                                
-                                // persist
-                                try {
-                                    persistence.create(logStat);
-                                    persistedStats = true;
-                                } catch (IndexPersistException e) {
-                                    logger.error("Failed to create audit log stat.", e);
-                                }
-                                
-                                break;
-                            }
-                        } // end for loop
-                        
-                        if (!persistedStats) {
-                            //
-                            // Falls into the hourly bucket,
-                            // save the current stat info and reset the set
-                            //
-                            logStat.setUniqueSessions(sessionSet.size());
-                            logStat.setUniqueUsers(userRefSet.size());
-                            
-                            // complete the avg duration
-                            logStat.setAvgDuration(logStat.getAvgDuration() / avgCount);
-                            
-                            // persist
-                            try {
-                                persistence.create(logStat);
-                            } catch (IndexPersistException e) {
-                                logger.error("Failed to create audit log stat.", e);
-                            }
-                        }
-                        
-                        if ( p.getPage() < p.getPages() ) {
-                            
-                            //
-                            // Reset the sets
-                            //
-                            logStat = new AuditLogStat();
-                            sessionSet = Sets.newHashSet();
-                            avgCount = 0;
-                            statStart = null;
-                            
-                            // fetch again
-                            searchSpec.setPage(searchSpec.getPage() + 1);
-                            p = persistence.get(DbIndexType.AUDIT_LOG_API_INFO_TYPE, searchSpec);
-                        } else {
-                            
-                            // done with paging through the results
-                            break;
-                        }
-                    }
-                }
-
-            } catch (Exception e) {
-                logger.error("Failure running log stat builder.", e);
-            } finally {
-                runningStatBuilder.set(false);
-            }
-        }
-        
     }
     
     /**
@@ -472,14 +300,11 @@ public class BaddataLogManager {
             
             //
             // Unmarshall from JSON and pick out the fields from the JSON message.
+            // The record is indexed with the next batch of the audit pipeline.
             //
             try {
                 AuditLogApiInfo auditLogInfo = gson.fromJson( jsonStr, AuditLogApiInfo.class );
-                try {
-                    persistence.create(auditLogInfo);
-                } catch (Exception e) {
-                    logger.trace("Failed to create new audit log api info db entry: " + e.toString());
-                }
+                AuditLogPublisher.getInstance().enqueue(auditLogInfo);
             } catch (Exception e1) {
                 logger.trace("Failed to parse audit log api info line, error: " + e1.toString());
             }
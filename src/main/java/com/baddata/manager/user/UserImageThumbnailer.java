@@ -0,0 +1,257 @@
+/**
+ * Copyright (c) 2017 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.manager.user;
+
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+import com.baddata.log.Logger;
+import com.baddata.util.AppUtil;
+import com.baddata.util.ImageUtil;
+import com.baddata.util.NamedThreadFactory;
+import com.google.common.collect.Maps;
+
+/**
+ * Builds the avatar and profile background thumbnails off the upload request. The uploaded
+ * image is scaled to each of the thumbnail sizes (square, like the image api scales it) by a
+ * single background thread and the thumbnails are published next to the image, i.e.
+ * "john123-avatar_64.jpg" for "john123-avatar.jpg".
+ *
+ * Uploads of the same image queued before the thread gets to them are coalesced, only
+ * the latest one is scaled. An upload drops the thumbnails of the previous image right
+ * away, a thumbnail is never judged fresh by its timestamp alone.
+ */
+public class UserImageThumbnailer {
+
+    private static Logger logger = Logger.getLogger(UserImageThumbnailer.class.getName());
+
+    private static UserImageThumbnailer ref;
+
+    // width and height in pixels
+    private static final int[] THUMBNAIL_SIZES = new int[] { 32, 64, 128 };
+    private static final int MAX_PENDING = 256;
+
+    private ThreadPoolExecutor executor = null;
+
+    // image path -> latest uploaded image waiting for its thumbnails
+    private ConcurrentMap<String, File> pendingImages = Maps.newConcurrentMap();
+
+    // image path -> upload count, a build only publishes if there was no upload since it started. guarded by this
+    private Map<String, Long> imageGenerations = Maps.newHashMap();
+
+    private AtomicLong built = new AtomicLong(0);
+    private AtomicLong coalesced = new AtomicLong(0);
+    private AtomicLong rejected = new AtomicLong(0);
+    private AtomicLong failed = new AtomicLong(0);
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static UserImageThumbnailer getInstance() {
+        if (ref == null) {
+            synchronized(UserImageThumbnailer.class) {
+                if (ref == null) {
+                    ref = new UserImageThumbnailer();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private UserImageThumbnailer() {
+        //
+    }
+
+    public synchronized void start() {
+        if ( executor != null ) {
+            return;
+        }
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_PENDING),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = NamedThreadFactory.create(r, "user-image-thumbnailer");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * Stop building thumbnails, the pending ones are dropped. The image api scales
+     * the images that don't have thumbnails.
+     */
+    public synchronized void stop() {
+        if ( executor != null ) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        pendingImages.clear();
+    }
+
+    /**
+     * Drop the thumbnails of the previous image and queue the published image for its thumbnails
+     *
+     * @param imageFile
+     */
+    public void submit(File imageFile) {
+        final String key = imageFile.getAbsolutePath();
+        synchronized (this) {
+            // a build of the previous image still running won't publish after this
+            Long generation = imageGenerations.get(key);
+            imageGenerations.put(key, ( generation != null ) ? generation + 1 : 1);
+            for ( int size : THUMBNAIL_SIZES ) {
+                getThumbnailFile(imageFile, size).delete();
+            }
+        }
+
+        ThreadPoolExecutor exec = executor;
+        if ( exec == null ) {
+            this.start();
+            exec = executor;
+        }
+
+        if ( pendingImages.put(key, imageFile) != null ) {
+            // the queued task picks up this one
+            coalesced.incrementAndGet();
+            return;
+        }
+
+        try {
+            exec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    File latestImageFile = pendingImages.remove(key);
+                    if ( latestImageFile != null ) {
+                        buildThumbnails(latestImageFile);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingImages.remove(key);
+            rejected.incrementAndGet();
+            logger.warn("Thumbnail queue is full, skipped the thumbnails of '" + imageFile.getName() + "'.");
+        }
+    }
+
+    /**
+     * Returns true if the file is a thumbnail of an image of the prefix, whatever the image
+     * extension, i.e. "john123-avatar_64.png" for the prefix "john123-avatar"
+     *
+     * @param fileName
+     * @param imagePrefix
+     * @return boolean
+     */
+    public static boolean isThumbnailOf(String fileName, String imagePrefix) {
+        return fileName.matches(Pattern.quote(imagePrefix) + "_\\d+\\..*");
+    }
+
+    /**
+     * Returns the thumbnail of the image for the requested size if there's an up to date one
+     *
+     * @param imageFile
+     * @param width
+     * @param height
+     * @return File or null if there's no thumbnail of that size
+     */
+    public File getThumbnail(File imageFile, int width, int height) {
+        if ( width != height || !ArrayUtils.contains(THUMBNAIL_SIZES, width) ) {
+            return null;
+        }
+        File thumbnailFile = getThumbnailFile(imageFile, width);
+        if ( thumbnailFile.isFile() && thumbnailFile.lastModified() >= imageFile.lastModified() ) {
+            return thumbnailFile;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the thumbnail counters: built, coalesced, rejected, failed and pending
+     *
+     * @return Map<String, Long>
+     */
+    public Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = Maps.newLinkedHashMap();
+        metrics.put("built", built.get());
+        metrics.put("coalesced", coalesced.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("failed", failed.get());
+        metrics.put("pending", (long) pendingImages.size());
+        return metrics;
+    }
+
+    private void buildThumbnails(File imageFile) {
+        String key = imageFile.getAbsolutePath();
+        String ext = AppUtil.getFileExtension(imageFile.getName(), false /*includeDot*/);
+        Long generation;
+        synchronized (this) {
+            generation = imageGenerations.get(key);
+        }
+        try {
+            BufferedImage image = ImageIO.read(imageFile);
+            if ( image == null ) {
+                // not something ImageIO can scale (i.e. svg), it's served as is
+                return;
+            }
+
+            for ( int size : THUMBNAIL_SIZES ) {
+                BufferedImage thumbnail = ImageUtil.getScaledInstance(
+                        image, size /* width */, size /* height */, RenderingHints.VALUE_INTERPOLATION_BILINEAR, true);
+
+                // publish it with a rename, the image api never reads a partial thumbnail
+                File thumbnailFile = getThumbnailFile(imageFile, size);
+                Path tmpPath = Files.createTempFile(imageFile.getParentFile().toPath(), "tmp_", ".thumb");
+                try {
+                    if ( !ImageIO.write(thumbnail, ext, tmpPath.toFile()) ) {
+                        logger.warn("No image writer for '" + ext + "', skipped the thumbnails of '" + imageFile.getName() + "'.");
+                        return;
+                    }
+                    synchronized (this) {
+                        if ( !Objects.equals(generation, imageGenerations.get(key)) ) {
+                            // uploaded again meanwhile, the next build publishes its thumbnails
+                            return;
+                        }
+                        Files.move(tmpPath, thumbnailFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    }
+                } finally {
+                    Files.deleteIfExists(tmpPath);
+                }
+            }
+            built.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            logger.error("Failed to build the thumbnails of '" + imageFile.getName() + "'.", e);
+        }
+    }
+
+    private static File getThumbnailFile(File imageFile, int size) {
+        String name = imageFile.getName();
+        int extIdx = name.lastIndexOf('.');
+        String baseName = ( extIdx > 0 ) ? name.substring(0, extIdx) : name;
+        String ext = ( extIdx > 0 ) ? name.substring(extIdx) : "";
+        return new File(imageFile.getParentFile(), baseName + "_" + size + ext);
+    }
+}
@@ -61,6 +61,7 @@ public class AppConstants {
     //--------------------------------------------------
 
     public static String LUCENE_STORE_NAME = "luceneStore";
+    public static String ID_SEQUENCE_STORE_NAME = "idSequence";
     public static String IMAGE_STORE_NAME = "imageStore";
     public static String CURRENCY_DIR_NAME = "currency";
     public static String CURRENCY_FILE_NAME = "CurrencyRateExchange.json";
@@ -84,7 +85,46 @@ public class AppConstants {
      * Max number of documents the db can return in one page: 10000.
      */
     public static int MAX_SEARCH_LIMIT = 10000;
-    
+    /**
+     * Interval in milliseconds the shared index searchers are refreshed in the background (0 disables it).
+     */
+    public static String SEARCHER_REFRESH_INTERVAL_MS = "lucene.searcher.refresh.ms";
+    /**
+     * Number of pending index writes that triggers a group commit: 1000.
+     */
+    public static String GROUP_COMMIT_MAX_OPS = "lucene.group.commit.max.ops";
+    /**
+     * Max time in milliseconds a buffered index write waits for its group commit: 1000.
+     */
+    public static String GROUP_COMMIT_INTERVAL_MS = "lucene.group.commit.interval.ms";
+    /**
+     * Number of object ids reserved per index type each time the id sequence is persisted: 1000.
+     */
+    public static String ID_BLOCK_SIZE = "lucene.id.block.size";
+    /**
+     * Number of objects built at a time when scanning an index: 1000.
+     */
+    public static String SCAN_BATCH_SIZE = "lucene.scan.batch.size";
+    /**
+     * Max number of search results kept in the query result cache (0 disables it): 1000.
+     */
+    public static String QUERY_CACHE_SIZE = "lucene.query.cache.size";
+
+    //--------------------------------------------------
+    //
+    // SESSION CONSTANTS
+    //
+    //--------------------------------------------------
+
+    /**
+     * Time in milliseconds a logged in user stays cached before it's read from the index again: 300000.
+     */
+    public static String USER_CACHE_TTL_MS = "user.cache.ttl.ms";
+    /**
+     * Max number of users kept in the logged in user cache: 10000.
+     */
+    public static String USER_CACHE_MAX_SIZE = "user.cache.max.size";
+
     //--------------------------------------------------
     //
     // ENVIRONMENT CONSTANTS
@@ -134,6 +174,87 @@ public class AppConstants {
     public static String SALESFORCE_CLIENT_SECRET = "salesforce.client.secret";
     public static String SALESFORCE_OAUTH_TOKEN_API = "salesforce.token.api";
     
+    //--------------------------------------------------
+    //
+    // JOB CONSTANTS
+    //
+    //--------------------------------------------------
+    
+    /**
+     * Time in milliseconds between the saves of the live job progress to the index: 5000.
+     */
+    public static String PROGRESS_FLUSH_INTERVAL_MS = "progress.flush.interval.ms";
+    
+    //--------------------------------------------------
+    //
+    // HTTP CLIENT CONSTANTS
+    //
+    //--------------------------------------------------
+    
+    /**
+     * Time in milliseconds a pooled outbound connection may stay idle before it's evicted: 30000.
+     */
+    public static String HTTP_CLIENT_IDLE_TIMEOUT_MS = "http.client.idle.timeout.ms";
+    
+    /**
+     * Number of threads running the async outbound requests: 8.
+     */
+    public static String HTTP_CLIENT_ASYNC_THREADS = "http.client.async.threads";
+    
+    /**
+     * Max number of async outbound requests waiting for a thread, the ones past it fail right away: 1000.
+     */
+    public static String HTTP_CLIENT_ASYNC_QUEUE_SIZE = "http.client.async.queue.size";
+    
+    /**
+     * Max number of retries of a failed idempotent outbound request: 2.
+     */
+    public static String HTTP_CLIENT_MAX_RETRIES = "http.client.max.retries";
+    
+    /**
+     * Time in milliseconds before the first retry, doubled for each retry after that: 200.
+     */
+    public static String HTTP_CLIENT_RETRY_BACKOFF_MS = "http.client.retry.backoff.ms";
+    
+    //--------------------------------------------------
+    //
+    // INDEX STORE CONSTANTS
+    //
+    //--------------------------------------------------
+    
+    /**
+     * Prefix of the lucene store profile of an index, followed by the lower case index type,
+     * i.e. "index.store.audit_log_api_info_type.profile=append". The profile is one of
+     * default, append or lookup, and each of its settings can be overridden on its own:
+     * directory (fs, mmap, niofs), ram.buffer.mb, max.buffered.docs (-1 to flush by ram),
+     * merge.policy (tiered, log_byte_size), merge.segments.per.tier, merge.max.segment.mb,
+     * compression (best_speed, best_compression) and compound.file.
+     */
+    public static String INDEX_STORE_PREFIX = "index.store.";
+    
+    //--------------------------------------------------
+    //
+    // INDEX RETENTION CONSTANTS
+    //
+    //--------------------------------------------------
+    
+    /**
+     * Prefix of the retention policy of an index, followed by the lower case index type:
+     * "index.retention.audit_log_api_info_type.max.age.days" and ".max.docs". Objects older
+     * than the max age, or the oldest beyond the max docs, are purged. 0 disables either one.
+     */
+    public static String INDEX_RETENTION_PREFIX = "index.retention.";
+    
+    /**
+     * Hours between two retention purges: 24.
+     */
+    public static String INDEX_RETENTION_PURGE_INTERVAL_HOURS = "index.retention.purge.interval.hours";
+    
+    /**
+     * Rate in MB/sec of the merges run after a purge to reclaim the space of the deleted objects: 20.
+     */
+    public static String INDEX_RETENTION_MERGE_MB_PER_SEC = "index.retention.merge.mb.per.sec";
+    
     //--------------------------------------------------
     //
     // MISC CONSTANTS
@@ -170,6 +291,47 @@ public class AppConstants {
     
     public static final String AUDIT_API_TAG = "AUDIT:LOG:";
     public static final String AUDIT_ERROR_TAG = "AUDIT:ERROR:";
+
+    /**
+     * Number of audit records the audit pipeline buffers before dropping new ones: 8192.
+     */
+    public static String AUDIT_BUFFER_SIZE = "audit.buffer.size";
+    /**
+     * Max number of audit records indexed per batch: 500.
+     */
+    public static String AUDIT_BATCH_SIZE = "audit.batch.size";
+    /**
+     * Time in milliseconds the audit pipeline waits for a batch to build up: 1000.
+     */
+    public static String AUDIT_FLUSH_INTERVAL_MS = "audit.flush.interval.ms";
+    /**
+     * Write the audit records to the log and index them by tailing the log instead: false.
+     */
+    public static String AUDIT_LOG_TAIL_ENABLED = "audit.log.tail.enabled";
+    /**
+     * Number of log events buffered for the log appender thread: 16384.
+     */
+    public static String LOG_BUFFER_SIZE = "log.buffer.size";
+    /**
+     * Append the log events on the appender thread, false appends them on the caller's thread: true.
+     */
+    public static String LOG_ASYNC_ENABLED = "log.async.enabled";
+    /**
+     * Time in milliseconds the same error message is logged only once: 3600000.
+     */
+    public static String LOG_DEDUPE_WINDOW_MS = "log.dedupe.window.ms";
+    /**
+     * Max number of error messages tracked to dedupe: 10000.
+     */
+    public static String LOG_DEDUPE_MAX_SIZE = "log.dedupe.max.size";
+    /**
+     * Number of event notifications buffered for the event log dispatcher: 4096.
+     */
+    public static String EVENT_LOG_BUFFER_SIZE = "event.log.buffer.size";
+    /**
+     * Time in milliseconds the event log dispatcher collects notifications into one email per recipient: 5000.
+     */
+    public static String EVENT_LOG_FLUSH_INTERVAL_MS = "event.log.flush.interval.ms";
     
     //--------------------------------------------------
     //
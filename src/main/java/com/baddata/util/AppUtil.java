@@ -9,9 +9,7 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
-import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -29,7 +27,6 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
-import org.reflections.Reflections;
 
 import com.baddata.api.dto.ApiDto;
 import com.baddata.api.dto.TypedObject;
@@ -46,6 +43,7 @@ import com.baddata.manager.user.UserSessionManager;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 
 public class AppUtil {
@@ -68,15 +66,8 @@ public class AppUtil {
     private static Runtime runtime = Runtime.getRuntime();
     
     static {
-        Set<Class<? extends TypedObject>> typedObjClassSet = getDTOClassSet();
-        
-        dtoClasses = new ArrayList<Class<? extends TypedObject>>();
-        
-        Iterator<Class<? extends TypedObject>> typedObjIter = typedObjClassSet.iterator();
-        while (typedObjIter.hasNext() ) {
-            Class<? extends TypedObject> typedObjClass = typedObjIter.next();
-            dtoClasses.add( typedObjClass );
-        }
+        // from the class index written at build time, no classpath scan
+        dtoClasses = ClassIndex.getInstance().getTypedObjectClasses();
         
         hundredsPrecisionNoCommasNumber.setRoundingMode(RoundingMode.DOWN);
         tensPrecisionWithCommasNumber.setRoundingMode(RoundingMode.UP);
@@ -155,10 +146,7 @@ public class AppUtil {
 	}
 	
 	public static Set<Class<? extends TypedObject>> getDTOClassSet() {
-	    Reflections ref = new Reflections( AppConstants.DTO_PKG );
-        Set<Class<? extends TypedObject>> typedObjClassSet = ref.getSubTypesOf(TypedObject.class);
-        
-        return typedObjClassSet;
+	    return Sets.newLinkedHashSet( ClassIndex.getInstance().getTypedObjectClasses() );
 	}
     
     public static JSONArray getJSONArrayFromJSONObj(JSONObject jsonObj, String arrayKey) {
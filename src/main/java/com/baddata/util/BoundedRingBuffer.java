@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.util;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue backed by a ring of slots (Vyukov's bounded MPMC queue).
+ *
+ * Each slot carries a sequence number telling producers and consumers whose turn
+ * it is, so an offer or poll is a CAS on the position plus two volatile writes.
+ * A full buffer makes offer return false right away, it never blocks the producer.
+ */
+public class BoundedRingBuffer<T> {
+
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong enqueuePos = new AtomicLong(0);
+    private final AtomicLong dequeuePos = new AtomicLong(0);
+
+    /**
+     * @param capacity rounded up to the next power of 2
+     */
+    public BoundedRingBuffer(int capacity) {
+        int size = 2;
+        while ( size < capacity ) {
+            size <<= 1;
+        }
+        slots = new AtomicReferenceArray<T>(size);
+        sequences = new AtomicLongArray(size);
+        for ( int i = 0; i < size; i++ ) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Add the element if there's room
+     *
+     * @param element
+     * @return false if the buffer is full
+     */
+    public boolean offer(T element) {
+        long pos = enqueuePos.get();
+        int idx;
+        while ( true ) {
+            idx = (int) (pos & mask);
+            long diff = sequences.get(idx) - pos;
+            if ( diff == 0 ) {
+                if ( enqueuePos.compareAndSet(pos, pos + 1) ) {
+                    break;
+                }
+                pos = enqueuePos.get();
+            } else if ( diff < 0 ) {
+                // the consumer hasn't freed this slot yet
+                return false;
+            } else {
+                // another producer claimed it
+                pos = enqueuePos.get();
+            }
+        }
+        slots.set(idx, element);
+        // publish the slot to the consumers
+        sequences.set(idx, pos + 1);
+        return true;
+    }
+
+    /**
+     * Remove the oldest element
+     *
+     * @return the element or null if the buffer is empty
+     */
+    public T poll() {
+        long pos = dequeuePos.get();
+        int idx;
+        while ( true ) {
+            idx = (int) (pos & mask);
+            long diff = sequences.get(idx) - (pos + 1);
+            if ( diff == 0 ) {
+                if ( dequeuePos.compareAndSet(pos, pos + 1) ) {
+                    break;
+                }
+                pos = dequeuePos.get();
+            } else if ( diff < 0 ) {
+                // nothing published in this slot yet
+                return null;
+            } else {
+                pos = dequeuePos.get();
+            }
+        }
+        T element = slots.get(idx);
+        slots.set(idx, null);
+        // hand the slot back to the producers for the next lap
+        sequences.set(idx, pos + mask + 1);
+        return element;
+    }
+
+    /**
+     * Move up to maxElements into the list
+     *
+     * @return the number of elements drained
+     */
+    public int drainTo(List<T> list, int maxElements) {
+        int drained = 0;
+        while ( drained < maxElements ) {
+            T element = this.poll();
+            if ( element == null ) {
+                break;
+            }
+            list.add(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Approximate number of elements, exact when there are no concurrent offers and polls
+     */
+    public int size() {
+        long size = enqueuePos.get() - dequeuePos.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
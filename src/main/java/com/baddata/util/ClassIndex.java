@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.baddata.annotation.processor.ClassIndexProcessor;
+import com.baddata.api.dto.TypedObject;
+import com.baddata.api.factory.ResourceBase;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * The TypedObject, resource and jersey classes and the api routes, read from the class index
+ * the ClassIndexProcessor writes at build time. Replaces the classpath scans, the index is
+ * read once and the classes are loaded without being initialized.
+ */
+public class ClassIndex {
+
+    private static ClassIndex ref;
+
+    private List<Class<? extends TypedObject>> typedObjectClasses = Lists.newArrayList();
+    // lower case simple name (the typeid) -> class
+    private Map<String, Class<? extends TypedObject>> typeIdMap = Maps.newHashMap();
+    private Set<Class<? extends ResourceBase>> resourceClasses = Sets.newLinkedHashSet();
+    private Set<Class<?>> jerseyClasses = Sets.newLinkedHashSet();
+    private List<ApiRoute> apiRoutes = Lists.newArrayList();
+
+    /**
+     * Singleton instance
+     * @return
+     */
+    public static ClassIndex getInstance() {
+        if (ref == null) {
+            synchronized(ClassIndex.class) {
+                if (ref == null) {
+                    ref = new ClassIndex();
+                }
+            }
+        }
+        return ref;
+    }
+
+    // private constructor to ensure singleton usage
+    private ClassIndex() {
+        ClassLoader classLoader = ClassIndex.class.getClassLoader();
+        InputStream in = classLoader.getResourceAsStream(ClassIndexProcessor.INDEX_RESOURCE);
+        if ( in == null ) {
+            throw new IllegalStateException("The class index '" + ClassIndexProcessor.INDEX_RESOURCE
+                    + "' is missing, the sources have to be compiled with the ClassIndexProcessor. In the IDE, run "
+                    + "\"mvn generate-sources\" once to build the processor jar of the .factorypath and enable annotation processing.");
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ( (line = reader.readLine()) != null ) {
+                if ( line.isEmpty() || line.startsWith("#") ) {
+                    continue;
+                }
+                this.addEntry(line.split("\t", -1), classLoader);
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Failed to read the class index '" + ClassIndexProcessor.INDEX_RESOURCE + "'.", e);
+        }
+
+        typedObjectClasses = Collections.unmodifiableList(typedObjectClasses);
+        resourceClasses = Collections.unmodifiableSet(resourceClasses);
+        jerseyClasses = Collections.unmodifiableSet(jerseyClasses);
+        apiRoutes = Collections.unmodifiableList(apiRoutes);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addEntry(String[] entry, ClassLoader classLoader) throws ClassNotFoundException {
+        Class<?> cls = Class.forName(entry[1], false /*initialize*/, classLoader);
+        switch (entry[0]) {
+            case "typedObject":
+                Class<? extends TypedObject> typedObjectClass = (Class<? extends TypedObject>) cls;
+                typedObjectClasses.add(typedObjectClass);
+                typeIdMap.put(cls.getSimpleName().toLowerCase(), typedObjectClass);
+                break;
+            case "resource":
+                resourceClasses.add((Class<? extends ResourceBase>) cls);
+                break;
+            case "jersey":
+                jerseyClasses.add(cls);
+                break;
+            case "route":
+                apiRoutes.add(new ApiRoute((Class<? extends ResourceBase>) cls, entry[2], entry[3], entry[4],
+                        Boolean.parseBoolean(entry[5]), Boolean.parseBoolean(entry[6])));
+                break;
+            default:
+                // written by a newer processor, skip it
+                break;
+        }
+    }
+
+    public List<Class<? extends TypedObject>> getTypedObjectClasses() {
+        return typedObjectClasses;
+    }
+
+    /**
+     * Returns the TypedObject class of the typeid (the class simple name, any case)
+     *
+     * @param typeId
+     * @return the class or null if there's no TypedObject with that name
+     */
+    public Class<? extends TypedObject> getTypedObjectClass(String typeId) {
+        return ( typeId != null ) ? typeIdMap.get(typeId.toLowerCase()) : null;
+    }
+
+    public Set<Class<? extends ResourceBase>> getResourceClasses() {
+        return resourceClasses;
+    }
+
+    /**
+     * Returns the root resource and provider classes of the api package
+     *
+     * @return Set<Class<?>>
+     */
+    public Set<Class<?>> getJerseyClasses() {
+        return jerseyClasses;
+    }
+
+    public List<ApiRoute> getApiRoutes() {
+        return apiRoutes;
+    }
+
+    /**
+     * The @Path and @ApiInfo of a resource method
+     */
+    public static class ApiRoute {
+        private Class<? extends ResourceBase> resourceClass;
+        private String httpMethod;
+        private String classPath;
+        private String methodPath;
+        private boolean publicApi;
+        private boolean requiresUberUserSession;
+
+        ApiRoute(Class<? extends ResourceBase> resourceClass, String httpMethod, String classPath, String methodPath,
+                boolean publicApi, boolean requiresUberUserSession) {
+            this.resourceClass = resourceClass;
+            this.httpMethod = httpMethod;
+            this.classPath = classPath;
+            this.methodPath = methodPath;
+            this.publicApi = publicApi;
+            this.requiresUberUserSession = requiresUberUserSession;
+        }
+
+        public Class<? extends ResourceBase> getResourceClass() {
+            return resourceClass;
+        }
+
+        public String getHttpMethod() {
+            return httpMethod;
+        }
+
+        /**
+         * @return the class @Path value, empty if the class has none
+         */
+        public String getClassPath() {
+            return classPath;
+        }
+
+        /**
+         * @return the method @Path value, empty if the method has none
+         */
+        public String getMethodPath() {
+            return methodPath;
+        }
+
+        public boolean isPublicApi() {
+            return publicApi;
+        }
+
+        public boolean requiresUberUserSession() {
+            return requiresUberUserSession;
+        }
+    }
+}
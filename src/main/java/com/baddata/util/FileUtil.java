@@ -16,8 +16,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -25,6 +31,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.Part;
 import javax.ws.rs.core.Response.Status;
@@ -52,6 +59,8 @@ public final class FileUtil {
 	// this is only used if synthetic.data.dir within server.properties is not set
 	private static String defaultSyntheticDatasetDir = "dataset5";
 
+	private static final long IMAGE_TRANSFER_CHUNK_SIZE = 64 * 1024;
+
 	public static FileUtil getInstance() {
 		if (ref == null) {
 			synchronized(FileUtil.class) {
@@ -342,13 +351,12 @@ public final class FileUtil {
 	}
 
 	public static long getLuceneIndexSize(IndexPathInfo pathInfo, boolean isSearch) {
-		synchronized (pathInfo.getDbIndexType()) {
-			File luceneDir = getLuceneIndex(pathInfo, isSearch);
-			if (luceneDir != null && luceneDir.isDirectory()) {
-				return getFolderSize(luceneDir);
-			}
-			return 0;
+		// no lock, a file removed by a merge while walking the folder counts as 0 bytes
+		File luceneDir = getLuceneIndex(pathInfo, isSearch);
+		if (luceneDir != null && luceneDir.isDirectory()) {
+			return getFolderSize(luceneDir);
 		}
+		return 0;
 	}
 
 	public static long getFolderSize(File dir) {
@@ -369,14 +377,11 @@ public final class FileUtil {
 	}
 
 	public static boolean indexExists(IndexPathInfo pathInfo) {
-		synchronized (pathInfo.getDbIndexType()) {
+		// build filepath
+		File f = FileUtil.getLuceneIndex(pathInfo, false /*isSearch*/);
 
-			// build filepath
-			File f = FileUtil.getLuceneIndex(pathInfo, false /*isSearch*/);
-
-			// return true if file is not null and exists
-			return (f != null && f.exists());
-		}
+		// return true if file is not null and exists
+		return (f != null && f.exists());
 	}
 
 	public static boolean deleteFile(File f) throws IOException {
@@ -602,6 +607,66 @@ public final class FileUtil {
 		}
 	}
 
+	/**
+	 * Stream the upload through an MD5 digest into a temp file in the destination dir and publish it
+	 * under the file name with an atomic rename, readers see the previous file or the new one, never a
+	 * partial one. Only the header is read to check it's an image, the image isn't decoded.
+	 *
+	 * @param destDir
+	 * @param fileName
+	 * @param inputStream closed once it's read
+	 * @return the MD5 digest of the stored content
+	 * @throws FileUploadException if it's not an image
+	 * @throws IOException if the upload or the write fails
+	 */
+	public static byte[] storeImageFileAtomically( File destDir, String fileName, InputStream inputStream ) throws FileUploadException, IOException {
+		Path tmpPath = java.nio.file.Files.createTempFile( destDir.toPath(), "tmp_", ".part" );
+		boolean published = false;
+		try {
+			MessageDigest md = MessageDigest.getInstance( AlgoUtil.MD5_ALGO );
+
+			try ( ReadableByteChannel in = Channels.newChannel( new DigestInputStream( inputStream, md ) );
+					FileChannel out = FileChannel.open( tmpPath, StandardOpenOption.WRITE ) ) {
+				long position = 0;
+				long transferred;
+				// a blocking source only transfers 0 bytes at the end of the stream
+				while ( ( transferred = out.transferFrom( in, position, IMAGE_TRANSFER_CHUNK_SIZE ) ) > 0 ) {
+					position += transferred;
+				}
+			}
+
+			if ( !isImageFile( tmpPath.toFile() ) ) {
+				throw new FileUploadException("Invalid image content.");
+			}
+
+			java.nio.file.Files.move( tmpPath, new File( destDir, fileName ).toPath(), StandardCopyOption.ATOMIC_MOVE );
+			published = true;
+
+			return md.digest();
+		} catch (NoSuchAlgorithmException e) {
+			// this should never happen since java ships with MD5
+			logger.error( "Unable to utilize 'MD5' message digest algorithm.", e );
+			throw new RuntimeException( e );
+		} finally {
+			if ( !published ) {
+				java.nio.file.Files.deleteIfExists( tmpPath );
+			}
+		}
+	}
+
+	/**
+	 * Returns true if an ImageIO reader recognizes the file header
+	 *
+	 * @param f
+	 * @return boolean
+	 * @throws IOException
+	 */
+	public static boolean isImageFile( File f ) throws IOException {
+		try ( ImageInputStream iis = ImageIO.createImageInputStream( f ) ) {
+			return iis != null && ImageIO.getImageReaders( iis ).hasNext();
+		}
+	}
+
 	public static byte[] storeAndChecksumImageFile( File destDir, String fileName, Part part ) throws FileUploadException, IOException {
 
 		InputStream partInputStream = part.getInputStream();
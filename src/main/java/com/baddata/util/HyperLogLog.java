@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * HyperLogLog sketch counting the distinct values added to it in 4KB.
+ *
+ * 4096 registers give a standard error of about 1.6%, small cardinalities fall back
+ * to linear counting so they're close to exact. Sketches of different periods can be
+ * merged to count the distinct values over the whole range. Not thread safe.
+ */
+public class HyperLogLog {
+
+    private static final int PRECISION = 12;
+    private static final int NUM_REGISTERS = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / NUM_REGISTERS);
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private byte[] registers;
+
+    public HyperLogLog() {
+        registers = new byte[NUM_REGISTERS];
+    }
+
+    private HyperLogLog(byte[] registers) {
+        this.registers = registers;
+    }
+
+    /**
+     * Decode a sketch built by toBase64
+     *
+     * @param encoded
+     * @return HyperLogLog, empty if the value is blank or isn't a sketch
+     */
+    public static HyperLogLog fromBase64(String encoded) {
+        if ( StringUtils.isNotBlank(encoded) ) {
+            try {
+                byte[] registers = Base64.getDecoder().decode(encoded);
+                if ( registers.length == NUM_REGISTERS ) {
+                    return new HyperLogLog(registers);
+                }
+            } catch (IllegalArgumentException e) {
+                // not a sketch, start over
+            }
+        }
+        return new HyperLogLog();
+    }
+
+    public void add(String value) {
+        if ( value == null ) {
+            return;
+        }
+        long hash = HASH.hashString(value, StandardCharsets.UTF_8).asLong();
+        // the first bits pick the register
+        int idx = (int) (hash >>> (64 - PRECISION));
+        // the rank is the position of the first 1 bit in the rest, the guard bit caps it
+        long rest = (hash << PRECISION) | (1L << (PRECISION - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if ( rank > registers[idx] ) {
+            registers[idx] = rank;
+        }
+    }
+
+    /**
+     * Add the values of the other sketch to this one
+     *
+     * @param other
+     */
+    public void merge(HyperLogLog other) {
+        for ( int i = 0; i < NUM_REGISTERS; i++ ) {
+            if ( other.registers[i] > registers[i] ) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the estimated number of distinct values
+     */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for ( byte rank : registers ) {
+            sum += 1.0 / (1L << rank);
+            if ( rank == 0 ) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * NUM_REGISTERS * NUM_REGISTERS / sum;
+        if ( estimate <= 2.5 * NUM_REGISTERS && zeros > 0 ) {
+            // small range correction
+            estimate = NUM_REGISTERS * Math.log((double) NUM_REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    public String toBase64() {
+        return Base64.getEncoder().encodeToString(registers);
+    }
+}
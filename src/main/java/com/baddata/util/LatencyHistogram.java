@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2016 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.util;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Lock free latency histogram. Latencies are counted in log-scaled buckets (4 per power
+ * of 2) so recording is a couple of atomic increments and the percentiles are within
+ * about 19% of the actual value.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS_PER_OCTAVE = 4;
+    // covers up to 2^36 micros (~19 hours)
+    private static final int NUM_BUCKETS = 36 * BUCKETS_PER_OCTAVE + 1;
+
+    private AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private AtomicLong max = new AtomicLong(0);
+
+    public void record(long micros) {
+        counts.incrementAndGet(bucketIndex(micros));
+
+        long currentMax = max.get();
+        while ( micros > currentMax && !max.compareAndSet(currentMax, micros) ) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Returns count, p50, p95, p99 and max
+     *
+     * @return Map<String, Long>
+     */
+    public Map<String, Long> getMetrics() {
+        // copy the counts so the percentiles add up while latencies are recorded
+        long[] snapshot = new long[NUM_BUCKETS];
+        long total = 0;
+        for ( int i = 0; i < NUM_BUCKETS; i++ ) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        Map<String, Long> metrics = Maps.newLinkedHashMap();
+        metrics.put("count", total);
+        metrics.put("p50", percentile(snapshot, total, 0.50));
+        metrics.put("p95", percentile(snapshot, total, 0.95));
+        metrics.put("p99", percentile(snapshot, total, 0.99));
+        metrics.put("max", max.get());
+        return metrics;
+    }
+
+    private long percentile(long[] snapshot, long total, double percentile) {
+        if ( total == 0 ) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for ( int i = 0; i < NUM_BUCKETS; i++ ) {
+            seen += snapshot[i];
+            if ( seen >= rank ) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static int bucketIndex(long micros) {
+        if ( micros <= 1 ) {
+            return 0;
+        }
+        int idx = (int) Math.ceil(Math.log(micros) / Math.log(2) * BUCKETS_PER_OCTAVE);
+        return Math.min(idx, NUM_BUCKETS - 1);
+    }
+
+    private static long bucketUpperBound(int idx) {
+        return (long) Math.ceil(Math.pow(2, (double) idx / BUCKETS_PER_OCTAVE));
+    }
+}
@@ -19,6 +19,7 @@ import javax.ws.rs.core.MultivaluedMap;
 
 import org.apache.commons.collections4.CollectionUtils;
 
+import com.baddata.api.config.ClassIndexResourceConfig;
 import com.baddata.api.filter.CacheControlFilter;
 import com.baddata.api.filter.RestApiFilter;
 import com.baddata.api.listener.AppServletContextListener;
@@ -29,7 +30,6 @@ import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.config.ClientConfig;
 import com.sun.jersey.api.client.config.DefaultClientConfig;
 import com.sun.jersey.api.client.filter.ClientFilter;
-import com.sun.jersey.api.core.PackagesResourceConfig;
 import com.sun.jersey.client.urlconnection.HTTPSProperties;
 import com.sun.jersey.test.framework.JerseyTest;
 import com.sun.jersey.test.framework.WebAppDescriptor;
@@ -38,14 +38,14 @@ public class JerseyTestClient extends JerseyTest {
 
 	public JerseyTestClient() throws Exception {
 		
-		// add the RestApiFilter and the api resources "PROPERTY_PACKAGES" package location
+		// add the RestApiFilter and the api resources from the class index, like the web.xml
 	    // add the AppServletContextListener to simulate webserver bootstrap
 		super(new WebAppDescriptor.Builder()
 		        .clientConfig(createClientConfig())
 				.addFilter(CacheControlFilter.class, "CacheControlFilter")
 				.addFilter(RestApiFilter.class, "RestApiFilter")
 				.contextListenerClass(AppServletContextListener.class)
-				.initParam(PackagesResourceConfig.PROPERTY_PACKAGES, "com.baddata.api")
+				.initParam("com.sun.jersey.config.property.resourceConfigClass", ClassIndexResourceConfig.class.getName())
 				.contextPath( AppConstants.PATH_ROOT )
 				.build());
 		
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2017 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.api.factory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class ApiRouteTrieTest {
+
+    private ApiRouteTrie trie;
+
+    @Before
+    public void setUp() {
+        trie = new ApiRouteTrie();
+        trie.addPublicPath("/api/session/login");
+        trie.addPublicPath("/api/users/{id}/avatar");
+        trie.addPublicPath("/api/docs/{path}");
+
+        trie.addUberUserPath("GET", "/api/users/{id}");
+        trie.addUberUserPath("DELETE", "/api/users/{id}");
+        trie.addUberUserPath("GET", "/api/users/self/settings");
+        trie.addUberUserPath("POST", "/api/audit/{type}/purge");
+        trie.addUberUserPath("GET", "/api/audit/pipeline");
+    }
+
+    @Test
+    public void staticSegmentTest() {
+        Assert.assertTrue(trie.isPublic("/api/session/login"));
+        Assert.assertTrue(trie.isPublic("api/session/login"));
+        Assert.assertTrue(trie.isPublic("/API/Session/Login/"));
+        Assert.assertFalse(trie.isPublic("/api/session"));
+        Assert.assertFalse(trie.isPublic("/api/session/login/now"));
+        Assert.assertFalse(trie.isPublic("/api/session/logins"));
+        Assert.assertFalse(trie.isPublic(null));
+    }
+
+    @Test
+    public void paramSegmentTest() {
+        Assert.assertTrue(trie.isPublic("/api/users/42/avatar"));
+        Assert.assertTrue(trie.isPublic("/api/docs/readme"));
+        // a param matches exactly one segment
+        Assert.assertFalse(trie.isPublic("/api/docs"));
+        Assert.assertFalse(trie.isPublic("/api/docs/guide/readme"));
+        Assert.assertFalse(trie.isPublic("/api/users/42"));
+
+        Assert.assertTrue(trie.requiresUberUser("GET", "/api/users/42"));
+        Assert.assertTrue(trie.requiresUberUser("delete", "/api/users/42"));
+        Assert.assertFalse(trie.requiresUberUser("PUT", "/api/users/42"));
+        Assert.assertFalse(trie.requiresUberUser("PATCH", "/api/users/42"));
+        Assert.assertFalse(trie.requiresUberUser(null, "/api/users/42"));
+    }
+
+    @Test
+    public void staticBeforeParamPrecedenceTest() {
+        // the static segment is tried first and matches
+        Assert.assertTrue(trie.requiresUberUser("GET", "/api/users/self/settings"));
+        Assert.assertTrue(trie.requiresUberUser("GET", "/api/audit/pipeline"));
+        // only the param route has POST .../purge, "pipeline" falls back to {type}
+        Assert.assertTrue(trie.requiresUberUser("POST", "/api/audit/pipeline/purge"));
+        Assert.assertFalse(trie.requiresUberUser("POST", "/api/audit/pipeline"));
+
+        // no match below the static "self", it backtracks to {id}
+        Assert.assertTrue(trie.requiresUberUser("GET", "/api/users/self"));
+        Assert.assertTrue(trie.isPublic("/api/users/self/avatar"));
+        Assert.assertFalse(trie.requiresUberUser("DELETE", "/api/users/self/settings"));
+    }
+
+    @Test
+    public void publicAndUberUserFlagsTest() {
+        // the flags of one path don't leak into the other check
+        Assert.assertFalse(trie.requiresUberUser("GET", "/api/session/login"));
+        Assert.assertFalse(trie.isPublic("/api/users/self/settings"));
+        Assert.assertFalse(trie.isPublic("/api/audit/pipeline"));
+
+        // a param doesn't match the rest of the path
+        Assert.assertFalse(trie.requiresUberUser("GET", "/api/users/42/avatar/extra"));
+        Assert.assertFalse(trie.isPublic("/"));
+        Assert.assertFalse(trie.isPublic(""));
+    }
+}
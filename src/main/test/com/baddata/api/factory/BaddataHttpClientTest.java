@@ -0,0 +1,301 @@
+/**
+ * Copyright (c) 2017 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.api.factory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.baddata.api.factory.BaddataHttpClient.HttpRequestType;
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.Assert;
+
+public class BaddataHttpClientTest {
+
+    private static final String HOST = "127.0.0.1";
+
+    // returns the status code of the response
+    private static final ResponseHandler<Integer> STATUS_HANDLER = new ResponseHandler<Integer>() {
+        @Override
+        public Integer handleResponse(HttpResponse response) throws IOException {
+            return response.getStatusLine().getStatusCode();
+        }
+    };
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private BaddataHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        // in-process stub server on an ephemeral port
+        server = HttpServer.create(new InetSocketAddress(HOST, 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        client = new BaddataHttpClient(HOST, server.getAddress().getPort(), false /*secure*/);
+        HttpClientMetrics.getInstance().reset();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void retryOnServiceUnavailableTest() throws Exception {
+        // 503, 504 then 200
+        StubHandler stub = this.addStub("/flaky", 0 /*delayMs*/, 503, 504, 200);
+
+        int status = client.execute(HttpRequestType.GET, "/flaky", newParams(2 /*maxRetries*/, 0 /*socketTimeout*/), null /*entity*/, STATUS_HANDLER);
+        Assert.assertEquals(200, status);
+        Assert.assertEquals(3, stub.hits.get());
+
+        Map<String, Long> metrics = getHostMetrics();
+        Assert.assertEquals(3L, (long) metrics.get("requests"));
+        Assert.assertEquals(2L, (long) metrics.get("errors"));
+        Assert.assertEquals(2L, (long) metrics.get("retries"));
+    }
+
+    @Test
+    public void retriesExhaustedTest() throws Exception {
+        StubHandler stub = this.addStub("/down", 0 /*delayMs*/, 502);
+
+        // the last response is handed back as is
+        int status = client.execute(HttpRequestType.PUT, "/down", newParams(1 /*maxRetries*/, 0 /*socketTimeout*/), "{}", STATUS_HANDLER);
+        Assert.assertEquals(502, status);
+        Assert.assertEquals(2, stub.hits.get());
+        Assert.assertEquals(1L, (long) getHostMetrics().get("retries"));
+    }
+
+    @Test
+    public void notRetriedStatusTest() throws Exception {
+        StubHandler stub = this.addStub("/error", 0 /*delayMs*/, 500);
+
+        int status = client.execute(HttpRequestType.GET, "/error", newParams(2 /*maxRetries*/, 0 /*socketTimeout*/), null /*entity*/, STATUS_HANDLER);
+        Assert.assertEquals(500, status);
+        Assert.assertEquals(1, stub.hits.get());
+        Assert.assertEquals(1L, (long) getHostMetrics().get("errors"));
+        Assert.assertEquals(0L, (long) getHostMetrics().get("retries"));
+    }
+
+    @Test
+    public void postNotRetriedTest() throws Exception {
+        StubHandler stub = this.addStub("/create", 0 /*delayMs*/, 503);
+
+        int status = client.execute(HttpRequestType.POST, "/create", newParams(2 /*maxRetries*/, 0 /*socketTimeout*/), "{}", STATUS_HANDLER);
+        Assert.assertEquals(503, status);
+        Assert.assertEquals(1, stub.hits.get());
+        Assert.assertEquals(0L, (long) getHostMetrics().get("retries"));
+    }
+
+    @Test
+    public void socketTimeoutTest() throws Exception {
+        StubHandler stub = this.addStub("/slow", 2000 /*delayMs*/, 200);
+
+        long start = System.currentTimeMillis();
+        try {
+            client.execute(HttpRequestType.GET, "/slow", newParams(0 /*maxRetries*/, 200 /*socketTimeout*/), null /*entity*/, STATUS_HANDLER);
+            Assert.fail("expected the socket timeout to fire");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+        Assert.assertTrue("the socket timeout didn't fire", System.currentTimeMillis() - start < 2000);
+        Assert.assertEquals(1, stub.hits.get());
+        Assert.assertEquals(1L, (long) getHostMetrics().get("errors"));
+    }
+
+    @Test
+    public void retryOnIOErrorTest() throws Exception {
+        // the first attempt times out, the retry is answered right away
+        StubHandler stub = this.addStub("/timeout-once", 2000 /*delayMs*/, 200);
+        stub.delayedHits = 1;
+
+        int status = client.execute(HttpRequestType.DELETE, "/timeout-once", newParams(2 /*maxRetries*/, 200 /*socketTimeout*/), null /*entity*/, STATUS_HANDLER);
+        Assert.assertEquals(200, status);
+        Assert.assertEquals(2, stub.hits.get());
+
+        Map<String, Long> metrics = getHostMetrics();
+        Assert.assertEquals(2L, (long) metrics.get("requests"));
+        Assert.assertEquals(1L, (long) metrics.get("errors"));
+        Assert.assertEquals(1L, (long) metrics.get("retries"));
+    }
+
+    @Test
+    public void poolTimeoutNotRetriedTest() throws Exception {
+        StubHandler stub = this.addStub("/pool", 0 /*delayMs*/, 200);
+
+        // hold every connection of the route, an unconsumed response keeps its connection leased
+        int maxPerRoute = HttpConnectionManager.getClientConnectionManager().getDefaultMaxPerRoute();
+        List<CloseableHttpResponse> held = Lists.newArrayList();
+        try {
+            for (int i = 0; i < maxPerRoute; i++) {
+                held.add((CloseableHttpResponse) client.execGetRequest("/pool", newParams(0 /*maxRetries*/, 0 /*socketTimeout*/)));
+            }
+            Assert.assertEquals(maxPerRoute, stub.hits.get());
+
+            BaddataHttpParams params = newParams(2 /*maxRetries*/, 0 /*socketTimeout*/);
+            params.setConnectionPoolTimeout(100);
+            try {
+                client.execute(HttpRequestType.GET, "/pool", params, null /*entity*/, STATUS_HANDLER);
+                Assert.fail("expected the connection pool timeout");
+            } catch (ConnectionPoolTimeoutException e) {
+                // expected
+            }
+        } finally {
+            for (CloseableHttpResponse response : held) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                response.close();
+            }
+        }
+
+        // no retry of a pool timeout, it only adds to the wait
+        Assert.assertEquals(maxPerRoute, stub.hits.get());
+        Map<String, Long> metrics = getHostMetrics();
+        Assert.assertEquals(1L, (long) metrics.get("poolTimeouts"));
+        Assert.assertEquals(0L, (long) metrics.get("retries"));
+    }
+
+    @Test
+    public void executeAsyncTest() throws Exception {
+        this.addStub("/async", 0 /*delayMs*/, 200);
+        CompletableFuture<Integer> future = client.execGetRequestAsync("/async", newParams(0 /*maxRetries*/, 0 /*socketTimeout*/), STATUS_HANDLER);
+        Assert.assertEquals(200, (int) future.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void executeAsyncFailureTest() throws Exception {
+        this.addStub("/async-slow", 2000 /*delayMs*/, 200);
+        CompletableFuture<Integer> future = client.execGetRequestAsync("/async-slow", newParams(0 /*maxRetries*/, 200 /*socketTimeout*/), STATUS_HANDLER);
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            Assert.fail("expected the future to complete exceptionally");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(future.isCompletedExceptionally());
+            Assert.assertTrue("unexpected cause " + e.getCause(), e.getCause() instanceof SocketTimeoutException);
+        }
+    }
+
+    @Test
+    public void requestConfigTest() {
+        RequestConfig defaults = new BaddataHttpParams().buildRequestConfig();
+        Assert.assertEquals(RequestConfig.DEFAULT.getConnectionRequestTimeout(), defaults.getConnectionRequestTimeout());
+        Assert.assertEquals(RequestConfig.DEFAULT.getConnectTimeout(), defaults.getConnectTimeout());
+        Assert.assertEquals(RequestConfig.DEFAULT.getSocketTimeout(), defaults.getSocketTimeout());
+
+        BaddataHttpParams params = new BaddataHttpParams();
+        params.setConnectionPoolTimeout(100);
+        params.setConnectionTimeout(200);
+        params.setSocketTimeout(300);
+        RequestConfig config = params.buildRequestConfig();
+        Assert.assertEquals(100, config.getConnectionRequestTimeout());
+        Assert.assertEquals(200, config.getConnectTimeout());
+        Assert.assertEquals(300, config.getSocketTimeout());
+    }
+
+    @Test
+    public void stringRepresentationJoinsLinesTest() throws Exception {
+        // the line terminators are dropped, whatever they are
+        StringEntity entity = new StringEntity("{\"id\":1,\r\n\"name\":\"test\"\n}\r", Charset.defaultCharset());
+        Assert.assertEquals("{\"id\":1,\"name\":\"test\"}", BaddataHttpClient.getStringRepresentation(entity));
+    }
+
+    @Test
+    public void stringRepresentationUsesPlatformCharsetTest() throws Exception {
+        String content = "café";
+        StringEntity entity = new StringEntity(content, Charset.defaultCharset());
+        Assert.assertEquals(new String(content.getBytes(Charset.defaultCharset()), Charset.defaultCharset()),
+                BaddataHttpClient.getStringRepresentation(entity));
+    }
+
+    @Test
+    public void stringRepresentationOfNoEntityTest() throws Exception {
+        Assert.assertNull(BaddataHttpClient.getStringRepresentation(null));
+        Assert.assertEquals("", BaddataHttpClient.getStringRepresentation(new StringEntity("", Charset.defaultCharset())));
+    }
+
+    private StubHandler addStub(String path, long delayMs, int... statuses) {
+        StubHandler stub = new StubHandler(delayMs, statuses);
+        server.createContext(path, stub);
+        return stub;
+    }
+
+    private static BaddataHttpParams newParams(int maxRetries, int socketTimeout) {
+        BaddataHttpParams params = new BaddataHttpParams();
+        params.setMaxRetries(maxRetries);
+        // keep the tests fast
+        params.setRetryBackoffMs(1);
+        if (socketTimeout > 0) {
+            params.setSocketTimeout(socketTimeout);
+        }
+        return params;
+    }
+
+    private static Map<String, Long> getHostMetrics() {
+        return HttpClientMetrics.getInstance().getMetrics().get(HOST);
+    }
+
+    /**
+     * Answers with the statuses in order, repeating the last one. The first
+     * delayedHits requests are answered after the delay.
+     */
+    private static class StubHandler implements HttpHandler {
+        private final long delayMs;
+        private final int[] statuses;
+        private final AtomicInteger hits = new AtomicInteger(0);
+        private volatile int delayedHits = Integer.MAX_VALUE;
+
+        StubHandler(long delayMs, int... statuses) {
+            this.delayMs = delayMs;
+            this.statuses = statuses;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int hit = hits.getAndIncrement();
+            try {
+                if (delayMs > 0 && hit < delayedHits) {
+                    Thread.sleep(delayMs);
+                }
+                byte[] body = "{}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(statuses[Math.min(hit, statuses.length - 1)], body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } catch (InterruptedException | IOException e) {
+                // the server is stopping or the client gave up
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import com.baddata.api.dto.salesforce.Opportunity.OpportunityFields;
 import com.baddata.api.dto.salesforce.OpportunityFieldHistory;
 import com.baddata.api.dto.salesforce.OpportunityFieldHistory.OpportunityFieldHistoryFields;
 import com.baddata.api.dto.salesforce.summary.coverage.SfCoverageStat;
+import com.baddata.api.dto.system.AuditLogApiInfo;
 import com.baddata.api.dto.user.User;
 import com.baddata.api.query.SearchSpec;
 import com.baddata.db.DbIndex.DbIndexType;
@@ -31,6 +32,8 @@ import com.baddata.db.RangeQuery;
 import com.baddata.db.SearchQuery;
 import com.baddata.db.SortQuery;
 import com.baddata.manager.currency.CurrencyLayerManager;
+import com.baddata.manager.db.RetentionManager;
+import com.baddata.manager.db.RetentionManager.RetentionPolicy;
 import com.baddata.manager.salesforce.SalesforceDataLoadManager;
 import com.baddata.util.AppConstants;
 import com.baddata.util.DateUtil;
@@ -470,4 +473,33 @@ public class DatabaseTests extends TestBase {
     		}
     }
     
+    @Test
+    public void retentionPurgeTest() throws Exception {
+        DbIndexType indexType = DbIndexType.AUDIT_LOG_API_INFO_TYPE;
+        persistence.deleteObjectsByIndexType(indexType, null /*tenantId*/);
+        
+        //
+        // 5 batches of 10 with a distinct create time each
+        for (int i = 0; i < 5; i++) {
+            List<AuditLogApiInfo> batch = Lists.newArrayList();
+            for (int j = 0; j < 10; j++) {
+                batch.add(new AuditLogApiInfo());
+            }
+            persistence.createEntities(batch, indexType);
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(50, persistence.getNumDocsByIndex(indexType, null /*tenantId*/));
+        
+        //
+        // nothing is a day old yet
+        int numDeleted = RetentionManager.getInstance().purge(indexType, new RetentionPolicy(1 /*maxAgeDays*/, 0 /*maxDocs*/));
+        Assert.assertEquals(0, numDeleted);
+        
+        //
+        // keep the 2 latest batches
+        numDeleted = RetentionManager.getInstance().purge(indexType, new RetentionPolicy(0 /*maxAgeDays*/, 20 /*maxDocs*/));
+        Assert.assertEquals(30, numDeleted);
+        Assert.assertEquals(20, persistence.getNumDocsByIndex(indexType, null /*tenantId*/));
+    }
+    
 }
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2017 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.persistence;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.baddata.TestBase;
+import com.baddata.db.DbIndex.DbIndexType;
+import com.baddata.db.lucene.IdAllocator;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import junit.framework.Assert;
+
+public class IdAllocatorTests extends TestBase {
+
+    private static final DbIndexType INDEX_TYPE = DbIndexType.AUDIT_LOG_API_INFO_TYPE;
+    private static final int NUM_THREADS = 8;
+    // several blocks per thread so the block reservations race as well
+    private static final int IDS_PER_THREAD = 5000;
+
+    private IdAllocator idAllocator = IdAllocator.getInstance();
+
+    @Test
+    public void uniqueIdsUnderConcurrentAllocationTest() throws Exception {
+        List<List<Long>> allocated = this.allocateConcurrently();
+
+        Set<Long> ids = Sets.newHashSet();
+        for (List<Long> threadIds : allocated) {
+            Assert.assertEquals(IDS_PER_THREAD, threadIds.size());
+
+            long previous = 0;
+            for (Long id : threadIds) {
+                Assert.assertTrue("id " + id + " handed out twice", ids.add(id));
+                Assert.assertTrue("id " + id + " isn't positive", id > 0);
+                // a single caller always gets increasing ids
+                Assert.assertTrue("id " + id + " isn't after " + previous, id > previous);
+                previous = id;
+            }
+        }
+        Assert.assertEquals(NUM_THREADS * IDS_PER_THREAD, ids.size());
+    }
+
+    @Test
+    public void noReissuedIdsAfterReloadTest() throws Exception {
+        long maxId = 0;
+        for (List<Long> threadIds : this.allocateConcurrently()) {
+            for (Long id : threadIds) {
+                maxId = Math.max(maxId, id);
+            }
+        }
+
+        // reloads the sequence from the committed high-water mark
+        idAllocator.close();
+
+        for (List<Long> threadIds : this.allocateConcurrently()) {
+            for (Long id : threadIds) {
+                Assert.assertTrue("id " + id + " reissued after the reload, max was " + maxId, id > maxId);
+            }
+        }
+    }
+
+    private List<List<Long>> allocateConcurrently() throws Exception {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+        try {
+            List<Future<List<Long>>> futures = Lists.newArrayList();
+            for (int i = 0; i < NUM_THREADS; i++) {
+                futures.add(executor.submit(new Callable<List<Long>>() {
+                    @Override
+                    public List<Long> call() throws Exception {
+                        startLatch.await();
+                        List<Long> threadIds = Lists.newArrayListWithCapacity(IDS_PER_THREAD);
+                        for (int j = 0; j < IDS_PER_THREAD; j++) {
+                            threadIds.add(idAllocator.nextId(INDEX_TYPE));
+                        }
+                        return threadIds;
+                    }
+                }));
+            }
+            startLatch.countDown();
+
+            List<List<Long>> allocated = Lists.newArrayList();
+            for (Future<List<Long>> future : futures) {
+                allocated.add(future.get());
+            }
+            return allocated;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2017 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.persistence;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.baddata.TestBase;
+import com.baddata.api.dto.TypedObject;
+import com.baddata.api.dto.page.Page;
+import com.baddata.api.dto.system.AuditLogApiInfo;
+import com.baddata.api.query.SearchSpec;
+import com.baddata.db.DbIndex.DbIndexType;
+import com.baddata.db.lucene.IndexPathInfo;
+import com.baddata.db.lucene.QueryResultCache;
+import com.baddata.util.AppConstants;
+import com.google.common.collect.Lists;
+
+import junit.framework.Assert;
+
+public class QueryResultCacheTests extends TestBase {
+
+    private static final DbIndexType INDEX_TYPE = DbIndexType.AUDIT_LOG_API_INFO_TYPE;
+
+    private QueryResultCache queryResultCache = QueryResultCache.getInstance();
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        queryResultCache.clear();
+        persistence.deleteObjectsByIndexType(INDEX_TYPE, null /*tenantId*/);
+    }
+
+    @Test
+    public void invalidateOnReaderChangeTest() throws Exception {
+        IndexPathInfo indexPathInfo = new IndexPathInfo(AppConstants.LUCENE_STORE_NAME, "queryResultCacheTest");
+        Query query = new MatchAllDocsQuery();
+
+        try (RAMDirectory dir = new RAMDirectory();
+                IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new KeywordAnalyzer()))) {
+            writer.addDocument(newDocument("1"));
+            writer.commit();
+
+            DirectoryReader reader = DirectoryReader.open(writer);
+            IndexSearcher searcher = new IndexSearcher(reader);
+            String key = queryResultCache.buildKey(indexPathInfo, query, null /*sort*/, 10, 0, false /*fetchAll*/, null /*searchAfter*/);
+            Assert.assertNull(queryResultCache.get(indexPathInfo, key, searcher));
+
+            TopDocs topDocs = searcher.search(query, 10);
+            queryResultCache.put(key, searcher, topDocs.scoreDocs, (int) topDocs.totalHits, null /*next*/);
+
+            // same reader, served from the cache
+            QueryResultCache.CachedResult cached = queryResultCache.get(indexPathInfo, key, searcher);
+            Assert.assertNotNull(cached);
+            Assert.assertEquals(1, cached.getTotalHits());
+
+            // a new searcher on the unchanged reader shares the results
+            Assert.assertNotNull(queryResultCache.get(indexPathInfo, key, new IndexSearcher(reader)));
+
+            writer.addDocument(newDocument("2"));
+            writer.commit();
+            DirectoryReader newReader = DirectoryReader.openIfChanged(reader, writer);
+            Assert.assertNotNull(newReader);
+            reader.close();
+
+            // the reader changed, the cached result is dropped
+            IndexSearcher newSearcher = new IndexSearcher(newReader);
+            Assert.assertNull(queryResultCache.get(indexPathInfo, key, newSearcher));
+            // and not served again even to the old key
+            Assert.assertNull(queryResultCache.get(indexPathInfo, key, newSearcher));
+
+            Map<String, Long> metrics = queryResultCache.getMetrics().get(indexPathInfo.getFilePath());
+            Assert.assertEquals(2L, (long) metrics.get("hits"));
+            Assert.assertEquals(3L, (long) metrics.get("misses"));
+            Assert.assertEquals(1L, (long) metrics.get("invalidations"));
+
+            newReader.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void searchAfterIndexChangeTest() throws Exception {
+        List<AuditLogApiInfo> batch = Lists.newArrayList(new AuditLogApiInfo(), new AuditLogApiInfo());
+        persistence.createEntities(batch, INDEX_TYPE);
+
+        Page p = persistence.get(INDEX_TYPE, newSearchSpec());
+        Assert.assertEquals(2, p.getItems().size());
+
+        // unchanged index, the second search is a cache hit
+        String filePath = new IndexPathInfo(AppConstants.LUCENE_STORE_NAME, INDEX_TYPE).getFilePath();
+        long hits = queryResultCache.getMetrics().get(filePath).get("hits");
+        p = persistence.get(INDEX_TYPE, newSearchSpec());
+        Assert.assertEquals(2, p.getItems().size());
+        Assert.assertEquals(hits + 1, (long) queryResultCache.getMetrics().get(filePath).get("hits"));
+
+        // the new object is found once the searcher is refreshed, not the stale cached page
+        Long newId = persistence.create(new AuditLogApiInfo());
+        p = persistence.get(INDEX_TYPE, newSearchSpec());
+        Assert.assertEquals(3, p.getItems().size());
+
+        boolean found = false;
+        for (TypedObject item : (List<TypedObject>) p.getItems()) {
+            found |= newId.equals(item.getId());
+        }
+        Assert.assertTrue("object " + newId + " missing from the search results", found);
+    }
+
+    private static SearchSpec newSearchSpec() {
+        SearchSpec searchSpec = new SearchSpec(true /*getall*/);
+        searchSpec.setLimit(10);
+        return searchSpec;
+    }
+
+    private static Document newDocument(String id) {
+        Document doc = new Document();
+        doc.add(new StringField("id", id, Field.Store.YES));
+        return doc;
+    }
+}
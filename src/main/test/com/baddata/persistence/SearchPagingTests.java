@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2017 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.persistence;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.baddata.TestBase;
+import com.baddata.api.dto.TypedObject;
+import com.baddata.api.dto.page.Page;
+import com.baddata.api.dto.system.AuditLogApiInfo;
+import com.baddata.api.query.SearchSpec;
+import com.baddata.db.DbIndex.DbIndexType;
+import com.baddata.util.AppConstants;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import junit.framework.Assert;
+
+public class SearchPagingTests extends TestBase {
+
+    private static final DbIndexType INDEX_TYPE = DbIndexType.AUDIT_LOG_API_INFO_TYPE;
+    private static final int PAGE_SIZE = 300;
+    // more than a search pass, page 34 starts at 9900 and ends past the 10000 pass boundary
+    private static final int NUM_DOCS = AppConstants.MAX_SEARCH_LIMIT + 250;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        persistence.deleteObjectsByIndexType(INDEX_TYPE, null /*tenantId*/);
+        for (int i = 0; i < NUM_DOCS; i += 1000) {
+            List<AuditLogApiInfo> batch = Lists.newArrayList();
+            for (int j = i; j < Math.min(i + 1000, NUM_DOCS); j++) {
+                batch.add(new AuditLogApiInfo());
+            }
+            persistence.createEntities(batch, INDEX_TYPE);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void offsetPagesAcrossSearchPassesTest() throws Exception {
+        Assert.assertEquals(NUM_DOCS, persistence.getNumDocsByIndex(INDEX_TYPE, null /*tenantId*/));
+
+        Set<Long> ids = Sets.newHashSet();
+        int numPages = (NUM_DOCS + PAGE_SIZE - 1) / PAGE_SIZE;
+        for (int page = 1; page <= numPages; page++) {
+            SearchSpec searchSpec = new SearchSpec(true /*getall*/);
+            searchSpec.setLimit(PAGE_SIZE);
+            searchSpec.setPage(page);
+            searchSpec.setUseResultCache(false);
+
+            Page p = persistence.get(INDEX_TYPE, searchSpec);
+            int expectedSize = (page < numPages) ? PAGE_SIZE : NUM_DOCS - (numPages - 1) * PAGE_SIZE;
+            Assert.assertEquals("page " + page, expectedSize, p.getItems().size());
+
+            for (TypedObject item : (List<TypedObject>) p.getItems()) {
+                Assert.assertTrue("page " + page + " repeats object " + item.getId(), ids.add(item.getId()));
+            }
+        }
+        Assert.assertEquals(NUM_DOCS, ids.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void searchAfterAcrossDeletesAndMergeTest() throws Exception {
+        SearchSpec searchSpec = new SearchSpec(true /*getall*/);
+        searchSpec.setLimit(PAGE_SIZE);
+        searchSpec.setUseResultCache(false);
+        Page p = persistence.get(INDEX_TYPE, searchSpec);
+        Assert.assertEquals(PAGE_SIZE, p.getItems().size());
+        Assert.assertNotNull(p.getSearchAfter());
+
+        Set<Long> firstPageIds = Sets.newHashSet();
+        for (TypedObject item : (List<TypedObject>) p.getItems()) {
+            firstPageIds.add(item.getId());
+        }
+
+        // delete hits of the first page and merge, the doc ids of the later hits shift
+        List<TypedObject> toDelete = ((List<TypedObject>) p.getItems()).subList(0, 50);
+        for (TypedObject item : toDelete) {
+            persistence.delete(item);
+        }
+        persistence.forceMergeDeletes(INDEX_TYPE, null /*tenantId*/, Double.POSITIVE_INFINITY);
+        Assert.assertEquals(NUM_DOCS - toDelete.size(), persistence.getNumDocsByIndex(INDEX_TYPE, null /*tenantId*/));
+
+        Set<Long> ids = Sets.newHashSet();
+        String searchAfter = p.getSearchAfter();
+        while (searchAfter != null) {
+            searchSpec = new SearchSpec(true /*getall*/);
+            searchSpec.setLimit(PAGE_SIZE);
+            searchSpec.setSearchAfter(searchAfter);
+            searchSpec.setUseResultCache(false);
+            p = persistence.get(INDEX_TYPE, searchSpec);
+
+            for (TypedObject item : (List<TypedObject>) p.getItems()) {
+                Assert.assertFalse("object " + item.getId() + " of the first page repeated", firstPageIds.contains(item.getId()));
+                Assert.assertTrue("object " + item.getId() + " repeated", ids.add(item.getId()));
+            }
+            searchAfter = p.getSearchAfter();
+        }
+
+        // none of the hits after the first page were skipped
+        Assert.assertEquals(NUM_DOCS - PAGE_SIZE, ids.size());
+    }
+}
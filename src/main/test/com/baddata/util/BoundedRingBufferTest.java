@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2017 by Baddata.
+ * All rights reserved.
+ */
+package com.baddata.util;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import junit.framework.Assert;
+
+public class BoundedRingBufferTest {
+
+    private static final int NUM_PRODUCERS = 4;
+
+    @Test
+    public void capacityTest() {
+        Assert.assertEquals(2, new BoundedRingBuffer<Integer>(1).capacity());
+        Assert.assertEquals(8, new BoundedRingBuffer<Integer>(8).capacity());
+        Assert.assertEquals(16, new BoundedRingBuffer<Integer>(9).capacity());
+    }
+
+    @Test
+    public void fullAndEmptyWraparoundTest() {
+        BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<Integer>(4);
+        int next = 0;
+        int expected = 0;
+
+        // several laps around the ring, each one filled up and drained
+        for (int lap = 0; lap < 10; lap++) {
+            Assert.assertTrue(buffer.isEmpty());
+            Assert.assertNull(buffer.poll());
+
+            for (int i = 0; i < buffer.capacity(); i++) {
+                Assert.assertTrue(buffer.offer(next++));
+            }
+            Assert.assertEquals(buffer.capacity(), buffer.size());
+            Assert.assertFalse("offer on a full buffer", buffer.offer(-1));
+
+            // free one slot, the next offer reuses it
+            Assert.assertEquals(expected++, (int) buffer.poll());
+            Assert.assertTrue(buffer.offer(next++));
+            Assert.assertFalse(buffer.offer(-1));
+
+            List<Integer> drained = Lists.newArrayList();
+            Assert.assertEquals(buffer.capacity(), buffer.drainTo(drained, Integer.MAX_VALUE));
+            for (Integer element : drained) {
+                Assert.assertEquals(expected++, (int) element);
+            }
+            Assert.assertEquals(0, buffer.size());
+        }
+        Assert.assertNull(buffer.poll());
+    }
+
+    @Test
+    public void multipleProducersFillTest() throws Exception {
+        final BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<Integer>(64);
+
+        // no consumer, exactly the capacity gets in whatever the interleaving
+        List<Integer> accepted = runProducers(buffer, 100, false /*retryWhenFull*/);
+        int total = 0;
+        for (Integer count : accepted) {
+            total += count;
+        }
+        Assert.assertEquals(buffer.capacity(), total);
+        Assert.assertEquals(buffer.capacity(), buffer.size());
+
+        List<Integer> drained = Lists.newArrayList();
+        Assert.assertEquals(buffer.capacity(), buffer.drainTo(drained, Integer.MAX_VALUE));
+        Assert.assertTrue(buffer.isEmpty());
+        Assert.assertNull(buffer.poll());
+    }
+
+    @Test
+    public void multipleProducersWraparoundTest() throws Exception {
+        // a small ring so the producers wrap around and find it full many times
+        final BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<Integer>(8);
+        final int perProducer = 50000;
+
+        ExecutorService consumer = Executors.newSingleThreadExecutor();
+        try {
+            Future<int[]> consumed = consumer.submit(new Callable<int[]>() {
+                @Override
+                public int[] call() throws Exception {
+                    // the next sequence expected from each producer
+                    int[] nextSeq = new int[NUM_PRODUCERS];
+                    int remaining = NUM_PRODUCERS * perProducer;
+                    while (remaining > 0) {
+                        Integer element = buffer.poll();
+                        if (element == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        int producer = element / perProducer;
+                        int seq = element % perProducer;
+                        // nothing lost or duplicated, a producer's elements stay in order
+                        if (seq != nextSeq[producer]) {
+                            throw new IllegalStateException("producer " + producer + " expected " + nextSeq[producer] + " got " + seq);
+                        }
+                        nextSeq[producer]++;
+                        remaining--;
+                    }
+                    return nextSeq;
+                }
+            });
+
+            runProducers(buffer, perProducer, true /*retryWhenFull*/);
+
+            for (int count : consumed.get()) {
+                Assert.assertEquals(perProducer, count);
+            }
+            Assert.assertTrue(buffer.isEmpty());
+            Assert.assertNull(buffer.poll());
+        } finally {
+            consumer.shutdownNow();
+        }
+    }
+
+    /**
+     * Each producer offers perProducer elements, producer * perProducer + seq
+     *
+     * @return the number of elements accepted per producer
+     */
+    private static List<Integer> runProducers(final BoundedRingBuffer<Integer> buffer, final int perProducer,
+            final boolean retryWhenFull) throws Exception {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_PRODUCERS);
+        try {
+            List<Future<Integer>> futures = Lists.newArrayList();
+            for (int i = 0; i < NUM_PRODUCERS; i++) {
+                final int producer = i;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        startLatch.await();
+                        int accepted = 0;
+                        for (int seq = 0; seq < perProducer; seq++) {
+                            Integer element = producer * perProducer + seq;
+                            boolean offered = buffer.offer(element);
+                            while (!offered && retryWhenFull) {
+                                Thread.yield();
+                                offered = buffer.offer(element);
+                            }
+                            if (offered) {
+                                accepted++;
+                            }
+                        }
+                        return accepted;
+                    }
+                }));
+            }
+            startLatch.countDown();
+
+            List<Integer> accepted = Lists.newArrayList();
+            for (Future<Integer> future : futures) {
+                accepted.add(future.get());
+            }
+            return accepted;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}